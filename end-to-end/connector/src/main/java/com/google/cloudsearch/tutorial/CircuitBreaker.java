@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import java.util.logging.Logger;
+
+/**
+ * Stops calls to a failing remote for a while.
+ * <p>
+ * The outcomes of the most recent calls are kept in a sliding window.
+ * Once the share of failures in the window reaches the threshold, the
+ * circuit opens and calls are rejected without reaching the remote. After
+ * the open interval a single probe call is let through. If it succeeds
+ * the circuit closes again, otherwise it stays open for another interval.
+ */
+class CircuitBreaker {
+  /**
+   * Log output
+   */
+  private Logger log = Logger.getLogger(CircuitBreaker.class.getName());
+
+  private enum State { CLOSED, OPEN, HALF_OPEN }
+
+  private final boolean[] window;
+  private final int minCalls;
+  private final double failureRate;
+  private final long openMillis;
+
+  private State state = State.CLOSED;
+  private int next;
+  private int calls;
+  private int failures;
+  private long openedAt;
+  private boolean probing;
+
+  /**
+   * Creates a circuit breaker.
+   *
+   * @param windowSize  number of recent calls considered
+   * @param minCalls    calls needed in the window before the circuit can open
+   * @param failureRate share of failed calls, from 0 to 1, that opens the
+   *                    circuit
+   * @param openMillis  time calls are rejected before probing again
+   */
+  CircuitBreaker(int windowSize, int minCalls, double failureRate, long openMillis) {
+    this.window = new boolean[windowSize];
+    this.minCalls = minCalls;
+    this.failureRate = failureRate;
+    this.openMillis = openMillis;
+  }
+
+  /**
+   * Checks if a call may proceed. Every permitted call must be followed
+   * by {@link #record(boolean)}, or {@link #cancel()} if it never reached
+   * the remote.
+   *
+   * @return true if the call may proceed, false if it should be rejected
+   */
+  synchronized boolean allow() {
+    if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+      state = State.HALF_OPEN;
+      probing = false;
+    }
+    if (state == State.HALF_OPEN) {
+      if (probing) {
+        return false;
+      }
+      probing = true;
+      return true;
+    }
+    return state == State.CLOSED;
+  }
+
+  /**
+   * Records the outcome of a permitted call.
+   *
+   * @param failed whether the call failed
+   * @return true if this outcome opened the circuit
+   */
+  synchronized boolean record(boolean failed) {
+    if (state == State.HALF_OPEN) {
+      probing = false;
+      if (failed) {
+        open("probe call failed");
+        return true;
+      }
+      log.info("GitHub circuit closed, resuming calls");
+      state = State.CLOSED;
+      clearWindow();
+      return false;
+    }
+    if (state == State.OPEN) {
+      // Call started before the circuit opened
+      return false;
+    }
+    if (calls == window.length) {
+      failures -= window[next] ? 1 : 0;
+    } else {
+      calls++;
+    }
+    window[next] = failed;
+    failures += failed ? 1 : 0;
+    next = (next + 1) % window.length;
+    if (calls >= minCalls && failures >= calls * failureRate) {
+      open(String.format("%d of %d calls failed", failures, calls));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gives back a permitted call that never reached the remote, without
+   * recording an outcome. If it was the probe, another call may probe.
+   */
+  synchronized void cancel() {
+    if (state == State.HALF_OPEN) {
+      probing = false;
+    }
+  }
+
+  /**
+   * Checks if calls are currently being rejected.
+   *
+   * @return true unless the circuit is closed
+   */
+  synchronized boolean isOpen() {
+    return state != State.CLOSED;
+  }
+
+  private void open(String reason) {
+    log.warning(() -> String.format("GitHub circuit opened, %s. Pausing calls for %d ms",
+        reason, openMillis));
+    state = State.OPEN;
+    openedAt = System.currentTimeMillis();
+    clearWindow();
+  }
+
+  private void clearWindow() {
+    next = 0;
+    calls = 0;
+    failures = 0;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHUser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps issue and pull request items within a size budget regardless of
+ * how many comments they have.
+ * <p>
+ * The newest comments are kept as structured sub-objects, up to a count
+ * and byte budget. Older comments are folded into the text content after
+ * the body, oldest first, where they stay searchable without bloating the
+ * item metadata. The content itself is capped as well, comments that
+ * don't fit at all are dropped and counted.
+ */
+class CommentCompactor {
+  /**
+   * Estimated bytes of structure around each structured comment
+   */
+  private static final int STRUCTURE_OVERHEAD_BYTES = 32;
+
+  /**
+   * Comments of an item, split according to the budget.
+   */
+  static class Compacted {
+    private final List<Multimap<String, Object>> structured;
+    private final byte[] content;
+    private final int structuredBytes;
+    private final int folded;
+    private final int dropped;
+
+    private Compacted(List<Multimap<String, Object>> structured, byte[] content,
+                      int structuredBytes, int folded, int dropped) {
+      this.structured = structured;
+      this.content = content;
+      this.structuredBytes = structuredBytes;
+      this.folded = folded;
+      this.dropped = dropped;
+    }
+
+    /**
+     * Get the comments kept as structured data, oldest first.
+     */
+    List<Multimap<String, Object>> getStructured() {
+      return structured;
+    }
+
+    /**
+     * Get the text content: the body followed by any folded comments.
+     */
+    byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * Get the estimated size of the structured comments.
+     */
+    int getStructuredBytes() {
+      return structuredBytes;
+    }
+
+    /**
+     * Get the number of comments folded into the content.
+     */
+    int getFolded() {
+      return folded;
+    }
+
+    /**
+     * Get the number of comments left out entirely.
+     */
+    int getDropped() {
+      return dropped;
+    }
+  }
+
+  private final int maxStructured;
+  private final int maxStructuredBytes;
+  private final int maxContentBytes;
+
+  /**
+   * Creates a compactor.
+   *
+   * @param maxStructured      maximum number of comments kept structured
+   * @param maxStructuredBytes maximum estimated bytes of structured comments
+   * @param maxContentBytes    maximum bytes of text content
+   */
+  CommentCompactor(int maxStructured, int maxStructuredBytes, int maxContentBytes) {
+    this.maxStructured = maxStructured;
+    this.maxStructuredBytes = maxStructuredBytes;
+    this.maxContentBytes = maxContentBytes;
+  }
+
+  /**
+   * Splits comments between structured data and text content.
+   *
+   * @param body     body of the issue or pull request, may be null
+   * @param comments comments in the order GitHub returns them, oldest first
+   * @return compacted comments
+   * @throws IOException if unable to read a comment's author
+   */
+  Compacted compact(String body, List<GHIssueComment> comments) throws IOException {
+    // Walk back from the newest comment until the structured budget is spent
+    List<Multimap<String, Object>> structured = new ArrayList<>();
+    int structuredBytes = 0;
+    int firstStructured = comments.size();
+    while (firstStructured > 0 && structured.size() < maxStructured) {
+      GHIssueComment comment = comments.get(firstStructured - 1);
+      String text = nullToEmpty(comment.getBody());
+      String login = getLogin(comment);
+      int size = utf8Length(text) + utf8Length(nullToEmpty(login))
+          + STRUCTURE_OVERHEAD_BYTES;
+      if (structuredBytes + size > maxStructuredBytes) {
+        break;
+      }
+      Multimap<String, Object> commentData = ArrayListMultimap.create();
+      commentData.put("comment", text);
+      commentData.put("user", FieldInterner.intern(login));
+      structured.add(commentData);
+      structuredBytes += size;
+      firstStructured--;
+    }
+    Collections.reverse(structured);
+
+    // Fold everything older into the content, as far as it fits
+    StringBuilder content = new StringBuilder();
+    int contentBytes = append(content, 0, nullToEmpty(body));
+    int folded = 0;
+    for (int i = 0; i < firstStructured; i++) {
+      GHIssueComment comment = comments.get(i);
+      String entry = String.format("\n\n%s wrote:\n%s", nullToEmpty(getLogin(comment)),
+          nullToEmpty(comment.getBody()));
+      int size = utf8Length(entry);
+      if (contentBytes + size > maxContentBytes) {
+        break;
+      }
+      content.append(entry);
+      contentBytes += size;
+      folded++;
+    }
+    int dropped = firstStructured - folded;
+    if (dropped > 0) {
+      append(content, contentBytes, String.format("\n\n[%d more comments omitted]", dropped));
+    }
+    return new Compacted(structured, content.toString().getBytes(StandardCharsets.UTF_8),
+        structuredBytes, folded, dropped);
+  }
+
+  /**
+   * Appends as much of the text as fits in the content budget, without
+   * splitting a character.
+   *
+   * @return bytes of content after appending
+   */
+  private int append(StringBuilder content, int contentBytes, String text) {
+    int size = utf8Length(text);
+    if (contentBytes + size <= maxContentBytes) {
+      content.append(text);
+      return contentBytes + size;
+    }
+    int i = 0;
+    while (i < text.length()) {
+      int codePoint = text.codePointAt(i);
+      int codePointBytes = utf8Length(codePoint);
+      if (contentBytes + codePointBytes > maxContentBytes) {
+        break;
+      }
+      content.appendCodePoint(codePoint);
+      contentBytes += codePointBytes;
+      i += Character.charCount(codePoint);
+    }
+    return contentBytes;
+  }
+
+  /**
+   * Counts the bytes of a string encoded as UTF-8. Unlike Guava's Utf8,
+   * unpaired surrogates are tolerated, they encode as a single '?'.
+   */
+  private static int utf8Length(String text) {
+    int length = 0;
+    for (int i = 0; i < text.length(); ) {
+      int codePoint = text.codePointAt(i);
+      length += utf8Length(codePoint);
+      i += Character.charCount(codePoint);
+    }
+    return length;
+  }
+
+  private static int utf8Length(int codePoint) {
+    if (codePoint < 0x80
+        || (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT
+            && Character.isSurrogate((char) codePoint))) {
+      return 1;
+    }
+    return codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+  }
+
+  private static String getLogin(GHIssueComment comment) throws IOException {
+    GHUser user = comment.getUser();
+    return user != null ? user.getLogin() : null;
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent calls, adapting the limit with additive
+ * increase and multiplicative decrease (AIMD).
+ * <p>
+ * Every successful call grows the limit by {@code 1 / limit}, roughly one
+ * extra permit per round of calls. A failed call halves the limit, at most
+ * once per backoff interval so a burst of failures from calls that were
+ * all in flight together only counts once.
+ */
+class ConcurrencyLimiter {
+  /**
+   * Minimum time between two decreases of the limit
+   */
+  private static final long BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final int minLimit;
+  private final int maxLimit;
+  private double limit;
+  private int inFlight;
+  private long lastDecrease;
+
+  /**
+   * Creates a limiter.
+   *
+   * @param initialLimit initial number of concurrent calls
+   * @param minLimit     lowest the limit can drop to
+   * @param maxLimit     highest the limit can grow to
+   */
+  ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = initialLimit;
+    this.lastDecrease = System.nanoTime() - BACKOFF_NANOS;
+  }
+
+  /**
+   * Waits for a permit.
+   *
+   * @param timeoutNanos maximum time to wait
+   * @return true if a permit was acquired, false if the wait timed out
+   * @throws InterruptedException if interrupted while waiting
+   */
+  synchronized boolean acquire(long timeoutNanos) throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    while (inFlight >= (int) limit) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    inFlight++;
+    return true;
+  }
+
+  /**
+   * Returns a permit and adjusts the limit based on the outcome.
+   *
+   * @param failed whether the call failed in a way that suggests overload
+   */
+  synchronized void release(boolean failed) {
+    inFlight--;
+    if (failed) {
+      long now = System.nanoTime();
+      if (now - lastDecrease >= BACKOFF_NANOS) {
+        limit = Math.max(minLimit, limit / 2);
+        lastDecrease = now;
+      }
+    } else {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Drops the limit to the minimum, for example once the remote is known
+   * to be unavailable. It then ramps back up as calls succeed.
+   */
+  synchronized void reset() {
+    limit = minLimit;
+  }
+
+  /**
+   * Checks if there is room for another call without waiting.
+   *
+   * @return true if fewer calls than the limit are in flight
+   */
+  synchronized boolean hasCapacity() {
+    return inFlight < (int) limit;
+  }
+
+  /**
+   * Get the current limit.
+   *
+   * @return number of concurrent calls allowed
+   */
+  synchronized int getLimit() {
+    return (int) limit;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the connector's hot paths.
+ * <p>
+ * Each event times one step of a traversal: fetching a batch of IDs,
+ * processing a queued item, building an item, encoding or decoding a
+ * checkpoint, or a single GitHub API call. Recorded alongside the JVM's
+ * own events, they show whether time goes to GitHub, to building items
+ * or to uploads. Events are only recorded while a flight recording with
+ * them enabled is running, for example:
+ * <pre>
+ * java -XX:StartFlightRecording=filename=connector.jfr,settings=profile ...
+ * </pre>
+ */
+final class ConnectorEvents {
+  /**
+   * Outcome of a step that completed normally
+   */
+  static final String SUCCESS = "success";
+
+  /**
+   * Outcome of a step that threw an exception
+   */
+  static final String ERROR = "error";
+
+  private ConnectorEvents() {
+  }
+
+  /**
+   * A call to {@code getIds}, traversing a single repository.
+   */
+  @Name("com.google.cloudsearch.tutorial.GetIds")
+  @Label("Get IDs")
+  @Category({"Cloud Search", "GitHub Connector"})
+  @StackTrace(false)
+  static class GetIds extends Event {
+    @Label("Repository")
+    String repository;
+
+    @Label("Items")
+    @Description("Number of operations pushed to the queue")
+    int items;
+
+    @Label("Outcome")
+    String outcome = ERROR;
+  }
+
+  /**
+   * A call to {@code getDoc}, processing one item polled from the queue.
+   */
+  @Name("com.google.cloudsearch.tutorial.GetDoc")
+  @Label("Get Document")
+  @Category({"Cloud Search", "GitHub Connector"})
+  @StackTrace(false)
+  static class GetDoc extends Event {
+    @Label("Item Name")
+    String itemName;
+
+    @Label("Item Type")
+    String itemType;
+
+    @Label("Outcome")
+    @Description("success, deleted or error")
+    String outcome = ERROR;
+  }
+
+  /**
+   * Building the operation to index a single item.
+   */
+  @Name("com.google.cloudsearch.tutorial.IndexItem")
+  @Label("Index Item")
+  @Category({"Cloud Search", "GitHub Connector"})
+  @StackTrace(false)
+  static class IndexItem extends Event {
+    @Label("Item Type")
+    String itemType;
+
+    @Label("Repository")
+    String repository;
+
+    @Label("Content Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    @Description("indexed, notModified or error")
+    String outcome = ERROR;
+
+    /**
+     * Starts timing an item.
+     *
+     * @param itemType   object type of the item
+     * @param repository repository the item belongs to
+     * @return the started event
+     */
+    static IndexItem start(String itemType, String repository) {
+      IndexItem event = new IndexItem();
+      event.begin();
+      event.itemType = itemType;
+      event.repository = repository;
+      return event;
+    }
+
+    /**
+     * Ends and records the event.
+     *
+     * @param outcome outcome of building the item
+     * @param bytes   size of the item's content
+     */
+    void finish(String outcome, long bytes) {
+      this.outcome = outcome;
+      this.bytes = bytes;
+      commit();
+    }
+  }
+
+  /**
+   * Encoding or decoding a traversal checkpoint.
+   */
+  @Name("com.google.cloudsearch.tutorial.Checkpoint")
+  @Label("Checkpoint")
+  @Category({"Cloud Search", "GitHub Connector"})
+  @StackTrace(false)
+  static class Checkpoint extends Event {
+    @Label("Operation")
+    @Description("encode or decode")
+    String operation;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    String outcome = ERROR;
+  }
+
+  /**
+   * A single GitHub API call, including any hedged attempt.
+   */
+  @Name("com.google.cloudsearch.tutorial.GithubCall")
+  @Label("GitHub Call")
+  @Category({"Cloud Search", "GitHub Connector"})
+  static class GithubCall extends Event {
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Hedged")
+    @Description("Whether a second attempt was issued")
+    boolean hedged;
+
+    @Label("Outcome")
+    @Description("success, rejected, timeout or error")
+    String outcome = ERROR;
+  }
+}
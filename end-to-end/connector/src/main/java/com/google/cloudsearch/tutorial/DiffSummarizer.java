@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reduces a unified diff to indexable text: the list of changed files
+ * followed by the lines each file adds.
+ * <p>
+ * The diff is parsed line by line as it streams in, so memory use is
+ * bounded by the output caps no matter how large the pull request is.
+ * Added lines are capped per file and in total, and long lines are cut
+ * short. Once the caps are reached the rest of the diff is only scanned
+ * for file names, and once the file list is full as well reading stops.
+ */
+class DiffSummarizer {
+  /**
+   * Longest line kept, longer lines are truncated
+   */
+  private static final int MAX_LINE_BYTES = 4096;
+
+  private static final byte[] FILE_HEADER = bytes("diff --git ");
+  private static final byte[] NEW_NAME = bytes(" b/");
+  private static final byte[] ADDED_FILE_HEADER = bytes("+++");
+
+  /**
+   * Text summary of a diff.
+   */
+  static class Summary {
+    private final byte[] content;
+    private final int files;
+    private final boolean truncated;
+
+    private Summary(byte[] content, int files, boolean truncated) {
+      this.content = content;
+      this.files = files;
+      this.truncated = truncated;
+    }
+
+    /**
+     * Get the changed file list and added lines, as UTF-8.
+     */
+    byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * Get the number of changed files seen.
+     */
+    int getFiles() {
+      return files;
+    }
+
+    /**
+     * Check if anything was left out to stay within the caps.
+     */
+    boolean isTruncated() {
+      return truncated;
+    }
+  }
+
+  private final int maxFileBytes;
+  private final int maxBytes;
+
+  /**
+   * Creates a summarizer.
+   *
+   * @param maxFileBytes maximum bytes of added lines kept per file
+   * @param maxBytes     maximum bytes of the whole summary
+   */
+  DiffSummarizer(int maxFileBytes, int maxBytes) {
+    this.maxFileBytes = maxFileBytes;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Reads a unified diff and summarizes it. The stream is not closed.
+   *
+   * @param diff diff in git's unified format
+   * @return summary of the diff
+   * @throws IOException if unable to read the diff
+   */
+  Summary summarize(InputStream diff) throws IOException {
+    LineReader lines = new LineReader(diff);
+    ByteArrayOutputStream fileList = new ByteArrayOutputStream();
+    ByteArrayOutputStream added = new ByteArrayOutputStream();
+    int files = 0;
+    int fileBytes = 0;
+    boolean truncated = false;
+    while (lines.next()) {
+      byte[] line = lines.buffer;
+      int length = lines.length;
+      if (startsWith(line, length, FILE_HEADER)) {
+        files++;
+        fileBytes = 0;
+        int name = lastIndexOf(line, length, NEW_NAME);
+        int start = name >= 0 ? name + NEW_NAME.length : FILE_HEADER.length;
+        if (fileList.size() + length - start + 1 > maxBytes) {
+          // Nothing more can be kept, skip the rest of the diff
+          truncated = true;
+          break;
+        }
+        fileList.write(line, start, length - start);
+        fileList.write('\n');
+      } else if (length > 0 && line[0] == '+' && !startsWith(line, length, ADDED_FILE_HEADER)) {
+        int keep = Math.min(length - 1,
+            Math.min(maxFileBytes - fileBytes, maxBytes - added.size() - 1));
+        if (keep < length - 1 || lines.truncated) {
+          truncated = true;
+        }
+        keep = characterBoundary(line, 1, keep);
+        if (keep > 0) {
+          added.write(line, 1, keep);
+          added.write('\n');
+          fileBytes += keep + 1;
+        }
+      }
+    }
+
+    // File list first, then as many added lines as still fit
+    ByteArrayOutputStream content = new ByteArrayOutputStream(
+        Math.min(maxBytes, fileList.size() + added.size() + 1));
+    fileList.writeTo(content);
+    int remaining = maxBytes - content.size() - 1;
+    if (added.size() > 0 && remaining > 0) {
+      byte[] addedBytes = added.toByteArray();
+      int keep = Math.min(addedBytes.length, remaining);
+      if (keep < addedBytes.length) {
+        truncated = true;
+        keep = characterBoundary(addedBytes, 0, keep);
+      }
+      content.write('\n');
+      content.write(addedBytes, 0, keep);
+    } else if (added.size() > 0) {
+      truncated = true;
+    }
+    return new Summary(content.toByteArray(), files, truncated);
+  }
+
+  /**
+   * Shortens a UTF-8 byte range so it doesn't end in the middle of a
+   * character.
+   *
+   * @return length of the range ending on a character boundary
+   */
+  private static int characterBoundary(byte[] bytes, int offset, int length) {
+    if (length <= 0) {
+      return 0;
+    }
+    int end = offset + length;
+    int lead = end - 1;
+    while (lead > offset && end - lead < 4 && (bytes[lead] & 0xC0) == 0x80) {
+      lead--;
+    }
+    int first = bytes[lead] & 0xFF;
+    int needed = first >= 0xF0 ? 4 : first >= 0xE0 ? 3 : first >= 0xC0 ? 2 : 1;
+    return end - lead < needed ? lead - offset : length;
+  }
+
+  private static boolean startsWith(byte[] line, int length, byte[] prefix) {
+    if (length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (line[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int lastIndexOf(byte[] line, int length, byte[] target) {
+    for (int i = length - target.length; i >= 0; i--) {
+      int j = 0;
+      while (j < target.length && line[i + j] == target[j]) {
+        j++;
+      }
+      if (j == target.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads lines into a fixed buffer, dropping whatever doesn't fit.
+   */
+  private static class LineReader {
+    private final InputStream in;
+    private final byte[] input = new byte[8192];
+    private int position;
+    private int limit;
+    final byte[] buffer = new byte[MAX_LINE_BYTES];
+    int length;
+    boolean truncated;
+
+    LineReader(InputStream in) {
+      this.in = in;
+    }
+
+    /**
+     * Reads the next line, without its line terminator.
+     *
+     * @return false at the end of the stream
+     */
+    boolean next() throws IOException {
+      length = 0;
+      truncated = false;
+      boolean any = false;
+      while (true) {
+        if (position == limit) {
+          limit = in.read(input);
+          position = 0;
+          if (limit <= 0) {
+            limit = 0;
+            return any;
+          }
+        }
+        any = true;
+        byte b = input[position++];
+        if (b == '\n') {
+          if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+          }
+          return true;
+        }
+        if (length < buffer.length) {
+          buffer[length++] = b;
+        } else {
+          truncated = true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Shares instances of structured data values that repeat across many
+ * items, such as organization and repository names, user logins, labels
+ * and statuses.
+ * <p>
+ * Values are held weakly, so an interned value is released once no queued
+ * or in-flight item refers to it anymore. Only short values are interned;
+ * long ones are unlikely to repeat and would just bloat the table.
+ */
+final class FieldInterner {
+  /**
+   * Longest value worth interning
+   */
+  private static final int MAX_LENGTH = 128;
+
+  private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+  private FieldInterner() {
+  }
+
+  /**
+   * Get the shared instance of a value.
+   *
+   * @param value value to intern, may be null
+   * @return canonical instance equal to the value, or the value itself if
+   * null or too long to intern
+   */
+  static String intern(String value) {
+    if (value == null || value.length() > MAX_LENGTH) {
+      return value;
+    }
+    return INTERNER.intern(value);
+  }
+}
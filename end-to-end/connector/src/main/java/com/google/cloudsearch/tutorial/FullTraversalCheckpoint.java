@@ -24,42 +24,68 @@ import com.google.api.client.util.Key;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Checkpoint state for full traversals. For this connector,
  * a single GitHub repository is considered a unit of work. The checkpoint
- * contains the list of repositories still to be indexed.
+ * contains the list of repositories already indexed.
  * <p>
  * The checkpoint reduces the amount of work that needs to be retried
  * in the event of an error. Instead of resuming the traversal from the
- * beginning, traversal is resumed after the last successful repository
- * to be indexed.
+ * beginning, repositories already indexed are skipped when the scan
+ * for repositories is restarted.
+ * <p>
+ * The checkpoint also carries the root tree SHA last indexed for each
+ * repository. These survive between traversals so that file changes can be
+ * detected by diffing trees rather than re-listing every directory.
  */
 public class FullTraversalCheckpoint extends GenericJson {
   private static JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
 
   /**
-   * List of repositories remaining to be indexed.
+   * List of repositories indexed so far in the current traversal.
+   */
+  @Key
+  private List<String> completedRepositories;
+
+  /**
+   * Root tree SHA of the default branch as of the last traversal, keyed
+   * by repository name.
    */
   @Key
-  private List<String> remainingRepositories;
+  private Map<String, String> treeShas;
+
+  /**
+   * Time each repository was last traversed, in milliseconds since the
+   * epoch, keyed by repository name.
+   */
+  @Key
+  private Map<String, Long> lastTraversed;
 
   /**
    * Default constructor for JSON deserializaton.
    */
   public FullTraversalCheckpoint() {
-    this(Collections.emptyList());
+    this(null, new HashMap<>(), new HashMap<>());
   }
 
   /**
-   * Creates a checkpoint saving the list of repositories yet to be indexed.
+   * Creates a checkpoint saving the list of repositories already indexed.
    *
-   * @param remainingRepositories List of repos
+   * @param completedRepositories List of repos, or null if the traversal
+   *                              is complete
+   * @param treeShas              Last indexed tree SHA for each repository
+   * @param lastTraversed         Last traversal time for each repository
    */
-  public FullTraversalCheckpoint(List<String> remainingRepositories) {
-    this.remainingRepositories = remainingRepositories;
+  public FullTraversalCheckpoint(List<String> completedRepositories,
+                                 Map<String, String> treeShas,
+                                 Map<String, Long> lastTraversed) {
+    this.completedRepositories = completedRepositories;
+    this.treeShas = treeShas;
+    this.lastTraversed = lastTraversed;
   }
 
   /**
@@ -70,18 +96,52 @@ public class FullTraversalCheckpoint extends GenericJson {
    * @throws IOException if unable to decode
    */
   public static FullTraversalCheckpoint fromBytes(byte[] bytes) throws IOException {
+    ConnectorEvents.Checkpoint event = new ConnectorEvents.Checkpoint();
+    event.begin();
+    event.operation = "decode";
+    event.bytes = bytes.length;
     try(InputStream input = new ByteArrayInputStream(bytes)) {
-      return JSON_FACTORY.fromInputStream(input, FullTraversalCheckpoint.class);
+      FullTraversalCheckpoint checkpoint = JSON_FACTORY.fromInputStream(input,
+          FullTraversalCheckpoint.class);
+      event.outcome = ConnectorEvents.SUCCESS;
+      return checkpoint;
+    } finally {
+      event.commit();
+    }
+  }
+
+  /**
+   * Get the list of repositories already indexed.
+   *
+   * @return list of repos in the form {org}/{repository}, or null if no
+   * traversal is in progress
+   */
+  public List<String> getCompletedRepositories() {
+    return completedRepositories;
+  }
+
+  /**
+   * Get the last indexed tree SHAs.
+   *
+   * @return map of repository name to root tree SHA
+   */
+  public Map<String, String> getTreeShas() {
+    if (treeShas == null) {
+      treeShas = new HashMap<>();
     }
+    return treeShas;
   }
 
   /**
-   * Get the list of repositories to index.
+   * Get the last traversal times.
    *
-   * @return list of repos in the form {org}/{repository}
+   * @return map of repository name to time in milliseconds since the epoch
    */
-  public List<String> getRemainingRepositories() {
-    return remainingRepositories;
+  public Map<String, Long> getLastTraversed() {
+    if (lastTraversed == null) {
+      lastTraversed = new HashMap<>();
+    }
+    return lastTraversed;
   }
 
   /**
@@ -91,6 +151,16 @@ public class FullTraversalCheckpoint extends GenericJson {
    * @throws IOException if unable to encode the checkpoint.
    */
   public byte[] toBytes() throws IOException {
-    return JSON_FACTORY.toByteArray(this);
+    ConnectorEvents.Checkpoint event = new ConnectorEvents.Checkpoint();
+    event.begin();
+    event.operation = "encode";
+    try {
+      byte[] bytes = JSON_FACTORY.toByteArray(this);
+      event.bytes = bytes.length;
+      event.outcome = ConnectorEvents.SUCCESS;
+      return bytes;
+    } finally {
+      event.commit();
+    }
   }
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.io.ByteSource;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Bare local mirror of a git repository.
+ * <p>
+ * The mirror is cloned on first use and kept current with incremental
+ * fetches. Trees and blobs are then read straight from the local pack
+ * files, so enumerating and reading files doesn't consume any GitHub API
+ * quota.
+ */
+class GitMirror implements Closeable {
+  /**
+   * Log output
+   */
+  private Logger log = Logger.getLogger(GitMirror.class.getName());
+
+  private final String remoteUri;
+  private final File directory;
+  private final CredentialsProvider credentials;
+  private Repository repository;
+
+  /**
+   * Creates a mirror. Nothing is read or fetched until first use.
+   *
+   * @param remoteUri   URI of the repository to mirror, any URI supported
+   *                    by git including local paths
+   * @param directory   local directory to hold the bare mirror
+   * @param credentials credentials for the remote, or null if not required
+   */
+  GitMirror(String remoteUri, File directory, CredentialsProvider credentials) {
+    this.remoteUri = remoteUri;
+    this.directory = directory;
+    this.credentials = credentials;
+  }
+
+  /**
+   * Brings the mirror up to date with the remote, cloning it first if
+   * it doesn't exist locally yet.
+   *
+   * @throws IOException if unable to clone or fetch
+   */
+  synchronized void update() throws IOException {
+    try {
+      if (!new File(directory, Constants.HEAD).exists()) {
+        log.info(() -> String.format("Cloning %s into %s", remoteUri, directory));
+        closeRepository();
+        Git.cloneRepository()
+            .setURI(remoteUri)
+            .setDirectory(directory)
+            .setBare(true)
+            .setCredentialsProvider(credentials)
+            .call()
+            .close();
+      } else {
+        log.info(() -> String.format("Fetching %s into %s", remoteUri, directory));
+        try (Git git = new Git(getRepository())) {
+          git.fetch()
+              .setRemote(remoteUri)
+              .setRefSpecs(new RefSpec("+refs/heads/*:refs/heads/*"))
+              .setRemoveDeletedRefs(true)
+              .setCredentialsProvider(credentials)
+              .call();
+        }
+      }
+    } catch (GitAPIException e) {
+      throw new IOException(String.format("Unable to update mirror of %s", remoteUri), e);
+    }
+  }
+
+  /**
+   * Get the default branch, as advertised by the remote when cloned.
+   *
+   * @return short branch name
+   * @throws IOException if unable to read the mirror
+   */
+  String getDefaultBranch() throws IOException {
+    Ref head = getRepository().exactRef(Constants.HEAD);
+    if (head == null || !head.isSymbolic()) {
+      throw new IOException(String.format("No default branch in mirror of %s", remoteUri));
+    }
+    return Repository.shortenRefName(head.getTarget().getName());
+  }
+
+  /**
+   * Get the root tree of a branch.
+   *
+   * @param branch short branch name
+   * @return SHA of the root tree
+   * @throws IOException if the branch doesn't exist or can't be read
+   */
+  String getTreeSha(String branch) throws IOException {
+    return resolveTree(branch).name();
+  }
+
+  /**
+   * Reads the immediate entries of a tree. Submodules are skipped.
+   *
+   * @param sha SHA of the tree to read
+   * @return tree entries
+   * @throws IOException if unable to read the tree
+   */
+  List<TreeDiff.TreeEntry> readTree(String sha) throws IOException {
+    List<TreeDiff.TreeEntry> entries = new ArrayList<>();
+    try (TreeWalk walk = new TreeWalk(getRepository())) {
+      walk.addTree(ObjectId.fromString(sha));
+      walk.setRecursive(false);
+      while (walk.next()) {
+        FileMode mode = walk.getFileMode(0);
+        if (mode == FileMode.GITLINK) {
+          continue;
+        }
+        entries.add(new TreeDiff.TreeEntry(walk.getNameString(),
+            walk.getObjectId(0).name(), mode == FileMode.TREE));
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Looks up a file in a branch. The returned file streams its content
+   * directly from the pack files.
+   *
+   * @param organization owner of the repository
+   * @param repository   name of the repository, without the owner
+   * @param branch       short branch name
+   * @param path         path of the file
+   * @return file
+   * @throws FileNotFoundException if the file doesn't exist in the branch
+   * @throws IOException           if unable to read the mirror
+   */
+  RepositoryFile getFile(String organization, String repository, String branch, String path)
+      throws IOException {
+    Repository repo = getRepository();
+    ObjectId tree = resolveTree(branch);
+    try (TreeWalk walk = TreeWalk.forPath(repo, path, tree)) {
+      if (walk == null || walk.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+        throw new FileNotFoundException(String.format("Unable to find %s in %s", path,
+            remoteUri));
+      }
+      ObjectId blob = walk.getObjectId(0);
+      long size;
+      try (ObjectReader reader = repo.newObjectReader()) {
+        size = reader.getObjectSize(blob, Constants.OBJ_BLOB);
+      }
+      // Encoded like the URLs GitHub returns, items are named after the path
+      String htmlUrl = "https://github.com" + ItemNames.blobName(
+          String.format("/%s/%s", organization, repository), branch, path);
+      ByteSource content = new ByteSource() {
+        @Override
+        public InputStream openStream() throws IOException {
+          return repo.open(blob, Constants.OBJ_BLOB).openStream();
+        }
+      };
+      return new RepositoryFile(organization, repository, path, blob.name(), size, htmlUrl,
+          content);
+    }
+  }
+
+  /**
+   * Closes the local repository.
+   */
+  @Override
+  public synchronized void close() {
+    closeRepository();
+  }
+
+  private ObjectId resolveTree(String branch) throws IOException {
+    Repository repo = getRepository();
+    ObjectId commit = repo.resolve(Constants.R_HEADS + branch);
+    if (commit == null) {
+      throw new FileNotFoundException(String.format("Unable to find branch %s in %s", branch,
+          remoteUri));
+    }
+    try (RevWalk walk = new RevWalk(repo)) {
+      RevCommit revCommit = walk.parseCommit(commit);
+      return revCommit.getTree().getId();
+    }
+  }
+
+  private synchronized Repository getRepository() throws IOException {
+    if (repository == null) {
+      if (!new File(directory, Constants.HEAD).exists()) {
+        update();
+      }
+      repository = new FileRepositoryBuilder()
+          .setGitDir(directory)
+          .setBare()
+          .build();
+    }
+    return repository;
+  }
+
+  private void closeRepository() {
+    if (repository != null) {
+      repository.close();
+      repository = null;
+    }
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.kohsuke.github.HttpException;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs GitHub API reads with per-endpoint deadlines, hedging and load
+ * shedding.
+ * <p>
+ * Each call names the endpoint it hits, and the latency of successful
+ * calls is tracked per endpoint. A call still running past the endpoint's
+ * 95th percentile latency is hedged: the same request is issued again and
+ * whichever response arrives first wins. Hedges draw from a budget that
+ * refills at a fixed fraction of the API rate limit, so hedging can never
+ * eat more than that share of the quota. A call running past the
+ * endpoint's deadline fails with a timeout.
+ * <p>
+ * When GitHub degrades, calls back off instead of piling on. Concurrency
+ * is capped by an adaptive limit that halves on server errors and
+ * timeouts and grows back as calls succeed. If errors persist, a circuit
+ * breaker rejects calls outright until a probe call succeeds.
+ * <p>
+ * Only idempotent reads should be run through here.
+ */
+class GithubCalls implements Closeable {
+  /**
+   * Log output
+   */
+  private Logger log = Logger.getLogger(GithubCalls.class.getName());
+
+  /**
+   * Number of recent latency samples kept per endpoint
+   */
+  private static final int SAMPLES = 256;
+
+  /**
+   * Samples needed before an endpoint is hedged
+   */
+  private static final int MIN_SAMPLES = 20;
+
+  /**
+   * How often, in samples, the hedge delay is recomputed
+   */
+  private static final int RECOMPUTE_INTERVAL = 16;
+
+  private static final double HEDGE_PERCENTILE = 0.95;
+
+  /**
+   * A GitHub API read.
+   *
+   * @param <T> type of the result
+   */
+  interface Call<T> {
+    T call() throws IOException;
+  }
+
+  /**
+   * Latency and outcome statistics for an endpoint.
+   */
+  private static class Endpoint {
+    final long deadlineNanos;
+    final long[] samples = new long[SAMPLES];
+    int count;
+    int next;
+    volatile long hedgeDelayNanos;
+    final AtomicLong calls = new AtomicLong();
+    final AtomicLong hedges = new AtomicLong();
+    final AtomicLong hedgeWins = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+
+    Endpoint(long deadlineNanos) {
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    synchronized void record(long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % SAMPLES;
+      count = Math.min(count + 1, SAMPLES);
+      if (count >= MIN_SAMPLES && next % RECOMPUTE_INTERVAL == 0) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        hedgeDelayNanos = sorted[Math.min(count - 1, (int) (count * HEDGE_PERCENTILE))];
+      }
+    }
+  }
+
+  private final Map<String, Long> deadlineMillis;
+  private final long defaultDeadlineMillis;
+  private final boolean hedging;
+  private final double hedgesPerNano;
+  private final double maxHedgeTokens;
+  private final ConcurrencyLimiter limiter;
+  private final CircuitBreaker breaker;
+  private final AtomicLong rejected = new AtomicLong();
+  private final ExecutorService executor;
+  private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+  private double hedgeTokens;
+  private long lastRefill = System.nanoTime();
+
+  /**
+   * Creates the call runner.
+   *
+   * @param deadlineMillis        deadline per endpoint
+   * @param defaultDeadlineMillis deadline for endpoints not listed
+   * @param hedging               whether to hedge slow calls
+   * @param rateLimitPerHour      API requests allowed per hour
+   * @param hedgeFraction         share of the rate limit hedges may use
+   * @param limiter               limits concurrent calls
+   * @param breaker               rejects calls while GitHub is failing
+   */
+  GithubCalls(Map<String, Long> deadlineMillis, long defaultDeadlineMillis, boolean hedging,
+              int rateLimitPerHour, double hedgeFraction, ConcurrencyLimiter limiter,
+              CircuitBreaker breaker) {
+    this.limiter = limiter;
+    this.breaker = breaker;
+    this.deadlineMillis = deadlineMillis;
+    this.defaultDeadlineMillis = defaultDeadlineMillis;
+    this.hedging = hedging;
+    double hedgesPerHour = rateLimitPerHour * hedgeFraction;
+    this.hedgesPerNano = hedgesPerHour / TimeUnit.HOURS.toNanos(1);
+    // Allow bursts of up to a minute's worth of hedges
+    this.maxHedgeTokens = Math.max(1, hedgesPerHour / 60);
+    this.hedgeTokens = maxHedgeTokens;
+    this.executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("github-call-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Runs a call, waiting at most the endpoint's deadline including any
+   * time spent waiting for a concurrency permit.
+   *
+   * @param endpoint name of the endpoint, used for deadlines and statistics
+   * @param call     the read to perform
+   * @param <T>      type of the result
+   * @return result of whichever attempt completed first
+   * @throws SocketTimeoutException if the deadline passed
+   * @throws IOException            if the call failed or was rejected
+   */
+  <T> T call(String endpoint, Call<T> call) throws IOException {
+    return call(endpoint, call, true);
+  }
+
+  /**
+   * Runs a call, optionally without hedging. Calls that stream large
+   * responses, or consume them as they arrive, shouldn't be hedged, since
+   * a hedge doubles the transfer and both attempts would run to the end.
+   *
+   * @param endpoint  name of the endpoint, used for deadlines and statistics
+   * @param call      the read to perform
+   * @param hedgeable whether the call may be hedged
+   * @param <T>       type of the result
+   * @return result of whichever attempt completed first
+   * @throws SocketTimeoutException if the deadline passed
+   * @throws IOException            if the call failed or was rejected
+   */
+  <T> T call(String endpoint, Call<T> call, boolean hedgeable) throws IOException {
+    ConnectorEvents.GithubCall event = new ConnectorEvents.GithubCall();
+    event.begin();
+    event.endpoint = endpoint;
+    try {
+      T result = limited(endpoint, call, hedgeable, event);
+      event.outcome = ConnectorEvents.SUCCESS;
+      return result;
+    } finally {
+      event.commit();
+    }
+  }
+
+  private <T> T limited(String endpoint, Call<T> call, boolean hedgeable,
+                        ConnectorEvents.GithubCall event) throws IOException {
+    Endpoint stats = endpoints.computeIfAbsent(endpoint, name -> new Endpoint(
+        TimeUnit.MILLISECONDS.toNanos(deadlineMillis.getOrDefault(name, defaultDeadlineMillis))));
+    stats.calls.incrementAndGet();
+    long start = System.nanoTime();
+    if (!breaker.allow()) {
+      rejected.incrementAndGet();
+      event.outcome = "rejected";
+      throw new IOException(String.format("GitHub %s call rejected, circuit is open", endpoint));
+    }
+    // Neither a permit timeout nor an interrupt says anything about GitHub,
+    // so the call is given back to the breaker without an outcome
+    boolean acquired = false;
+    try {
+      acquired = limiter.acquire(stats.deadlineNanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted calling GitHub %s", endpoint));
+    } finally {
+      if (!acquired) {
+        breaker.cancel();
+      }
+    }
+    if (!acquired) {
+      stats.timeouts.incrementAndGet();
+      event.outcome = "timeout";
+      throw new SocketTimeoutException(String.format(
+          "GitHub %s call timed out waiting for a concurrency permit", endpoint));
+    }
+    boolean failed = true;
+    try {
+      T result = hedged(endpoint, stats, start, call, hedgeable, event);
+      failed = false;
+      return result;
+    } catch (IOException | RuntimeException e) {
+      failed = isOverload(e);
+      throw e;
+    } finally {
+      limiter.release(failed);
+      if (breaker.record(failed)) {
+        limiter.reset();
+      }
+    }
+  }
+
+  private <T> T hedged(String endpoint, Endpoint stats, long start, Call<T> call,
+                       boolean hedgeable, ConnectorEvents.GithubCall event) throws IOException {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    AtomicInteger attempts = new AtomicInteger(1);
+    Future<?> primary = attempt(stats, call, result, attempts, false);
+    Future<?> hedge = null;
+    try {
+      long hedgeDelay = stats.hedgeDelayNanos;
+      long hedgeAt = hedgeDelay - (System.nanoTime() - start);
+      if (hedging && hedgeable && hedgeDelay > 0 && hedgeAt > 0
+          && hedgeDelay < stats.deadlineNanos) {
+        try {
+          return result.get(hedgeAt, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          // Never hedge while shedding load
+          if (limiter.hasCapacity() && tryAcquireHedge()) {
+            stats.hedges.incrementAndGet();
+            event.hedged = true;
+            attempts.incrementAndGet();
+            hedge = attempt(stats, call, result, attempts, true);
+          }
+        }
+      }
+      long remaining = stats.deadlineNanos - (System.nanoTime() - start);
+      return result.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      stats.timeouts.incrementAndGet();
+      event.outcome = "timeout";
+      throw new SocketTimeoutException(String.format("GitHub %s call timed out after %d ms",
+          endpoint, TimeUnit.NANOSECONDS.toMillis(stats.deadlineNanos)));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted calling GitHub %s", endpoint));
+    } finally {
+      primary.cancel(true);
+      if (hedge != null) {
+        hedge.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Logs latency and hedging statistics per endpoint.
+   */
+  void logStats() {
+    log.info(() -> String.format("GitHub concurrency limit=%d circuitOpen=%s rejected=%d",
+        limiter.getLimit(), breaker.isOpen(), rejected.get()));
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      Endpoint stats = entry.getValue();
+      log.info(() -> String.format("GitHub %s calls=%d p95Ms=%d hedges=%d hedgeWins=%d"
+              + " timeouts=%d", entry.getKey(), stats.calls.get(),
+          TimeUnit.NANOSECONDS.toMillis(stats.hedgeDelayNanos), stats.hedges.get(),
+          stats.hedgeWins.get(), stats.timeouts.get()));
+    }
+  }
+
+  /**
+   * Abandons any calls still running.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private <T> Future<?> attempt(Endpoint stats, Call<T> call, CompletableFuture<T> result,
+                                AtomicInteger attempts, boolean isHedge) {
+    return executor.submit(() -> {
+      long start = System.nanoTime();
+      try {
+        T value = call.call();
+        stats.record(System.nanoTime() - start);
+        if (result.complete(value) && isHedge) {
+          stats.hedgeWins.incrementAndGet();
+        }
+      } catch (IOException | RuntimeException e) {
+        // Only fail once no other attempt can still succeed
+        if (attempts.decrementAndGet() == 0) {
+          result.completeExceptionally(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Checks if a failure indicates GitHub is overloaded or unavailable,
+   * as opposed to a problem with the request itself such as a missing
+   * item.
+   */
+  private static boolean isOverload(Exception e) {
+    if (e instanceof HttpException) {
+      int code = ((HttpException) e).getResponseCode();
+      return code >= 500 || code == 429;
+    }
+    return e instanceof IOException && !(e instanceof FileNotFoundException);
+  }
+
+  private synchronized boolean tryAcquireHedge() {
+    long now = System.nanoTime();
+    hedgeTokens = Math.min(maxHedgeTokens, hedgeTokens + (now - lastRefill) * hedgesPerNano);
+    lastRefill = now;
+    if (hedgeTokens < 1) {
+      return false;
+    }
+    hedgeTokens--;
+    return true;
+  }
+}
@@ -59,12 +59,110 @@ import com.google.enterprise.cloudsearch.sdk.indexing.template.Repository;
  * # values with commas.
  * github.repos=googleworkspace/md2googleslides
  *
+ * # Filters for repositories found in organizations. Organizations are
+ * # scanned concurrently and traversal starts as soon as the first
+ * # repository is found. Setting topics switches to the search API, which
+ * # applies the filters server side but returns at most 1000 repositories.
+ * # By default every repository is indexed, including archived and empty
+ * # ones.
+ * github.scan.skipArchived=false
+ * github.scan.skipForks=false
+ * github.scan.skipEmpty=false
+ * github.scan.namePattern=.*
+ * github.scan.topics=
+ * github.scan.threads=4
+ *
  * # Login name of the user to authorize as when using the GitHub API
  * github.user=sqrrrl
  *
  * # Personal access token for GitHub. See https://github.com/settings/tokens
  * # for more information.
  * github.token=abc123
+ *
+ * # Optional directory for local mirrors of the repositories. When set,
+ * # files are enumerated and read from the mirrors, which are kept up to
+ * # date with git fetch, rather than through the GitHub API.
+ * github.mirror.directory=/var/lib/github-connector/mirrors
+ *
+ * # Optional prefetching of changed items ahead of indexing. Threads reading
+ * # from GitHub, maximum items held, and the memory and disk budgets for
+ * # spooled file content. Items beyond maxItems aren't prefetched. The
+ * # budgets cover content waiting in the spool, not documents waiting for
+ * # upload. Set threads to 0 (default) to disable.
+ * github.prefetch.threads=4
+ * github.prefetch.maxItems=1000
+ * github.prefetch.memoryMegabytes=64
+ * github.prefetch.diskMegabytes=1024
+ * github.prefetch.directory=/tmp
+ * github.prefetch.ttlMinutes=30
+ *
+ * # Optional webhook receiver for near real-time updates. Configure a
+ * # webhook in GitHub for push, issues, issue_comment and pull_request
+ * # events pointing at http://host:port/webhook with the same secret.
+ * # Changes to an item within the coalescing window are pushed once.
+ * github.webhook.port=8080
+ * github.webhook.path=/webhook
+ * github.webhook.secret=s3cr3t
+ * github.webhook.coalesceSeconds=5
+ *
+ * # Optional file remembering the last indexed state of each item. Items
+ * # known to be unchanged are not pushed to the queue at all. Delete the
+ * # file to force every item to be pushed again.
+ * github.stateStore.path=item-state.db
+ *
+ * # Deadline for GitHub API reads, optionally overridden per endpoint
+ * # (repository, issue, pullRequest, comments, directory, tree,
+ * # treeRecursive). Reads slower than the endpoint's 95th percentile
+ * # are retried in parallel, using at most the given share of the rate
+ * # limit.
+ * github.deadlineSeconds=30
+ * github.deadlineSeconds.comments=60
+ * github.hedge.enabled=true
+ * github.hedge.budgetPercent=5
+ *
+ * # Transport for GitHub API requests. By default a shared pool of
+ * # keep-alive connections with gzip compression is used. HTTP/2 can be
+ * # enabled to multiplex requests over fewer connections.
+ * github.http.pooled=true
+ * github.http.maxConnections=16
+ * github.http.keepAliveSeconds=300
+ * github.http.http2=false
+ *
+ * # Load shedding when GitHub degrades. Concurrent calls start at the
+ * # initial limit, halve on server errors or timeouts and grow back as
+ * # calls succeed. When the share of failed calls among the most recent
+ * # ones reaches the threshold, calls are rejected for a while.
+ * github.concurrency.initial=8
+ * github.concurrency.min=1
+ * github.concurrency.max=32
+ * github.circuit.windowSize=50
+ * github.circuit.minCalls=10
+ * github.circuit.failureRatePercent=50
+ * github.circuit.openSeconds=30
+ *
+ * # Size budget for issues and pull requests. The newest comments are
+ * # indexed as structured data, older ones are folded into the content,
+ * # which is capped as well.
+ * github.comments.maxStructured=50
+ * github.comments.maxStructuredKilobytes=256
+ * github.comments.maxContentKilobytes=4096
+ *
+ * # Index the diff of each pull request as the list of changed files
+ * # followed by the added lines, capped per file and per pull request.
+ * github.diff.enabled=true
+ * github.diff.maxFileKilobytes=64
+ * github.diff.maxKilobytes=1024
+ *
+ * # Render issue, pull request and repository descriptions as well as
+ * # Markdown files to HTML, so headings and code keep their structure.
+ * github.markdown.enabled=true
+ *
+ * # Record all GitHub API traffic to an archive, or replay a recorded
+ * # archive instead of calling GitHub. Replayed responses are delayed by
+ * # the given percentage of their recorded latency, 0 for no delay.
+ * github.traffic.mode=off
+ * github.traffic.archive=github-traffic.bin
+ * github.traffic.latencyPercent=100
  * </pre>
  */
 public class GithubConnector {
@@ -22,8 +22,13 @@ import com.google.api.client.http.InputStreamContent;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.cloudsearch.v1.model.Item;
 import com.google.api.services.cloudsearch.v1.model.PushItem;
+import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
 import com.google.common.primitives.Longs;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterable;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterableImpl;
@@ -36,30 +41,45 @@ import com.google.enterprise.cloudsearch.sdk.indexing.IndexingItemBuilder;
 import com.google.enterprise.cloudsearch.sdk.indexing.IndexingItemBuilder.FieldOrValue;
 import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
 import com.google.enterprise.cloudsearch.sdk.indexing.template.*;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.kohsuke.github.GHContent;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHIssueComment;
 import org.kohsuke.github.GHIssueState;
 import org.kohsuke.github.GHLabel;
-import org.kohsuke.github.GHOrganization;
 import org.kohsuke.github.GHPullRequest;
 import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHTree;
+import org.kohsuke.github.GHTreeEntry;
 import org.kohsuke.github.GitHub;
 import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.HttpConnector;
 import org.kohsuke.github.HttpException;
+import org.kohsuke.github.extras.ImpatientHttpConnector;
 
 import javax.activation.FileTypeMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -86,12 +106,123 @@ public class GithubRepository implements Repository {
    */
   private GitHub github;
 
+  /**
+   * GitHub API endpoints called through {@link GithubCalls}, each with its
+   * own deadline.
+   */
+  private static final List<String> ENDPOINTS = Arrays.asList("repository", "issue",
+      "pullRequest", "comments", "directory", "tree", "treeRecursive", "diff");
+
+  /**
+   * Attempts at fetching a pull request diff before indexing without it
+   */
+  private static final int DIFF_ATTEMPTS = 2;
+
   /**
    * Regex to parse GitHub URL paths.
    */
   private Pattern githubPathPattern = Pattern.compile(
       "/([^/]+/[^/]+)/?(issues|pull|blob/[^/]+|tree/[^/]+)?/?(.*)");
 
+  /**
+   * Directory holding local mirrors of the repositories. When set, file
+   * content is read from the mirrors instead of the GitHub API.
+   */
+  private File mirrorDirectory;
+
+  /**
+   * Credentials used to fetch into the local mirrors
+   */
+  private CredentialsProvider mirrorCredentials;
+
+  /**
+   * Local mirrors, keyed by repository name
+   */
+  private Map<String, GitMirror> mirrors = new ConcurrentHashMap<>();
+
+  /**
+   * Criteria for repositories found when scanning organizations
+   */
+  private RepositoryScanner.Filter scanFilter;
+
+  /**
+   * Number of organizations to scan concurrently
+   */
+  private int scanThreads;
+
+  /**
+   * Scan feeding the traversal in progress, if any
+   */
+  private RepositoryScanner scanner;
+
+  /**
+   * Fetches items ahead of getDoc, null if prefetching is disabled
+   */
+  private PrefetchPipeline prefetch;
+
+  /**
+   * Receives GitHub webhook deliveries, null if not enabled
+   */
+  private WebhookReceiver webhooks;
+
+  /**
+   * Last accepted state of each item, null if not enabled
+   */
+  private ItemStateStore itemStates;
+
+  /**
+   * Runs GitHub reads with deadlines and hedging
+   */
+  private GithubCalls calls;
+
+  /**
+   * Pooled transport for the GitHub client, null if using the default
+   */
+  private PooledHttpConnector httpConnector;
+
+  /**
+   * Records GitHub traffic to an archive, null unless recording
+   */
+  private RecordingHttpConnector trafficRecorder;
+
+  /**
+   * Keeps issues and pull requests with many comments within size limits
+   */
+  private CommentCompactor commentCompactor;
+
+  /**
+   * Summarizes pull request diffs, null if diffs aren't indexed
+   */
+  private DiffSummarizer diffSummarizer;
+
+  /**
+   * Whether to render Markdown bodies and files to HTML
+   */
+  private boolean renderMarkdown;
+
+  /**
+   * Transport used by the GitHub client, reused to stream diffs
+   */
+  private HttpConnector githubConnector = HttpConnector.DEFAULT;
+
+  /**
+   * Authorization header for requests made outside the GitHub client
+   */
+  private String githubAuthorization;
+
+  /**
+   * Issue or pull request read by the prefetch pipeline, along with
+   * its comments.
+   */
+  private static class PrefetchedIssue {
+    final GHIssue issue;
+    final List<GHIssueComment> comments;
+
+    PrefetchedIssue(GHIssue issue, List<GHIssueComment> comments) {
+      this.issue = issue;
+      this.comments = comments;
+    }
+  }
 
   GithubRepository() {
   }
@@ -100,7 +231,8 @@ public class GithubRepository implements Repository {
    * Initializes the connection to GitHub as well as the list
    * of repositories to index.
    *
-   * @param context the {@link RepositoryContext}, not used here
+   * @param context the {@link RepositoryContext}, used to push changes
+   *                received from webhooks
    */
   @Override
   public void init(RepositoryContext context) throws StartupException {
@@ -119,8 +251,60 @@ public class GithubRepository implements Repository {
     ConfigValue<String> token = Configuration.getString(
         "github.token", null);
 
+    ConfigValue<String> mirrors = Configuration.getString(
+        "github.mirror.directory", "");
+
+    ConfigValue<Integer> prefetchThreads = Configuration.getInteger(
+        "github.prefetch.threads", 0);
+
+    ConfigValue<Integer> webhookPort = Configuration.getInteger(
+        "github.webhook.port", 0);
+
+    ConfigValue<String> stateStore = Configuration.getString(
+        "github.stateStore.path", "");
+
+    ConfigValue<Integer> deadlineSeconds = Configuration.getInteger(
+        "github.deadlineSeconds", 30);
+
+    ConfigValue<Boolean> hedging = Configuration.getBoolean(
+        "github.hedge.enabled", true);
+
+    ConfigValue<Integer> hedgeBudgetPercent = Configuration.getInteger(
+        "github.hedge.budgetPercent", 5);
+
+    ConfigValue<Boolean> pooledHttp = Configuration.getBoolean(
+        "github.http.pooled", true);
+
+    ConfigValue<String> trafficMode = Configuration.getString(
+        "github.traffic.mode", "off");
+
+    ConfigValue<String> trafficArchive = Configuration.getString(
+        "github.traffic.archive", "");
+
     this.githubOrganizations = repos.get();
 
+    this.commentCompactor = new CommentCompactor(
+        Configuration.getInteger("github.comments.maxStructured", 50).get(),
+        Configuration.getInteger("github.comments.maxStructuredKilobytes", 256).get() * 1024,
+        Configuration.getInteger("github.comments.maxContentKilobytes", 4096).get() * 1024);
+
+    this.renderMarkdown = Configuration.getBoolean("github.markdown.enabled", true).get();
+
+    if (Configuration.getBoolean("github.diff.enabled", true).get()) {
+      this.diffSummarizer = new DiffSummarizer(
+          Configuration.getInteger("github.diff.maxFileKilobytes", 64).get() * 1024,
+          Configuration.getInteger("github.diff.maxKilobytes", 1024).get() * 1024);
+    }
+
+    this.scanFilter = new RepositoryScanner.Filter(
+        Configuration.getBoolean("github.scan.skipArchived", false).get(),
+        Configuration.getBoolean("github.scan.skipForks", false).get(),
+        Configuration.getBoolean("github.scan.skipEmpty", false).get(),
+        Pattern.compile(Configuration.getString("github.scan.namePattern", ".*").get()),
+        Configuration.getMultiValue("github.scan.topics", Collections.emptyList(),
+            Configuration.STRING_PARSER).get());
+    this.scanThreads = Configuration.getInteger("github.scan.threads", 4).get();
+
     if (this.githubOrganizations.isEmpty()) {
       throw new InvalidConfigurationException(
           "No repositories configured. Set 'github.repos' in the configuration" +
@@ -140,31 +324,129 @@ public class GithubRepository implements Repository {
               " 'github.token' in the configuration to a valid github account.");
     }
 
+    if (!mirrors.get().trim().isEmpty()) {
+      mirrorDirectory = new File(mirrors.get().trim());
+      mirrorCredentials = new UsernamePasswordCredentialsProvider(
+          user.get().trim(), token.get().trim());
+      log.info(() -> String.format("Reading file content from local mirrors in %s",
+          mirrorDirectory));
+    }
+
+    if (prefetchThreads.get() > 0) {
+      int maxItems = Configuration.getInteger("github.prefetch.maxItems", 1000).get();
+      long memoryBytes = Configuration.getInteger(
+          "github.prefetch.memoryMegabytes", 64).get() * 1024L * 1024L;
+      long diskBytes = Configuration.getInteger(
+          "github.prefetch.diskMegabytes", 1024).get() * 1024L * 1024L;
+      File spoolDirectory = new File(Configuration.getString(
+          "github.prefetch.directory", System.getProperty("java.io.tmpdir")).get());
+      long ttlMillis = TimeUnit.MINUTES.toMillis(Configuration.getInteger(
+          "github.prefetch.ttlMinutes", 30).get());
+      prefetch = new PrefetchPipeline(this::fetch, prefetchThreads.get(), maxItems,
+          memoryBytes, diskBytes, spoolDirectory, ttlMillis);
+    }
+
+    if (!stateStore.get().trim().isEmpty()) {
+      try {
+        itemStates = ItemStateStore.open(Paths.get(stateStore.get().trim()));
+      } catch (IOException e) {
+        throw new StartupException("Unable to open item state store", e);
+      }
+      log.info(() -> String.format("Loaded state of %d items", itemStates.size()));
+    }
+
+    // Deadlines can be overridden per endpoint, for example
+    // github.deadlineSeconds.comments=60
+    Map<String, Long> deadlines = new HashMap<>();
+    for (String endpoint : ENDPOINTS) {
+      deadlines.put(endpoint, TimeUnit.SECONDS.toMillis(Configuration.getInteger(
+          "github.deadlineSeconds." + endpoint, deadlineSeconds.get()).get()));
+    }
+    int timeoutMillis = (int) Math.max(Collections.max(deadlines.values()),
+        TimeUnit.SECONDS.toMillis(deadlineSeconds.get()));
+
     if (github == null ) {
+      // Socket timeouts bound the threads left behind by abandoned calls
+      HttpConnector connector;
+      if (pooledHttp.get()) {
+        httpConnector = new PooledHttpConnector(
+            Configuration.getInteger("github.http.maxConnections", 16).get(),
+            TimeUnit.SECONDS.toMillis(
+                Configuration.getInteger("github.http.keepAliveSeconds", 300).get()),
+            timeoutMillis,
+            timeoutMillis,
+            Configuration.getBoolean("github.http.http2", false).get());
+        connector = httpConnector;
+      } else {
+        connector = new ImpatientHttpConnector(HttpConnector.DEFAULT, timeoutMillis,
+            timeoutMillis);
+      }
+      connector = withTrafficArchive(connector, trafficMode.get().trim(),
+          trafficArchive.get().trim());
+      githubConnector = connector;
+      githubAuthorization = "Basic " + BaseEncoding.base64().encode(
+          String.format("%s:%s", user.get().trim(), token.get().trim())
+              .getBytes(StandardCharsets.UTF_8));
       try {
         github = new GitHubBuilder()
             .withPassword(user.get().trim(), token.get().trim())
+            .withConnector(connector)
             .build();
       } catch (IOException e) {
         throw new InvalidConfigurationException("Unable to connect to GitHub", e);
       }
     }
 
+    int rateLimit;
     try {
       // Validate connection
       github.getMyself();
+      rateLimit = github.getRateLimit().limit;
     } catch (IOException e) {
       throw new InvalidConfigurationException("Unable to connect to GitHub", e);
     }
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+        Configuration.getInteger("github.concurrency.initial", 8).get(),
+        Configuration.getInteger("github.concurrency.min", 1).get(),
+        Configuration.getInteger("github.concurrency.max", 32).get());
+    CircuitBreaker breaker = new CircuitBreaker(
+        Configuration.getInteger("github.circuit.windowSize", 50).get(),
+        Configuration.getInteger("github.circuit.minCalls", 10).get(),
+        Configuration.getInteger("github.circuit.failureRatePercent", 50).get() / 100.0,
+        TimeUnit.SECONDS.toMillis(
+            Configuration.getInteger("github.circuit.openSeconds", 30).get()));
+    calls = new GithubCalls(deadlines, TimeUnit.SECONDS.toMillis(deadlineSeconds.get()),
+        hedging.get(), rateLimit, hedgeBudgetPercent.get() / 100.0, limiter, breaker);
+
+    if (webhookPort.get() > 0) {
+      String secret = Configuration.getString("github.webhook.secret", "").get();
+      if (secret.trim().isEmpty()) {
+        throw new InvalidConfigurationException(
+            "No webhook secret configured. Set 'github.webhook.secret'" +
+                " to the secret configured for the webhook in GitHub.");
+      }
+      String path = Configuration.getString("github.webhook.path", "/webhook").get();
+      long coalesceMillis = TimeUnit.SECONDS.toMillis(Configuration.getInteger(
+          "github.webhook.coalesceSeconds", 5).get());
+      try {
+        webhooks = new WebhookReceiver(webhookPort.get(), path, secret.trim(),
+            coalesceMillis, operation -> context.postAsyncOperation(
+                new AsyncApiOperation(operation)));
+        webhooks.start();
+      } catch (IOException e) {
+        throw new StartupException("Unable to start webhook receiver", e);
+      }
+    }
   }
 
   // [START cloud_search_tutorial_get_ids]
   /**
    * Gets all of the existing item IDs from the data repository. While
    * multiple repositories are supported, only one repository is traversed
-   * per call. The remaining repositories are saved in the checkpoint
-   * are traversed on subsequent calls. This minimizes the amount of
-   * data that needs to be reindex in the event of an error.
+   * per call. Repositories are streamed from a background scan of the
+   * configured organizations, and the repositories already traversed are
+   * saved in the checkpoint. This minimizes the amount of data that needs
+   * to be reindex in the event of an error.
    *
    * <p>This method is called by {@link ListingConnector#traverse()} during
    * <em>full traversals</em>. Every document ID and metadata hash value in
@@ -188,57 +470,106 @@ public class GithubRepository implements Repository {
   @Override
   public CheckpointCloseableIterable<ApiOperation> getIds(byte[] checkpoint)
       throws RepositoryException {
+    ConnectorEvents.GetIds event = new ConnectorEvents.GetIds();
+    event.begin();
+    try {
+      CheckpointCloseableIterable<ApiOperation> ids = traverseNextRepository(checkpoint, event);
+      event.outcome = ConnectorEvents.SUCCESS;
+      return ids;
+    } finally {
+      event.commit();
+    }
+  }
+
+  /**
+   * Traverses the next repository not yet traversed, if any.
+   *
+   * @param checkpoint value defined and maintained by this connector
+   * @param event      event to record the repository and item count in
+   * @return operations pushing the repository's items
+   */
+  private CheckpointCloseableIterable<ApiOperation> traverseNextRepository(byte[] checkpoint,
+      ConnectorEvents.GetIds event) throws RepositoryException {
     // [START cloud_search_github_tutorial_decode_checkpoint]
-    List<String> repositories;
-    // Decode the checkpoint if present to get the list of remaining
-    // repositories to index.
+    FullTraversalCheckpoint state = new FullTraversalCheckpoint();
+    // Decode the checkpoint if present to get the list of repositories
+    // already indexed.
     if (checkpoint != null) {
       try {
-        FullTraversalCheckpoint decodedCheckpoint = FullTraversalCheckpoint
-            .fromBytes(checkpoint);
-        repositories = decodedCheckpoint.getRemainingRepositories();
+        state = FullTraversalCheckpoint.fromBytes(checkpoint);
       } catch (IOException e) {
         throw new RepositoryException.Builder()
             .setErrorMessage("Unable to deserialize checkpoint")
             .setCause(e)
             .build();
       }
-    } else {
-      // No previous checkpoint, scan for repositories to index
-      // based on the connector configuration.
-      try {
-        repositories = scanRepositories();
-      } catch (IOException e) {
-        throw toRepositoryError(e, Optional.of("Unable to scan repositories"));
-      }
+    }
+    List<String> completed = state.getCompletedRepositories();
+    if (completed == null) {
+      // No traversal in progress, start a new scan for repositories
+      // to index based on the connector configuration.
+      completed = new ArrayList<>();
+      closeScanner();
+    }
+    if (scanner == null) {
+      // Starting or resuming a traversal, skip anything already done
+      scanner = new RepositoryScanner(github, githubOrganizations, scanFilter,
+          new HashSet<>(completed), scanThreads);
+      scanner.start();
     }
     // [END cloud_search_github_tutorial_decode_checkpoint]
 
-    if (repositories.isEmpty()) {
-      // Nothing left to index. Reset the checkpoint to null so the
-      // next full traversal starts from the beginning
-      Collection<ApiOperation> empty = Collections.emptyList();
-      return new CheckpointCloseableIterableImpl.Builder<>(empty)
-          .setCheckpoint((byte[]) null)
-          .setHasMore(false)
-          .build();
+    String repositoryToIndex;
+    try {
+      repositoryToIndex = scanner.next();
+    } catch (IOException e) {
+      closeScanner();
+      throw toRepositoryError(e, Optional.of("Unable to scan repositories"));
     }
 
-    // Still have more repositories to index. Pop the next repository to
-    // index off the list. The remaining repositories make up the next
-    // checkpoint.
-    String repositoryToIndex = repositories.get(0);
-    repositories = repositories.subList(1, repositories.size());
+    if (repositoryToIndex == null) {
+      // Nothing left to index. Clear the completed repositories so the
+      // next full traversal starts from the beginning, but keep the
+      // tree SHAs to diff against.
+      closeScanner();
+      Collection<ApiOperation> empty = Collections.emptyList();
+      if (prefetch != null) {
+        prefetch.logStats();
+      }
+      calls.logStats();
+      try {
+        FullTraversalCheckpoint newCheckpoint = new FullTraversalCheckpoint(null,
+            state.getTreeShas(), state.getLastTraversed());
+        return new CheckpointCloseableIterableImpl.Builder<>(empty)
+            .setCheckpoint(newCheckpoint.toBytes())
+            .setHasMore(false)
+            .build();
+      } catch (IOException e) {
+        throw toRepositoryError(e, Optional.of("Unable to serialize checkpoint"));
+      }
+    }
 
+    // Still have more repositories to index. The completed repositories,
+    // including this one, make up the next checkpoint.
+    if (itemStates != null) {
+      itemStates.flush();
+    }
     try {
       log.info(() -> String.format("Traversing repository %s", repositoryToIndex));
-      Collection<ApiOperation> items = collectRepositoryItems(repositoryToIndex);
-      FullTraversalCheckpoint newCheckpoint = new FullTraversalCheckpoint(repositories);
+      event.repository = repositoryToIndex;
+      Collection<ApiOperation> items = collectRepositoryItems(repositoryToIndex, state);
+      event.items = items.size();
+      completed.add(repositoryToIndex);
+      FullTraversalCheckpoint newCheckpoint = new FullTraversalCheckpoint(completed,
+          state.getTreeShas(), state.getLastTraversed());
       return new CheckpointCloseableIterableImpl.Builder<>(items)
           .setHasMore(true)
           .setCheckpoint(newCheckpoint.toBytes())
           .build();
     } catch (IOException e) {
+      // The scanner has already handed this repository out. Rescan on
+      // retry so it comes back; only completed repositories are skipped.
+      closeScanner();
       String errorMessage = String.format("Unable to traverse repo: %s",
           repositoryToIndex);
       throw toRepositoryError(e, Optional.of(errorMessage));
@@ -263,18 +594,35 @@ public class GithubRepository implements Repository {
   @Override
   public ApiOperation getDoc(Item item) throws RepositoryException {
     log.info(() -> String.format("Processing item: %s ", item.getName()));
+    ConnectorEvents.GetDoc event = new ConnectorEvents.GetDoc();
+    event.begin();
+    event.itemName = item.getName();
     Object githubObject;
+    PrefetchPipeline.Fetched fetched = prefetch == null ? null : prefetch.take(item.getName());
     try {
-      // Retrieve the item from GitHub
-      githubObject = getGithubObject(item.getName());
+      // Retrieve the item from GitHub, unless already fetched ahead of time
+      githubObject = fetched != null ? fetched.getValue() : getGithubObject(item.getName());
+      List<GHIssueComment> comments = null;
+      if (githubObject instanceof PrefetchedIssue) {
+        comments = ((PrefetchedIssue) githubObject).comments;
+        githubObject = ((PrefetchedIssue) githubObject).issue;
+      }
+      ApiOperation operation;
       if (githubObject instanceof GHRepository) {
-        return indexItem((GHRepository) githubObject, item);
+        event.itemType = "repository";
+        operation = indexItem((GHRepository) githubObject, item);
       } else if (githubObject instanceof GHPullRequest) {
-        return indexItem((GHPullRequest) githubObject, item);
+        event.itemType = "pullRequest";
+        operation = indexItem((GHPullRequest) githubObject, comments, item);
       } else if (githubObject instanceof GHIssue) {
-        return indexItem((GHIssue) githubObject, item);
+        event.itemType = "issue";
+        operation = indexItem((GHIssue) githubObject, comments, item);
       } else if (githubObject instanceof GHContent) {
-        return indexItem((GHContent) githubObject, item);
+        event.itemType = "file";
+        operation = indexItem((GHContent) githubObject, item);
+      } else if (githubObject instanceof RepositoryFile) {
+        event.itemType = "file";
+        operation = indexItem((RepositoryFile) githubObject, item);
       } else {
         String errorMessage = String.format("Unexpected item received: %s",
             item.getName());
@@ -283,17 +631,62 @@ public class GithubRepository implements Repository {
             .setErrorType(RepositoryException.ErrorType.UNKNOWN)
             .build();
       }
+      event.outcome = ConnectorEvents.SUCCESS;
+      return operation;
     } catch (FileNotFoundException e) {
       log.info(() -> String.format("Deleting item: %s ", item.getName()));
+      if (itemStates != null) {
+        itemStates.remove(item.getName());
+      }
+      event.outcome = "deleted";
       return ApiOperations.deleteItem(item.getName());
     } catch (IOException e) {
       String errorMessage = String.format("Unable to retrieve item: %s",
           item.getName());
       throw toRepositoryError(e, Optional.of(errorMessage));
+    } finally {
+      if (fetched != null) {
+        fetched.discard();
+      }
+      event.commit();
     }
   }
   // [END cloud_search_tutorial_get_doc]
 
+  /**
+   * Fetches an item ahead of time for the prefetch pipeline. Issue
+   * comments and file content are read eagerly, since that's where
+   * most of the time goes.
+   *
+   * @param name     Path portion of a github URL
+   * @param pipeline Pipeline to spool file content into
+   * @return Fetched item
+   * @throws IOException if unable to read item
+   */
+  private PrefetchPipeline.Fetched fetch(String name, PrefetchPipeline pipeline)
+      throws IOException {
+    Object githubObject = getGithubObject(name);
+    if (githubObject instanceof GHIssue) {
+      GHIssue issue = (GHIssue) githubObject;
+      return new PrefetchPipeline.Fetched(
+          new PrefetchedIssue(issue, calls.call("comments", issue::getComments)), null);
+    } else if (githubObject instanceof GHContent) {
+      GHContent content = (GHContent) githubObject;
+      PrefetchPipeline.SpooledContent spooled = pipeline.spool(content.read(),
+          content.getSize());
+      RepositoryFile file = new RepositoryFile(
+          content.getOwner().getOwnerName(),
+          content.getOwner().getName(),
+          content.getPath(),
+          content.getSha(),
+          content.getSize(),
+          content.getHtmlUrl(),
+          spooled);
+      return new PrefetchPipeline.Fetched(file, spooled);
+    }
+    return new PrefetchPipeline.Fetched(githubObject, null);
+  }
+
   /**
    * Retrieves an item from the GitHub API based on the path. Expects paths
    * in any of the following forms:
@@ -304,7 +697,8 @@ public class GithubRepository implements Repository {
    * </ul>
    *
    * @param path Path portion of a github URL
-   * @return Item from GitHub (either GHObject subclass or GHContent)
+   * @return Item from GitHub (either GHObject subclass or GHContent), or
+   * a RepositoryFile if reading content from local mirrors
    * @throws FileNotFoundException if item no longer exists
    * @throws IOException           if unable to read item
    */
@@ -317,16 +711,31 @@ public class GithubRepository implements Repository {
     }
 
     String repoName = matcher.group(1);
-    String type = matcher.group(2);
-    String id = matcher.group(3);
+    String type;
+    String id;
+    try {
+      // File names are percent-encoded like their GitHub URLs
+      boolean isFile = matcher.group(2) != null && matcher.group(2).startsWith("blob/");
+      type = isFile ? ItemNames.decodePath(matcher.group(2)) : matcher.group(2);
+      id = isFile ? ItemNames.decodePath(matcher.group(3)) : matcher.group(3);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(String.format("Invalid file path: %s", path), e);
+    }
 
-    GHRepository repo = github.getRepository(repoName);
+    if (mirrorDirectory != null && type != null && type.startsWith("blob/")) {
+      // Read straight from the local mirror, no API calls needed
+      String[] owner = repoName.split("/");
+      String branch = type.substring("blob/".length());
+      return getMirror(repoName).getFile(owner[0], owner[1], branch, id);
+    }
+
+    GHRepository repo = calls.call("repository", () -> github.getRepository(repoName));
     if (type == null) {
       return repo;
     } else if (type.equals("issues")) {
-      return repo.getIssue(Integer.parseInt(id));
+      return calls.call("issue", () -> repo.getIssue(Integer.parseInt(id)));
     } else if (type.equals("pull")) {
-      return repo.getPullRequest(Integer.parseInt(id));
+      return calls.call("pullRequest", () -> repo.getPullRequest(Integer.parseInt(id)));
     } else if (type.startsWith("blob/")) {
       // This is a bit of a hack to work around GitHub API limitations.
       // Fetch a content item directly is limited to items < 1mb in size.
@@ -338,7 +747,8 @@ public class GithubRepository implements Repository {
           0,
           dirComponents.length - 1);
       String parentPath = String.join("/", parentComponents);
-      List<GHContent> files = repo.getDirectoryContent(parentPath);
+      List<GHContent> files = calls.call("directory",
+          () -> repo.getDirectoryContent(parentPath));
       for (GHContent f : files) {
         if (f.getPath().equals(id)) {
           return f;
@@ -362,10 +772,13 @@ public class GithubRepository implements Repository {
    */
   private ApiOperation indexItem(GHRepository repo, Item previousItem)
       throws IOException {
+    ConnectorEvents.IndexItem event = ConnectorEvents.IndexItem.start("repository",
+        repo.getFullName());
     String metadataHash = repo.getUpdatedAt().toString();
 
     // If previously indexed and unchanged, just requeue as unmodified
     if (canSkipIndexing(previousItem, metadataHash)) {
+      event.finish("notModified", 0);
       return notModified(previousItem.getName());
     }
 
@@ -401,32 +814,36 @@ public class GithubRepository implements Repository {
         .setHash(metadataHash)
         .build();
 
-    // TODO - Render markdown to HTML?
-    AbstractInputStreamContent content = new ByteArrayContent(
-        "text/plain",
-        repo.getDescription().getBytes(StandardCharsets.UTF_8));
-    return new RepositoryDoc.Builder()
+    RepositoryDoc.Builder docBuilder = new RepositoryDoc.Builder()
         .setItem(item)
-        .setRequestMode(IndexingService.RequestMode.SYNCHRONOUS)
-        .setContent(content, IndexingService.ContentFormat.TEXT)
-        .setRequestMode(IndexingService.RequestMode.SYNCHRONOUS)
-        .build();
+        .setRequestMode(IndexingService.RequestMode.SYNCHRONOUS);
+    long contentBytes = setMarkdownContent(docBuilder,
+        Strings.nullToEmpty(repo.getDescription()).getBytes(StandardCharsets.UTF_8), null);
+    RepositoryDoc doc = docBuilder.build();
+    event.finish("indexed", contentBytes);
+    return recordOnSuccess(doc, resourceName, metadataHash, repo.getUpdatedAt().getTime());
   }
 
   /**
    * Build the ApiOperation to index a pull request.
    *
    * @param pullRequest  Pull request to index
+   * @param comments     Comments if already fetched, null to fetch them
    * @param previousItem Previous item state in the index
    * @return ApiOperation (RepositoryDoc if indexing,  PushItem if not modified)
    * @throws IOException if unable to create operation
    */
-  private ApiOperation indexItem(GHPullRequest pullRequest, Item previousItem)
+  private ApiOperation indexItem(GHPullRequest pullRequest,
+                                 List<GHIssueComment> comments, Item previousItem)
       throws IOException {
-    String metadataHash = pullRequest.getUpdatedAt().toString();
+    ConnectorEvents.IndexItem event = ConnectorEvents.IndexItem.start("pullRequest",
+        pullRequest.getRepository().getFullName());
+    // Same hash as pushed in collectIssues
+    String metadataHash = Long.toHexString(pullRequest.getUpdatedAt().getTime());
 
     // If previously indexed and unchanged, just requeue as unmodified
     if (canSkipIndexing(previousItem, metadataHash)) {
+      event.finish("notModified", 0);
       return notModified(previousItem.getName());
     }
 
@@ -442,26 +859,30 @@ public class GithubRepository implements Repository {
 
     // Structured data based on the schema
     Multimap<String, Object> structuredData = ArrayListMultimap.create();
-    structuredData.put("organization", pullRequest.getRepository().getOwnerName());
-    structuredData.put("repository", pullRequest.getRepository().getName());
-    structuredData.put("status", pullRequest.getState().name().toLowerCase());
+    structuredData.put("organization",
+        FieldInterner.intern(pullRequest.getRepository().getOwnerName()));
+    structuredData.put("repository", FieldInterner.intern(pullRequest.getRepository().getName()));
+    structuredData.put("status", FieldInterner.intern(pullRequest.getState().name().toLowerCase()));
     structuredData.put("openedBy", pullRequest.getUser() != null ?
-        pullRequest.getUser().getLogin() : null);
+        FieldInterner.intern(pullRequest.getUser().getLogin()) : null);
     structuredData.put("assignee", pullRequest.getAssignee() != null ?
-        pullRequest.getAssignee().getLogin() : null);
+        FieldInterner.intern(pullRequest.getAssignee().getLogin()) : null);
     for (GHLabel label : pullRequest.getLabels()) {
-      structuredData.put("labels", label.getName());
+      structuredData.put("labels", FieldInterner.intern(label.getName()));
     }
 
-    // Index comments as sub objects in the metadata. This makes the comments
-    // searchable but still tied to the issue itself.
-    for (GHIssueComment comment : pullRequest.getComments()) {
-      Multimap<String, Object> commentData = ArrayListMultimap.create();
-      commentData.put("comment", comment.getBody());
-      commentData.put("user", comment.getUser() != null ?
-          comment.getUser().getLogin() : null);
+    // Index the newest comments as sub objects in the metadata. This makes
+    // the comments searchable but still tied to the issue itself. Older
+    // comments are folded into the content to keep the item size bounded.
+    if (comments == null) {
+      comments = calls.call("comments", pullRequest::getComments);
+    }
+    CommentCompactor.Compacted compacted = commentCompactor.compact(pullRequest.getBody(),
+        comments);
+    for (Multimap<String, Object> commentData : compacted.getStructured()) {
       structuredData.put("comments", commentData);
     }
+    logItemSize(resourceName, comments.size(), compacted);
     structuredData.put("createdAt", pullRequest.getCreatedAt());
     structuredData.put("updatedAt", pullRequest.getUpdatedAt());
 
@@ -478,32 +899,110 @@ public class GithubRepository implements Repository {
         .setHash(metadataHash)
         .build();
 
-    // TODO - Index the actual patch/diff?
-    // TODO - Render markdown to HTML
-    AbstractInputStreamContent content = new ByteArrayContent(
-        "text/plain",
-        pullRequest.getBody().getBytes(StandardCharsets.UTF_8));
-    return new RepositoryDoc.Builder()
+    // Index the changed files and added lines after the description
+    DiffSummarizer.Summary diff = summarizeDiff(pullRequest);
+    if (diff != null) {
+      log.info(() -> String.format("Pull request %s changes %d files, diff summary %d bytes%s",
+          resourceName, diff.getFiles(), diff.getContent().length,
+          diff.isTruncated() ? " (truncated)" : ""));
+    }
+
+    RepositoryDoc.Builder docBuilder = new RepositoryDoc.Builder()
         .setItem(item)
-        .setContent(content, IndexingService.ContentFormat.TEXT)
-        .setRequestMode(IndexingService.RequestMode.SYNCHRONOUS)
-        .build();
+        .setRequestMode(IndexingService.RequestMode.SYNCHRONOUS);
+    long contentBytes = setMarkdownContent(docBuilder, compacted.getContent(),
+        diff != null ? diff.getContent() : null);
+    RepositoryDoc doc = docBuilder.build();
+    event.finish("indexed", contentBytes);
+    return recordOnSuccess(doc, resourceName, metadataHash,
+        pullRequest.getUpdatedAt().getTime());
+  }
+
+  /**
+   * Streams the diff of a pull request from GitHub and summarizes it,
+   * without holding the full diff in memory. The diff is streamed straight
+   * into the summary, so the call isn't hedged. GitHub can fail to render
+   * very large diffs, so the pull request is indexed without its diff
+   * rather than not at all if it keeps failing.
+   *
+   * @param pullRequest Pull request
+   * @return summary of the diff, or null if diffs aren't indexed or
+   * GitHub won't produce this one, for example because it's too large
+   * @throws IOException if unable to read the diff
+   */
+  private DiffSummarizer.Summary summarizeDiff(GHPullRequest pullRequest) throws IOException {
+    if (diffSummarizer == null) {
+      return null;
+    }
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return readDiff(pullRequest);
+      } catch (HttpException e) {
+        if (e.getResponseCode() < 500) {
+          throw e;
+        }
+        if (attempt >= DIFF_ATTEMPTS) {
+          log.warning(() -> String.format("Not indexing diff of %s, GitHub returned %d",
+              pullRequest.getUrl(), e.getResponseCode()));
+          return null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Fetches and summarizes the diff of a pull request once.
+   *
+   * @param pullRequest Pull request
+   * @return summary of the diff, or null if GitHub refused the request
+   * @throws HttpException for server errors
+   * @throws IOException   if unable to read the diff
+   */
+  private DiffSummarizer.Summary readDiff(GHPullRequest pullRequest) throws IOException {
+    return calls.call("diff", () -> {
+      HttpURLConnection connection = githubConnector.connect(pullRequest.getUrl());
+      connection.setRequestMethod("GET");
+      connection.setRequestProperty("Accept", "application/vnd.github.v3.diff");
+      if (githubAuthorization != null) {
+        connection.setRequestProperty("Authorization", githubAuthorization);
+      }
+      int code = connection.getResponseCode();
+      if (code >= 400 && code < 500 && code != 429) {
+        log.warning(() -> String.format("Not indexing diff of %s, GitHub returned %d",
+            pullRequest.getUrl(), code));
+        return null;
+      }
+      if (code >= 500) {
+        // Thrown from the call so it counts as a failure against GitHub
+        throw new HttpException("Unable to read diff", code, connection.getResponseMessage(),
+            pullRequest.getUrl().toExternalForm());
+      }
+      try (InputStream diff = connection.getInputStream()) {
+        return diffSummarizer.summarize(diff);
+      }
+    }, false);
   }
 
   /**
    * Build the ApiOperation to index an issue.
    *
    * @param issue        Pull request to index
+   * @param comments     Comments if already fetched, null to fetch them
    * @param previousItem Previous item state in the index
    * @return ApiOperation (RepositoryDoc if indexing,  PushItem if not modified)
    * @throws IOException if unable to create operation
    */
-  private ApiOperation indexItem(GHIssue issue, Item previousItem)
+  private ApiOperation indexItem(GHIssue issue, List<GHIssueComment> comments,
+                                 Item previousItem)
       throws IOException {
-    String metadataHash = issue.getUpdatedAt().toString();
+    ConnectorEvents.IndexItem event = ConnectorEvents.IndexItem.start("issue",
+        issue.getRepository().getFullName());
+    // Same hash as pushed in collectIssues
+    String metadataHash = Long.toHexString(issue.getUpdatedAt().getTime());
 
     // If previously indexed and unchanged, just requeue as unmodified
     if (canSkipIndexing(previousItem, metadataHash)) {
+      event.finish("notModified", 0);
       return notModified(previousItem.getName());
     }
 
@@ -519,26 +1018,28 @@ public class GithubRepository implements Repository {
 
     // Structured data based on the schema
     Multimap<String, Object> structuredData = ArrayListMultimap.create();
-    structuredData.put("organization", issue.getRepository().getOwnerName());
-    structuredData.put("repository", issue.getRepository().getName());
-    structuredData.put("status", issue.getState().name().toLowerCase());
+    structuredData.put("organization", FieldInterner.intern(issue.getRepository().getOwnerName()));
+    structuredData.put("repository", FieldInterner.intern(issue.getRepository().getName()));
+    structuredData.put("status", FieldInterner.intern(issue.getState().name().toLowerCase()));
     structuredData.put("reportedBy", issue.getUser() != null ?
-        issue.getUser().getLogin() : null);
+        FieldInterner.intern(issue.getUser().getLogin()) : null);
     structuredData.put("assignee", issue.getAssignee() != null ?
-        issue.getAssignee().getLogin() : null);
+        FieldInterner.intern(issue.getAssignee().getLogin()) : null);
     for (GHLabel label : issue.getLabels()) {
-      structuredData.put("labels", label.getName());
+      structuredData.put("labels", FieldInterner.intern(label.getName()));
     }
 
-    // Index comments as sub objects in the metadata. This makes the comments
-    // searchable but still tied to the issue itself.
-    for (GHIssueComment comment : issue.getComments()) {
-      Multimap<String, Object> commentData = ArrayListMultimap.create();
-      commentData.put("comment", comment.getBody());
-      commentData.put("user", comment.getUser() != null ?
-          comment.getUser().getLogin() : null);
+    // Index the newest comments as sub objects in the metadata. This makes
+    // the comments searchable but still tied to the issue itself. Older
+    // comments are folded into the content to keep the item size bounded.
+    if (comments == null) {
+      comments = calls.call("comments", issue::getComments);
+    }
+    CommentCompactor.Compacted compacted = commentCompactor.compact(issue.getBody(), comments);
+    for (Multimap<String, Object> commentData : compacted.getStructured()) {
       structuredData.put("comments", commentData);
     }
+    logItemSize(resourceName, comments.size(), compacted);
     structuredData.put("createdAt", issue.getCreatedAt());
     structuredData.put("updatedAt", issue.getUpdatedAt());
 
@@ -555,15 +1056,61 @@ public class GithubRepository implements Repository {
         .setHash(metadataHash)
         .build();
 
-    // TODO - Render markdown to HTML
-    AbstractInputStreamContent content = new ByteArrayContent(
-        "text/plain",
-        issue.getBody().getBytes(StandardCharsets.UTF_8));
-    return new RepositoryDoc.Builder()
+    RepositoryDoc.Builder docBuilder = new RepositoryDoc.Builder()
         .setItem(item)
-        .setContent(content, IndexingService.ContentFormat.TEXT)
-        .setRequestMode(IndexingService.RequestMode.SYNCHRONOUS)
-        .build();
+        .setRequestMode(IndexingService.RequestMode.SYNCHRONOUS);
+    long contentBytes = setMarkdownContent(docBuilder, compacted.getContent(), null);
+    RepositoryDoc doc = docBuilder.build();
+    event.finish("indexed", contentBytes);
+    return recordOnSuccess(doc, resourceName, metadataHash, issue.getUpdatedAt().getTime());
+  }
+
+  /**
+   * Sets the content of an item from Markdown text, rendered to HTML
+   * unless disabled.
+   *
+   * @param doc          document to set the content of
+   * @param markdown     Markdown text, UTF-8 encoded
+   * @param preformatted text to append as is, such as a diff, may be null
+   * @return size of the content
+   * @throws IOException if unable to render the content
+   */
+  private long setMarkdownContent(RepositoryDoc.Builder doc, byte[] markdown,
+                                  byte[] preformatted) throws IOException {
+    if (!renderMarkdown) {
+      byte[] text = preformatted == null ? markdown
+          : Bytes.concat(markdown, "\n\n".getBytes(StandardCharsets.UTF_8), preformatted);
+      doc.setContent(new ByteArrayContent("text/plain", text),
+          IndexingService.ContentFormat.TEXT);
+      return text.length;
+    }
+    ByteArrayOutputStream html = new ByteArrayOutputStream(markdown.length + 256);
+    try (InputStream rendered = MarkdownRenderer.render(new ByteArrayInputStream(markdown))) {
+      ByteStreams.copy(rendered, html);
+    }
+    if (preformatted != null) {
+      html.write(String.format("<pre>%s</pre>\n",
+          MarkdownRenderer.escape(new String(preformatted, StandardCharsets.UTF_8)))
+          .getBytes(StandardCharsets.UTF_8));
+    }
+    doc.setContent(new ByteArrayContent("text/html", html.toByteArray()),
+        IndexingService.ContentFormat.HTML);
+    return html.size();
+  }
+
+  /**
+   * Logs how the comments of an issue or pull request were compacted.
+   *
+   * @param resourceName name of item
+   * @param comments     total number of comments
+   * @param compacted    compacted comments
+   */
+  private void logItemSize(String resourceName, int comments,
+                           CommentCompactor.Compacted compacted) {
+    log.info(() -> String.format("Item %s has %d comments: %d structured (%d bytes),"
+            + " %d folded into content, %d dropped, content %d bytes", resourceName, comments,
+        compacted.getStructured().size(), compacted.getStructuredBytes(),
+        compacted.getFolded(), compacted.getDropped(), compacted.getContent().length));
   }
 
   // [START cloud_search_tutorial_index_content_item]
@@ -577,27 +1124,60 @@ public class GithubRepository implements Repository {
    */
   private ApiOperation indexItem(GHContent content, Item previousItem)
       throws IOException {
-    String metadataHash = content.getSha();
+    ByteSource source = new ByteSource() {
+      @Override
+      public InputStream openStream() throws IOException {
+        return content.read();
+      }
+    };
+    RepositoryFile file = new RepositoryFile(
+        content.getOwner().getOwnerName(),
+        content.getOwner().getName(),
+        content.getPath(),
+        content.getSha(),
+        content.getSize(),
+        content.getHtmlUrl(),
+        source);
+    return indexItem(file, previousItem);
+  }
+
+  /**
+   * Build the ApiOperation to index a file, regardless of whether it was
+   * read from the GitHub API or a local mirror.
+   *
+   * @param file         File to index
+   * @param previousItem Previous item state in the index
+   * @return ApiOperation (RepositoryDoc if indexing,  PushItem if not modified)
+   * @throws IOException if unable to create operation
+   */
+  private ApiOperation indexItem(RepositoryFile file, Item previousItem)
+      throws IOException {
+    ConnectorEvents.IndexItem event = ConnectorEvents.IndexItem.start("file",
+        String.format("%s/%s", file.getOrganization(), file.getRepository()));
+    String metadataHash = file.getSha();
 
     // If previously indexed and unchanged, just requeue as unmodified
     if (canSkipIndexing(previousItem, metadataHash)) {
+      event.finish("notModified", 0);
       return notModified(previousItem.getName());
     }
 
-    String resourceName = new URL(content.getHtmlUrl()).getPath();
-    FieldOrValue<String> title = FieldOrValue.withValue(content.getName());
-    FieldOrValue<String> url = FieldOrValue.withValue(content.getHtmlUrl());
+    String resourceName = new URL(file.getHtmlUrl()).getPath();
+    FieldOrValue<String> title = FieldOrValue.withValue(file.getName());
+    FieldOrValue<String> url = FieldOrValue.withValue(file.getHtmlUrl());
 
-    String containerName = content.getOwner().getHtmlUrl().getPath();
-    String programmingLanguage = FileExtensions.getLanguageForFile(content.getName());
+    String containerName = String.format("/%s/%s", file.getOrganization(),
+        file.getRepository());
+    String programmingLanguage = FileExtensions.getLanguageForFile(file.getName());
 
     // Structured data based on the schema
     Multimap<String, Object> structuredData = ArrayListMultimap.create();
-    structuredData.put("organization", content.getOwner().getOwnerName());
-    structuredData.put("repository", content.getOwner().getName());
-    structuredData.put("path", content.getPath());
+    structuredData.put("organization", FieldInterner.intern(file.getOrganization()));
+    structuredData.put("repository", FieldInterner.intern(file.getRepository()));
+    structuredData.put("path", file.getPath());
     structuredData.put("language", programmingLanguage);
 
+    long version = System.currentTimeMillis();
     Item item = IndexingItemBuilder.fromConfiguration(resourceName)
         .setTitle(title)
         .setContainerName(containerName)
@@ -605,77 +1185,72 @@ public class GithubRepository implements Repository {
         .setItemType(IndexingItemBuilder.ItemType.CONTAINER_ITEM)
         .setObjectType("file")
         .setValues(structuredData)
-        .setVersion(Longs.toByteArray(System.currentTimeMillis()))
-        .setHash(content.getSha())
+        .setVersion(Longs.toByteArray(version))
+        .setHash(file.getSha())
         .build();
 
-    // Index the file content too
-    String mimeType = FileTypeMap.getDefaultFileTypeMap()
-        .getContentType(content.getName());
-    AbstractInputStreamContent fileContent = new InputStreamContent(
-        mimeType, content.read())
-        .setLength(content.getSize())
-        .setCloseInputStream(true);
-    return new RepositoryDoc.Builder()
+    // Index the file content too. Markdown is rendered to HTML as it's
+    // uploaded, the length of the result isn't known up front.
+    AbstractInputStreamContent fileContent;
+    IndexingService.ContentFormat contentFormat;
+    if (renderMarkdown && MarkdownRenderer.isMarkdown(file.getName())) {
+      fileContent = new InputStreamContent(
+          "text/html", MarkdownRenderer.render(file.getContent().openStream()))
+          .setCloseInputStream(true);
+      contentFormat = IndexingService.ContentFormat.HTML;
+    } else {
+      String mimeType = FileTypeMap.getDefaultFileTypeMap()
+          .getContentType(file.getName());
+      fileContent = new InputStreamContent(
+          mimeType, file.getContent().openStream())
+          .setLength(file.getSize())
+          .setCloseInputStream(true);
+      contentFormat = IndexingService.ContentFormat.RAW;
+    }
+    RepositoryDoc doc = new RepositoryDoc.Builder()
         .setItem(item)
-        .setContent(fileContent, IndexingService.ContentFormat.RAW)
+        .setContent(fileContent, contentFormat)
         .setRequestMode(IndexingService.RequestMode.SYNCHRONOUS)
         .build();
+    event.finish("indexed", file.getSize());
+    return recordOnSuccess(doc, resourceName, metadataHash, version);
   }
   // [END cloud_search_tutorial_index_content_item]
 
-  /**
-   * Collects the names of repositories to index. Expands
-   *
-   * @return List of repository names (org/name)
-   * @throws IOException if unable to query GitHub
-   */
-  private List<String> scanRepositories() throws IOException {
-    List<String> repositoryNames = new ArrayList<>();
-    for (String name : githubOrganizations) {
-      if (name.contains("/")) {
-        // Name is a fully qualified repo, not an org. Just add it.
-        repositoryNames.add(name);
-      } else {
-        // Name is just an org, scan for repos
-        GHOrganization organization = github.getOrganization(name);
-        Map<String, GHRepository> repos = organization.getRepositories();
-        for (GHRepository r : repos.values()) {
-          repositoryNames.add(r.getFullName());
-        }
-      }
-    }
-    return repositoryNames;
-  }
-
-
   // [START cloud_search_tutorial_collect_repository_items]
   /**
    * Fetch IDs to  push in to the queue for all items in the repository.
-   * Currently captures issues & content in the master branch.
+   * Currently captures issues & content in the default branch.
    *
-   * @param name Name of repository to index
+   * @param name  Name of repository to index
+   * @param state Traversal state from the checkpoint, updated with the
+   *              tree SHA and time of this traversal
    * @return Items to push into the queue for later indexing
    * @throws IOException if error reading issues
    */
-  private Collection<ApiOperation> collectRepositoryItems(String name)
+  private Collection<ApiOperation> collectRepositoryItems(String name,
+                                                          FullTraversalCheckpoint state)
       throws IOException {
     List<ApiOperation> operations = new ArrayList<>();
-    GHRepository repo = github.getRepository(name);
+    GHRepository repo = calls.call("repository", () -> github.getRepository(name));
+    long traversalTime = System.currentTimeMillis();
+    Long previousTraversal = state.getLastTraversed().get(name);
 
     // Add the repository as an item to be indexed
     String metadataHash = repo.getUpdatedAt().toString();
     String resourceName = repo.getHtmlUrl().getPath();
-    PushItem repositoryPushItem = new PushItem()
-        .setMetadataHash(metadataHash);
-    PushItems items = new PushItems.Builder()
-        .addPushItem(resourceName, repositoryPushItem)
-        .build();
-
-    operations.add(items);
+    if (!isUnchanged(resourceName, metadataHash)) {
+      PushItem repositoryPushItem = new PushItem()
+          .setMetadataHash(metadataHash);
+      PushItems items = new PushItems.Builder()
+          .addPushItem(resourceName, repositoryPushItem)
+          .build();
+      operations.add(items);
+    }
     // Add issues/pull requests & files
-    operations.add(collectIssues(repo));
-    operations.add(collectContent(repo));
+    operations.add(collectIssues(repo, previousTraversal));
+    operations.addAll(collectContent(repo, state.getTreeShas()));
+    state.getLastTraversed().put(name, traversalTime);
     return operations;
   }
   // [END cloud_search_tutorial_collect_repository_items]
@@ -683,11 +1258,14 @@ public class GithubRepository implements Repository {
   /**
    * Fetch all issues for the repository. Includes pull requests.
    *
-   * @param repo Repository to get issues for
+   * @param repo              Repository to get issues for
+   * @param previousTraversal Time of the previous traversal, or null.
+   *                          Issues updated since are prefetched.
    * @return Items to push into the queue for later indexing
    * @throws IOException if error reading issues
    */
-  private PushItems collectIssues(GHRepository repo) throws IOException {
+  private PushItems collectIssues(GHRepository repo, Long previousTraversal)
+      throws IOException {
     PushItems.Builder builder = new PushItems.Builder();
 
     List<GHIssue> issues = repo.listIssues(GHIssueState.ALL)
@@ -695,50 +1273,139 @@ public class GithubRepository implements Repository {
         .asList();
     for (GHIssue issue : issues) {
       String resourceName = issue.getHtmlUrl().getPath();
+      String metadataHash = Long.toHexString(issue.getUpdatedAt().getTime());
+      if (isUnchanged(resourceName, metadataHash)) {
+        continue;
+      }
       log.info(() -> String.format("Adding issue %s", resourceName));
       PushItem item = new PushItem();
-      item.setMetadataHash(Long.toHexString(issue.getUpdatedAt().getTime()));
+      item.setMetadataHash(metadataHash);
       builder.addPushItem(resourceName, item);
+      if (prefetch != null
+          && (previousTraversal == null || issue.getUpdatedAt().getTime() > previousTraversal)) {
+        prefetch.prefetch(resourceName);
+      }
     }
     return builder.build();
   }
 
   /**
-   * Walks the directory tree collecting files in the master branch.
+   * Collects the files in the default branch that changed since the last
+   * traversal. The current root tree is diffed against the one recorded
+   * in the checkpoint. Unchanged directories are skipped entirely, added
+   * or modified files are pushed and removed files are deleted.
    *
-   * @param repo Repository to walk
-   * @return Items to push into the queue for later indexing
+   * @param repo     Repository to walk
+   * @param treeShas Last indexed tree SHA per repository
+   * @return Operations to push changed files and delete removed ones
    * @throws IOException if error reading files
    */
-  private PushItems collectContent(GHRepository repo) throws IOException {
+  private Collection<ApiOperation> collectContent(GHRepository repo,
+                                                  Map<String, String> treeShas)
+      throws IOException {
+    String branch;
+    String rootSha;
+    TreeDiff.TreeReader reader;
+    if (mirrorDirectory != null) {
+      // Fetch the latest changes and walk the trees locally
+      GitMirror mirror = getMirror(repo.getFullName());
+      mirror.update();
+      branch = mirror.getDefaultBranch();
+      rootSha = mirror.getTreeSha(branch);
+      reader = mirror::readTree;
+    } else {
+      branch = repo.getDefaultBranch();
+      GHTree root = calls.call("tree", () -> repo.getTree(branch));
+      rootSha = root.getSha();
+      reader = sha -> readTree(repo, root, sha);
+    }
+    String repositoryName = repo.getHtmlUrl().getPath();
+    String previousSha = treeShas.get(repo.getFullName());
+
     PushItems.Builder builder = new PushItems.Builder();
-    collectContentRecursively(builder, repo, "/");
-    return builder.build();
+    List<ApiOperation> operations = new ArrayList<>();
+    TreeDiff.ChangeHandler handler = new TreeDiff.ChangeHandler() {
+      @Override
+      public void changed(String path, String sha) {
+        String resourceName = ItemNames.blobName(repositoryName, branch, path);
+        if (isUnchanged(resourceName, sha)) {
+          return;
+        }
+        log.info(() -> String.format("Adding file %s", resourceName));
+        PushItem item = new PushItem();
+        item.setMetadataHash(sha);
+        builder.addPushItem(resourceName, item);
+        if (prefetch != null && mirrorDirectory == null) {
+          prefetch.prefetch(resourceName);
+        }
+      }
+
+      @Override
+      public void deleted(String path) {
+        String resourceName = ItemNames.blobName(repositoryName, branch, path);
+        log.info(() -> String.format("Deleting file %s", resourceName));
+        operations.add(ApiOperations.deleteItem(resourceName));
+        if (itemStates != null) {
+          itemStates.remove(resourceName);
+        }
+      }
+    };
+
+    if (previousSha == null && mirrorDirectory == null) {
+      // Nothing to diff against, list the whole tree in one request
+      // unless it is too large for GitHub to return at once.
+      GHTree fullTree = calls.call("treeRecursive", () -> repo.getTreeRecursive(rootSha, 1));
+      if (!fullTree.isTruncated()) {
+        for (GHTreeEntry entry : fullTree.getTree()) {
+          if ("blob".equals(entry.getType())) {
+            handler.changed(entry.getPath(), entry.getSha());
+          }
+        }
+      } else {
+        TreeDiff.diff(reader, null, rootSha, handler);
+      }
+    } else {
+      TreeDiff.diff(reader, previousSha, rootSha, handler);
+    }
+    treeShas.put(repo.getFullName(), rootSha);
+
+    operations.add(0, builder.build());
+    return operations;
   }
 
   /**
-   * Walks the directory tree collecting files in the master branch.
+   * Reads the immediate entries of a tree. Submodules are skipped.
    *
-   * @param builder PushItems builder to add IDs too
-   * @param repo    Repository to walk
-   * @param path    Current path
-   * @throws IOException if error reading files
+   * @param repo Repository containing the tree
+   * @param root Already fetched root tree, reused to save a request
+   * @param sha  SHA of the tree to read
+   * @return tree entries
+   * @throws IOException if error reading the tree
    */
-  private void collectContentRecursively(PushItems.Builder builder,
-                                         GHRepository repo,
-                                         String path) throws IOException {
-    List<GHContent> contents = repo.getDirectoryContent(path);
-    for (GHContent contentItem : contents) {
-      if (contentItem.isDirectory()) {
-        collectContentRecursively(builder, repo, contentItem.getPath());
-      } else {
-        String resourceName = new URL(contentItem.getHtmlUrl()).getPath();
-        log.info(() -> String.format("Adding file %s", resourceName));
-        PushItem item = new PushItem();
-        item.setMetadataHash(contentItem.getSha());
-        builder.addPushItem(resourceName, item);
+  private List<TreeDiff.TreeEntry> readTree(GHRepository repo, GHTree root, String sha)
+      throws IOException {
+    GHTree tree = sha.equals(root.getSha()) ? root : calls.call("tree", () -> repo.getTree(sha));
+    List<TreeDiff.TreeEntry> entries = new ArrayList<>();
+    for (GHTreeEntry entry : tree.getTree()) {
+      if ("blob".equals(entry.getType()) || "tree".equals(entry.getType())) {
+        entries.add(new TreeDiff.TreeEntry(entry.getPath(), entry.getSha(),
+            "tree".equals(entry.getType())));
       }
     }
+    return entries;
+  }
+
+  /**
+   * Get the local mirror of a repository, creating it if needed.
+   *
+   * @param name Name of the repository (org/name)
+   * @return mirror of the repository
+   */
+  private GitMirror getMirror(String name) {
+    return mirrors.computeIfAbsent(name, n -> new GitMirror(
+        String.format("https://github.com/%s.git", n),
+        new File(mirrorDirectory, n + ".git"),
+        mirrorCredentials));
   }
 
   /**
@@ -754,9 +1421,51 @@ public class GithubRepository implements Repository {
     }
     String status = previousItem.getStatus().getCode();
     String previousHash = previousItem.getMetadata().getHash();
-    return "ACCEPTED".equals(status)
+    boolean unchanged = "ACCEPTED".equals(status)
         && previousHash != null
         && previousHash.equals(currentHash);
+    if (unchanged && itemStates != null) {
+      // Remember the accepted state so the next traversal doesn't push it
+      byte[] version = previousItem.decodeVersion();
+      try {
+        itemStates.put(previousItem.getName(), currentHash,
+            version != null && version.length == Longs.BYTES ? Longs.fromByteArray(version) : 0);
+      } catch (IOException e) {
+        log.warning(() -> String.format("Unable to record state of %s: %s",
+            previousItem.getName(), e));
+      }
+    }
+    return unchanged;
+  }
+
+  /**
+   * Checks the item state store to see if an item was already indexed
+   * with the given hash, in which case there is no need to push it.
+   *
+   * @param resourceName name of item
+   * @param metadataHash metadata hash of the current github object
+   * @return true if the item is known to be up to date
+   */
+  private boolean isUnchanged(String resourceName, String metadataHash) {
+    return itemStates != null && itemStates.matches(resourceName, metadataHash);
+  }
+
+  /**
+   * Records the state of an item in the item state store once it has
+   * been indexed successfully.
+   *
+   * @param doc          operation indexing the item
+   * @param resourceName name of item
+   * @param metadataHash metadata hash the item is indexed with
+   * @param version      version the item is indexed with
+   * @return operation to return from getDoc
+   */
+  private ApiOperation recordOnSuccess(RepositoryDoc doc, String resourceName,
+                                       String metadataHash, long version) {
+    if (itemStates == null) {
+      return doc;
+    }
+    return itemStates.recordOnSuccess(resourceName, metadataHash, version, doc);
   }
 
   /**
@@ -812,11 +1521,98 @@ public class GithubRepository implements Repository {
   }
 
   /**
-   * {@inheritDoc}
-   * <p>Not implemented by this repository.</p>
+   * Stops any repository scan, the webhook receiver and prefetching, and
+   * closes any local mirrors and the item state store.
    */
   @Override
   public void close() {
+    closeScanner();
+    if (webhooks != null) {
+      webhooks.close();
+      webhooks = null;
+    }
+    if (prefetch != null) {
+      prefetch.close();
+      prefetch = null;
+    }
+    for (GitMirror mirror : mirrors.values()) {
+      mirror.close();
+    }
+    mirrors.clear();
+    if (calls != null) {
+      calls.close();
+    }
+    if (httpConnector != null) {
+      httpConnector.close();
+      httpConnector = null;
+    }
+    if (trafficRecorder != null) {
+      try {
+        trafficRecorder.close();
+      } catch (IOException e) {
+        log.warning(() -> String.format("Unable to close traffic archive: %s", e));
+      }
+      trafficRecorder = null;
+    }
+    if (itemStates != null) {
+      try {
+        itemStates.close();
+      } catch (IOException e) {
+        log.warning(() -> String.format("Unable to close item state store: %s", e));
+      }
+      itemStates = null;
+    }
+  }
+
+  /**
+   * Sets up recording or replay of GitHub traffic, if configured.
+   *
+   * @param connector transport to GitHub
+   * @param mode      one of off, record or replay
+   * @param archive   path of the traffic archive
+   * @return the transport to use
+   * @throws StartupException if unable to open the archive
+   */
+  private HttpConnector withTrafficArchive(HttpConnector connector, String mode, String archive)
+      throws StartupException {
+    if ("off".equals(mode)) {
+      return connector;
+    }
+    if (!"record".equals(mode) && !"replay".equals(mode)) {
+      throw new InvalidConfigurationException(String.format(
+          "Unknown traffic mode '%s'. Set 'github.traffic.mode' to off, record or replay.",
+          mode));
+    }
+    if (archive.isEmpty()) {
+      throw new InvalidConfigurationException(
+          "No traffic archive configured. Set 'github.traffic.archive' in the configuration.");
+    }
+    File file = new File(archive);
+    try {
+      if ("record".equals(mode)) {
+        trafficRecorder = new RecordingHttpConnector(connector, TrafficArchive.create(file));
+        log.info(() -> String.format("Recording GitHub traffic to %s", file));
+        return trafficRecorder;
+      }
+      List<TrafficArchive.Exchange> exchanges = TrafficArchive.readAll(file);
+      double latencyScale = Configuration.getInteger(
+          "github.traffic.latencyPercent", 100).get() / 100.0;
+      log.info(() -> String.format("Replaying %d GitHub responses from %s", exchanges.size(),
+          file));
+      return new ReplayHttpConnector(exchanges, latencyScale);
+    } catch (IOException e) {
+      throw new StartupException("Unable to open traffic archive", e);
+    }
+  }
+
+  /**
+   * Stops the repository scan, if running.
+   */
+  private void closeScanner() {
+    if (scanner != null) {
+      scanner.close();
+      scanner = null;
+    }
   }
 
   /**
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.base.Splitter;
+import com.google.common.escape.Escaper;
+import com.google.common.net.UrlEscapers;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds item names for files. File items are named after the path of
+ * their GitHub URL, which is percent-encoded, so names built from raw
+ * tree paths have to be encoded the same way to match.
+ */
+class ItemNames {
+  private static final Escaper SEGMENT_ESCAPER = UrlEscapers.urlPathSegmentEscaper();
+
+  private ItemNames() {
+  }
+
+  /**
+   * Builds the item name of a file in a branch.
+   *
+   * @param repositoryName item name of the repository (/{owner}/{repo})
+   * @param branch         short branch name
+   * @param path           raw path of the file within the repository
+   * @return item name, /{owner}/{repo}/blob/{branch}/{path} with the
+   * branch and path encoded
+   */
+  static String blobName(String repositoryName, String branch, String path) {
+    return String.format("%s/blob/%s/%s", repositoryName, encodePath(branch),
+        encodePath(path));
+  }
+
+  /**
+   * Percent-encodes each segment of a slash separated path.
+   *
+   * @param path raw path
+   * @return encoded path
+   */
+  static String encodePath(String path) {
+    List<String> segments = new ArrayList<>();
+    for (String segment : Splitter.on('/').split(path)) {
+      segments.add(SEGMENT_ESCAPER.escape(segment));
+    }
+    return String.join("/", segments);
+  }
+
+  /**
+   * Decodes a percent-encoded path. Unlike form decoding, '+' is kept.
+   *
+   * @param path encoded path
+   * @return raw path
+   * @throws IllegalArgumentException if the path has an invalid escape
+   */
+  static String decodePath(String path) {
+    try {
+      return URLDecoder.decode(path.replace("+", "%2B"), "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.api.client.json.GenericJson;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.enterprise.cloudsearch.sdk.indexing.IndexingService;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Embedded store of the last accepted state of each item, used to drop
+ * unchanged items before they are pushed to the queue.
+ * <p>
+ * The store is an open addressing hash table in a memory-mapped file.
+ * Item names and hashes are reduced to 64-bit fingerprints, so every
+ * entry takes a fixed 24 bytes regardless of name length. Within a slot
+ * the key is written last when inserting and cleared first when removing,
+ * so a crash never leaves a half written entry visible. Growing the
+ * table writes a new file which atomically replaces the old one.
+ */
+class ItemStateStore implements Closeable {
+  private static final long MAGIC = 0x4954454d53544154L;
+  private static final int HEADER_BYTES = 64;
+  private static final int SLOT_BYTES = 24;
+  private static final int SLOTS_PER_SEGMENT_BITS = 25;
+  private static final long SLOTS_PER_SEGMENT = 1L << SLOTS_PER_SEGMENT_BITS;
+  private static final long MIN_CAPACITY = 1 << 16;
+  private static final double MAX_LOAD = 0.7;
+  private static final HashFunction FINGERPRINT = Hashing.farmHashFingerprint64();
+
+  private final Path path;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private FileChannel channel;
+  private MappedByteBuffer header;
+  private MappedByteBuffer[] segments;
+  private boolean[] dirty;
+  private long capacity;
+  private long size;
+
+  private ItemStateStore(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Opens a store, creating it if it doesn't exist.
+   *
+   * @param path file holding the store
+   * @return the store
+   * @throws IOException if unable to open or create the file
+   */
+  static ItemStateStore open(Path path) throws IOException {
+    ItemStateStore store = new ItemStateStore(path);
+    if (!Files.exists(path)) {
+      create(path, MIN_CAPACITY).close();
+    }
+    store.map();
+    return store;
+  }
+
+  /**
+   * Checks if an item was last accepted with the given hash.
+   *
+   * @param name item name
+   * @param hash metadata hash of the item
+   * @return true if the stored hash matches
+   */
+  boolean matches(String name, String hash) {
+    long key = fingerprint(name);
+    lock.readLock().lock();
+    try {
+      long slot = find(key);
+      return slot >= 0 && segment(slot).getLong(offset(slot) + 8) == fingerprint(hash);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Records the accepted state of an item.
+   *
+   * @param name    item name
+   * @param hash    metadata hash of the item
+   * @param version version of the item
+   * @throws IOException if the store needs to grow and can't
+   */
+  void put(String name, String hash, long version) throws IOException {
+    long key = fingerprint(name);
+    lock.writeLock().lock();
+    try {
+      if (size + 1 > capacity * MAX_LOAD) {
+        resize(capacity * 2);
+      }
+      long slot = probe(key);
+      MappedByteBuffer segment = segment(slot);
+      int offset = offset(slot);
+      boolean inserted = segment.getLong(offset) == 0;
+      segment.putLong(offset + 8, fingerprint(hash));
+      segment.putLong(offset + 16, version);
+      segment.putLong(offset, key);
+      markDirty(slot);
+      if (inserted) {
+        header.putLong(24, ++size);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Forgets an item, for example once deleted.
+   *
+   * @param name item name
+   */
+  void remove(String name) {
+    long key = fingerprint(name);
+    lock.writeLock().lock();
+    try {
+      long slot = find(key);
+      if (slot < 0) {
+        return;
+      }
+      // Backward shift deletion keeps probe sequences intact without
+      // tombstones.
+      long mask = capacity - 1;
+      long hole = slot;
+      long next = (hole + 1) & mask;
+      while (true) {
+        long nextKey = segment(next).getLong(offset(next));
+        if (nextKey == 0) {
+          break;
+        }
+        long home = nextKey & mask;
+        if (((next - home) & mask) >= ((next - hole) & mask)) {
+          copySlot(next, hole);
+          markDirty(hole);
+          hole = next;
+        }
+        next = (next + 1) & mask;
+      }
+      segment(hole).putLong(offset(hole), 0);
+      markDirty(hole);
+      header.putLong(24, --size);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the number of items in the store.
+   *
+   * @return item count
+   */
+  long size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Flushes changes to disk. Only segments changed since the last flush
+   * are written.
+   */
+  void flush() {
+    lock.readLock().lock();
+    try {
+      for (int i = 0; i < segments.length; i++) {
+        if (dirty[i]) {
+          segments[i].force();
+          dirty[i] = false;
+        }
+      }
+      header.force();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Flushes and closes the store.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (channel != null) {
+        flush();
+        channel.close();
+        channel = null;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Wraps an operation so the item's state is recorded once the
+   * operation succeeds.
+   *
+   * @param name      item name
+   * @param hash      metadata hash the item is indexed with
+   * @param version   version the item is indexed with
+   * @param operation operation indexing the item
+   * @return operation recording the state on success
+   */
+  ApiOperation recordOnSuccess(String name, String hash, long version,
+                               ApiOperation operation) {
+    return new ApiOperation() {
+      @Override
+      public List<GenericJson> execute(IndexingService service)
+          throws IOException, InterruptedException {
+        List<GenericJson> result = operation.execute(service);
+        put(name, hash, version);
+        return result;
+      }
+    };
+  }
+
+  private long fingerprint(String value) {
+    long fingerprint = FINGERPRINT.hashString(value, StandardCharsets.UTF_8).asLong();
+    // Zero marks an empty slot
+    return fingerprint == 0 ? 1 : fingerprint;
+  }
+
+  private long find(long key) {
+    long mask = capacity - 1;
+    for (long slot = key & mask; ; slot = (slot + 1) & mask) {
+      long current = segment(slot).getLong(offset(slot));
+      if (current == key) {
+        return slot;
+      } else if (current == 0) {
+        return -1;
+      }
+    }
+  }
+
+  private long probe(long key) {
+    long mask = capacity - 1;
+    for (long slot = key & mask; ; slot = (slot + 1) & mask) {
+      long current = segment(slot).getLong(offset(slot));
+      if (current == key || current == 0) {
+        return slot;
+      }
+    }
+  }
+
+  private void copySlot(long from, long to) {
+    MappedByteBuffer source = segment(from);
+    MappedByteBuffer target = segment(to);
+    int sourceOffset = offset(from);
+    int targetOffset = offset(to);
+    target.putLong(targetOffset + 8, source.getLong(sourceOffset + 8));
+    target.putLong(targetOffset + 16, source.getLong(sourceOffset + 16));
+    target.putLong(targetOffset, source.getLong(sourceOffset));
+  }
+
+  private void markDirty(long slot) {
+    dirty[(int) (slot >>> SLOTS_PER_SEGMENT_BITS)] = true;
+  }
+
+  private MappedByteBuffer segment(long slot) {
+    return segments[(int) (slot >>> SLOTS_PER_SEGMENT_BITS)];
+  }
+
+  private int offset(long slot) {
+    return (int) ((slot & (SLOTS_PER_SEGMENT - 1)) * SLOT_BYTES);
+  }
+
+  /**
+   * Rehashes into a table of the new capacity, written to a temporary
+   * file that then replaces the current one. The current table stays
+   * mapped until the replacement is in place, so a failure leaves the
+   * store usable.
+   */
+  private void resize(long newCapacity) throws IOException {
+    Path temp = Paths.get(path.toString() + ".tmp");
+    // Left behind by a resize that failed or crashed
+    Files.deleteIfExists(temp);
+    ItemStateStore resized = create(temp, newCapacity);
+    try {
+      copyTo(resized);
+      resized.close();
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      resized.close();
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    channel.close();
+    map();
+  }
+
+  private void copyTo(ItemStateStore resized) {
+    for (MappedByteBuffer segment : segments) {
+      for (int offset = 0; offset < segment.capacity(); offset += SLOT_BYTES) {
+        long key = segment.getLong(offset);
+        if (key != 0) {
+          long slot = resized.probe(key);
+          MappedByteBuffer target = resized.segment(slot);
+          int targetOffset = resized.offset(slot);
+          target.putLong(targetOffset + 8, segment.getLong(offset + 8));
+          target.putLong(targetOffset + 16, segment.getLong(offset + 16));
+          target.putLong(targetOffset, key);
+          resized.markDirty(slot);
+        }
+      }
+    }
+    resized.header.putLong(24, size);
+  }
+
+  private static ItemStateStore create(Path path, long capacity) throws IOException {
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer header = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+      header.putLong(0, MAGIC);
+      header.putLong(8, 1);
+      header.putLong(16, capacity);
+      header.putLong(24, 0);
+      // Extend the file, new regions read as zero
+      file.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + capacity * SLOT_BYTES - 1, 1);
+    }
+    ItemStateStore store = new ItemStateStore(path);
+    store.map();
+    return store;
+  }
+
+  private void map() throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+    if (header.getLong(0) != MAGIC) {
+      throw new IOException(String.format("%s is not an item state store", path));
+    }
+    capacity = header.getLong(16);
+    size = header.getLong(24);
+    int segmentCount = (int) ((capacity + SLOTS_PER_SEGMENT - 1) / SLOTS_PER_SEGMENT);
+    segments = new MappedByteBuffer[segmentCount];
+    dirty = new boolean[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      long slots = Math.min(SLOTS_PER_SEGMENT, capacity - i * SLOTS_PER_SEGMENT);
+      segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+          HEADER_BYTES + i * SLOTS_PER_SEGMENT * SLOT_BYTES, slots * SLOT_BYTES);
+    }
+  }
+}
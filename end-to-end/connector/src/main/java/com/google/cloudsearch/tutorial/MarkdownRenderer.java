@@ -0,0 +1,523 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders GitHub flavored Markdown to HTML as a stream, so headings, lists
+ * and code keep their structure in the index.
+ * <p>
+ * Rendering works a line at a time and only keeps the current line and
+ * the HTML rendered from it in memory, however large the document. Lines
+ * longer than {@value #MAX_LINE_CHARS} characters are rendered in pieces.
+ * The common block elements are supported: ATX headings, paragraphs,
+ * fenced code, bullet and numbered lists, block quotes and horizontal
+ * rules, along with code spans, emphasis and links inside them. Anything
+ * else, including raw HTML, is rendered as escaped text.
+ */
+class MarkdownRenderer {
+  /**
+   * Longest line rendered in one piece
+   */
+  static final int MAX_LINE_CHARS = 16384;
+
+  private static final Pattern FENCE = Pattern.compile("^ {0,3}(`{3,}|~{3,})\\s*([^`\\s]*).*$");
+  private static final Pattern HEADING = Pattern.compile(
+      "^ {0,3}(#{1,6})(?:\\s+(.*?))?(?:\\s+#+)?\\s*$");
+  private static final Pattern RULE = Pattern.compile("^ {0,3}([-*_])(?:\\s*\\1){2,}\\s*$");
+  private static final Pattern BULLET = Pattern.compile("^ {0,3}[-*+]\\s+(.*)$");
+  private static final Pattern NUMBERED = Pattern.compile("^ {0,3}\\d{1,9}[.)]\\s+(.*)$");
+  private static final Pattern QUOTE = Pattern.compile("^ {0,3}>\\s?(.*)$");
+  private static final Pattern SAFE_URL = Pattern.compile(
+      "^(?:(?:https?|mailto):|[^:]*(?:[/?#]|$)).*", Pattern.CASE_INSENSITIVE);
+
+  private enum Block {
+    NONE("", ""),
+    PARAGRAPH("<p>", "</p>\n"),
+    BULLETS("<ul>\n<li>", "</li>\n</ul>\n"),
+    NUMBERS("<ol>\n<li>", "</li>\n</ol>\n"),
+    QUOTE("<blockquote>\n<p>", "</p>\n</blockquote>\n"),
+    CODE("<pre><code>", "</code></pre>\n");
+
+    final String open;
+    final String close;
+
+    Block(String open, String close) {
+      this.open = open;
+      this.close = close;
+    }
+  }
+
+  private MarkdownRenderer() {
+  }
+
+  /**
+   * Renders Markdown as it's read. Closing the returned stream closes the
+   * Markdown stream.
+   *
+   * @param markdown Markdown text, UTF-8 encoded
+   * @return HTML, UTF-8 encoded
+   */
+  static InputStream render(InputStream markdown) {
+    return new HtmlStream(
+        new BufferedReader(new InputStreamReader(markdown, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Escapes text for use in HTML content or attribute values.
+   *
+   * @param text text to escape
+   * @return escaped text
+   */
+  static String escape(CharSequence text) {
+    StringBuilder html = new StringBuilder(text.length() + 16);
+    escape(text, 0, text.length(), html);
+    return html.toString();
+  }
+
+  /**
+   * Checks if a file holds Markdown, judging by its name.
+   *
+   * @param fileName name of the file
+   * @return true for Markdown files
+   */
+  static boolean isMarkdown(String fileName) {
+    String name = fileName.toLowerCase(Locale.ROOT);
+    return name.endsWith(".md") || name.endsWith(".markdown");
+  }
+
+  private static void escape(CharSequence text, int start, int end, StringBuilder html) {
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '<':
+          html.append("&lt;");
+          break;
+        case '>':
+          html.append("&gt;");
+          break;
+        case '&':
+          html.append("&amp;");
+          break;
+        case '"':
+          html.append("&quot;");
+          break;
+        case '\'':
+          html.append("&#39;");
+          break;
+        default:
+          html.append(c);
+      }
+    }
+  }
+
+  /**
+   * HTML stream rendered a line at a time from the Markdown.
+   */
+  private static class HtmlStream extends InputStream {
+    private final Reader markdown;
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder html = new StringBuilder();
+    private final char[] input = new char[8192];
+    private int inputPosition;
+    private int inputLimit;
+    private byte[] buffer = new byte[0];
+    private int position;
+    private boolean continued;
+    private boolean finished;
+    private Block block = Block.NONE;
+    private String fence;
+
+    HtmlStream(Reader markdown) {
+      this.markdown = markdown;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.length - position);
+      System.arraycopy(buffer, position, b, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+      markdown.close();
+    }
+
+    /**
+     * Renders lines until there's HTML to return.
+     *
+     * @return false at the end of the document
+     */
+    private boolean fill() throws IOException {
+      while (position == buffer.length) {
+        if (finished) {
+          return false;
+        }
+        html.setLength(0);
+        boolean wasContinued = continued;
+        if (readLine()) {
+          if (wasContinued) {
+            renderContinuation();
+          } else {
+            renderLine();
+          }
+        } else {
+          closeBlock();
+          finished = true;
+        }
+        buffer = html.toString().getBytes(StandardCharsets.UTF_8);
+        position = 0;
+      }
+      return true;
+    }
+
+    /**
+     * Reads the next line, or the next piece of an overly long one.
+     *
+     * @return false at the end of the document
+     */
+    private boolean readLine() throws IOException {
+      line.setLength(0);
+      continued = false;
+      while (true) {
+        if (inputPosition == inputLimit) {
+          inputLimit = markdown.read(input);
+          inputPosition = 0;
+          if (inputLimit <= 0) {
+            inputLimit = 0;
+            return line.length() > 0;
+          }
+        }
+        // Copy up to the end of the line, or as much as fits in one piece.
+        // A piece ending in half a surrogate pair takes one more character.
+        int start = inputPosition;
+        int end = Math.min(inputLimit, start + Math.max(1, MAX_LINE_CHARS - line.length()));
+        while (inputPosition < end && input[inputPosition] != '\n') {
+          inputPosition++;
+        }
+        line.append(input, start, inputPosition - start);
+        if (inputPosition < inputLimit && input[inputPosition] == '\n') {
+          inputPosition++;
+          if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
+          }
+          return true;
+        }
+        if (line.length() >= MAX_LINE_CHARS
+            && !Character.isHighSurrogate(line.charAt(line.length() - 1))) {
+          continued = true;
+          return true;
+        }
+      }
+    }
+
+    private void renderLine() {
+      if (block == Block.CODE) {
+        if (isClosingFence()) {
+          closeBlock();
+        } else {
+          escape(line, 0, line.length(), html);
+          if (!continued) {
+            html.append('\n');
+          }
+        }
+        return;
+      }
+
+      // Only try the patterns the first character allows
+      char first = firstNonSpace(line);
+      Matcher matcher = first == '`' || first == '~' ? FENCE.matcher(line) : null;
+      if (matcher != null && matcher.matches()) {
+        closeBlock();
+        fence = matcher.group(1);
+        String language = matcher.group(2);
+        html.append(language.isEmpty() ? "<pre><code>"
+            : "<pre><code class=\"language-" + escape(language) + "\">");
+        block = Block.CODE;
+        return;
+      }
+      if (first == 0) {
+        closeBlock();
+        return;
+      }
+      matcher = first == '#' ? HEADING.matcher(line) : null;
+      if (matcher != null && matcher.matches()) {
+        closeBlock();
+        int level = matcher.group(1).length();
+        html.append("<h").append(level).append('>');
+        inline(nullToEmpty(matcher.group(2)), html);
+        html.append("</h").append(level).append(">\n");
+        return;
+      }
+      boolean marker = first == '-' || first == '*' || first == '_';
+      if (marker && RULE.matcher(line).matches()) {
+        closeBlock();
+        html.append("<hr>\n");
+        return;
+      }
+      matcher = marker || first == '+' ? BULLET.matcher(line) : null;
+      if (matcher != null && matcher.matches()) {
+        listItem(Block.BULLETS, matcher.group(1));
+        return;
+      }
+      matcher = first >= '0' && first <= '9' ? NUMBERED.matcher(line) : null;
+      if (matcher != null && matcher.matches()) {
+        listItem(Block.NUMBERS, matcher.group(1));
+        return;
+      }
+      matcher = first == '>' ? QUOTE.matcher(line) : null;
+      if (matcher != null && matcher.matches()) {
+        if (block == Block.QUOTE) {
+          html.append('\n');
+        } else {
+          openBlock(Block.QUOTE);
+        }
+        inline(matcher.group(1), html);
+        return;
+      }
+
+      // Paragraph text, or a lazy continuation of the current block
+      if (block == Block.NONE) {
+        openBlock(Block.PARAGRAPH);
+      } else {
+        html.append('\n');
+      }
+      inline(line.toString().trim(), html);
+    }
+
+    private void renderContinuation() {
+      if (block == Block.CODE) {
+        escape(line, 0, line.length(), html);
+        if (!continued) {
+          html.append('\n');
+        }
+      } else {
+        if (block == Block.NONE) {
+          openBlock(Block.PARAGRAPH);
+        }
+        inline(line.toString(), html);
+      }
+    }
+
+    private void listItem(Block list, String text) {
+      if (block == list) {
+        html.append("</li>\n<li>");
+      } else {
+        openBlock(list);
+      }
+      inline(text, html);
+    }
+
+    private boolean isClosingFence() {
+      String trimmed = line.toString().trim();
+      if (trimmed.length() < fence.length()) {
+        return false;
+      }
+      for (int i = 0; i < trimmed.length(); i++) {
+        if (trimmed.charAt(i) != fence.charAt(0)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void openBlock(Block next) {
+      closeBlock();
+      html.append(next.open);
+      block = next;
+    }
+
+    private void closeBlock() {
+      html.append(block.close);
+      block = Block.NONE;
+    }
+  }
+
+  /**
+   * Renders inline Markdown: code spans, emphasis, links and images,
+   * escaping everything else.
+   *
+   * @param text Markdown text of a single line
+   * @param html HTML output
+   */
+  private static void inline(String text, StringBuilder html) {
+    int i = 0;
+    int length = text.length();
+    while (i < length) {
+      char c = text.charAt(i);
+      if (c == '\\' && i + 1 < length && isPunctuation(text.charAt(i + 1))) {
+        escape(text, i + 1, i + 2, html);
+        i += 2;
+        continue;
+      }
+      if (c == '`') {
+        int run = runLength(text, i, '`');
+        int close = text.indexOf(repeat('`', run), i + run);
+        if (close > 0) {
+          html.append("<code>").append(escape(text.substring(i + run, close).trim()))
+              .append("</code>");
+          i = close + run;
+          continue;
+        }
+        escape(text, i, i + run, html);
+        i += run;
+        continue;
+      }
+      if (c == '[' || (c == '!' && i + 1 < length && text.charAt(i + 1) == '[')) {
+        int next = link(text, i, html);
+        if (next > i) {
+          i = next;
+          continue;
+        }
+      }
+      if ((c == '*' || c == '_') && (c == '*' || isBoundary(text, i - 1))) {
+        int run = Math.min(runLength(text, i, c), 2);
+        String delimiter = repeat(c, run);
+        int close = text.indexOf(delimiter, i + run + 1);
+        if (close > 0 && !Character.isWhitespace(text.charAt(i + run))
+            && !Character.isWhitespace(text.charAt(close - 1))
+            && (c == '*' || isBoundary(text, close + run))) {
+          String tag = run == 2 ? "strong" : "em";
+          html.append('<').append(tag).append('>');
+          inline(text.substring(i + run, close), html);
+          html.append("</").append(tag).append('>');
+          i = close + run;
+          continue;
+        }
+      }
+      escape(text, i, i + 1, html);
+      i++;
+    }
+  }
+
+  /**
+   * Renders a link or image starting at the given position.
+   *
+   * @return position after the link, or the start position if there's no
+   * well formed link there
+   */
+  private static int link(String text, int start, StringBuilder html) {
+    boolean image = text.charAt(start) == '!';
+    int open = image ? start + 1 : start;
+    int close = text.indexOf("](", open);
+    if (close < 0) {
+      return start;
+    }
+    // The target may contain balanced parentheses
+    int end = -1;
+    int depth = 0;
+    for (int i = close + 2; i < text.length() && end < 0; i++) {
+      char c = text.charAt(i);
+      if (c == '(') {
+        depth++;
+      } else if (c == ')' && depth-- == 0) {
+        end = i;
+      }
+    }
+    if (end < 0) {
+      return start;
+    }
+    String label = text.substring(open + 1, close);
+    String target = text.substring(close + 2, end).trim();
+    int space = target.indexOf(' ');
+    if (space > 0) {
+      // Drop any link title
+      target = target.substring(0, space);
+    }
+    if (image) {
+      // Images can't be indexed, keep their description
+      escape(label, 0, label.length(), html);
+    } else if (SAFE_URL.matcher(target).matches()) {
+      html.append("<a href=\"").append(escape(target)).append("\">");
+      inline(label, html);
+      html.append("</a>");
+    } else {
+      inline(label, html);
+    }
+    return end + 1;
+  }
+
+  private static int runLength(String text, int start, char c) {
+    int end = start;
+    while (end < text.length() && text.charAt(end) == c) {
+      end++;
+    }
+    return end - start;
+  }
+
+  private static String repeat(char c, int count) {
+    StringBuilder run = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      run.append(c);
+    }
+    return run.toString();
+  }
+
+  private static boolean isBoundary(String text, int i) {
+    return i < 0 || i >= text.length() || !Character.isLetterOrDigit(text.charAt(i));
+  }
+
+  private static boolean isPunctuation(char c) {
+    return c < 0x80 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c)
+        && !Character.isISOControl(c);
+  }
+
+  /**
+   * Get the first character that isn't whitespace, 0 for a blank line.
+   */
+  private static char firstNonSpace(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (!Character.isWhitespace(text.charAt(i))) {
+        return text.charAt(i);
+      }
+    }
+    return 0;
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+}
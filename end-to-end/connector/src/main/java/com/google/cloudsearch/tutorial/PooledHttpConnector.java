@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.OkUrlFactory;
+import okhttp3.Protocol;
+import org.kohsuke.github.HttpConnector;
+
+import java.io.Closeable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport for the GitHub client backed by a shared OkHttp connection
+ * pool.
+ * <p>
+ * Connections to the API host are kept alive and reused across requests
+ * and threads instead of relying on the JDK's small per-destination
+ * keep-alive cache. Responses are requested gzip compressed and decoded
+ * transparently. HTTP/2 can optionally be negotiated, in which case
+ * concurrent requests are multiplexed over a single connection.
+ */
+class PooledHttpConnector implements HttpConnector, Closeable {
+  private final OkHttpClient client;
+  private final OkUrlFactory urlFactory;
+
+  /**
+   * Creates the transport.
+   *
+   * @param maxIdleConnections   connections kept open, all requests go to
+   *                             the same API host
+   * @param keepAliveMillis      time an idle connection is kept open
+   * @param connectTimeoutMillis timeout for establishing connections
+   * @param readTimeoutMillis    timeout for reading responses
+   * @param http2                whether to negotiate HTTP/2
+   */
+  PooledHttpConnector(int maxIdleConnections, long keepAliveMillis, int connectTimeoutMillis,
+                      int readTimeoutMillis, boolean http2) {
+    this.client = new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis,
+            TimeUnit.MILLISECONDS))
+        .protocols(http2
+            ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+            : Collections.singletonList(Protocol.HTTP_1_1))
+        .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+        .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+        .build();
+    this.urlFactory = new OkUrlFactory(client);
+  }
+
+  @Override
+  public HttpURLConnection connect(URL url) {
+    return urlFactory.open(url);
+  }
+
+  /**
+   * Closes pooled connections.
+   */
+  @Override
+  public void close() {
+    client.connectionPool().evictAll();
+  }
+}
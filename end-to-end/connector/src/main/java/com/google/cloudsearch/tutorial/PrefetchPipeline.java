@@ -0,0 +1,409 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Two stage pipeline that overlaps reads from GitHub with indexing.
+ * <p>
+ * The fetch stage runs on its own thread pool and reads items that are
+ * about to be polled from the queue ahead of time. Fetched items are held
+ * in a bounded spool; content is kept in memory up to a budget and
+ * overflows to disk beyond that. The indexing stage, run by the SDK worker
+ * threads in {@code getDoc}, drains the spool.
+ * <p>
+ * Reads never run unboundedly ahead of writes. Scheduling a prefetch never
+ * blocks: once the spool holds the maximum number of items, further items
+ * are dropped and simply fetched when they are drained. A fetcher spooling
+ * content blocks while both the memory and disk budgets are used up, until
+ * the indexing stage catches up or stale entries expire.
+ * <p>
+ * The budgets only bound content held by the spool. An item's share is
+ * released once {@code getDoc} is done with it, while the document built
+ * from it may still hold the content until the SDK uploads it. Content
+ * waiting for upload is bounded by the SDK's worker threads instead.
+ */
+class PrefetchPipeline implements Closeable {
+  /**
+   * Log output
+   */
+  private Logger log = Logger.getLogger(PrefetchPipeline.class.getName());
+
+  /**
+   * Reads a single item from the data repository.
+   */
+  interface Fetcher {
+    /**
+     * Fetches an item.
+     *
+     * @param name     name of the item
+     * @param pipeline pipeline to spool any content into
+     * @return fetched item
+     * @throws IOException if unable to read the item
+     */
+    Fetched fetch(String name, PrefetchPipeline pipeline) throws IOException;
+  }
+
+  /**
+   * An item read by the fetch stage.
+   */
+  static class Fetched {
+    private final Object value;
+    private final SpooledContent content;
+
+    /**
+     * Creates a fetched item.
+     *
+     * @param value   the item
+     * @param content spooled content of the item, or null if none
+     */
+    Fetched(Object value, SpooledContent content) {
+      this.value = value;
+      this.content = content;
+    }
+
+    Object getValue() {
+      return value;
+    }
+
+    /**
+     * Releases the spooled content's share of the budget, and any spool
+     * file. Safe to call once the content stream has been opened, the file
+     * stays readable until the stream is closed. Content still referenced
+     * elsewhere, such as by a document waiting for upload, is no longer
+     * counted against the budget.
+     */
+    void discard() {
+      if (content != null) {
+        content.discard();
+      }
+    }
+  }
+
+  /**
+   * Content held in memory or in a spool file. A spool file is deleted
+   * once its content has been read. The content holds its reservation
+   * against the memory or disk budget until discarded.
+   */
+  class SpooledContent extends ByteSource {
+    private final byte[] bytes;
+    private final File file;
+    private final long size;
+    private final AtomicBoolean discarded = new AtomicBoolean();
+
+    private SpooledContent(byte[] bytes, File file, long size) {
+      this.bytes = bytes;
+      this.file = file;
+      this.size = size;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      if (bytes != null) {
+        return ByteSource.wrap(bytes).openStream();
+      }
+      return new FilterInputStream(new FileInputStream(file)) {
+        @Override
+        public void close() throws IOException {
+          super.close();
+          discard();
+        }
+      };
+    }
+
+    private void discard() {
+      if (!discarded.compareAndSet(false, true)) {
+        return;
+      }
+      if (file != null) {
+        file.delete();
+        release(diskBytes, size);
+      } else {
+        release(memoryBytes, size);
+      }
+    }
+  }
+
+  private final Fetcher fetcher;
+  private final int maxPending;
+  private final long memoryBudget;
+  private final long diskBudget;
+  private final File spoolDirectory;
+  private final long ttlMillis;
+  private final ExecutorService fetchers;
+  private final ScheduledExecutorService reaper;
+
+  private final Map<String, Pending> spool = new ConcurrentHashMap<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger fetching = new AtomicInteger();
+  private final AtomicLong memoryBytes = new AtomicLong();
+  private final AtomicLong diskBytes = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+
+  /**
+   * Entry in the spool. Completes once the item is fetched.
+   */
+  private static class Pending {
+    final CompletableFuture<Fetched> future = new CompletableFuture<>();
+    final long createdAt = System.currentTimeMillis();
+  }
+
+  /**
+   * Creates the pipeline and starts the fetch stage.
+   *
+   * @param fetcher        reads items from the data repository
+   * @param fetchThreads   number of concurrent fetches
+   * @param maxPending     maximum number of items queued or spooled
+   * @param memoryBudget   maximum bytes of content held in memory
+   * @param diskBudget     maximum bytes of content spooled to disk
+   * @param spoolDirectory directory for spool files
+   * @param ttlMillis      time after which an item that was never
+   *                       drained is discarded
+   */
+  PrefetchPipeline(Fetcher fetcher, int fetchThreads, int maxPending, long memoryBudget,
+                   long diskBudget, File spoolDirectory, long ttlMillis) {
+    this.fetcher = fetcher;
+    this.maxPending = maxPending;
+    this.memoryBudget = memoryBudget;
+    this.diskBudget = diskBudget;
+    this.spoolDirectory = spoolDirectory;
+    this.ttlMillis = ttlMillis;
+    this.fetchers = Executors.newFixedThreadPool(fetchThreads,
+        new ThreadFactoryBuilder().setNameFormat("prefetch-%d").setDaemon(true).build());
+    this.reaper = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("prefetch-reaper").setDaemon(true).build());
+    this.reaper.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Schedules an item to be fetched ahead of time. Never blocks, the item
+   * is dropped if too many items are already pending and will simply be
+   * fetched when it is drained.
+   *
+   * @param name name of the item
+   */
+  void prefetch(String name) {
+    if (spool.size() >= maxPending) {
+      dropped.incrementAndGet();
+      return;
+    }
+    Pending pending = new Pending();
+    if (spool.putIfAbsent(name, pending) != null) {
+      return;
+    }
+    queued.incrementAndGet();
+    fetchers.execute(() -> {
+      queued.decrementAndGet();
+      fetching.incrementAndGet();
+      try {
+        pending.future.complete(fetcher.fetch(name, this));
+      } catch (IOException | RuntimeException e) {
+        pending.future.completeExceptionally(e);
+      } finally {
+        fetching.decrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * Drains an item from the spool. If the item is still being fetched,
+   * waits for the fetch to complete.
+   *
+   * @param name name of the item
+   * @return fetched item, or null if it wasn't prefetched or the fetch
+   * failed
+   */
+  Fetched take(String name) {
+    Pending pending = spool.remove(name);
+    if (pending == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    try {
+      Fetched fetched = pending.future.get();
+      hits.incrementAndGet();
+      return fetched;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      // Nobody will take the item now, release it once fetched
+      pending.future.thenAccept(Fetched::discard);
+      return null;
+    } catch (ExecutionException e) {
+      log.fine(() -> String.format("Prefetch failed for %s: %s", name, e.getCause()));
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Copies content into the spool, in memory if the budget allows,
+   * otherwise to disk. Blocks while both budgets are exhausted.
+   *
+   * @param content content to spool, closed when done
+   * @param size    size of the content in bytes
+   * @return spooled content
+   * @throws IOException if unable to read or spool the content
+   */
+  SpooledContent spool(InputStream content, long size) throws IOException {
+    try (InputStream in = content) {
+      while (true) {
+        if (reserve(memoryBytes, memoryBudget, size, false)) {
+          try {
+            return new SpooledContent(ByteStreams.toByteArray(in), null, size);
+          } catch (IOException | RuntimeException e) {
+            release(memoryBytes, size);
+            throw e;
+          }
+        }
+        if (reserve(diskBytes, diskBudget, size, true)) {
+          File file = null;
+          try {
+            file = File.createTempFile("prefetch", ".tmp", spoolDirectory);
+            file.deleteOnExit();
+            try (OutputStream out = new FileOutputStream(file)) {
+              ByteStreams.copy(in, out);
+            }
+            return new SpooledContent(null, file, size);
+          } catch (IOException | RuntimeException e) {
+            if (file != null) {
+              file.delete();
+            }
+            release(diskBytes, size);
+            throw e;
+          }
+        }
+        awaitRelease();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for spool space", e);
+    }
+  }
+
+  /**
+   * Get the bytes of content currently reserved in memory.
+   */
+  long memoryBytes() {
+    return memoryBytes.get();
+  }
+
+  /**
+   * Get the bytes of content currently spooled to disk.
+   */
+  long diskBytes() {
+    return diskBytes.get();
+  }
+
+  /**
+   * Logs the depth of each stage.
+   */
+  void logStats() {
+    log.info(() -> String.format("Prefetch queued=%d fetching=%d spooled=%d"
+            + " memoryBytes=%d diskBytes=%d hits=%d misses=%d dropped=%d expired=%d",
+        queued.get(), fetching.get(), spool.size() - queued.get() - fetching.get(),
+        memoryBytes.get(), diskBytes.get(), hits.get(), misses.get(), dropped.get(),
+        expired.get()));
+  }
+
+  /**
+   * Stops fetching and discards anything still spooled.
+   */
+  @Override
+  public void close() {
+    fetchers.shutdownNow();
+    reaper.shutdownNow();
+    for (Pending pending : spool.values()) {
+      discard(pending);
+    }
+    spool.clear();
+  }
+
+  private void expire() {
+    long cutoff = System.currentTimeMillis() - ttlMillis;
+    Iterator<Pending> it = spool.values().iterator();
+    while (it.hasNext()) {
+      Pending pending = it.next();
+      if (pending.createdAt < cutoff && pending.future.isDone()) {
+        it.remove();
+        discard(pending);
+        expired.incrementAndGet();
+      }
+    }
+    logStats();
+  }
+
+  private void discard(Pending pending) {
+    if (pending.future.isDone() && !pending.future.isCompletedExceptionally()) {
+      pending.future.join().discard();
+    }
+  }
+
+  private boolean reserve(AtomicLong used, long budget, long size, boolean admitOversize) {
+    while (true) {
+      long current = used.get();
+      // When admitOversize is set, a single item larger than the whole
+      // budget is still let through so it can't block forever.
+      boolean oversize = admitOversize && current == 0;
+      if (current + size > budget && !oversize) {
+        return false;
+      }
+      if (used.compareAndSet(current, current + size)) {
+        return true;
+      }
+    }
+  }
+
+  private void release(AtomicLong used, long size) {
+    if (size > 0) {
+      used.addAndGet(-size);
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  private synchronized void awaitRelease() throws InterruptedException {
+    wait(TimeUnit.SECONDS.toMillis(1));
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import org.kohsuke.github.HttpConnector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport that records every exchange with GitHub into a
+ * {@link TrafficArchive} while passing it through to another transport.
+ * The archive can later be served back by {@link ReplayHttpConnector}.
+ * <p>
+ * An exchange is recorded once the client has finished reading the
+ * response body, exactly as the client saw it.
+ */
+class RecordingHttpConnector implements HttpConnector, Closeable {
+  /**
+   * Log output
+   */
+  private Logger log = Logger.getLogger(RecordingHttpConnector.class.getName());
+
+  private final HttpConnector delegate;
+  private final TrafficArchive archive;
+
+  /**
+   * Creates the recorder.
+   *
+   * @param delegate transport performing the actual requests
+   * @param archive  archive to record into
+   */
+  RecordingHttpConnector(HttpConnector delegate, TrafficArchive archive) {
+    this.delegate = delegate;
+    this.archive = archive;
+  }
+
+  @Override
+  public HttpURLConnection connect(URL url) throws IOException {
+    return new RecordingConnection(delegate.connect(url));
+  }
+
+  /**
+   * Closes the archive.
+   */
+  @Override
+  public void close() throws IOException {
+    archive.close();
+  }
+
+  /**
+   * Connection delegating to the real one, capturing the response.
+   */
+  private class RecordingConnection extends HttpURLConnection {
+    private final HttpURLConnection connection;
+    private String accept;
+    private long latencyNanos = -1;
+    private boolean recorded;
+    private InputStream inputStream;
+    private InputStream errorStream;
+
+    RecordingConnection(HttpURLConnection connection) {
+      super(connection.getURL());
+      this.connection = connection;
+    }
+
+    @Override
+    public void setRequestMethod(String method) throws ProtocolException {
+      connection.setRequestMethod(method);
+      super.setRequestMethod(method);
+    }
+
+    @Override
+    public String getRequestMethod() {
+      return connection.getRequestMethod();
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+      connection.setRequestProperty(key, value);
+      if ("Accept".equalsIgnoreCase(key)) {
+        accept = value;
+      }
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+      connection.addRequestProperty(key, value);
+      if ("Accept".equalsIgnoreCase(key)) {
+        accept = accept == null ? value : accept + ", " + value;
+      }
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+      return connection.getRequestProperty(key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+      return connection.getRequestProperties();
+    }
+
+    @Override
+    public void setDoOutput(boolean doOutput) {
+      connection.setDoOutput(doOutput);
+    }
+
+    @Override
+    public void setConnectTimeout(int timeout) {
+      connection.setConnectTimeout(timeout);
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) {
+      connection.setReadTimeout(timeout);
+    }
+
+    @Override
+    public void setInstanceFollowRedirects(boolean followRedirects) {
+      connection.setInstanceFollowRedirects(followRedirects);
+    }
+
+    @Override
+    public void setUseCaches(boolean useCaches) {
+      connection.setUseCaches(useCaches);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(int contentLength) {
+      connection.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setChunkedStreamingMode(int chunkLength) {
+      connection.setChunkedStreamingMode(chunkLength);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      return connection.getOutputStream();
+    }
+
+    @Override
+    public void connect() throws IOException {
+      connection.connect();
+    }
+
+    @Override
+    public void disconnect() {
+      connection.disconnect();
+    }
+
+    @Override
+    public boolean usingProxy() {
+      return connection.usingProxy();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+      awaitResponse();
+      return connection.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+      awaitResponse();
+      return connection.getResponseMessage();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+      awaitHeaders();
+      return connection.getHeaderField(name);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+      awaitHeaders();
+      return connection.getHeaderField(n);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+      awaitHeaders();
+      return connection.getHeaderFieldKey(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+      awaitHeaders();
+      return connection.getHeaderFields();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      awaitResponse();
+      if (inputStream == null) {
+        inputStream = new RecordingStream(connection.getInputStream());
+      }
+      return inputStream;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      awaitHeaders();
+      if (errorStream == null) {
+        InputStream stream = connection.getErrorStream();
+        if (stream == null) {
+          record(new byte[0]);
+          return null;
+        }
+        errorStream = new RecordingStream(stream);
+      }
+      return errorStream;
+    }
+
+    private void awaitResponse() throws IOException {
+      if (latencyNanos < 0) {
+        long start = System.nanoTime();
+        connection.getResponseCode();
+        latencyNanos = System.nanoTime() - start;
+      }
+    }
+
+    private void awaitHeaders() {
+      try {
+        awaitResponse();
+      } catch (IOException e) {
+        // Header accessors can't throw, the failure resurfaces on the
+        // next call that can
+      }
+    }
+
+    private synchronized void record(byte[] body) {
+      if (recorded) {
+        return;
+      }
+      recorded = true;
+      try {
+        Map<String, List<String>> headers = new LinkedHashMap<>(connection.getHeaderFields());
+        archive.append(new TrafficArchive.Exchange(connection.getRequestMethod(),
+            getURL().toExternalForm(), accept, Math.max(0, latencyNanos),
+            connection.getResponseCode(), connection.getResponseMessage(), headers, body));
+      } catch (IOException e) {
+        log.log(Level.WARNING, String.format("Unable to record response for %s", getURL()), e);
+      }
+    }
+
+    /**
+     * Copies the body as the client reads it, recording it once fully read
+     * or closed.
+     */
+    private class RecordingStream extends FilterInputStream {
+      private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+      RecordingStream(InputStream in) {
+        super(in);
+      }
+
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+          body.write(b);
+        } else {
+          record(body.toByteArray());
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+          body.write(buffer, offset, read);
+        } else if (read < 0) {
+          record(body.toByteArray());
+        }
+        return read;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        // Read rather than skip so the archive holds the whole body
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        int read = read(buffer, 0, buffer.length);
+        return Math.max(read, 0);
+      }
+
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+
+      @Override
+      public void close() throws IOException {
+        // Drain anything the client didn't read
+        byte[] buffer = new byte[8192];
+        try {
+          while (read(buffer, 0, buffer.length) >= 0) {
+            // Keep reading
+          }
+        } finally {
+          super.close();
+        }
+      }
+    }
+  }
+}
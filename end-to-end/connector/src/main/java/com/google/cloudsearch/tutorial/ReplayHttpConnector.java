@@ -0,0 +1,251 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.io.ByteStreams;
+import org.kohsuke.github.HttpConnector;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport that serves responses from a {@link TrafficArchive} instead of
+ * calling GitHub.
+ * <p>
+ * Requests are matched on method, URL and Accept header, since GitHub
+ * serves different representations of the same URL, such as a pull
+ * request and its diff. Responses to the same request are served in the
+ * order they were recorded; once they run out, the last one keeps being
+ * served. Each
+ * response is delayed by its recorded latency multiplied by a scale
+ * factor, so a traversal can be replayed at its original pace, faster, or
+ * with no delay at all.
+ */
+class ReplayHttpConnector implements HttpConnector {
+  private final Map<String, Deque<TrafficArchive.Exchange>> exchanges = new HashMap<>();
+  private final double latencyScale;
+
+  /**
+   * Creates the replayer.
+   *
+   * @param recorded     recorded exchanges, in the order recorded
+   * @param latencyScale multiplier for the recorded latencies, 0 to
+   *                     respond immediately
+   */
+  ReplayHttpConnector(List<TrafficArchive.Exchange> recorded, double latencyScale) {
+    this.latencyScale = latencyScale;
+    for (TrafficArchive.Exchange exchange : recorded) {
+      exchanges.computeIfAbsent(key(exchange.method, exchange.url, exchange.accept),
+          k -> new ArrayDeque<>()).add(exchange);
+    }
+  }
+
+  @Override
+  public HttpURLConnection connect(URL url) {
+    return new ReplayConnection(url);
+  }
+
+  private synchronized TrafficArchive.Exchange next(String method, String url,
+                                                    String accept) {
+    Deque<TrafficArchive.Exchange> queue = exchanges.get(key(method, url, accept));
+    if (queue == null) {
+      return null;
+    }
+    return queue.size() > 1 ? queue.poll() : queue.peek();
+  }
+
+  private static String key(String method, String url, String accept) {
+    return method + " " + url + " " + accept;
+  }
+
+  /**
+   * Connection answering from the archive.
+   */
+  private class ReplayConnection extends HttpURLConnection {
+    private TrafficArchive.Exchange exchange;
+    private String accept;
+
+    ReplayConnection(URL url) {
+      super(url);
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+      super.setRequestProperty(key, value);
+      if ("Accept".equalsIgnoreCase(key)) {
+        accept = value;
+      }
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+      super.addRequestProperty(key, value);
+      if ("Accept".equalsIgnoreCase(key)) {
+        accept = accept == null ? value : accept + ", " + value;
+      }
+    }
+
+    @Override
+    public void connect() {
+      connected = true;
+    }
+
+    @Override
+    public void disconnect() {
+      connected = false;
+    }
+
+    @Override
+    public boolean usingProxy() {
+      return false;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      // Request bodies aren't part of the lookup, discard them
+      return ByteStreams.nullOutputStream();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+      return exchange().status;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+      return exchange().message;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+      List<String> values = findHeader(name);
+      return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+      Map.Entry<String, String> header = headerAt(n);
+      return header == null ? null : header.getKey();
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+      Map.Entry<String, String> header = headerAt(n);
+      return header == null ? null : header.getValue();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+      TrafficArchive.Exchange response = exchangeOrNull();
+      return response == null ? Collections.emptyMap()
+          : Collections.unmodifiableMap(response.headers);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      TrafficArchive.Exchange response = exchange();
+      if (response.status >= 400) {
+        // Same as HttpURLConnection, errors are read from the error stream
+        if (response.status == HTTP_NOT_FOUND || response.status == HTTP_GONE) {
+          throw new FileNotFoundException(url.toExternalForm());
+        }
+        throw new IOException(String.format("Server returned HTTP response code: %d for URL: %s",
+            response.status, url));
+      }
+      return new ByteArrayInputStream(response.body);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      TrafficArchive.Exchange response = exchangeOrNull();
+      if (response == null || response.status < 400) {
+        return null;
+      }
+      return new ByteArrayInputStream(response.body);
+    }
+
+    private synchronized TrafficArchive.Exchange exchange() throws IOException {
+      if (exchange == null) {
+        exchange = next(getRequestMethod(), url.toExternalForm(), accept);
+        if (exchange == null) {
+          throw new IOException(String.format("No recorded response for %s %s (Accept: %s)",
+              getRequestMethod(), url, accept));
+        }
+        connected = true;
+        long delayNanos = (long) (exchange.latencyNanos * latencyScale);
+        if (delayNanos > 0) {
+          try {
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying response");
+          }
+        }
+      }
+      return exchange;
+    }
+
+    private TrafficArchive.Exchange exchangeOrNull() {
+      try {
+        return exchange();
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    private List<String> findHeader(String name) {
+      TrafficArchive.Exchange response = exchangeOrNull();
+      if (response == null) {
+        return null;
+      }
+      for (Map.Entry<String, List<String>> header : response.headers.entrySet()) {
+        if (header.getKey() == null ? name == null : header.getKey().equalsIgnoreCase(name)) {
+          return header.getValue();
+        }
+      }
+      return null;
+    }
+
+    private Map.Entry<String, String> headerAt(int n) {
+      TrafficArchive.Exchange response = exchangeOrNull();
+      if (response == null) {
+        return null;
+      }
+      int i = 0;
+      for (Map.Entry<String, List<String>> header : response.headers.entrySet()) {
+        for (String value : header.getValue()) {
+          if (i++ == n) {
+            return new HashMap.SimpleImmutableEntry<>(header.getKey(), value);
+          }
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.io.ByteSource;
+
+/**
+ * A file in a repository branch. Decouples indexing of files from where
+ * the content is read, either the GitHub API or a local mirror.
+ */
+class RepositoryFile {
+  private final String organization;
+  private final String repository;
+  private final String path;
+  private final String sha;
+  private final long size;
+  private final String htmlUrl;
+  private final ByteSource content;
+
+  /**
+   * Creates a file.
+   *
+   * @param organization owner of the repository
+   * @param repository   name of the repository, without the owner
+   * @param path         path of the file within the repository
+   * @param sha          blob SHA of the file
+   * @param size         size of the file in bytes
+   * @param htmlUrl      URL of the file on GitHub
+   * @param content      source of the file content
+   */
+  RepositoryFile(String organization, String repository, String path, String sha,
+                 long size, String htmlUrl, ByteSource content) {
+    this.organization = organization;
+    this.repository = repository;
+    this.path = path;
+    this.sha = sha;
+    this.size = size;
+    this.htmlUrl = htmlUrl;
+    this.content = content;
+  }
+
+  String getOrganization() {
+    return organization;
+  }
+
+  String getRepository() {
+    return repository;
+  }
+
+  String getPath() {
+    return path;
+  }
+
+  /**
+   * Get the file name.
+   *
+   * @return last component of the path
+   */
+  String getName() {
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+  String getSha() {
+    return sha;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  String getHtmlUrl() {
+    return htmlUrl;
+  }
+
+  ByteSource getContent() {
+    return content;
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.PagedIterable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Streams the names of repositories to index.
+ * <p>
+ * Organizations are scanned concurrently, one page of repositories at a
+ * time, and each repository that passes the filters is handed out as
+ * soon as its page arrives. The traversal can start on the first
+ * repository without waiting for the whole organization to be listed.
+ * Scanning stays at most a bounded number of repositories ahead of the
+ * traversal.
+ */
+class RepositoryScanner implements Closeable {
+  /**
+   * Log output
+   */
+  private Logger log = Logger.getLogger(RepositoryScanner.class.getName());
+
+  /**
+   * Number of repositories requested per page
+   */
+  private static final int PAGE_SIZE = 100;
+
+  /**
+   * Maximum number of scanned repositories waiting to be traversed
+   */
+  private static final int MAX_QUEUED = 1000;
+
+  /**
+   * Marks the end of the scan in the queue
+   */
+  private static final String END = new String("END");
+
+  /**
+   * Criteria for repositories to index.
+   */
+  static class Filter {
+    private final boolean skipArchived;
+    private final boolean skipForks;
+    private final boolean skipEmpty;
+    private final Pattern namePattern;
+    private final List<String> topics;
+
+    /**
+     * Creates a filter.
+     *
+     * @param skipArchived exclude archived repositories
+     * @param skipForks    exclude forks
+     * @param skipEmpty    exclude repositories without content
+     * @param namePattern  regex the repository name must match
+     * @param topics       topics the repository must have, empty for any
+     */
+    Filter(boolean skipArchived, boolean skipForks, boolean skipEmpty, Pattern namePattern,
+           List<String> topics) {
+      this.skipArchived = skipArchived;
+      this.skipForks = skipForks;
+      this.skipEmpty = skipEmpty;
+      this.namePattern = namePattern;
+      this.topics = topics;
+    }
+
+    /**
+     * Builds a repository search query applying as many of the filters
+     * as possible on the server.
+     */
+    private String toQuery(String organization) {
+      StringBuilder query = new StringBuilder("org:").append(organization);
+      // Search excludes forks unless asked for
+      if (!skipForks) {
+        query.append(" fork:true");
+      }
+      if (skipArchived) {
+        query.append(" archived:false");
+      }
+      if (skipEmpty) {
+        query.append(" size:>0");
+      }
+      for (String topic : topics) {
+        query.append(" topic:").append(topic);
+      }
+      return query.toString();
+    }
+
+    private boolean matches(GHRepository repo) {
+      return !(skipArchived && repo.isArchived())
+          && !(skipForks && repo.isFork())
+          && !(skipEmpty && repo.getSize() == 0)
+          && namePattern.matcher(repo.getName()).matches();
+    }
+  }
+
+  private final GitHub github;
+  private final List<String> names;
+  private final Filter filter;
+  private final Set<String> skip;
+  private final ExecutorService scanners;
+  private final BlockingQueue<String> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+  private final AtomicReference<IOException> error = new AtomicReference<>();
+  private boolean finished;
+
+  /**
+   * Creates a scanner. Nothing is scanned until started.
+   *
+   * @param github  GitHub client
+   * @param names   configured organizations (org) or repositories (org/repo)
+   * @param filter  criteria for repositories found in organizations
+   * @param skip    repositories to leave out, such as those already
+   *                traversed before a restart
+   * @param threads number of organizations to scan concurrently
+   */
+  RepositoryScanner(GitHub github, List<String> names, Filter filter, Set<String> skip,
+                    int threads) {
+    this.github = github;
+    this.names = names;
+    this.filter = filter;
+    this.skip = skip;
+    this.scanners = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("repository-scan-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Starts scanning in the background.
+   */
+  void start() {
+    List<String> repositories = new ArrayList<>();
+    List<String> organizations = new ArrayList<>();
+    for (String name : names) {
+      if (name.contains("/")) {
+        // Name is a fully qualified repo, not an org. Just add it.
+        repositories.add(name);
+      } else {
+        organizations.add(name);
+      }
+    }
+    AtomicInteger remaining = new AtomicInteger(organizations.size() + 1);
+    scanners.execute(() -> {
+      try {
+        for (String name : repositories) {
+          if (!skip.contains(name)) {
+            enqueue(name);
+          }
+        }
+      } finally {
+        finishTask(remaining);
+      }
+    });
+    for (String organization : organizations) {
+      scanners.execute(() -> {
+        try {
+          scanOrganization(organization);
+        } catch (IOException e) {
+          error.compareAndSet(null, e);
+        } catch (RuntimeException e) {
+          // Paged iterators wrap IO errors
+          error.compareAndSet(null, new IOException(e));
+        } finally {
+          finishTask(remaining);
+        }
+      });
+    }
+  }
+
+  /**
+   * Waits for the next repository.
+   *
+   * @return repository name (org/name), or null once all have been returned
+   * @throws IOException if scanning an organization failed
+   */
+  String next() throws IOException {
+    if (finished) {
+      return null;
+    }
+    try {
+      String name = queue.take();
+      if (error.get() != null) {
+        throw error.get();
+      }
+      if (name == END) {
+        finished = true;
+        return null;
+      }
+      return name;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while scanning repositories", e);
+    }
+  }
+
+  /**
+   * Stops any scans still running.
+   */
+  @Override
+  public void close() {
+    scanners.shutdownNow();
+  }
+
+  private void scanOrganization(String organization) throws IOException {
+    log.info(() -> String.format("Scanning organization %s", organization));
+    PagedIterable<GHRepository> repositories;
+    if (filter.topics.isEmpty()) {
+      repositories = github.getOrganization(organization).listRepositories(PAGE_SIZE);
+    } else {
+      // Topics can only be matched through search, let it apply the
+      // other filters as well.
+      repositories = github.searchRepositories()
+          .q(filter.toQuery(organization))
+          .list()
+          .withPageSize(PAGE_SIZE);
+    }
+    int count = 0;
+    for (GHRepository repo : repositories) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      if (filter.matches(repo) && !skip.contains(repo.getFullName())) {
+        enqueue(repo.getFullName());
+        count++;
+      }
+    }
+    int found = count;
+    log.info(() -> String.format("Found %d repositories in %s", found, organization));
+  }
+
+  private void finishTask(AtomicInteger remaining) {
+    if (remaining.decrementAndGet() == 0) {
+      enqueue(END);
+    }
+  }
+
+  private void enqueue(String name) {
+    try {
+      queue.put(name);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On-disk archive of recorded HTTP exchanges with the GitHub API.
+ * <p>
+ * The archive is a sequence of length-prefixed records, one per exchange,
+ * appended as responses complete. Response bodies are deflated per
+ * record, so an archive cut short by a crash is still readable up to the
+ * last complete record.
+ */
+final class TrafficArchive implements Closeable {
+  private static final int MAGIC = 0x47485241;
+  private static final int VERSION = 2;
+
+  /**
+   * Version without the Accept header, still readable
+   */
+  private static final int VERSION_WITHOUT_ACCEPT = 1;
+
+  /**
+   * A single request and its response.
+   */
+  static class Exchange {
+    final String method;
+    final String url;
+    final String accept;
+    final long latencyNanos;
+    final int status;
+    final String message;
+    final Map<String, List<String>> headers;
+    final byte[] body;
+
+    /**
+     * Creates an exchange.
+     *
+     * @param method       request method
+     * @param url          request URL
+     * @param accept       Accept request header, which selects the
+     *                     representation of the response, may be null
+     * @param latencyNanos time until the response headers arrived
+     * @param status       response status code
+     * @param message      response status message, may be null
+     * @param headers      response headers, the null key holds the status
+     *                     line as reported by HttpURLConnection
+     * @param body         response body as read by the client
+     */
+    Exchange(String method, String url, String accept, long latencyNanos, int status,
+             String message, Map<String, List<String>> headers, byte[] body) {
+      this.method = method;
+      this.url = url;
+      this.accept = accept;
+      this.latencyNanos = latencyNanos;
+      this.status = status;
+      this.message = message;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  private final DataOutputStream out;
+
+  private TrafficArchive(DataOutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Creates a new archive for writing, replacing any existing file.
+   *
+   * @param file archive file
+   * @return archive to append exchanges to
+   * @throws IOException if unable to create the file
+   */
+  static TrafficArchive create(File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.flush();
+    return new TrafficArchive(out);
+  }
+
+  /**
+   * Appends an exchange and flushes it to the file.
+   *
+   * @param exchange exchange to record
+   * @throws IOException if unable to write
+   */
+  synchronized void append(Exchange exchange) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream record = new DataOutputStream(buffer);
+    record.writeUTF(exchange.method);
+    record.writeUTF(exchange.url);
+    writeNullableUTF(record, exchange.accept);
+    record.writeLong(exchange.latencyNanos);
+    record.writeInt(exchange.status);
+    writeNullableUTF(record, exchange.message);
+    record.writeInt(exchange.headers.size());
+    for (Map.Entry<String, List<String>> header : exchange.headers.entrySet()) {
+      writeNullableUTF(record, header.getKey());
+      record.writeInt(header.getValue().size());
+      for (String value : header.getValue()) {
+        writeNullableUTF(record, value);
+      }
+    }
+    record.writeInt(exchange.body.length);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DeflaterOutputStream compressed = new DeflaterOutputStream(record, deflater)) {
+      compressed.write(exchange.body);
+    } finally {
+      deflater.end();
+    }
+    out.writeInt(buffer.size());
+    buffer.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * Reads all complete exchanges from an archive, in the order recorded.
+   *
+   * @param file archive file
+   * @return recorded exchanges
+   * @throws IOException if the file can't be read or isn't an archive
+   */
+  static List<Exchange> readAll(File file) throws IOException {
+    List<Exchange> exchanges = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(String.format("%s is not a traffic archive", file));
+      }
+      int version = in.readInt();
+      if (version != VERSION && version != VERSION_WITHOUT_ACCEPT) {
+        throw new IOException(String.format("Unsupported traffic archive version %d in %s",
+            version, file));
+      }
+      while (true) {
+        byte[] record;
+        try {
+          record = new byte[in.readInt()];
+          in.readFully(record);
+        } catch (EOFException e) {
+          // End of archive, or a record cut short while recording
+          break;
+        }
+        exchanges.add(read(new DataInputStream(new ByteArrayInputStream(record)), version));
+      }
+    }
+    return exchanges;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  private static Exchange read(DataInputStream in, int version) throws IOException {
+    String method = in.readUTF();
+    String url = in.readUTF();
+    String accept = version == VERSION_WITHOUT_ACCEPT ? null : readNullableUTF(in);
+    long latencyNanos = in.readLong();
+    int status = in.readInt();
+    String message = readNullableUTF(in);
+    int headerCount = in.readInt();
+    Map<String, List<String>> headers = new LinkedHashMap<>();
+    for (int i = 0; i < headerCount; i++) {
+      String name = readNullableUTF(in);
+      int valueCount = in.readInt();
+      List<String> values = new ArrayList<>(valueCount);
+      for (int j = 0; j < valueCount; j++) {
+        values.add(readNullableUTF(in));
+      }
+      headers.put(name, Collections.unmodifiableList(values));
+    }
+    byte[] body = new byte[in.readInt()];
+    try (InputStream inflater = new InflaterInputStream(in)) {
+      ByteStreams.readFully(inflater, body);
+    }
+    return new Exchange(method, url, accept, latencyNanos, status, message, headers, body);
+  }
+
+  private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullableUTF(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
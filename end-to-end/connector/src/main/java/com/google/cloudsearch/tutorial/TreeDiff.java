@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Computes the file level changes between two revisions of a git tree.
+ * <p>
+ * Trees are compared level by level. Since git trees are content addressed,
+ * a sub-tree with the same SHA in both revisions is identical and is skipped
+ * without reading it. Only directories that actually changed cost a
+ * tree listing.
+ */
+class TreeDiff {
+
+  /**
+   * Single entry (file or directory) in a git tree.
+   */
+  static class TreeEntry {
+    final String name;
+    final String sha;
+    final boolean isTree;
+
+    TreeEntry(String name, String sha, boolean isTree) {
+      this.name = name;
+      this.sha = sha;
+      this.isTree = isTree;
+    }
+  }
+
+  /**
+   * Source of tree listings, typically the GitHub API.
+   */
+  interface TreeReader {
+    /**
+     * Reads the immediate entries of a tree.
+     *
+     * @param sha SHA of the tree to read
+     * @return entries of the tree. Submodules should be omitted.
+     * @throws IOException if unable to read the tree
+     */
+    List<TreeEntry> readTree(String sha) throws IOException;
+  }
+
+  /**
+   * Receives the changes found while diffing.
+   */
+  interface ChangeHandler {
+    /**
+     * Called for files that were added or modified.
+     *
+     * @param path full path of the file
+     * @param sha  new blob SHA of the file
+     */
+    void changed(String path, String sha);
+
+    /**
+     * Called for files that were removed.
+     *
+     * @param path full path of the file
+     */
+    void deleted(String path);
+  }
+
+  private final TreeReader reader;
+  private final ChangeHandler handler;
+
+  private TreeDiff(TreeReader reader, ChangeHandler handler) {
+    this.reader = reader;
+    this.handler = handler;
+  }
+
+  /**
+   * Diffs two revisions of a tree. Either SHA may be null, in which case
+   * all files in the other revision are reported as changed or deleted.
+   *
+   * @param reader  source of tree listings
+   * @param oldSha  SHA of the previous root tree, or null
+   * @param newSha  SHA of the current root tree, or null
+   * @param handler receives changed and deleted paths
+   * @throws IOException if unable to read a tree
+   */
+  static void diff(TreeReader reader, String oldSha, String newSha,
+                   ChangeHandler handler) throws IOException {
+    new TreeDiff(reader, handler).diff("", oldSha, newSha);
+  }
+
+  private void diff(String prefix, String oldSha, String newSha) throws IOException {
+    if (Objects.equals(oldSha, newSha)) {
+      // Identical sub-tree, nothing changed below this point
+      return;
+    }
+    Map<String, TreeEntry> oldEntries = new LinkedHashMap<>();
+    for (TreeEntry entry : read(oldSha)) {
+      oldEntries.put(entry.name, entry);
+    }
+
+    for (TreeEntry entry : read(newSha)) {
+      TreeEntry previous = oldEntries.remove(entry.name);
+      String path = prefix + entry.name;
+      if (entry.isTree) {
+        if (previous != null && !previous.isTree) {
+          handler.deleted(path);
+          previous = null;
+        }
+        diff(path + "/", previous == null ? null : previous.sha, entry.sha);
+      } else {
+        if (previous != null && previous.isTree) {
+          diff(path + "/", previous.sha, null);
+          previous = null;
+        }
+        if (previous == null || !previous.sha.equals(entry.sha)) {
+          handler.changed(path, entry.sha);
+        }
+      }
+    }
+
+    // Anything left over no longer exists in the new tree
+    for (TreeEntry removed : oldEntries.values()) {
+      String path = prefix + removed.name;
+      if (removed.isTree) {
+        diff(path + "/", removed.sha, null);
+      } else {
+        handler.deleted(path);
+      }
+    }
+  }
+
+  private List<TreeEntry> read(String sha) throws IOException {
+    if (sha == null) {
+      return Collections.emptyList();
+    }
+    return reader.readTree(sha);
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.cloudsearch.v1.model.PushItem;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperation;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperations;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.PushItems;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Embedded HTTP endpoint for GitHub webhook deliveries.
+ * <p>
+ * Handles {@code push}, {@code issues}, {@code issue_comment} and
+ * {@code pull_request} events. Each delivery is verified against the
+ * shared secret, translated into the names of the affected items, and
+ * those items are pushed to the indexing queue shortly after. Bursts of
+ * events for the same item, such as a flurry of comments, are coalesced
+ * into a single push. Full traversals still run on schedule to catch
+ * anything missed, for example when the connector was down.
+ */
+class WebhookReceiver implements Closeable {
+  /**
+   * Log output
+   */
+  private Logger log = Logger.getLogger(WebhookReceiver.class.getName());
+
+  private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+  /**
+   * Largest payload GitHub delivers
+   */
+  private static final int MAX_PAYLOAD_BYTES = 25 * 1024 * 1024;
+
+  private final HttpServer server;
+  private final byte[] secret;
+  private final long coalesceMillis;
+  private final Consumer<ApiOperation> sink;
+  private final ScheduledExecutorService flusher;
+
+  /**
+   * Pending changes since the last flush. Maps item name to true if the
+   * item was deleted, false if it was added or modified.
+   */
+  private Map<String, Boolean> pending = new LinkedHashMap<>();
+
+  /**
+   * Creates the receiver. Requests aren't accepted until started.
+   *
+   * @param port           port to listen on
+   * @param path           URL path to accept deliveries on
+   * @param secret         webhook secret configured in GitHub
+   * @param coalesceMillis delay before pushing changes, events for the
+   *                       same item within the delay are merged
+   * @param sink           receives the operations to execute
+   * @throws IOException if unable to bind the port
+   */
+  WebhookReceiver(int port, String path, String secret, long coalesceMillis,
+                  Consumer<ApiOperation> sink) throws IOException {
+    this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    this.coalesceMillis = coalesceMillis;
+    this.sink = sink;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("webhook-flush").setDaemon(true).build());
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.server.createContext(path, this::handle);
+    this.server.setExecutor(Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("webhook-http").setDaemon(true).build()));
+  }
+
+  /**
+   * Starts accepting deliveries.
+   */
+  void start() {
+    server.start();
+    log.info(() -> String.format("Listening for webhooks on %s", server.getAddress()));
+  }
+
+  /**
+   * Get the port deliveries are accepted on.
+   *
+   * @return local port, useful when created with port 0
+   */
+  int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stops the server and pushes anything still pending.
+   */
+  @Override
+  public void close() {
+    server.stop(0);
+    flusher.shutdown();
+    flush();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        respond(exchange, 405);
+        return;
+      }
+      byte[] body;
+      try (InputStream in = ByteStreams.limit(exchange.getRequestBody(), MAX_PAYLOAD_BYTES + 1)) {
+        body = ByteStreams.toByteArray(in);
+      }
+      if (body.length > MAX_PAYLOAD_BYTES) {
+        respond(exchange, 413);
+        return;
+      }
+      String signature = exchange.getRequestHeaders().getFirst("X-Hub-Signature-256");
+      if (!isValidSignature(signature, body)) {
+        log.warning("Rejected webhook delivery with invalid signature");
+        respond(exchange, 401);
+        return;
+      }
+      String event = exchange.getRequestHeaders().getFirst("X-GitHub-Event");
+      GenericJson payload = JSON_FACTORY.fromInputStream(new ByteArrayInputStream(body),
+          StandardCharsets.UTF_8, GenericJson.class);
+      handleEvent(event, payload);
+      respond(exchange, 202);
+    } catch (IOException | RuntimeException e) {
+      log.log(Level.WARNING, "Unable to process webhook delivery", e);
+      respond(exchange, 400);
+    }
+  }
+
+  /**
+   * Records the items affected by an event.
+   *
+   * @param event   value of the X-GitHub-Event header
+   * @param payload parsed event payload
+   * @throws IOException if the payload is malformed
+   */
+  void handleEvent(String event, Map<String, Object> payload) throws IOException {
+    if (event == null) {
+      return;
+    }
+    switch (event) {
+      case "push":
+        handlePush(payload);
+        break;
+      case "issues":
+        String action = getString(payload, "action");
+        boolean removed = "deleted".equals(action) || "transferred".equals(action);
+        record(itemName(getString(payload, "issue", "html_url")), removed);
+        break;
+      case "issue_comment":
+        // For comments on pull requests, the URL already points at the PR
+        record(itemName(getString(payload, "issue", "html_url")), false);
+        break;
+      case "pull_request":
+        record(itemName(getString(payload, "pull_request", "html_url")), false);
+        break;
+      default:
+        log.fine(() -> String.format("Ignoring webhook event %s", event));
+    }
+  }
+
+  private void handlePush(Map<String, Object> payload) throws IOException {
+    String ref = getString(payload, "ref");
+    String defaultBranch = getString(payload, "repository", "default_branch");
+    if (ref == null || !ref.equals("refs/heads/" + defaultBranch)) {
+      // Only the default branch is indexed
+      return;
+    }
+    String repositoryName = itemName(getString(payload, "repository", "html_url"));
+    record(repositoryName, false);
+
+    for (Object commit : getList(payload, "commits")) {
+      if (!(commit instanceof Map)) {
+        continue;
+      }
+      @SuppressWarnings("unchecked")
+      Map<String, Object> commitData = (Map<String, Object>) commit;
+      for (Object path : getList(commitData, "added")) {
+        record(ItemNames.blobName(repositoryName, defaultBranch, path.toString()), false);
+      }
+      for (Object path : getList(commitData, "modified")) {
+        record(ItemNames.blobName(repositoryName, defaultBranch, path.toString()), false);
+      }
+      for (Object path : getList(commitData, "removed")) {
+        record(ItemNames.blobName(repositoryName, defaultBranch, path.toString()), true);
+      }
+    }
+  }
+
+  private synchronized void record(String itemName, boolean deleted) {
+    if (pending.isEmpty()) {
+      flusher.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+    }
+    // Last event for an item wins
+    pending.remove(itemName);
+    pending.put(itemName, deleted);
+  }
+
+  private void flush() {
+    Map<String, Boolean> changes;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      changes = pending;
+      pending = new LinkedHashMap<>();
+    }
+    log.info(() -> String.format("Pushing %d items from webhooks", changes.size()));
+    PushItems.Builder modified = new PushItems.Builder();
+    boolean hasModified = false;
+    for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+      if (change.getValue()) {
+        sink.accept(ApiOperations.deleteItem(change.getKey()));
+      } else {
+        modified.addPushItem(change.getKey(), new PushItem().setType("MODIFIED"));
+        hasModified = true;
+      }
+    }
+    if (hasModified) {
+      sink.accept(modified.build());
+    }
+  }
+
+  private boolean isValidSignature(String signature, byte[] body) {
+    if (signature == null || !signature.startsWith("sha256=")) {
+      return false;
+    }
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+      byte[] expected = mac.doFinal(body);
+      byte[] actual = BaseEncoding.base16().lowerCase()
+          .decode(signature.substring("sha256=".length()).toLowerCase());
+      return MessageDigest.isEqual(expected, actual);
+    } catch (GeneralSecurityException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private void respond(HttpExchange exchange, int status) throws IOException {
+    exchange.sendResponseHeaders(status, -1);
+    exchange.close();
+  }
+
+  /**
+   * Converts a GitHub URL to an item name, which is the path portion.
+   */
+  private String itemName(String htmlUrl) throws IOException {
+    if (htmlUrl == null) {
+      throw new IOException("Missing html_url in webhook payload");
+    }
+    return new URL(htmlUrl).getPath();
+  }
+
+  @SuppressWarnings("unchecked")
+  private String getString(Map<String, Object> json, String... keys) {
+    Object value = json;
+    for (String key : keys) {
+      if (!(value instanceof Map)) {
+        return null;
+      }
+      value = ((Map<String, Object>) value).get(key);
+    }
+    return value == null ? null : value.toString();
+  }
+
+  private List<Object> getList(Map<String, Object> json, String key) {
+    Object value = json.get(key);
+    if (value instanceof List) {
+      return new ArrayList<>((List<?>) value);
+    }
+    return Collections.emptyList();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class CircuitBreakerTest {
+  @Test
+  public void testStaysClosedBelowMinCalls() {
+    CircuitBreaker breaker = new CircuitBreaker(10, 5, 0.5, 60000);
+    for (int i = 0; i < 4; i++) {
+      assertThat(breaker.allow()).isTrue();
+      assertThat(breaker.record(true)).isFalse();
+    }
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test
+  public void testOpensAtFailureRate() {
+    CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 60000);
+    breaker.record(false);
+    breaker.record(true);
+    breaker.record(false);
+    assertThat(breaker.record(true)).isTrue();
+
+    assertThat(breaker.isOpen()).isTrue();
+    assertThat(breaker.allow()).isFalse();
+  }
+
+  @Test
+  public void testOldOutcomesLeaveWindow() {
+    CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.75, 60000);
+    breaker.record(true);
+    breaker.record(true);
+    breaker.record(false);
+    breaker.record(false);
+    // The first failures drop out of the window as outcomes arrive
+    assertThat(breaker.record(false)).isFalse();
+    assertThat(breaker.record(true)).isFalse();
+    assertThat(breaker.record(true)).isFalse();
+    assertThat(breaker.record(true)).isTrue();
+  }
+
+  @Test
+  public void testProbeSuccessCloses() {
+    CircuitBreaker breaker = opened(0);
+
+    assertThat(breaker.allow()).isTrue();
+    // Only one probe at a time
+    assertThat(breaker.allow()).isFalse();
+    assertThat(breaker.record(false)).isFalse();
+
+    assertThat(breaker.isOpen()).isFalse();
+    assertThat(breaker.allow()).isTrue();
+  }
+
+  @Test
+  public void testProbeFailureReopens() {
+    CircuitBreaker breaker = opened(0);
+
+    assertThat(breaker.allow()).isTrue();
+    assertThat(breaker.record(true)).isTrue();
+    assertThat(breaker.isOpen()).isTrue();
+  }
+
+  @Test
+  public void testRejectsUntilOpenIntervalPasses() {
+    CircuitBreaker breaker = opened(60000);
+
+    assertThat(breaker.allow()).isFalse();
+    assertThat(breaker.isOpen()).isTrue();
+  }
+
+  @Test
+  public void testCancelledProbeAllowsAnother() {
+    CircuitBreaker breaker = opened(0);
+
+    assertThat(breaker.allow()).isTrue();
+    breaker.cancel();
+    assertThat(breaker.isOpen()).isTrue();
+    assertThat(breaker.allow()).isTrue();
+  }
+
+  @Test
+  public void testCancelRecordsNoOutcome() {
+    CircuitBreaker breaker = new CircuitBreaker(10, 2, 1, 60000);
+    breaker.record(true);
+    breaker.cancel();
+    assertThat(breaker.record(true)).isTrue();
+  }
+
+  private static CircuitBreaker opened(long openMillis) {
+    CircuitBreaker breaker = new CircuitBreaker(10, 1, 1, openMillis);
+    assertThat(breaker.record(true)).isTrue();
+    return breaker;
+  }
+}
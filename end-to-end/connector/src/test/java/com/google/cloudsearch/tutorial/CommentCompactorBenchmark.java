@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHUser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures compacting the comments of a very busy issue, by default 5,000
+ * comments, with the connector's default budgets.
+ * <p>
+ * Reports the time per compaction and how the comments were split between
+ * structured data, folded content and dropped, along with the total
+ * comment text. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.tutorial.CommentCompactorBenchmark \
+ *     -Dexec.args="5000 400 200"
+ * </pre>
+ * The arguments are the number of comments, their mean length in
+ * characters and the number of timed runs.
+ */
+public class CommentCompactorBenchmark {
+  private static final int MAX_STRUCTURED = 50;
+  private static final int MAX_STRUCTURED_BYTES = 256 * 1024;
+  private static final int MAX_CONTENT_BYTES = 4096 * 1024;
+
+  public static void main(String[] args) throws IOException {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int meanLength = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+    List<GHIssueComment> comments = comments(count, meanLength);
+    long allBytes = 0;
+    for (GHIssueComment comment : comments) {
+      allBytes += comment.getBody().length() + comment.getUser().getLogin().length();
+    }
+    CommentCompactor compactor =
+        new CommentCompactor(MAX_STRUCTURED, MAX_STRUCTURED_BYTES, MAX_CONTENT_BYTES);
+    // Warm up
+    for (int i = 0; i < 20; i++) {
+      compactor.compact("Issue body", comments);
+    }
+    CommentCompactor.Compacted compacted = null;
+    long best = Long.MAX_VALUE;
+    long total = 0;
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      compacted = compactor.compact("Issue body", comments);
+      long elapsed = System.nanoTime() - start;
+      best = Math.min(best, elapsed);
+      total += elapsed;
+    }
+    System.out.printf("%d comments, %.1f MB of comment text%n", count, allBytes / 1e6);
+    System.out.printf("Structured: %d comments, %d KB%n", compacted.getStructured().size(),
+        compacted.getStructuredBytes() / 1024);
+    System.out.printf("Content: %d comments folded, %d dropped, %d KB%n",
+        compacted.getFolded(), compacted.getDropped(), compacted.getContent().length / 1024);
+    System.out.printf("Mean %.2f ms, best %.2f ms per compaction%n", total / 1e6 / runs,
+        best / 1e6);
+  }
+
+  /**
+   * Generates comments of random lengths from a small set of users, the
+   * way discussions on busy issues look.
+   */
+  private static List<GHIssueComment> comments(int count, int meanLength) {
+    Random random = new Random(42);
+    List<GHUser> users = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      String login = "contributor" + i;
+      users.add(new GHUser() {
+        @Override
+        public String getLogin() {
+          return login;
+        }
+      });
+    }
+    String words = "the quick brown fox jumps over the lazy dog while the build is red ";
+    List<GHIssueComment> comments = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int length = 1 + random.nextInt(2 * meanLength);
+      StringBuilder body = new StringBuilder(length);
+      while (body.length() < length) {
+        body.append(words, 0, Math.min(words.length(), length - body.length()));
+      }
+      String text = body.toString();
+      GHUser user = users.get(random.nextInt(users.size()));
+      comments.add(new GHIssueComment() {
+        @Override
+        public String getBody() {
+          return text;
+        }
+
+        @Override
+        public GHUser getUser() {
+          return user;
+        }
+      });
+    }
+    return comments;
+  }
+}
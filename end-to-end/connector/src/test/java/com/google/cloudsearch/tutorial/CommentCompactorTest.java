@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Multimap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHUser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class CommentCompactorTest {
+  @Test
+  public void testKeepsAllStructuredWithinBudget() throws IOException {
+    CommentCompactor.Compacted compacted = new CommentCompactor(10, 10000, 10000)
+        .compact("Body", comments("first", "second", "third"));
+
+    assertThat(bodies(compacted)).containsExactly("first", "second", "third").inOrder();
+    assertThat(compacted.getStructured().get(0).get("user")).containsExactly("user0");
+    assertThat(text(compacted)).isEqualTo("Body");
+    assertThat(compacted.getFolded()).isEqualTo(0);
+    assertThat(compacted.getDropped()).isEqualTo(0);
+  }
+
+  @Test
+  public void testStructuredCountBudget() throws IOException {
+    CommentCompactor.Compacted compacted = new CommentCompactor(2, 10000, 10000)
+        .compact("Body", comments("c0", "c1", "c2", "c3", "c4"));
+
+    // The newest comments stay structured, the rest are folded oldest first
+    assertThat(bodies(compacted)).containsExactly("c3", "c4").inOrder();
+    assertThat(text(compacted)).isEqualTo(
+        "Body\n\nuser0 wrote:\nc0\n\nuser1 wrote:\nc1\n\nuser2 wrote:\nc2");
+    assertThat(compacted.getFolded()).isEqualTo(3);
+    assertThat(compacted.getDropped()).isEqualTo(0);
+  }
+
+  @Test
+  public void testStructuredByteBudget() throws IOException {
+    // Each comment costs 100 bytes of body, 5 of login and 32 of overhead
+    String body = Strings.repeat("x", 100);
+    CommentCompactor.Compacted compacted = new CommentCompactor(10, 2 * 137, 10000)
+        .compact(null, comments(body, body, body));
+
+    assertThat(compacted.getStructured()).hasSize(2);
+    assertThat(compacted.getStructuredBytes()).isEqualTo(2 * 137);
+    assertThat(compacted.getFolded()).isEqualTo(1);
+
+    compacted = new CommentCompactor(10, 2 * 137 - 1, 10000)
+        .compact(null, comments(body, body, body));
+    assertThat(compacted.getStructured()).hasSize(1);
+    assertThat(compacted.getFolded()).isEqualTo(2);
+  }
+
+  @Test
+  public void testStructuredBytesCountUtf8() throws IOException {
+    // 50 two-byte characters are 100 bytes
+    String body = Strings.repeat("é", 50);
+    CommentCompactor.Compacted compacted = new CommentCompactor(10, 137, 10000)
+        .compact(null, comments(body, body));
+
+    assertThat(compacted.getStructured()).hasSize(1);
+    assertThat(compacted.getStructuredBytes()).isEqualTo(137);
+  }
+
+  @Test
+  public void testDroppedCommentsNoted() throws IOException {
+    // Room for the body, two folded comments and the note, not a third comment
+    String comment = Strings.repeat("x", 40);
+    String entry = "\n\nuser0 wrote:\n" + comment;
+    String note = "\n\n[3 more comments omitted]";
+    int budget = "Body".length() + 2 * entry.length() + note.length();
+    CommentCompactor.Compacted compacted = new CommentCompactor(1, 10000, budget)
+        .compact("Body", comments(comment, comment, comment, comment, comment, "newest"));
+
+    assertThat(bodies(compacted)).containsExactly("newest");
+    assertThat(compacted.getFolded()).isEqualTo(2);
+    assertThat(compacted.getDropped()).isEqualTo(3);
+    assertThat(text(compacted))
+        .isEqualTo("Body" + entry + entry.replace("user0", "user1") + note);
+    assertThat(compacted.getContent().length).isEqualTo(budget);
+  }
+
+  @Test
+  public void testNoteCutToBudget() throws IOException {
+    CommentCompactor.Compacted compacted = new CommentCompactor(0, 10000, 10)
+        .compact("Body", comments("a comment that doesn't fit"));
+
+    assertThat(compacted.getDropped()).isEqualTo(1);
+    assertThat(text(compacted)).isEqualTo("Body\n\n[1 m");
+  }
+
+  @Test
+  public void testBodyTruncationKeepsSurrogatePairs() throws IOException {
+    // Each emoji is a surrogate pair in Java and four bytes in UTF-8
+    String body = Strings.repeat("a😀", 10);
+    for (int budget = 0; budget <= 50; budget++) {
+      CommentCompactor.Compacted compacted = new CommentCompactor(0, 0, budget)
+          .compact(body, Collections.emptyList());
+      String text = text(compacted);
+      assertThat(compacted.getContent().length <= budget).isTrue();
+      assertThat(body.startsWith(text)).isTrue();
+      assertThat(text).doesNotContain("?");
+    }
+  }
+
+  @Test
+  public void testNullBodiesAndUsers() throws IOException {
+    List<GHIssueComment> comments = Arrays.asList(comment(null, null), comment("text", null));
+    CommentCompactor.Compacted compacted = new CommentCompactor(1, 10000, 10000)
+        .compact(null, comments);
+
+    assertThat(bodies(compacted)).containsExactly("text");
+    assertThat(text(compacted)).isEqualTo("\n\n wrote:\n");
+  }
+
+  private static List<GHIssueComment> comments(String... bodies) {
+    List<GHIssueComment> comments = new ArrayList<>();
+    for (int i = 0; i < bodies.length; i++) {
+      comments.add(comment(bodies[i], "user" + i));
+    }
+    return comments;
+  }
+
+  private static GHIssueComment comment(String body, String login) {
+    GHUser user = login == null ? null : new GHUser() {
+      @Override
+      public String getLogin() {
+        return login;
+      }
+    };
+    return new GHIssueComment() {
+      @Override
+      public String getBody() {
+        return body;
+      }
+
+      @Override
+      public GHUser getUser() {
+        return user;
+      }
+    };
+  }
+
+  private static List<Object> bodies(CommentCompactor.Compacted compacted) {
+    List<Object> bodies = new ArrayList<>();
+    for (Multimap<String, Object> comment : compacted.getStructured()) {
+      bodies.addAll(comment.get("comment"));
+    }
+    return bodies;
+  }
+
+  private static String text(CommentCompactor.Compacted compacted) {
+    return new String(compacted.getContent(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class ConcurrencyLimiterTest {
+  private static final long SHORT_WAIT = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  public void testAcquireUpToLimit() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+
+    assertThat(limiter.acquire(SHORT_WAIT)).isTrue();
+    assertThat(limiter.hasCapacity()).isTrue();
+    assertThat(limiter.acquire(SHORT_WAIT)).isTrue();
+    assertThat(limiter.hasCapacity()).isFalse();
+    assertThat(limiter.acquire(SHORT_WAIT)).isFalse();
+  }
+
+  @Test
+  public void testFailureHalvesLimitOncePerBackoff() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 1, 10);
+    for (int i = 0; i < 3; i++) {
+      assertThat(limiter.acquire(SHORT_WAIT)).isTrue();
+    }
+
+    limiter.release(true);
+    limiter.release(true);
+    limiter.release(true);
+
+    assertThat(limiter.getLimit()).isEqualTo(4);
+  }
+
+  @Test
+  public void testLimitStaysAboveMinimum() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(3, 2, 10);
+    assertThat(limiter.acquire(SHORT_WAIT)).isTrue();
+    limiter.release(true);
+
+    assertThat(limiter.getLimit()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSuccessGrowsLimitByOnePerRound() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 5);
+    for (int i = 0; i < 4; i++) {
+      assertThat(limiter.acquire(SHORT_WAIT)).isTrue();
+      limiter.release(false);
+    }
+    assertThat(limiter.getLimit()).isEqualTo(4);
+    assertThat(limiter.acquire(SHORT_WAIT)).isTrue();
+    limiter.release(false);
+    assertThat(limiter.getLimit()).isEqualTo(5);
+
+    for (int i = 0; i < 20; i++) {
+      assertThat(limiter.acquire(SHORT_WAIT)).isTrue();
+      limiter.release(false);
+    }
+    assertThat(limiter.getLimit()).isEqualTo(5);
+  }
+
+  @Test
+  public void testResetDropsToMinimum() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 2, 10);
+    limiter.reset();
+
+    assertThat(limiter.getLimit()).isEqualTo(2);
+  }
+
+  @Test
+  public void testReleaseWakesWaiter() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+    assertThat(limiter.acquire(SHORT_WAIT)).isTrue();
+
+    CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+      try {
+        return limiter.acquire(TimeUnit.SECONDS.toNanos(30));
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    Thread.sleep(50);
+    assertThat(waiter.isDone()).isFalse();
+    limiter.release(false);
+
+    assertThat(waiter.get(30, TimeUnit.SECONDS)).isTrue();
+  }
+}
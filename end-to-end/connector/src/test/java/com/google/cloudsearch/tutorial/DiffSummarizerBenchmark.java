@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures summarizing the diff of a very large pull request, by default
+ * 10,000 changed files, with the connector's default caps.
+ * <p>
+ * Reports the time per summary, the throughput over the raw diff and the
+ * size of the summary. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.tutorial.DiffSummarizerBenchmark \
+ *     -Dexec.args="10000 20 10"
+ * </pre>
+ * The arguments are the number of files, the added lines per file and
+ * the number of timed runs.
+ */
+public class DiffSummarizerBenchmark {
+  private static final int MAX_FILE_BYTES = 64 * 1024;
+  private static final int MAX_BYTES = 1024 * 1024;
+
+  public static void main(String[] args) throws IOException {
+    int files = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int linesPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    byte[] diff = diff(files, linesPerFile);
+    System.out.printf("%d files, %d added lines each, %.1f MB of diff%n", files, linesPerFile,
+        diff.length / 1e6);
+    DiffSummarizer summarizer = new DiffSummarizer(MAX_FILE_BYTES, MAX_BYTES);
+    // Warm up
+    for (int i = 0; i < 3; i++) {
+      summarizer.summarize(new ByteArrayInputStream(diff));
+    }
+    long best = Long.MAX_VALUE;
+    long total = 0;
+    DiffSummarizer.Summary summary = null;
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      summary = summarizer.summarize(new ByteArrayInputStream(diff));
+      long elapsed = System.nanoTime() - start;
+      best = Math.min(best, elapsed);
+      total += elapsed;
+    }
+    double mean = total / (double) runs;
+    System.out.printf("Summary: %d files, %d bytes%s%n", summary.getFiles(),
+        summary.getContent().length, summary.isTruncated() ? " (truncated)" : "");
+    System.out.printf("Mean %.1f ms, best %.1f ms, %.0f MB/s of diff%n", mean / 1e6,
+        best / 1e6, diff.length / (mean / 1e9) / 1e6);
+  }
+
+  /**
+   * Generates a diff in git's format, each file modifying a source file
+   * with some context, removed and added lines.
+   */
+  private static byte[] diff(int files, int linesPerFile) throws IOException {
+    ByteArrayOutputStream diff = new ByteArrayOutputStream();
+    StringBuilder file = new StringBuilder();
+    for (int i = 0; i < files; i++) {
+      String name = String.format("src/main/java/com/example/module%d/Generated%d.java",
+          i % 100, i);
+      file.setLength(0);
+      file.append("diff --git a/").append(name).append(" b/").append(name).append('\n')
+          .append("index 0123456..789abcd 100644\n")
+          .append("--- a/").append(name).append('\n')
+          .append("+++ b/").append(name).append('\n')
+          .append("@@ -1,3 +1,").append(linesPerFile + 2).append(" @@\n")
+          .append(" package com.example;\n")
+          .append("-  int value = ").append(i).append(";\n");
+      for (int line = 0; line < linesPerFile; line++) {
+        file.append("+  int value").append(line).append(" = compute(").append(i)
+            .append(", ").append(line).append("); // generated line\n");
+      }
+      file.append(" }\n");
+      diff.write(file.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    return diff.toByteArray();
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class DiffSummarizerTest {
+  @Test
+  public void testFileListThenAddedLines() throws IOException {
+    String diff = file("README.md", "-Old title", "+New title", " context")
+        + file("src/Main.java", "+class Main {", "+}");
+
+    DiffSummarizer.Summary summary = new DiffSummarizer(1024, 4096).summarize(stream(diff));
+
+    assertThat(text(summary))
+        .isEqualTo("README.md\nsrc/Main.java\n\nNew title\nclass Main {\n}\n");
+    assertThat(summary.getFiles()).isEqualTo(2);
+    assertThat(summary.isTruncated()).isFalse();
+  }
+
+  @Test
+  public void testEmptyDiff() throws IOException {
+    DiffSummarizer.Summary summary = new DiffSummarizer(1024, 4096).summarize(stream(""));
+
+    assertThat(summary.getContent()).hasLength(0);
+    assertThat(summary.getFiles()).isEqualTo(0);
+    assertThat(summary.isTruncated()).isFalse();
+  }
+
+  @Test
+  public void testPerFileCap() throws IOException {
+    // Each file keeps up to 10 bytes of added lines, newlines included
+    String diff = file("a.txt", "+1234567", "+abcdef", "+dropped")
+        + file("b.txt", "+xyz");
+
+    DiffSummarizer.Summary summary = new DiffSummarizer(10, 4096).summarize(stream(diff));
+
+    assertThat(text(summary)).isEqualTo("a.txt\nb.txt\n\n1234567\nab\nxyz\n");
+    assertThat(summary.isTruncated()).isTrue();
+  }
+
+  @Test
+  public void testTotalCap() throws IOException {
+    String diff = file("a.txt", "+" + Strings.repeat("a", 40))
+        + file("b.txt", "+" + Strings.repeat("b", 40));
+
+    DiffSummarizer.Summary summary = new DiffSummarizer(1024, 64).summarize(stream(diff));
+
+    assertThat(summary.getContent().length <= 64).isTrue();
+    assertThat(text(summary)).startsWith("a.txt\nb.txt\n\n" + Strings.repeat("a", 40) + "\n");
+    assertThat(summary.getFiles()).isEqualTo(2);
+    assertThat(summary.isTruncated()).isTrue();
+  }
+
+  @Test
+  public void testCutsOnCharacterBoundary() throws IOException {
+    // 'é' is two bytes and '😀' four, neither may be split by the caps
+    for (int cap = 1; cap <= 12; cap++) {
+      DiffSummarizer.Summary summary = new DiffSummarizer(cap, 4096)
+          .summarize(stream(file("a.txt", "+aé😀b")));
+      String added = text(summary).substring("a.txt\n\n".length());
+      assertThat("aé😀b\n".startsWith(added.replaceAll("\n$", ""))).isTrue();
+      assertThat(added).doesNotContain("�");
+    }
+    for (int max = 8; max <= 20; max++) {
+      DiffSummarizer.Summary summary = new DiffSummarizer(1024, max)
+          .summarize(stream(file("a.txt", "+é😀é😀")));
+      assertThat(summary.getContent().length <= max).isTrue();
+      assertThat(text(summary)).doesNotContain("�");
+    }
+  }
+
+  @Test
+  public void testCrlfLineEndings() throws IOException {
+    String diff = file("a.txt", "+first", "+second").replace("\n", "\r\n");
+
+    DiffSummarizer.Summary summary = new DiffSummarizer(1024, 4096).summarize(stream(diff));
+
+    assertThat(text(summary)).isEqualTo("a.txt\n\nfirst\nsecond\n");
+  }
+
+  @Test
+  public void testLongLinesCut() throws IOException {
+    String diff = file("a.txt", "+" + Strings.repeat("x", 10000), "+short");
+
+    DiffSummarizer.Summary summary = new DiffSummarizer(65536, 65536).summarize(stream(diff));
+
+    String[] added = text(summary).substring("a.txt\n\n".length()).split("\n");
+    assertThat(added.length).isEqualTo(2);
+    assertThat(added[0].length() < 4096).isTrue();
+    assertThat(added[0].length() > 4000).isTrue();
+    assertThat(added[1]).isEqualTo("short");
+    assertThat(summary.isTruncated()).isTrue();
+  }
+
+  @Test
+  public void testLongMultibyteLineCutOnCharacterBoundary() throws IOException {
+    // Three bytes per character, so the line buffer fills mid-character
+    String diff = file("a.txt", "+" + Strings.repeat("€", 2000));
+
+    DiffSummarizer.Summary summary = new DiffSummarizer(65536, 65536).summarize(stream(diff));
+
+    String added = text(summary).substring("a.txt\n\n".length());
+    assertThat(added).doesNotContain("�");
+    assertThat(added).isEqualTo(Strings.repeat("€", added.length() - 1) + "\n");
+  }
+
+  @Test
+  public void testStopsReadingOnceFileListIsFull() throws IOException {
+    StringBuilder diff = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      diff.append(file(String.format("file%05d.txt", i), "+line " + i));
+    }
+    byte[] bytes = diff.toString().getBytes(StandardCharsets.UTF_8);
+    CountingStream in = new CountingStream(new ByteArrayInputStream(bytes));
+
+    DiffSummarizer.Summary summary = new DiffSummarizer(1024, 1024).summarize(in);
+
+    // Only file names fit, the added lines are left out
+    String text = text(summary);
+    assertThat(text).startsWith("file00000.txt\nfile00001.txt\n");
+    assertThat(text).doesNotContain("line");
+    assertThat(summary.getContent().length <= 1024).isTrue();
+    assertThat(summary.getFiles()).isEqualTo(1024 / "file00000.txt\n".length() + 1);
+    assertThat(summary.isTruncated()).isTrue();
+    assertThat(in.count < bytes.length / 10).isTrue();
+  }
+
+  /**
+   * Builds the diff of one file in git's format.
+   */
+  private static String file(String name, String... lines) {
+    StringBuilder diff = new StringBuilder()
+        .append("diff --git a/").append(name).append(" b/").append(name).append('\n')
+        .append("index 1234567..89abcde 100644\n")
+        .append("--- a/").append(name).append('\n')
+        .append("+++ b/").append(name).append('\n')
+        .append("@@ -1,1 +1,").append(lines.length).append(" @@\n");
+    for (String line : lines) {
+      diff.append(line).append('\n');
+    }
+    return diff.toString();
+  }
+
+  private static InputStream stream(String diff) {
+    return new ByteArrayInputStream(diff.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String text(DiffSummarizer.Summary summary) {
+    return new String(summary.getContent(), StandardCharsets.UTF_8);
+  }
+
+  private static class CountingStream extends FilterInputStream {
+    long count;
+
+    CountingStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read = super.read(buffer, offset, length);
+      count += Math.max(read, 0);
+      return read;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Measures the heap held by the structured data of queued items with and
+ * without interning their values, by default for 100,000 items drawn
+ * from 500 users and 40 labels.
+ * <p>
+ * Each value is decoded into a new string, as when parsing API responses.
+ * Reports the heap retained by the items after garbage collection, the
+ * number of distinct string instances they refer to and the time spent
+ * interning. Run with enough heap for both sets of items:
+ * <pre>
+ * MAVEN_OPTS=-Xmx1g mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.tutorial.FieldInternerBenchmark \
+ *     -Dexec.args="100000 500 40"
+ * </pre>
+ * The arguments are the number of items, of distinct users and of
+ * distinct labels.
+ */
+public class FieldInternerBenchmark {
+  private static final String[] STATUSES = {"open", "closed"};
+
+  public static void main(String[] args) throws InterruptedException {
+    int items = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int users = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int labels = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+
+    System.out.printf("%d items, %d users, %d labels%n", items, users, labels);
+    // Warm up
+    build(items / 10, users, labels, FieldInterner::intern);
+    measure("plain", items, users, labels, UnaryOperator.identity());
+    measure("interned", items, users, labels, FieldInterner::intern);
+  }
+
+  private static void measure(String name, int items, int users, int labels,
+      UnaryOperator<String> intern) throws InterruptedException {
+    long before = usedHeap();
+    long start = System.nanoTime();
+    List<Multimap<String, Object>> data = build(items, users, labels, intern);
+    long elapsed = System.nanoTime() - start;
+    long retained = usedHeap() - before;
+
+    Set<Object> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+    int values = 0;
+    for (Multimap<String, Object> item : data) {
+      for (Object value : item.values()) {
+        instances.add(value);
+        values++;
+      }
+    }
+    System.out.printf("%-8s %7.1f MB retained, %5.0f bytes per item, %d of %d values distinct,"
+            + " built in %.0f ms%n", name, retained / 1e6, retained / (double) items,
+        instances.size(), values, elapsed / 1e6);
+    // Keep the items reachable until measured
+    if (data.size() != items) {
+      throw new AssertionError();
+    }
+  }
+
+  /**
+   * Builds the structured data of pull requests the way the connector
+   * does, each value a fresh copy.
+   */
+  private static List<Multimap<String, Object>> build(int items, int users, int labels,
+      UnaryOperator<String> intern) {
+    Random random = new Random(1);
+    List<Multimap<String, Object>> data = new ArrayList<>(items);
+    for (int i = 0; i < items; i++) {
+      Multimap<String, Object> item = ArrayListMultimap.create();
+      item.put("organization", intern.apply(decode("googleworkspace")));
+      item.put("repository", intern.apply(decode("repository-" + random.nextInt(20))));
+      item.put("status", intern.apply(decode(STATUSES[random.nextInt(STATUSES.length)])));
+      item.put("openedBy", intern.apply(decode("user-login-" + random.nextInt(users))));
+      item.put("assignee", intern.apply(decode("user-login-" + random.nextInt(users))));
+      for (int label = random.nextInt(4); label > 0; label--) {
+        item.put("labels", intern.apply(decode("label: " + random.nextInt(labels))));
+      }
+      data.add(item);
+    }
+    return data;
+  }
+
+  /**
+   * Copies a value into a new string, as a JSON parser does.
+   */
+  private static String decode(String value) {
+    return new String(value.toCharArray());
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(100);
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Mirrors a repository created in a temporary directory, which git
+ * clones and fetches from like any remote.
+ */
+@RunWith(JUnit4.class)
+public class GitMirrorTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Git source;
+  private GitMirror mirror;
+
+  @Before
+  public void createSource() throws IOException, GitAPIException {
+    source = Git.init().setDirectory(temporaryFolder.newFolder("source")).call();
+    write("README.md", "# Sample\n");
+    write("docs/guide.md", "Guide\n");
+    commit("Initial commit");
+    mirror = new GitMirror(source.getRepository().getDirectory().getAbsolutePath(),
+        new File(temporaryFolder.getRoot(), "mirror"), null);
+  }
+
+  @After
+  public void close() {
+    mirror.close();
+    source.close();
+  }
+
+  @Test
+  public void testClonesOnFirstUse() throws IOException {
+    String branch = source.getRepository().getBranch();
+    assertThat(mirror.getDefaultBranch()).isEqualTo(branch);
+
+    RepositoryFile file = mirror.getFile("org", "repo", branch, "docs/guide.md");
+    assertThat(file.getPath()).isEqualTo("docs/guide.md");
+    assertThat(file.getSize()).isEqualTo(6L);
+    assertThat(file.getHtmlUrl())
+        .isEqualTo("https://github.com/org/repo/blob/" + branch + "/docs/guide.md");
+    assertThat(file.getContent().asCharSource(StandardCharsets.UTF_8).read())
+        .isEqualTo("Guide\n");
+  }
+
+  @Test
+  public void testSpecialCharacterFileName() throws IOException, GitAPIException {
+    String branch = source.getRepository().getBranch();
+    write("docs/read me #1?.md", "Special\n");
+    commit("Add file with special characters");
+    mirror.update();
+
+    RepositoryFile file = mirror.getFile("org", "repo", branch, "docs/read me #1?.md");
+    assertThat(file.getName()).isEqualTo("read me #1?.md");
+    assertThat(file.getHtmlUrl()).isEqualTo(
+        "https://github.com/org/repo/blob/" + branch + "/docs/read%20me%20%231%3F.md");
+    // The item name taken from the URL matches the name the tree diff builds
+    assertThat(new URL(file.getHtmlUrl()).getPath())
+        .isEqualTo(ItemNames.blobName("/org/repo", branch, "docs/read me #1?.md"));
+    assertThat(file.getContent().asCharSource(StandardCharsets.UTF_8).read())
+        .isEqualTo("Special\n");
+  }
+
+  @Test
+  public void testReadTree() throws IOException {
+    String branch = source.getRepository().getBranch();
+    List<String> entries = new ArrayList<>();
+    for (TreeDiff.TreeEntry entry : mirror.readTree(mirror.getTreeSha(branch))) {
+      entries.add(entry.name + (entry.isTree ? "/" : ""));
+    }
+    assertThat(entries).containsExactly("README.md", "docs/").inOrder();
+  }
+
+  @Test
+  public void testFetchesNewCommits() throws IOException, GitAPIException {
+    String branch = source.getRepository().getBranch();
+    String tree = mirror.getTreeSha(branch);
+    write("docs/guide.md", "Updated guide\n");
+    write("CHANGES.md", "Changes\n");
+    commit("Update");
+
+    // Nothing changes locally until the mirror is updated
+    assertThat(mirror.getTreeSha(branch)).isEqualTo(tree);
+    mirror.update();
+
+    assertThat(mirror.getTreeSha(branch)).isNotEqualTo(tree);
+    assertThat(mirror.getFile("org", "repo", branch, "docs/guide.md").getContent()
+        .asCharSource(StandardCharsets.UTF_8).read()).isEqualTo("Updated guide\n");
+    assertThat(mirror.getFile("org", "repo", branch, "CHANGES.md").getSize()).isEqualTo(8L);
+  }
+
+  @Test
+  public void testFetchRemovesDeletedBranches() throws IOException, GitAPIException {
+    source.branchCreate().setName("feature").call();
+    mirror.update();
+    mirror.getTreeSha("feature");
+
+    source.branchDelete().setBranchNames("feature").setForce(true).call();
+    mirror.update();
+
+    assertThrows(FileNotFoundException.class, () -> mirror.getTreeSha("feature"));
+  }
+
+  @Test
+  public void testMissingFile() throws IOException {
+    String branch = source.getRepository().getBranch();
+    assertThrows(FileNotFoundException.class,
+        () -> mirror.getFile("org", "repo", branch, "missing.md"));
+    // Directories aren't files
+    assertThrows(FileNotFoundException.class,
+        () -> mirror.getFile("org", "repo", branch, "docs"));
+    assertThrows(FileNotFoundException.class,
+        () -> mirror.getFile("org", "repo", "missing", "README.md"));
+  }
+
+  @Test
+  public void testUnreachableRemote() {
+    GitMirror missing = new GitMirror(new File(temporaryFolder.getRoot(), "none").getPath(),
+        new File(temporaryFolder.getRoot(), "missing-mirror"), null);
+    try {
+      IOException e = assertThrows(IOException.class, missing::update);
+      assertThat(e.getMessage()).contains("Unable to update mirror");
+    } finally {
+      missing.close();
+    }
+  }
+
+  private void write(String path, String content) throws IOException {
+    File file = new File(source.getRepository().getWorkTree(), path);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void commit(String message) throws GitAPIException {
+    source.add().addFilepattern(".").call();
+    source.commit().setMessage(message).setAuthor("Test", "test@example.com")
+        .setCommitter("Test", "test@example.com").setSign(false).call();
+  }
+}
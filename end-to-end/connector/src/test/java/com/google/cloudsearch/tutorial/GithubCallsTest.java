@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.kohsuke.github.HttpException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Runs calls against a local HTTP server standing in for GitHub, which
+ * answers /ok at once, /error with a 503 and /slow after a delay.
+ */
+@RunWith(JUnit4.class)
+public class GithubCallsTest {
+  private static final long SLOW_MILLIS = 2000;
+  private static final long DEADLINE_MILLIS = 200;
+  private static final long QUEUED_DEADLINE_MILLIS = 50;
+
+  private HttpServer server;
+  private ExecutorService handlers;
+  private final AtomicInteger requests = new AtomicInteger();
+  private ConcurrencyLimiter limiter;
+  private CircuitBreaker breaker;
+  private GithubCalls calls;
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/ok", exchange -> respond(exchange, 200));
+    server.createContext("/error", exchange -> respond(exchange, 503));
+    server.createContext("/slow", exchange -> {
+      try {
+        Thread.sleep(SLOW_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      respond(exchange, 200);
+    });
+    handlers = Executors.newCachedThreadPool();
+    server.setExecutor(handlers);
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    if (calls != null) {
+      calls.close();
+    }
+    server.stop(0);
+    handlers.shutdownNow();
+  }
+
+  @Test
+  public void testSuccessfulCall() throws IOException {
+    calls = newCalls(4, new CircuitBreaker(10, 5, 0.5, 60000));
+
+    assertThat(calls.call("ok", () -> get("/ok"))).isEqualTo("200");
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test
+  public void testServerErrorsOpenCircuit() throws IOException {
+    calls = newCalls(8, new CircuitBreaker(10, 5, 0.5, 60000));
+    for (int i = 0; i < 5; i++) {
+      HttpException e = assertThrows(HttpException.class, () -> calls.call("error",
+          () -> get("/error")));
+      assertThat(e.getResponseCode()).isEqualTo(503);
+    }
+    assertThat(breaker.isOpen()).isTrue();
+    assertThat(limiter.getLimit()).isEqualTo(1);
+
+    IOException e = assertThrows(IOException.class, () -> calls.call("ok", () -> get("/ok")));
+    assertThat(e.getMessage()).contains("circuit is open");
+    assertThat(requests.get()).isEqualTo(5);
+  }
+
+  @Test
+  public void testMissingItemIsNotOverload() throws IOException {
+    calls = newCalls(4, new CircuitBreaker(10, 2, 0.5, 60000));
+    for (int i = 0; i < 4; i++) {
+      assertThrows(FileNotFoundException.class, () -> calls.call("missing",
+          () -> get("/missing")));
+    }
+    assertThat(breaker.isOpen()).isFalse();
+    assertThat(limiter.getLimit()).isEqualTo(4);
+  }
+
+  @Test(timeout = 30000)
+  public void testSlowCallTimesOut() {
+    calls = newCalls(4, new CircuitBreaker(10, 5, 0.5, 60000));
+    long start = System.nanoTime();
+
+    SocketTimeoutException e = assertThrows(SocketTimeoutException.class,
+        () -> calls.call("slow", () -> get("/slow")));
+
+    assertThat(e.getMessage()).contains("timed out after " + DEADLINE_MILLIS + " ms");
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < SLOW_MILLIS)
+        .isTrue();
+  }
+
+  @Test(timeout = 30000)
+  public void testPermitTimeoutsDontOpenCircuit() throws Exception {
+    calls = newCalls(1, new CircuitBreaker(10, 2, 0.5, 60000));
+    assertThat(limiter.acquire(0)).isTrue();
+    for (int i = 0; i < 5; i++) {
+      SocketTimeoutException e = assertThrows(SocketTimeoutException.class,
+          () -> calls.call("queued", () -> get("/ok")));
+      assertThat(e.getMessage()).contains("waiting for a concurrency permit");
+    }
+    assertThat(breaker.isOpen()).isFalse();
+    assertThat(requests.get()).isEqualTo(0);
+  }
+
+  @Test(timeout = 30000)
+  public void testPermitTimeoutDoesNotHoldProbe() throws Exception {
+    calls = newCalls(1, new CircuitBreaker(10, 1, 1, 0));
+    breaker.record(true);
+    assertThat(limiter.acquire(0)).isTrue();
+    assertThrows(SocketTimeoutException.class,
+        () -> calls.call("queued", () -> get("/ok")));
+    limiter.release(false);
+
+    assertThat(calls.call("ok", () -> get("/ok"))).isEqualTo("200");
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test(timeout = 30000)
+  public void testInterruptIsNotSuccess() throws Exception {
+    calls = newCalls(1, new CircuitBreaker(10, 2, 1, 60000));
+    breaker.record(true);
+    assertThat(limiter.acquire(0)).isTrue();
+
+    Thread.currentThread().interrupt();
+    assertThrows(InterruptedIOException.class, () -> calls.call("ok", () -> get("/ok")));
+    assertThat(Thread.interrupted()).isTrue();
+    limiter.release(false);
+
+    // One more failure fills the window with failures only
+    assertThrows(HttpException.class, () -> calls.call("error", () -> get("/error")));
+    assertThat(breaker.isOpen()).isTrue();
+  }
+
+  @Test(timeout = 30000)
+  public void testHedgesSlowCalls() throws IOException {
+    calls = newCalls(4, new CircuitBreaker(10, 5, 0.5, 60000), true);
+    assertThat(slowAfterFastCalls(true)).isEqualTo(2);
+  }
+
+  @Test(timeout = 30000)
+  public void testUnhedgeableCallIsNotHedged() throws IOException {
+    calls = newCalls(4, new CircuitBreaker(10, 5, 0.5, 60000), true);
+    assertThat(slowAfterFastCalls(false)).isEqualTo(1);
+  }
+
+  /**
+   * Makes enough fast calls to set the endpoint's hedge delay, then one
+   * slow call.
+   *
+   * @return number of attempts made for the slow call
+   */
+  private int slowAfterFastCalls(boolean hedgeable) throws IOException {
+    for (int i = 0; i < 32; i++) {
+      calls.call("stream", () -> get("/ok"));
+    }
+    AtomicInteger attempts = new AtomicInteger();
+    String result = calls.call("stream", () -> {
+      attempts.incrementAndGet();
+      try {
+        Thread.sleep(500);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "done";
+    }, hedgeable);
+    assertThat(result).isEqualTo("done");
+    return attempts.get();
+  }
+
+  private GithubCalls newCalls(int concurrency, CircuitBreaker breaker) {
+    return newCalls(concurrency, breaker, false);
+  }
+
+  private GithubCalls newCalls(int concurrency, CircuitBreaker breaker, boolean hedging) {
+    this.limiter = new ConcurrencyLimiter(concurrency, 1, concurrency);
+    this.breaker = breaker;
+    return new GithubCalls(
+        ImmutableMap.of("slow", DEADLINE_MILLIS, "queued", QUEUED_DEADLINE_MILLIS), 10000,
+        hedging, 5000, 0.1, limiter, breaker);
+  }
+
+  /**
+   * Fetches a path the way the GitHub client does, failing with an
+   * {@link HttpException} on error responses.
+   */
+  private String get(String path) throws IOException {
+    URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      int code = connection.getResponseCode();
+      if (code == 404) {
+        throw new FileNotFoundException(url.toString());
+      } else if (code >= 400) {
+        throw new HttpException("Server error", code, connection.getResponseMessage(),
+            url.toString());
+      }
+      try (InputStream in = connection.getInputStream()) {
+        return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private void respond(HttpExchange exchange, int code) throws IOException {
+    requests.incrementAndGet();
+    byte[] body = Integer.toString(code).getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(code, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
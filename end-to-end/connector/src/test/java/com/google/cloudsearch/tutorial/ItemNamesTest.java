@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.net.URL;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+@RunWith(JUnit4.class)
+public class ItemNamesTest {
+  @Test
+  public void testPlainPathUnchanged() {
+    assertThat(ItemNames.blobName("/org/repo", "main", "src/Main.java"))
+        .isEqualTo("/org/repo/blob/main/src/Main.java");
+  }
+
+  @Test
+  public void testSegmentsEncoded() {
+    assertThat(ItemNames.blobName("/org/repo", "main", "docs/a b#1?.md"))
+        .isEqualTo("/org/repo/blob/main/docs/a%20b%231%3F.md");
+    assertThat(ItemNames.encodePath("café/%.txt")).isEqualTo("caf%C3%A9/%25.txt");
+  }
+
+  @Test
+  public void testMatchesUrlPath() throws Exception {
+    // GitHub returns html_url percent-encoded, items are named after its path
+    URL htmlUrl = new URL("https://github.com/org/repo/blob/main/docs/a%20b%231.md");
+    assertThat(ItemNames.blobName("/org/repo", "main", "docs/a b#1.md"))
+        .isEqualTo(htmlUrl.getPath());
+  }
+
+  @Test
+  public void testDecodeRoundTrip() {
+    String path = "dir/a b+c#?%/café 😀.txt";
+    assertThat(ItemNames.decodePath(ItemNames.encodePath(path))).isEqualTo(path);
+    assertThat(ItemNames.decodePath("a+b")).isEqualTo("a+b");
+  }
+
+  @Test
+  public void testDecodeInvalidEscape() {
+    assertThrows(IllegalArgumentException.class, () -> ItemNames.decodePath("a%zz"));
+  }
+}
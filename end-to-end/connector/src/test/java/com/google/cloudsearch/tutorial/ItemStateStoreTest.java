@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class ItemStateStoreTest {
+  // Enough items to grow the table past its initial capacity
+  private static final int ITEMS = 100000;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testPutMatchesAndRemove() throws IOException {
+    try (ItemStateStore store = ItemStateStore.open(newPath())) {
+      store.put("item", "hash", 1);
+      assertThat(store.matches("item", "hash")).isTrue();
+      assertThat(store.matches("item", "other")).isFalse();
+      assertThat(store.matches("missing", "hash")).isFalse();
+
+      store.remove("item");
+      assertThat(store.matches("item", "hash")).isFalse();
+      assertThat(store.size()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void testGrowsAndReopens() throws IOException {
+    Path path = newPath();
+    try (ItemStateStore store = ItemStateStore.open(path)) {
+      for (int i = 0; i < ITEMS; i++) {
+        store.put("item" + i, "hash" + i, i);
+      }
+      for (int i = 0; i < ITEMS; i += 2) {
+        store.remove("item" + i);
+      }
+    }
+    try (ItemStateStore store = ItemStateStore.open(path)) {
+      assertThat(store.size()).isEqualTo(ITEMS / 2);
+      for (int i = 0; i < ITEMS; i++) {
+        assertThat(store.matches("item" + i, "hash" + i)).isEqualTo(i % 2 == 1);
+      }
+    }
+    assertThat(Files.exists(Paths.get(path + ".tmp"))).isFalse();
+  }
+
+  @Test
+  public void testGrowsOverStaleTemporaryFile() throws IOException {
+    Path path = newPath();
+    Files.write(Paths.get(path + ".tmp"), new byte[] {1, 2, 3});
+    try (ItemStateStore store = ItemStateStore.open(path)) {
+      for (int i = 0; i < ITEMS; i++) {
+        store.put("item" + i, "hash", i);
+      }
+      assertThat(store.size()).isEqualTo(ITEMS);
+      assertThat(store.matches("item0", "hash")).isTrue();
+    }
+  }
+
+  @Test
+  public void testFlushKeepsStoreUsable() throws IOException {
+    try (ItemStateStore store = ItemStateStore.open(newPath())) {
+      store.flush();
+      store.put("item", "hash", 1);
+      store.flush();
+      store.flush();
+      assertThat(store.matches("item", "hash")).isTrue();
+    }
+  }
+
+  private Path newPath() throws IOException {
+    return temporaryFolder.newFolder().toPath().resolve("state.db");
+  }
+}
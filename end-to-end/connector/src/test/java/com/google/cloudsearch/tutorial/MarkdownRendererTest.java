@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class MarkdownRendererTest {
+  private static final int MAX = MarkdownRenderer.MAX_LINE_CHARS;
+
+  @Test
+  public void testEscape() {
+    assertThat(MarkdownRenderer.escape("<a href=\"x\">Tom & Jerry's</a>"))
+        .isEqualTo("&lt;a href=&quot;x&quot;&gt;Tom &amp; Jerry&#39;s&lt;/a&gt;");
+  }
+
+  @Test
+  public void testRawHtmlIsEscaped() throws IOException {
+    assertThat(render("<script>alert('x')</script>"))
+        .isEqualTo("<p>&lt;script&gt;alert(&#39;x&#39;)&lt;/script&gt;</p>\n");
+  }
+
+  @Test
+  public void testBlocks() throws IOException {
+    assertThat(render("# Title #\n"
+        + "Some *text* and **more**\n"
+        + "continued\n"
+        + "\n"
+        + "- one\n"
+        + "- `two < 3`\n"
+        + "1. first\n"
+        + "> quote\n"
+        + "---\n"))
+        .isEqualTo("<h1>Title</h1>\n"
+            + "<p>Some <em>text</em> and <strong>more</strong>\ncontinued</p>\n"
+            + "<ul>\n<li>one</li>\n<li><code>two &lt; 3</code></li>\n</ul>\n"
+            + "<ol>\n<li>first</li>\n</ol>\n"
+            + "<blockquote>\n<p>quote</p>\n</blockquote>\n"
+            + "<hr>\n");
+  }
+
+  @Test
+  public void testFencedCode() throws IOException {
+    assertThat(render("```java\nif (a < b) {\n  **not bold**\n}\n```\nafter"))
+        .isEqualTo("<pre><code class=\"language-java\">if (a &lt; b) {\n  **not bold**\n}\n"
+            + "</code></pre>\n<p>after</p>\n");
+  }
+
+  @Test
+  public void testFenceLanguageIsEscaped() throws IOException {
+    assertThat(render("~~~\"><script>\ncode\n~~~"))
+        .isEqualTo("<pre><code class=\"language-&quot;&gt;&lt;script&gt;\">code\n"
+            + "</code></pre>\n");
+  }
+
+  @Test
+  public void testUnclosedFenceEndsWithDocument() throws IOException {
+    assertThat(render("```\ncode")).isEqualTo("<pre><code>code\n</code></pre>\n");
+  }
+
+  @Test
+  public void testSafeLinks() throws IOException {
+    assertThat(render("[site](https://example.com/?a=1&b=2 \"Title\")"))
+        .isEqualTo("<p><a href=\"https://example.com/?a=1&amp;b=2\">site</a></p>\n");
+    assertThat(render("[mail](MAILTO:someone@example.com)"))
+        .isEqualTo("<p><a href=\"MAILTO:someone@example.com\">mail</a></p>\n");
+    assertThat(render("[guide](docs/guide.md)"))
+        .isEqualTo("<p><a href=\"docs/guide.md\">guide</a></p>\n");
+    assertThat(render("[top](#top)")).isEqualTo("<p><a href=\"#top\">top</a></p>\n");
+    assertThat(render("[wiki](https://en.wikipedia.org/wiki/Foo_(bar))"))
+        .isEqualTo("<p><a href=\"https://en.wikipedia.org/wiki/Foo_(bar)\">wiki</a></p>\n");
+  }
+
+  @Test
+  public void testUnsafeLinksKeepOnlyLabel() throws IOException {
+    assertThat(render("[click](javascript:alert(1))")).isEqualTo("<p>click</p>\n");
+    assertThat(render("[click](JaVaScRiPt:alert(1))")).isEqualTo("<p>click</p>\n");
+    assertThat(render("[click](data:text/html,<script>)")).isEqualTo("<p>click</p>\n");
+    assertThat(render("[click](vbscript:msgbox)")).isEqualTo("<p>click</p>\n");
+  }
+
+  @Test
+  public void testImagesKeepDescription() throws IOException {
+    assertThat(render("![a <diagram>](diagram.png)"))
+        .isEqualTo("<p>a &lt;diagram&gt;</p>\n");
+  }
+
+  @Test
+  public void testEscapedPunctuation() throws IOException {
+    assertThat(render("\\*not emphasis\\* \\<b\\>"))
+        .isEqualTo("<p>*not emphasis* &lt;b&gt;</p>\n");
+  }
+
+  @Test
+  public void testLongLineIsSplit() throws IOException {
+    String text = Strings.repeat("a", MAX * 2 + 100);
+    assertThat(render(text + "\nnext")).isEqualTo("<p>" + text + "\nnext</p>\n");
+  }
+
+  @Test
+  public void testLongCodeLineIsSplit() throws IOException {
+    String text = Strings.repeat("<", MAX * 2 + 100);
+    assertThat(render("```\n" + text + "\nnext\n```"))
+        .isEqualTo("<pre><code>" + Strings.repeat("&lt;", MAX * 2 + 100)
+            + "\nnext\n</code></pre>\n");
+  }
+
+  @Test(timeout = 30000)
+  public void testSurrogatePairAtSplitIsKept() throws IOException {
+    // The pair straddles the point where the line is split
+    String text = Strings.repeat("a", MAX - 1) + "😀" + Strings.repeat("b", 10);
+    assertThat(render(text)).isEqualTo("<p>" + text + "</p>\n");
+  }
+
+  @Test
+  public void testCarriageReturns() throws IOException {
+    assertThat(render("# Title\r\ntext\r\n")).isEqualTo("<h1>Title</h1>\n<p>text</p>\n");
+  }
+
+  @Test
+  public void testIsMarkdown() {
+    assertThat(MarkdownRenderer.isMarkdown("README.md")).isTrue();
+    assertThat(MarkdownRenderer.isMarkdown("notes.MARKDOWN")).isTrue();
+    assertThat(MarkdownRenderer.isMarkdown("main.java")).isFalse();
+  }
+
+  private static String render(String markdown) throws IOException {
+    try (InputStream html = MarkdownRenderer.render(
+        new ByteArrayInputStream(markdown.getBytes(StandardCharsets.UTF_8)))) {
+      return new String(ByteStreams.toByteArray(html), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.kohsuke.github.HttpConnector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures API calls through the pooled transport against the JDK's
+ * default one, by default 10,000 calls from 8 threads to a local server
+ * returning 4 KB JSON responses.
+ * <p>
+ * Reports for each transport the calls per second, the mean and 99th
+ * percentile latency, the number of connections the server saw and the
+ * response bytes sent, which are smaller when compressed. The server
+ * speaks HTTP/1.1 only, so HTTP/2 isn't measured. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.tutorial.PooledHttpConnectorBenchmark \
+ *     -Dexec.args="10000 8 4096"
+ * </pre>
+ * The arguments are the number of calls, the number of calling threads
+ * and the size of each response in bytes.
+ */
+public class PooledHttpConnectorBenchmark {
+  private static final int WARM_UP_CALLS = 500;
+
+  public static void main(String[] args) throws Exception {
+    // Otherwise the server's responses wait for delayed acknowledgements
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int responseBytes = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+
+    Server server = new Server(json(responseBytes));
+    try (PooledHttpConnector pooled = new PooledHttpConnector(16,
+        TimeUnit.MINUTES.toMillis(5), 10000, 10000, false)) {
+      HttpConnector jdk = url -> (HttpURLConnection) url.openConnection();
+      System.out.printf("%d calls from %d threads, %d byte responses%n", calls, threads,
+          responseBytes);
+      run("jdk", jdk, server, calls, threads);
+      run("pooled", pooled, server, calls, threads);
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static void run(String name, HttpConnector connector, Server server, int calls,
+      int threads) throws Exception {
+    call(connector, server, WARM_UP_CALLS, threads);
+    server.reset();
+    long start = System.nanoTime();
+    long[] latencies = call(connector, server, calls, threads);
+    long elapsed = System.nanoTime() - start;
+    Arrays.sort(latencies);
+    double mean = Arrays.stream(latencies).average().orElse(0);
+    System.out.printf("%-6s %8.0f calls/s, mean %.2f ms, p99 %.2f ms, %d connections,"
+            + " %.1f MB sent%n", name, calls / (elapsed / 1e9), mean / 1e6,
+        latencies[(int) (latencies.length * 0.99)] / 1e6, server.connections.size(),
+        server.bytesSent.get() / 1e6);
+  }
+
+  /**
+   * Makes calls from a number of threads, reading each response fully the
+   * way the GitHub client does.
+   *
+   * @return the latency of each call in nanoseconds
+   */
+  private static long[] call(HttpConnector connector, Server server, int calls, int threads)
+      throws Exception {
+    URL url = new URL(server.url, "/repos/example/repo/pulls/1");
+    long[] latencies = new long[calls];
+    AtomicInteger next = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        workers.add(executor.submit(() -> {
+          byte[] buffer = new byte[8192];
+          for (int i = next.getAndIncrement(); i < calls; i = next.getAndIncrement()) {
+            long start = System.nanoTime();
+            HttpURLConnection connection = connector.connect(url);
+            connection.setRequestProperty("Accept", "application/vnd.github.v3+json");
+            if (connection.getResponseCode() != 200) {
+              throw new IOException("Unexpected response " + connection.getResponseCode());
+            }
+            try (InputStream in = connection.getInputStream()) {
+              while (in.read(buffer) >= 0) {
+                // Drain, so the connection can be reused
+              }
+            }
+            latencies[i] = System.nanoTime() - start;
+          }
+          return null;
+        }));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return latencies;
+  }
+
+  /**
+   * Generates a JSON response of about the given size, as repetitive as
+   * API responses tend to be.
+   */
+  private static byte[] json(int bytes) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; json.length() < bytes; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"id\":").append(1000 + i)
+          .append(",\"login\":\"user").append(i % 50)
+          .append("\",\"url\":\"https://api.github.com/users/user").append(i % 50)
+          .append("\",\"type\":\"User\",\"site_admin\":false}");
+    }
+    return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Local server returning the same response to every request, compressed
+   * when the client accepts it, and counting the connections it serves.
+   */
+  private static class Server {
+    private final HttpServer server;
+    private final URL url;
+    private final byte[] body;
+    private final byte[] gzippedBody;
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    Server(byte[] body) throws IOException {
+      this.body = body;
+      ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+      try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+        out.write(body);
+      }
+      this.gzippedBody = gzipped.toByteArray();
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      server.createContext("/", this::handle);
+      server.setExecutor(Executors.newCachedThreadPool());
+      server.start();
+      url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+      connections.add(exchange.getRemoteAddress());
+      exchange.getRequestBody().close();
+      String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+      byte[] response = body;
+      if (encoding != null && encoding.contains("gzip")) {
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        response = gzippedBody;
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(200, response.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(response);
+      }
+      bytesSent.addAndGet(response.length);
+    }
+
+    void reset() {
+      connections.clear();
+      bytesSent.set(0);
+    }
+
+    void stop() {
+      server.stop(0);
+      ((ExecutorService) server.getExecutor()).shutdown();
+    }
+  }
+}
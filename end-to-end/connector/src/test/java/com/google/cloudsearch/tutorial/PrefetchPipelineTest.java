@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class PrefetchPipelineTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private PrefetchPipeline pipeline;
+
+  @After
+  public void closePipeline() {
+    if (pipeline != null) {
+      pipeline.close();
+    }
+  }
+
+  @Test
+  public void testTakeAfterFetchReleasesMemory() throws Exception {
+    pipeline = newPipeline((name, pipeline) -> spooled(pipeline, 100), 1000, 1000);
+
+    pipeline.prefetch("item");
+    PrefetchPipeline.Fetched fetched = pipeline.take("item");
+
+    assertThat(read(fetched)).isEqualTo(100);
+    assertThat(pipeline.memoryBytes()).isEqualTo(100);
+    fetched.discard();
+    assertThat(pipeline.memoryBytes()).isEqualTo(0);
+  }
+
+  @Test(timeout = 30000)
+  public void testTakeWhileFetchingReleasesMemory() throws Exception {
+    CountDownLatch taking = new CountDownLatch(1);
+    pipeline = newPipeline((name, pipeline) -> {
+      await(taking);
+      return spooled(pipeline, 100);
+    }, 1000, 1000);
+
+    for (int i = 0; i < 50; i++) {
+      pipeline.prefetch("item" + i);
+    }
+    for (int i = 0; i < 50; i++) {
+      String name = "item" + i;
+      CompletableFuture<PrefetchPipeline.Fetched> take =
+          CompletableFuture.supplyAsync(() -> pipeline.take(name));
+      // Let the fetch finish only once the item is being taken
+      Thread.sleep(i == 0 ? 50 : 0);
+      taking.countDown();
+      PrefetchPipeline.Fetched fetched = take.get(10, TimeUnit.SECONDS);
+      assertThat(read(fetched)).isEqualTo(100);
+      fetched.discard();
+    }
+
+    assertThat(pipeline.memoryBytes()).isEqualTo(0);
+    assertThat(pipeline.diskBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testOverflowsToDisk() throws Exception {
+    pipeline = newPipeline((name, pipeline) -> spooled(pipeline, 100), 150, 1000);
+
+    pipeline.prefetch("first");
+    PrefetchPipeline.Fetched first = pipeline.take("first");
+    pipeline.prefetch("second");
+    PrefetchPipeline.Fetched second = pipeline.take("second");
+
+    assertThat(pipeline.memoryBytes()).isEqualTo(100);
+    assertThat(pipeline.diskBytes()).isEqualTo(100);
+    assertThat(read(second)).isEqualTo(100);
+    first.discard();
+    second.discard();
+    assertThat(pipeline.memoryBytes()).isEqualTo(0);
+    assertThat(pipeline.diskBytes()).isEqualTo(0);
+    assertThat(temporaryFolder.getRoot().list()).isEmpty();
+  }
+
+  @Test
+  public void testDiscardTwiceReleasesOnce() throws Exception {
+    pipeline = newPipeline((name, pipeline) -> spooled(pipeline, 100), 1000, 1000);
+    pipeline.prefetch("first");
+    pipeline.prefetch("second");
+    PrefetchPipeline.Fetched first = pipeline.take("first");
+    PrefetchPipeline.Fetched second = pipeline.take("second");
+
+    first.discard();
+    first.discard();
+
+    assertThat(pipeline.memoryBytes()).isEqualTo(100);
+    second.discard();
+    assertThat(pipeline.memoryBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testTakeWithoutPrefetch() {
+    pipeline = newPipeline((name, pipeline) -> spooled(pipeline, 100), 1000, 1000);
+
+    assertThat(pipeline.take("missing")).isNull();
+  }
+
+  private PrefetchPipeline newPipeline(PrefetchPipeline.Fetcher fetcher, long memoryBudget,
+      long diskBudget) {
+    return new PrefetchPipeline(fetcher, 2, 100, memoryBudget, diskBudget,
+        temporaryFolder.getRoot(), TimeUnit.HOURS.toMillis(1));
+  }
+
+  private static PrefetchPipeline.Fetched spooled(PrefetchPipeline pipeline, int size)
+      throws IOException {
+    PrefetchPipeline.SpooledContent content =
+        pipeline.spool(new ByteArrayInputStream(new byte[size]), size);
+    return new PrefetchPipeline.Fetched(content, content);
+  }
+
+  private static long read(PrefetchPipeline.Fetched fetched) throws IOException {
+    try (InputStream in = ((PrefetchPipeline.SpooledContent) fetched.getValue()).openStream()) {
+      return ByteStreams.toByteArray(in).length;
+    }
+  }
+
+  private static void await(CountDownLatch latch) throws IOException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.kohsuke.github.HttpConnector;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Records exchanges with a local server through
+ * {@link RecordingHttpConnector} and serves them back with
+ * {@link ReplayHttpConnector}.
+ */
+@RunWith(JUnit4.class)
+public class ReplayHttpConnectorTest {
+  private static final String JSON = "application/vnd.github.v3+json";
+  private static final String DIFF = "application/vnd.github.v3.diff";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private HttpServer server;
+  private final AtomicInteger pulls = new AtomicInteger();
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    // Same URL, representation chosen by the Accept header
+    server.createContext("/pulls/1", exchange -> {
+      String accept = exchange.getRequestHeaders().getFirst("Accept");
+      if (DIFF.equals(accept)) {
+        respond(exchange, 200, "diff --git a/README.md b/README.md");
+      } else {
+        respond(exchange, 200, "{\"number\":1,\"version\":" + pulls.incrementAndGet() + "}");
+      }
+    });
+    server.createContext("/missing", exchange -> respond(exchange, 404, "Not Found"));
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testReplaysRecordedExchanges() throws IOException {
+    File file = temporaryFolder.newFile("traffic.bin");
+    HttpConnector direct = url -> (HttpURLConnection) url.openConnection();
+    try (RecordingHttpConnector recorder =
+             new RecordingHttpConnector(direct, TrafficArchive.create(file))) {
+      assertThat(get(recorder, "/pulls/1", JSON)).isEqualTo("{\"number\":1,\"version\":1}");
+      assertThat(get(recorder, "/pulls/1", DIFF)).isEqualTo("diff --git a/README.md b/README.md");
+      assertThat(get(recorder, "/pulls/1", JSON)).isEqualTo("{\"number\":1,\"version\":2}");
+      // Like the GitHub client, read the error body once the request fails
+      HttpURLConnection missing = open(recorder, "/missing", JSON);
+      assertThrows(FileNotFoundException.class, missing::getInputStream);
+      assertThat(read(missing.getErrorStream())).isEqualTo("Not Found");
+    }
+    server.stop(0);
+
+    List<TrafficArchive.Exchange> recorded = TrafficArchive.readAll(file);
+    assertThat(recorded).hasSize(4);
+    assertThat(recorded.get(1).accept).isEqualTo(DIFF);
+
+    ReplayHttpConnector replay = new ReplayHttpConnector(recorded, 0);
+    // Diff and JSON don't share a queue even though the URL is the same
+    assertThat(get(replay, "/pulls/1", DIFF)).isEqualTo("diff --git a/README.md b/README.md");
+    assertThat(get(replay, "/pulls/1", JSON)).isEqualTo("{\"number\":1,\"version\":1}");
+    assertThat(get(replay, "/pulls/1", JSON)).isEqualTo("{\"number\":1,\"version\":2}");
+    // The last response keeps being served once the others are used up
+    assertThat(get(replay, "/pulls/1", JSON)).isEqualTo("{\"number\":1,\"version\":2}");
+    assertThat(get(replay, "/pulls/1", DIFF)).isEqualTo("diff --git a/README.md b/README.md");
+
+    HttpURLConnection missing = open(replay, "/missing", JSON);
+    assertThat(missing.getResponseCode()).isEqualTo(404);
+    assertThrows(FileNotFoundException.class, missing::getInputStream);
+    assertThat(read(missing.getErrorStream())).isEqualTo("Not Found");
+
+    // Nothing recorded for other representations
+    IOException e = assertThrows(IOException.class,
+        () -> open(replay, "/pulls/1", "application/vnd.github.v3.patch").getResponseCode());
+    assertThat(e).hasMessageThat().contains("No recorded response");
+  }
+
+  private String get(HttpConnector connector, String path, String accept) throws IOException {
+    return read(open(connector, path, accept).getInputStream());
+  }
+
+  private HttpURLConnection open(HttpConnector connector, String path, String accept)
+      throws IOException {
+    URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+    HttpURLConnection connection = connector.connect(url);
+    connection.setRequestMethod("GET");
+    connection.setRequestProperty("Accept", accept);
+    return connection;
+  }
+
+  private static String read(InputStream in) throws IOException {
+    try (InputStream stream = in) {
+      return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
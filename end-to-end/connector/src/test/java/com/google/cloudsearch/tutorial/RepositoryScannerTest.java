@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class RepositoryScannerTest {
+  private static final List<String> REPOSITORIES =
+      Arrays.asList("org/a", "org/b", "org/c", "org/d");
+
+  private static final RepositoryScanner.Filter ANY = new RepositoryScanner.Filter(
+      false, false, false, Pattern.compile(".*"), Collections.emptyList());
+
+  @Test
+  public void testReturnsAllThenNull() throws IOException {
+    try (RepositoryScanner scanner = scanner(Collections.emptyList())) {
+      List<String> scanned = new ArrayList<>();
+      String name;
+      while ((name = scanner.next()) != null) {
+        scanned.add(name);
+      }
+      assertThat(scanned).containsExactlyElementsIn(REPOSITORIES).inOrder();
+      assertThat(scanner.next()).isNull();
+    }
+  }
+
+  @Test
+  public void testSkipsCompleted() throws IOException {
+    try (RepositoryScanner scanner = scanner(Arrays.asList("org/a", "org/c"))) {
+      assertThat(scanner.next()).isEqualTo("org/b");
+      assertThat(scanner.next()).isEqualTo("org/d");
+      assertThat(scanner.next()).isNull();
+    }
+  }
+
+  @Test
+  public void testResumeAfterFailedRepository() throws IOException {
+    // Follows GithubRepository.getIds: a repository is only added to
+    // the completed list once collected, and a failure drops the scanner
+    // so the retry rescans everything not yet completed.
+    List<String> completed = new ArrayList<>();
+    List<String> collected = new ArrayList<>();
+    RepositoryScanner scanner = null;
+    boolean failed = false;
+    while (true) {
+      if (scanner == null) {
+        scanner = scanner(completed);
+      }
+      String name = scanner.next();
+      if (name == null) {
+        scanner.close();
+        break;
+      }
+      if (name.equals("org/b") && !failed) {
+        failed = true;
+        scanner.close();
+        scanner = null;
+        continue;
+      }
+      collected.add(name);
+      completed.add(name);
+    }
+    assertThat(failed).isTrue();
+    assertThat(collected).containsExactlyElementsIn(REPOSITORIES).inOrder();
+  }
+
+  private static RepositoryScanner scanner(List<String> completed) {
+    RepositoryScanner scanner =
+        new RepositoryScanner(null, REPOSITORIES, ANY, new HashSet<>(completed), 1);
+    scanner.start();
+    return scanner;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+@RunWith(JUnit4.class)
+public class TrafficArchiveTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    File file = temporaryFolder.newFile("traffic.bin");
+    Map<String, List<String>> headers = new LinkedHashMap<>();
+    headers.put(null, ImmutableList.of("HTTP/1.1 200 OK"));
+    headers.put("ETag", ImmutableList.of("\"abc\""));
+    headers.put("Link", ImmutableList.of("<a>; rel=\"next\"", "<b>; rel=\"last\""));
+    byte[] body = new byte[100000];
+    for (int i = 0; i < body.length; i++) {
+      body[i] = (byte) (i % 7);
+    }
+    try (TrafficArchive archive = TrafficArchive.create(file)) {
+      archive.append(new TrafficArchive.Exchange("GET", "https://api.github.com/repos/o/r",
+          "application/vnd.github.v3+json", 1234, 200, "OK", headers, body));
+      archive.append(new TrafficArchive.Exchange("POST", "https://api.github.com/graphql",
+          null, 0, 404, null, new LinkedHashMap<>(), new byte[0]));
+    }
+
+    List<TrafficArchive.Exchange> exchanges = TrafficArchive.readAll(file);
+    assertThat(exchanges).hasSize(2);
+    TrafficArchive.Exchange first = exchanges.get(0);
+    assertThat(first.method).isEqualTo("GET");
+    assertThat(first.url).isEqualTo("https://api.github.com/repos/o/r");
+    assertThat(first.accept).isEqualTo("application/vnd.github.v3+json");
+    assertThat(first.latencyNanos).isEqualTo(1234L);
+    assertThat(first.status).isEqualTo(200);
+    assertThat(first.message).isEqualTo("OK");
+    assertThat(first.headers).isEqualTo(headers);
+    assertThat(Arrays.equals(first.body, body)).isTrue();
+    TrafficArchive.Exchange second = exchanges.get(1);
+    assertThat(second.method).isEqualTo("POST");
+    assertThat(second.accept).isNull();
+    assertThat(second.status).isEqualTo(404);
+    assertThat(second.message).isNull();
+    assertThat(second.headers).isEmpty();
+    assertThat(second.body).hasLength(0);
+  }
+
+  @Test
+  public void testTruncatedTailIgnored() throws IOException {
+    File file = temporaryFolder.newFile("traffic.bin");
+    try (TrafficArchive archive = TrafficArchive.create(file)) {
+      archive.append(exchange("/first", "one"));
+      archive.append(exchange("/second", "two"));
+    }
+    long complete = file.length();
+    try (TrafficArchive archive = TrafficArchive.create(temporaryFolder.newFile("one.bin"))) {
+      archive.append(exchange("/first", "one"));
+    }
+    long firstRecordEnd = new File(temporaryFolder.getRoot(), "one.bin").length();
+
+    // Cut short inside the second record, and inside its length prefix
+    for (long length : new long[] {complete - 1, firstRecordEnd + 2, firstRecordEnd}) {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(length);
+      }
+      List<TrafficArchive.Exchange> exchanges = TrafficArchive.readAll(file);
+      assertThat(exchanges).hasSize(1);
+      assertThat(new String(exchanges.get(0).body, StandardCharsets.UTF_8)).isEqualTo("one");
+    }
+  }
+
+  @Test
+  public void testRejectsOtherFiles() throws IOException {
+    File file = temporaryFolder.newFile("other.bin");
+    Files.write(file.toPath(), "not an archive".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, () -> TrafficArchive.readAll(file));
+  }
+
+  private static TrafficArchive.Exchange exchange(String path, String body) {
+    return new TrafficArchive.Exchange("GET", "https://api.github.com" + path, null, 0, 200,
+        "OK", new LinkedHashMap<>(), body.getBytes(StandardCharsets.UTF_8));
+  }
+}
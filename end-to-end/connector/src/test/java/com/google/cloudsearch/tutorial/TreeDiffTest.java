@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.tutorial;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class TreeDiffTest {
+  /**
+   * Trees by SHA, recording which ones were read.
+   */
+  private static class FakeReader implements TreeDiff.TreeReader {
+    private final Map<String, List<TreeDiff.TreeEntry>> trees = new HashMap<>();
+    private final List<String> reads = new ArrayList<>();
+
+    FakeReader tree(String sha, TreeDiff.TreeEntry... entries) {
+      trees.put(sha, Arrays.asList(entries));
+      return this;
+    }
+
+    @Override
+    public List<TreeDiff.TreeEntry> readTree(String sha) throws IOException {
+      reads.add(sha);
+      List<TreeDiff.TreeEntry> entries = trees.get(sha);
+      if (entries == null) {
+        throw new IOException("Unknown tree " + sha);
+      }
+      return entries;
+    }
+  }
+
+  /**
+   * Collects changes, mapping paths to their new SHA or "deleted".
+   */
+  private static class Changes implements TreeDiff.ChangeHandler {
+    private final Map<String, String> changes = new TreeMap<>();
+
+    @Override
+    public void changed(String path, String sha) {
+      assertThat(changes.put(path, sha)).isNull();
+    }
+
+    @Override
+    public void deleted(String path) {
+      assertThat(changes.put(path, "deleted")).isNull();
+    }
+  }
+
+  private static TreeDiff.TreeEntry file(String name, String sha) {
+    return new TreeDiff.TreeEntry(name, sha, false);
+  }
+
+  private static TreeDiff.TreeEntry dir(String name, String sha) {
+    return new TreeDiff.TreeEntry(name, sha, true);
+  }
+
+  @Test
+  public void testIdenticalRootsReadNothing() throws IOException {
+    FakeReader reader = new FakeReader().tree("root", file("a", "1"));
+    Changes changes = new Changes();
+    TreeDiff.diff(reader, "root", "root", changes);
+    assertThat(changes.changes).isEmpty();
+    assertThat(reader.reads).isEmpty();
+  }
+
+  @Test
+  public void testInitialTraversalReportsEverything() throws IOException {
+    FakeReader reader = new FakeReader()
+        .tree("root", file("README.md", "r1"), dir("src", "s1"))
+        .tree("s1", file("Main.java", "m1"), dir("util", "u1"))
+        .tree("u1", file("Strings.java", "x1"));
+    Changes changes = new Changes();
+    TreeDiff.diff(reader, null, "root", changes);
+    Map<String, String> expected = new TreeMap<>();
+    expected.put("README.md", "r1");
+    expected.put("src/Main.java", "m1");
+    expected.put("src/util/Strings.java", "x1");
+    assertThat(changes.changes).isEqualTo(expected);
+  }
+
+  @Test
+  public void testAddedModifiedDeletedAndUnchangedSubtrees() throws IOException {
+    FakeReader reader = new FakeReader()
+        .tree("old", file("README.md", "r1"), dir("docs", "d1"), dir("src", "s1"),
+            dir("gone", "g1"))
+        .tree("new", file("README.md", "r1"), dir("docs", "d1"), dir("src", "s2"),
+            dir("added", "a1"))
+        .tree("d1", file("guide.md", "gd1"))
+        .tree("s1", file("Main.java", "m1"), file("Old.java", "o1"))
+        .tree("s2", file("Main.java", "m2"), file("New.java", "n1"))
+        .tree("g1", file("x.txt", "x1"), dir("deep", "gd"))
+        .tree("gd", file("y.txt", "y1"))
+        .tree("a1", file("z.txt", "z1"));
+    Changes changes = new Changes();
+    TreeDiff.diff(reader, "old", "new", changes);
+
+    Map<String, String> expected = new TreeMap<>();
+    expected.put("src/Main.java", "m2");
+    expected.put("src/New.java", "n1");
+    expected.put("src/Old.java", "deleted");
+    expected.put("gone/x.txt", "deleted");
+    expected.put("gone/deep/y.txt", "deleted");
+    expected.put("added/z.txt", "z1");
+    assertThat(changes.changes).isEqualTo(expected);
+    // The unchanged docs sub-tree is skipped without being read
+    assertThat(reader.reads).doesNotContain("d1");
+  }
+
+  @Test
+  public void testFileReplacedByDirectory() throws IOException {
+    FakeReader reader = new FakeReader()
+        .tree("old", file("lib", "f1"))
+        .tree("new", dir("lib", "t1"))
+        .tree("t1", file("a.js", "a1"));
+    Changes changes = new Changes();
+    TreeDiff.diff(reader, "old", "new", changes);
+    Map<String, String> expected = new TreeMap<>();
+    expected.put("lib", "deleted");
+    expected.put("lib/a.js", "a1");
+    assertThat(changes.changes).isEqualTo(expected);
+  }
+
+  @Test
+  public void testDirectoryReplacedByFile() throws IOException {
+    FakeReader reader = new FakeReader()
+        .tree("old", dir("lib", "t1"))
+        .tree("new", file("lib", "f1"))
+        .tree("t1", file("a.js", "a1"));
+    Changes changes = new Changes();
+    TreeDiff.diff(reader, "old", "new", changes);
+    Map<String, String> expected = new TreeMap<>();
+    expected.put("lib", "f1");
+    expected.put("lib/a.js", "deleted");
+    assertThat(changes.changes).isEqualTo(expected);
+  }
+
+  @Test
+  public void testDeletedRoot() throws IOException {
+    FakeReader reader = new FakeReader()
+        .tree("old", file("a", "1"), dir("b", "t"))
+        .tree("t", file("c", "2"));
+    Changes changes = new Changes();
+    TreeDiff.diff(reader, "old", null, changes);
+    Map<String, String> expected = new TreeMap<>();
+    expected.put("a", "deleted");
+    expected.put("b/c", "deleted");
+    assertThat(changes.changes).isEqualTo(expected);
+  }
+}
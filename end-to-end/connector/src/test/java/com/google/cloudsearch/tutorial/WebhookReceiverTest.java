@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloudsearch.tutorial;
+
+import com.google.api.services.cloudsearch.v1.model.PushItem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperation;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperations;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.PushItems;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class WebhookReceiverTest {
+  private static final String SECRET = "It's a Secret to Everybody";
+  private static final String ISSUE_PAYLOAD =
+      "{\"action\":\"opened\",\"issue\":{\"html_url\":\"https://github.com/org/repo/issues/1\"}}";
+
+  private final List<ApiOperation> operations = new CopyOnWriteArrayList<>();
+  private WebhookReceiver receiver;
+
+  @After
+  public void closeReceiver() {
+    if (receiver != null) {
+      receiver.close();
+    }
+  }
+
+  @Test
+  public void testAcceptsSignedDelivery() throws Exception {
+    start(60000);
+
+    assertThat(post("issues", ISSUE_PAYLOAD, sign(ISSUE_PAYLOAD, SECRET))).isEqualTo(202);
+    receiver.close();
+
+    assertThat(operations).containsExactly(modified("/org/repo/issues/1"));
+  }
+
+  @Test
+  public void testRejectsBadSignatures() throws Exception {
+    start(60000);
+
+    assertThat(post("issues", ISSUE_PAYLOAD, null)).isEqualTo(401);
+    assertThat(post("issues", ISSUE_PAYLOAD, sign(ISSUE_PAYLOAD, "wrong"))).isEqualTo(401);
+    assertThat(post("issues", ISSUE_PAYLOAD, sign(ISSUE_PAYLOAD + " ", SECRET)))
+        .isEqualTo(401);
+    assertThat(post("issues", ISSUE_PAYLOAD, "sha256=not-hex")).isEqualTo(401);
+    assertThat(post("issues", ISSUE_PAYLOAD,
+        sign(ISSUE_PAYLOAD, SECRET).replace("sha256=", "sha1="))).isEqualTo(401);
+    receiver.close();
+
+    assertThat(operations).isEmpty();
+  }
+
+  @Test
+  public void testAcceptsUppercaseSignature() throws Exception {
+    start(60000);
+
+    String signature = "sha256=" + sign(ISSUE_PAYLOAD, SECRET).substring(7).toUpperCase();
+    assertThat(post("issues", ISSUE_PAYLOAD, signature)).isEqualTo(202);
+  }
+
+  @Test
+  public void testRejectsMalformedPayload() throws Exception {
+    start(60000);
+
+    assertThat(post("issues", "{\"issue\":", sign("{\"issue\":", SECRET))).isEqualTo(400);
+  }
+
+  @Test
+  public void testRejectsGet() throws Exception {
+    start(60000);
+    HttpURLConnection connection = (HttpURLConnection) url().openConnection();
+
+    assertThat(connection.getResponseCode()).isEqualTo(405);
+  }
+
+  @Test
+  public void testCoalescesEventsForSameItem() throws Exception {
+    start(60000);
+
+    for (int i = 0; i < 5; i++) {
+      receiver.handleEvent("issue_comment", issue("https://github.com/org/repo/issues/1"));
+    }
+    receiver.handleEvent("pull_request", ImmutableMap.of("pull_request",
+        ImmutableMap.of("html_url", "https://github.com/org/repo/pull/2")));
+    receiver.close();
+
+    assertThat(operations).containsExactly(
+        modified("/org/repo/issues/1", "/org/repo/pull/2"));
+  }
+
+  @Test
+  public void testLastEventWins() throws Exception {
+    start(60000);
+
+    receiver.handleEvent("issues", issue("https://github.com/org/repo/issues/1"));
+    receiver.handleEvent("issues", ImmutableMap.of("action", "deleted",
+        "issue", ImmutableMap.of("html_url", "https://github.com/org/repo/issues/1")));
+    receiver.handleEvent("issues", ImmutableMap.of("action", "transferred",
+        "issue", ImmutableMap.of("html_url", "https://github.com/org/repo/issues/2")));
+    receiver.handleEvent("issue_comment", issue("https://github.com/org/repo/issues/2"));
+    receiver.close();
+
+    assertThat(operations).containsExactly(
+        ApiOperations.deleteItem("/org/repo/issues/1"), modified("/org/repo/issues/2"))
+        .inOrder();
+  }
+
+  @Test
+  public void testPushToDefaultBranch() throws Exception {
+    start(60000);
+    Map<String, Object> repository = ImmutableMap.of(
+        "html_url", "https://github.com/org/repo", "default_branch", "main");
+
+    receiver.handleEvent("push", ImmutableMap.of("ref", "refs/heads/feature",
+        "repository", repository, "commits", ImmutableList.of(
+            ImmutableMap.of("added", ImmutableList.of("ignored.md")))));
+    receiver.handleEvent("push", ImmutableMap.of("ref", "refs/heads/main",
+        "repository", repository, "commits", ImmutableList.of(
+            ImmutableMap.of("added", ImmutableList.of("new.md"),
+                "modified", ImmutableList.of("README.md")),
+            ImmutableMap.of("removed", ImmutableList.of("old.md")))));
+    receiver.close();
+
+    assertThat(operations).containsExactly(
+        ApiOperations.deleteItem("/org/repo/blob/main/old.md"),
+        modified("/org/repo", "/org/repo/blob/main/new.md", "/org/repo/blob/main/README.md"))
+        .inOrder();
+  }
+
+  @Test
+  public void testPushEncodesFileNames() throws Exception {
+    start(60000);
+    Map<String, Object> repository = ImmutableMap.of(
+        "html_url", "https://github.com/org/repo", "default_branch", "main");
+
+    receiver.handleEvent("push", ImmutableMap.of("ref", "refs/heads/main",
+        "repository", repository, "commits", ImmutableList.of(
+            ImmutableMap.of("added", ImmutableList.of("docs/read me#1.md"),
+                "removed", ImmutableList.of("café?.md")))));
+    receiver.close();
+
+    // Same names as the paths of the files' html_url
+    assertThat(operations).containsExactly(
+        ApiOperations.deleteItem("/org/repo/blob/main/caf%C3%A9%3F.md"),
+        modified("/org/repo", "/org/repo/blob/main/docs/read%20me%231.md"))
+        .inOrder();
+  }
+
+  @Test(timeout = 30000)
+  public void testFlushesAfterDelay() throws Exception {
+    CountDownLatch flushed = new CountDownLatch(1);
+    receiver = new WebhookReceiver(0, "/webhook", SECRET, 50, operation -> {
+      operations.add(operation);
+      flushed.countDown();
+    });
+
+    receiver.handleEvent("issues", issue("https://github.com/org/repo/issues/1"));
+
+    assertThat(flushed.await(30, TimeUnit.SECONDS)).isTrue();
+    assertThat(operations).containsExactly(modified("/org/repo/issues/1"));
+  }
+
+  @Test
+  public void testIgnoresOtherEvents() throws Exception {
+    start(60000);
+
+    receiver.handleEvent("star", issue("https://github.com/org/repo/issues/1"));
+    receiver.handleEvent(null, issue("https://github.com/org/repo/issues/1"));
+    receiver.close();
+
+    assertThat(operations).isEmpty();
+  }
+
+  private void start(long coalesceMillis) throws IOException {
+    receiver = new WebhookReceiver(0, "/webhook", SECRET, coalesceMillis, operations::add);
+    receiver.start();
+  }
+
+  private URL url() throws IOException {
+    return new URL("http", "127.0.0.1", receiver.getPort(), "/webhook");
+  }
+
+  private int post(String event, String payload, String signature) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url().openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("X-GitHub-Event", event);
+    if (signature != null) {
+      connection.setRequestProperty("X-Hub-Signature-256", signature);
+    }
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(payload.getBytes(StandardCharsets.UTF_8));
+    }
+    return connection.getResponseCode();
+  }
+
+  private static String sign(String payload, String secret) throws GeneralSecurityException {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    byte[] digest = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    return "sha256=" + BaseEncoding.base16().lowerCase().encode(digest);
+  }
+
+  private static Map<String, Object> issue(String htmlUrl) {
+    return ImmutableMap.of("action", "edited", "issue", ImmutableMap.of("html_url", htmlUrl));
+  }
+
+  private static ApiOperation modified(String... names) {
+    PushItems.Builder builder = new PushItems.Builder();
+    for (String name : names) {
+      builder.addPushItem(name, new PushItem().setType("MODIFIED"));
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable directed graph of named nodes in compressed sparse row form.
+ * <p>
+ * Nodes are identified by ints, their IDs in a {@link NameDictionary} of
+ * the node names. The successors of node {@code n} are
+ * {@code targets[offsets[n]]} up to {@code targets[offsets[n + 1]]},
+ * sorted, so an edge costs 4 bytes and a node 4 bytes plus its
+ * front-coded name. Lookups work on IDs and edge positions and don't
+ * allocate. Thread safe.
+ */
+final class CompactGraph {
+  private final NameDictionary names;
+  private final int[] offsets;
+  private final int[] targets;
+
+  private CompactGraph(NameDictionary names, int[] offsets, int[] targets) {
+    this.names = names;
+    this.offsets = offsets;
+    this.targets = targets;
+  }
+
+  /**
+   * Get the number of nodes.
+   */
+  int nodeCount() {
+    return names.size();
+  }
+
+  /**
+   * Get the number of edges.
+   */
+  int edgeCount() {
+    return targets.length;
+  }
+
+  /**
+   * Get the approximate memory used by the graph, in bytes.
+   */
+  long memoryBytes() {
+    return names.encodedBytes() + 4L * offsets.length + 4L * targets.length;
+  }
+
+  /**
+   * Looks up a node.
+   *
+   * @param name node name
+   * @return ID of the node, or -1 if not in the graph
+   */
+  int nodeId(String name) {
+    return names.idOf(name);
+  }
+
+  /**
+   * Get the name of a node.
+   *
+   * @param node node ID
+   * @return node name
+   */
+  String nodeName(int node) {
+    return names.nameOf(node);
+  }
+
+  /**
+   * Checks if a node is in the graph.
+   */
+  boolean contains(String name) {
+    return names.idOf(name) >= 0;
+  }
+
+  /**
+   * Get the position of a node's first successor, see
+   * {@link #successor(int)}.
+   */
+  int firstSuccessor(int node) {
+    return offsets[node];
+  }
+
+  /**
+   * Get the position after a node's last successor.
+   */
+  int endSuccessor(int node) {
+    return offsets[node + 1];
+  }
+
+  /**
+   * Get the number of successors of a node.
+   */
+  int outDegree(int node) {
+    return offsets[node + 1] - offsets[node];
+  }
+
+  /**
+   * Get the successor at a position.
+   *
+   * @param position position between {@link #firstSuccessor(int)} and
+   *                 {@link #endSuccessor(int)} of a node
+   * @return ID of the successor
+   */
+  int successor(int position) {
+    return targets[position];
+  }
+
+  /**
+   * Checks if there is an edge between two nodes.
+   */
+  boolean hasEdge(int from, int to) {
+    return Arrays.binarySearch(targets, offsets[from], offsets[from + 1], to) >= 0;
+  }
+
+  /**
+   * Get the nodes without predecessors.
+   *
+   * @return IDs of the nodes, in ascending order
+   */
+  int[] roots() {
+    boolean[] hasPredecessor = new boolean[nodeCount()];
+    for (int target : targets) {
+      hasPredecessor[target] = true;
+    }
+    int count = 0;
+    for (boolean predecessor : hasPredecessor) {
+      count += predecessor ? 0 : 1;
+    }
+    int[] roots = new int[count];
+    for (int node = 0, i = 0; i < count; node++) {
+      if (!hasPredecessor[node]) {
+        roots[i++] = node;
+      }
+    }
+    return roots;
+  }
+
+  /**
+   * Builds a graph from edges between the IDs of a dictionary's names.
+   *
+   * @param names      node names, whose IDs are the node IDs
+   * @param edges      arrays of edges, each stored as the ID of its
+   *                   predecessor followed by the ID of its successor
+   * @param edgeCounts number of edges in each array
+   * @return the graph, with duplicate edges dropped
+   */
+  static CompactGraph fromEdges(NameDictionary names, int[][] edges, int[] edgeCounts) {
+    // Count successors, then place each edge in its row
+    int nodeCount = names.size();
+    int[] offsets = new int[nodeCount + 1];
+    long edgeCount = 0;
+    for (int chunk = 0; chunk < edges.length; chunk++) {
+      for (int i = 0; i < edgeCounts[chunk]; i++) {
+        offsets[edges[chunk][i * 2] + 1]++;
+      }
+      edgeCount += edgeCounts[chunk];
+    }
+    if (edgeCount > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Too many edges: " + edgeCount);
+    }
+    for (int node = 0; node < nodeCount; node++) {
+      offsets[node + 1] += offsets[node];
+    }
+    int[] next = Arrays.copyOf(offsets, nodeCount);
+    int[] targets = new int[(int) edgeCount];
+    for (int chunk = 0; chunk < edges.length; chunk++) {
+      int[] pairs = edges[chunk];
+      for (int i = 0; i < edgeCounts[chunk]; i++) {
+        targets[next[pairs[i * 2]]++] = pairs[i * 2 + 1];
+      }
+      edges[chunk] = null;
+    }
+
+    // Sort each row and drop duplicate edges, compacting in place
+    int write = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      int start = offsets[node];
+      int end = offsets[node + 1];
+      Arrays.sort(targets, start, end);
+      offsets[node] = write;
+      for (int i = start; i < end; i++) {
+        if (i == start || targets[i] != targets[i - 1]) {
+          targets[write++] = targets[i];
+        }
+      }
+    }
+    offsets[nodeCount] = write;
+    return new CompactGraph(names, offsets,
+        write == targets.length ? targets : Arrays.copyOf(targets, write));
+  }
+
+  /**
+   * Collects nodes and edges and builds a {@link CompactGraph}. Self loops
+   * and names with unpaired surrogates aren't allowed, and duplicate edges
+   * are dropped.
+   */
+  static final class Builder {
+    private Map<String, Integer> nameIndexes = new HashMap<>();
+    private String[] names = new String[16];
+    private int nameCount;
+    private int[] edges = new int[32];
+    private int edgeCount;
+
+    /**
+     * Adds a node.
+     *
+     * @param name node name
+     * @return this builder
+     */
+    Builder addNode(String name) {
+      nameIndex(name);
+      return this;
+    }
+
+    /**
+     * Adds an edge, and its nodes if not yet added.
+     *
+     * @param from name of the predecessor
+     * @param to   name of the successor
+     * @return this builder
+     */
+    Builder putEdge(String from, String to) {
+      if (from.equals(to)) {
+        throw new IllegalArgumentException("Self loops aren't allowed: " + from);
+      }
+      if (edgeCount * 2 + 2 > edges.length) {
+        edges = Arrays.copyOf(edges, edges.length * 2);
+      }
+      edges[edgeCount * 2] = nameIndex(from);
+      edges[edgeCount * 2 + 1] = nameIndex(to);
+      edgeCount++;
+      return this;
+    }
+
+    /**
+     * Builds the graph.
+     *
+     * @return the graph
+     */
+    CompactGraph build() {
+      // Node IDs are the positions of the names in sorted order
+      int nodeCount = nameCount;
+      String[] sorted = Arrays.copyOf(names, nodeCount);
+      names = null;
+      Arrays.parallelSort(sorted, NameDictionary::compare);
+      int[] ids = new int[nodeCount];
+      for (int id = 0; id < nodeCount; id++) {
+        ids[nameIndexes.get(sorted[id])] = id;
+      }
+      nameIndexes = null;
+      NameDictionary dictionary = NameDictionary.build(sorted);
+      sorted = null;
+      int[] pairs = edges;
+      edges = null;
+      for (int i = 0; i < edgeCount * 2; i++) {
+        pairs[i] = ids[pairs[i]];
+      }
+      return fromEdges(dictionary, new int[][] {pairs}, new int[] {edgeCount});
+    }
+
+    private int nameIndex(String name) {
+      Integer index = nameIndexes.get(name);
+      if (index != null) {
+        return index;
+      }
+      if (!NameDictionary.isWellFormed(name)) {
+        throw new IllegalArgumentException("Node name has unpaired surrogates: " + name);
+      }
+      if (nameCount == names.length) {
+        names = Arrays.copyOf(names, names.length * 2);
+      }
+      names[nameCount] = name;
+      nameIndexes.put(name, nameCount);
+      return nameCount++;
+    }
+  }
+}
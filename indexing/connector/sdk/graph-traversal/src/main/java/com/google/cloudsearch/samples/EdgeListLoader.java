@@ -0,0 +1,591 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * Loads a {@link CompactGraph} from an edge list file.
+ * <p>
+ * Each line holds the names of a predecessor and a successor separated by
+ * a tab, or the name of a single node. Empty lines and lines starting with
+ * {@code #} are skipped. Names are UTF-8, and lines end with {@code \n} or
+ * {@code \r\n}.
+ * <p>
+ * The file is memory mapped in chunks ending on line boundaries, which
+ * are parsed in parallel. Each chunk collects its distinct names as bytes
+ * and its edges as pairs of chunk local IDs, so nothing is allocated per
+ * line. The names of all chunks are then sorted together bytewise, which
+ * for UTF-8 is the code point order of {@link NameDictionary}, names found
+ * in several chunks are merged, and the edges are translated to the final
+ * node IDs.
+ */
+final class EdgeListLoader {
+  private static final int MIN_CHUNK_BYTES = 1 << 20;
+  private static final int MAX_CHUNK_BYTES = 64 << 20;
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private EdgeListLoader() {
+  }
+
+  /**
+   * Loads a graph.
+   *
+   * @param file edge list file
+   * @return the graph
+   * @throws IOException if the file can't be read
+   * @throws IllegalArgumentException if the file isn't a valid edge list,
+   *     or has a self loop
+   */
+  static CompactGraph load(Path file) throws IOException {
+    return load(file, 0);
+  }
+
+  /**
+   * Loads a graph, splitting the file into chunks of a given size.
+   *
+   * @param file       edge list file
+   * @param chunkBytes approximate size of the chunks parsed in parallel, or
+   *                   0 to pick one from the file size
+   * @return the graph
+   * @throws IOException if the file can't be read
+   */
+  static CompactGraph load(Path file, long chunkBytes) throws IOException {
+    Chunk[] chunks;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long[] bounds = chunkBounds(channel, chunkBytes);
+      chunks = IntStream.range(0, bounds.length - 1)
+          .parallel()
+          .mapToObj(i -> Chunk.parse(channel, bounds[i], bounds[i + 1]))
+          .toArray(Chunk[]::new);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    // Pack the names of all chunks together and sort them. Names found in
+    // more than one chunk end up next to each other and share a node ID.
+    int[] firstName = new int[chunks.length + 1];
+    long poolSize = 0;
+    for (int i = 0; i < chunks.length; i++) {
+      firstName[i + 1] = firstName[i] + chunks[i].names.size;
+      poolSize += chunks[i].names.poolSize;
+    }
+    if (poolSize > MAX_ARRAY_SIZE) {
+      throw new IllegalArgumentException("Node names take more than 2 GB");
+    }
+    byte[] pool = new byte[(int) poolSize];
+    int[] offsets = new int[firstName[chunks.length] + 1];
+    for (int i = 0, position = 0; i < chunks.length; i++) {
+      NameTable names = chunks[i].names;
+      System.arraycopy(names.pool, 0, pool, position, names.poolSize);
+      for (int name = 0; name < names.size; name++) {
+        offsets[firstName[i] + name] = position + names.offsets[name];
+      }
+      position += names.poolSize;
+      offsets[firstName[i + 1]] = position;
+      chunks[i].names = null;
+    }
+    int[] order = new int[firstName[chunks.length]];
+    Arrays.setAll(order, name -> name);
+    ForkJoinPool.commonPool().invoke(new NameSort(pool, offsets, order, 0, order.length, 0));
+
+    // Drop the duplicates, numbering the remaining names in order
+    int[] nodeIds = new int[order.length];
+    int nodeCount = 0;
+    for (int name : order) {
+      if (nodeCount == 0 || !sameName(pool, offsets, order[nodeCount - 1], name)) {
+        order[nodeCount++] = name;
+      }
+      nodeIds[name] = nodeCount - 1;
+    }
+    NameDictionary dictionary =
+        NameDictionary.build(pool, offsets, Arrays.copyOf(order, nodeCount));
+    pool = null;
+    order = null;
+
+    int[][] edges = new int[chunks.length][];
+    int[] edgeCounts = new int[chunks.length];
+    IntStream.range(0, chunks.length).parallel().forEach(i -> {
+      chunks[i].translate(firstName[i], nodeIds);
+      edges[i] = chunks[i].edges;
+      edgeCounts[i] = chunks[i].edgeCount;
+    });
+    return CompactGraph.fromEdges(dictionary, edges, edgeCounts);
+  }
+
+  /**
+   * Splits a file into chunks of whole lines, by default sized so each
+   * thread gets a few of them.
+   *
+   * @return start of each chunk, followed by the file size
+   */
+  private static long[] chunkBounds(FileChannel channel, long chunkBytes) throws IOException {
+    long size = channel.size();
+    if (chunkBytes <= 0) {
+      chunkBytes = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES,
+          size / (4L * ForkJoinPool.getCommonPoolParallelism()) + 1));
+    }
+    long[] bounds = new long[(int) (size / chunkBytes) + 2];
+    int count = 1;
+    ByteBuffer window = ByteBuffer.allocate(1 << 16);
+    for (long start = 0; start < size; start = bounds[count++]) {
+      long end = start + chunkBytes >= size ? size : lineEnd(channel, start + chunkBytes, window);
+      if (end - start > MAX_ARRAY_SIZE) {
+        throw new IllegalArgumentException(
+            String.format("Malformed edge list at byte %d: line too long", start));
+      }
+      bounds[count] = end;
+    }
+    return Arrays.copyOf(bounds, count);
+  }
+
+  /**
+   * Finds the end of the line containing the byte before a position.
+   *
+   * @return position after the line's newline, or the file size
+   */
+  private static long lineEnd(FileChannel channel, long position, ByteBuffer window)
+      throws IOException {
+    position--;
+    while (true) {
+      window.clear();
+      int read = channel.read(window, position);
+      if (read <= 0) {
+        return channel.size();
+      }
+      for (int i = 0; i < read; i++) {
+        if (window.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+  }
+
+  /**
+   * Names and edges parsed from a chunk of the file.
+   */
+  private static final class Chunk {
+    private final long start;
+    private NameTable names = new NameTable(1024);
+    private int[] edges = new int[1024];
+    private int edgeCount;
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Position, length and ID of the last predecessor, as edge lists
+     * usually list a node's edges together
+     */
+    private int previousFrom;
+    private int previousLength = -1;
+    private int previousId;
+
+    private Chunk(long start) {
+      this.start = start;
+    }
+
+    /**
+     * Maps and parses the lines between two positions of a file.
+     */
+    static Chunk parse(FileChannel channel, long start, long end) {
+      Chunk chunk = new Chunk(start);
+      try {
+        chunk.parse(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      chunk.scratch = null;
+      return chunk;
+    }
+
+    private void parse(MappedByteBuffer buffer) {
+      int limit = buffer.limit();
+      int position = 0;
+      if (start == 0 && limit >= 3 && (buffer.get(0) & 0xFF) == 0xEF
+          && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+        // Byte order mark
+        position = 3;
+      }
+      while (position < limit) {
+        int lineStart = position;
+        int tab = -1;
+        int tabs = 0;
+        byte b;
+        while (position < limit && (b = buffer.get(position)) != '\n') {
+          if (b == '\t' && tabs++ == 0) {
+            tab = position;
+          }
+          position++;
+        }
+        int lineEnd = position > lineStart && buffer.get(position - 1) == '\r'
+            ? position - 1 : position;
+        position++;
+        if (lineEnd == lineStart || buffer.get(lineStart) == '#') {
+          continue;
+        }
+        if (tabs > 1) {
+          throw malformed(lineStart, "more than two names");
+        }
+        if (tab < 0) {
+          name(buffer, lineStart, lineEnd, lineStart);
+          continue;
+        }
+        int from;
+        if (tab - lineStart == previousLength && sameBytes(buffer, previousFrom, lineStart,
+            previousLength)) {
+          from = previousId;
+        } else {
+          from = name(buffer, lineStart, tab, lineStart);
+          previousFrom = lineStart;
+          previousLength = tab - lineStart;
+          previousId = from;
+        }
+        int to = name(buffer, tab + 1, lineEnd, lineStart);
+        if (from == to) {
+          throw malformed(lineStart, "self loop");
+        }
+        if (edgeCount * 2 + 2 > edges.length) {
+          edges = Arrays.copyOf(edges, edges.length * 2);
+        }
+        edges[edgeCount * 2] = from;
+        edges[edgeCount * 2 + 1] = to;
+        edgeCount++;
+      }
+    }
+
+    /**
+     * Adds the name between two positions of the chunk.
+     *
+     * @return local ID of the name
+     */
+    private int name(ByteBuffer buffer, int from, int to, int lineStart) {
+      int length = to - from;
+      if (length == 0) {
+        throw malformed(lineStart, "empty name");
+      }
+      if (length > scratch.length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      for (int i = 0; i < length; i++) {
+        scratch[i] = buffer.get(from + i);
+      }
+      int size = names.size;
+      int name = names.add(scratch, 0, length, hash(scratch, length));
+      if (name == size && !isWellFormed(scratch, length)) {
+        throw malformed(lineStart, "name isn't valid UTF-8");
+      }
+      return name;
+    }
+
+    /**
+     * Replaces the local IDs of the edges with node IDs.
+     *
+     * @param firstName position of the chunk's first name among all names
+     * @param nodeIds   node ID of each name
+     */
+    void translate(int firstName, int[] nodeIds) {
+      for (int i = 0; i < edgeCount * 2; i++) {
+        edges[i] = nodeIds[firstName + edges[i]];
+      }
+    }
+
+    private IllegalArgumentException malformed(int lineStart, String reason) {
+      return new IllegalArgumentException(
+          String.format("Malformed edge list at byte %d: %s", start + lineStart, reason));
+    }
+  }
+
+  /**
+   * Set of names packed in a byte array, each identified by the order it
+   * was added in.
+   */
+  private static final class NameTable {
+    private byte[] pool;
+    private int poolSize;
+    private int[] offsets;
+    private int size;
+
+    /**
+     * Hash of each name in the upper half and its ID plus one in the lower
+     * half, so probes only touch this array until the hashes match
+     */
+    private long[] slots;
+
+    NameTable(int expectedSize) {
+      int capacity = Math.max(expectedSize, 16);
+      pool = new byte[(int) Math.min(capacity * 16L, MAX_ARRAY_SIZE)];
+      offsets = new int[capacity + 1];
+      slots = new long[Integer.highestOneBit(capacity * 2 - 1) * 2];
+    }
+
+    /**
+     * Adds a name if not present.
+     *
+     * @return ID of the name
+     */
+    int add(byte[] bytes, int from, int length, int hash) {
+      int mask = slots.length - 1;
+      int slot = hash & mask;
+      for (long entry; (entry = slots[slot]) != 0; slot = (slot + 1) & mask) {
+        int name = (int) entry - 1;
+        if ((int) (entry >>> 32) == hash && offsets[name + 1] - offsets[name] == length
+            && sameBytes(pool, offsets[name], bytes, from, length)) {
+          return name;
+        }
+      }
+      if (poolSize + (long) length > pool.length) {
+        if (poolSize + (long) length > MAX_ARRAY_SIZE) {
+          throw new IllegalArgumentException("Node names take more than 2 GB");
+        }
+        pool = Arrays.copyOf(pool,
+            (int) Math.max(poolSize + length, Math.min(pool.length * 2L, MAX_ARRAY_SIZE)));
+      }
+      if (size + 1 == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2 + 1);
+      }
+      System.arraycopy(bytes, from, pool, poolSize, length);
+      poolSize += length;
+      offsets[size + 1] = poolSize;
+      slots[slot] = (long) hash << 32 | (size + 1);
+      if (++size * 2 > slots.length) {
+        rehash();
+      }
+      return size - 1;
+    }
+
+    private void rehash() {
+      long[] rehashed = new long[slots.length * 2];
+      int mask = rehashed.length - 1;
+      for (long entry : slots) {
+        if (entry != 0) {
+          int slot = (int) (entry >>> 32) & mask;
+          while (rehashed[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          rehashed[slot] = entry;
+        }
+      }
+      slots = rehashed;
+    }
+  }
+
+  /**
+   * Multikey quicksort of names, which compares each byte position once
+   * for a whole range of names rather than comparing names pairwise, so
+   * long shared prefixes such as parent paths are cheap. Large ranges are
+   * sorted in parallel.
+   */
+  private static final class NameSort extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int FORK_THRESHOLD = 1 << 13;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final byte[] pool;
+    private final int[] offsets;
+    private final int[] order;
+    private final int from;
+    private final int to;
+    private final int depth;
+
+    /**
+     * Creates a task sorting {@code order[from, to)}, names which share
+     * their first {@code depth} bytes.
+     */
+    NameSort(byte[] pool, int[] offsets, int[] order, int from, int to, int depth) {
+      this.pool = pool;
+      this.offsets = offsets;
+      this.order = order;
+      this.from = from;
+      this.to = to;
+      this.depth = depth;
+    }
+
+    @Override
+    protected void compute() {
+      sort(from, to, depth);
+    }
+
+    private void sort(int from, int to, int depth) {
+      while (to - from > INSERTION_SORT_THRESHOLD) {
+        int first = byteAt(order[from], depth);
+        int middle = byteAt(order[(from + to) >>> 1], depth);
+        int last = byteAt(order[to - 1], depth);
+        int pivot = Math.max(Math.min(first, middle), Math.min(Math.max(first, middle), last));
+
+        // Partition into bytes below, equal to and above the pivot
+        int less = from;
+        int greater = to;
+        for (int i = from; i < greater; ) {
+          int value = byteAt(order[i], depth);
+          if (value < pivot) {
+            swap(less++, i++);
+          } else if (value > pivot) {
+            swap(i, --greater);
+          } else {
+            i++;
+          }
+        }
+        if (pivot < 0) {
+          // The names equal to the pivot all end here, so they're copies of
+          // the same name, and there are none below it
+          from = greater;
+          continue;
+        }
+        if (to - from >= FORK_THRESHOLD) {
+          invokeAll(new NameSort(pool, offsets, order, from, less, depth),
+              new NameSort(pool, offsets, order, less, greater, depth + 1),
+              new NameSort(pool, offsets, order, greater, to, depth));
+          return;
+        }
+        sort(from, less, depth);
+        sort(greater, to, depth);
+        // Names equal on this byte go on to the next one
+        from = less;
+        to = greater;
+        depth++;
+      }
+      for (int i = from + 1; i < to; i++) {
+        int name = order[i];
+        int j = i;
+        for (; j > from && compare(order[j - 1], name, depth) > 0; j--) {
+          order[j] = order[j - 1];
+        }
+        order[j] = name;
+      }
+    }
+
+    /**
+     * Get a byte of a name, or -1 past its end.
+     */
+    private int byteAt(int name, int depth) {
+      int position = offsets[name] + depth;
+      return position < offsets[name + 1] ? pool[position] & 0xFF : -1;
+    }
+
+    private int compare(int a, int b, int depth) {
+      int aPosition = offsets[a] + depth;
+      int bPosition = offsets[b] + depth;
+      int aEnd = offsets[a + 1];
+      int bEnd = offsets[b + 1];
+      for (; aPosition < aEnd && bPosition < bEnd; aPosition++, bPosition++) {
+        if (pool[aPosition] != pool[bPosition]) {
+          return Integer.compare(pool[aPosition] & 0xFF, pool[bPosition] & 0xFF);
+        }
+      }
+      return Integer.compare(aEnd - aPosition, bEnd - bPosition);
+    }
+
+    private void swap(int i, int j) {
+      int name = order[i];
+      order[i] = order[j];
+      order[j] = name;
+    }
+  }
+
+  private static boolean sameName(byte[] pool, int[] offsets, int a, int b) {
+    int length = offsets[a + 1] - offsets[a];
+    return length == offsets[b + 1] - offsets[b]
+        && sameBytes(pool, offsets[a], pool, offsets[b], length);
+  }
+
+  private static boolean sameBytes(ByteBuffer buffer, int aFrom, int bFrom, int length) {
+    for (int i = 0; i < length; i++) {
+      if (buffer.get(aFrom + i) != buffer.get(bFrom + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameBytes(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+    for (int i = 0; i < length; i++) {
+      if (a[aFrom + i] != b[bFrom + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hashes the first bytes of an array, FNV-1a followed by a final mix so
+   * the low bits are usable as a table slot.
+   */
+  private static int hash(byte[] bytes, int length) {
+    int hash = 0x811C9DC5;
+    for (int i = 0; i < length; i++) {
+      hash = (hash ^ bytes[i]) * 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    return hash;
+  }
+
+  /**
+   * Checks that the first bytes of an array are well formed UTF-8, without
+   * overlong forms or surrogates.
+   */
+  private static boolean isWellFormed(byte[] bytes, int length) {
+    for (int i = 0; i < length; ) {
+      int lead = bytes[i++] & 0xFF;
+      if (lead < 0x80) {
+        continue;
+      }
+      int continuations;
+      int min = 0x80;
+      int max = 0xBF;
+      if (lead >= 0xC2 && lead <= 0xDF) {
+        continuations = 1;
+      } else if (lead >= 0xE0 && lead <= 0xEF) {
+        continuations = 2;
+        min = lead == 0xE0 ? 0xA0 : min;
+        max = lead == 0xED ? 0x9F : max;
+      } else if (lead >= 0xF0 && lead <= 0xF4) {
+        continuations = 3;
+        min = lead == 0xF0 ? 0x90 : min;
+        max = lead == 0xF4 ? 0x8F : max;
+      } else {
+        return false;
+      }
+      if (i + continuations > length) {
+        return false;
+      }
+      // Only the first continuation byte has a narrower range
+      int second = bytes[i++] & 0xFF;
+      if (second < min || second > max) {
+        return false;
+      }
+      for (int k = 1; k < continuations; k++) {
+        int next = bytes[i++] & 0xFF;
+        if (next < 0x80 || next > 0xBF) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -20,18 +20,26 @@ package com.google.cloudsearch.samples;
 import com.google.api.client.http.ByteArrayContent;
 import com.google.api.services.cloudsearch.v1.model.Item;
 import com.google.api.services.cloudsearch.v1.model.PushItem;
-import com.google.common.graph.Graph;
-import com.google.common.graph.GraphBuilder;
-import com.google.common.graph.ImmutableGraph;
-import com.google.common.graph.MutableGraph;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.google.common.primitives.Longs;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterable;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterableImpl;
+import com.google.enterprise.cloudsearch.sdk.StartupException;
+import com.google.enterprise.cloudsearch.sdk.config.Configuration;
 import com.google.enterprise.cloudsearch.sdk.indexing.*;
 import com.google.enterprise.cloudsearch.sdk.indexing.template.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Set;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 // [END cloud_search_content_sdk_imports]
 
@@ -65,6 +73,21 @@ import java.util.logging.Logger;
  * # For this sample, full traversals every 2 minutes
  * schedule.traversalIntervalSecs=120
  * schedule.performTraversalOnStart=true
+ *
+ * # Optional synthetic tree to index instead of the small built-in one:
+ * # number of nodes, and number of children per node
+ * sample.graph.nodeCount=1000000
+ * sample.graph.fanout=10
+ *
+ * # Optional file to load the graph from instead, with one edge per line
+ * # as the names of the parent and child separated by a tab
+ * sample.edgeList=./edges.tsv
+ *
+ * # Optional number of random nodes edited before each traversal
+ * sample.graph.changesPerTraversal=5
+ *
+ * # Optional maximum number of children pushed by a single operation
+ * sample.childPageSize=1000
  * </pre>
  */
 public class GraphTraversalSample {
@@ -99,10 +122,50 @@ public class GraphTraversalSample {
      */
     Logger log = Logger.getLogger(SampleRepository.class.getName());
 
+    /**
+     * Hash of node content
+     */
+    private static final HashFunction CONTENT_HASH = Hashing.farmHashFingerprint64();
+
+    /**
+     * Separates the parent ID from the child offset in the ID of a
+     * continuation marker
+     */
+    private static final String CHILD_PAGE_MARKER = "#children@";
+
     /**
      * Graph which represents the structure of the repository.
      */
-    private Graph<String> documents;
+    private CompactGraph documents;
+
+    /**
+     * Nodes without parents, pushed by each traversal
+     */
+    private int[] roots;
+
+    /**
+     * Revision of each node's content, by node ID. Bumped by simulated
+     * edits between traversals.
+     */
+    private AtomicIntegerArray revisions;
+
+    /**
+     * Hashes of each node's content and everything below it, used as the
+     * metadata hash so changes deep in the graph reach the root.
+     */
+    private SubtreeHashes hashes;
+
+    /**
+     * Number of random nodes edited before each traversal
+     */
+    private int changesPerTraversal;
+
+    /**
+     * Maximum number of children pushed by a single operation
+     */
+    private int childPageSize;
+
+    private final Random random = new Random();
 
     SampleRepository() {
     }
@@ -113,14 +176,59 @@ public class GraphTraversalSample {
      * @param context the {@link RepositoryContext}, not used here
      */
     @Override
-    public void init(RepositoryContext context) {
+    public void init(RepositoryContext context) throws StartupException {
       log.info("Initializing repository");
+      int nodeCount = Configuration.getInteger("sample.graph.nodeCount", 0).get();
+      int fanout = Configuration.getInteger("sample.graph.fanout", 10).get();
+      if (nodeCount < 0 || fanout < 1) {
+        throw new StartupException(
+            "sample.graph.nodeCount can't be negative and sample.graph.fanout must be positive");
+      }
+      changesPerTraversal =
+          Configuration.getInteger("sample.graph.changesPerTraversal", 0).get();
+      childPageSize = Configuration.getInteger("sample.childPageSize", 1000).get();
+      if (childPageSize < 1) {
+        throw new StartupException("sample.childPageSize must be positive");
+      }
+      String edgeList = Configuration.getString("sample.edgeList", "").get();
+      if (!edgeList.isEmpty()) {
+        this.documents = loadGraph(Paths.get(edgeList));
+      } else {
+        this.documents = nodeCount > 0 ? generateTree(nodeCount, fanout) : smallGraph();
+      }
+      this.roots = documents.roots();
+      this.revisions = new AtomicIntegerArray(documents.nodeCount());
+      this.hashes = new SubtreeHashes(documents, this::contentHash);
+      log.info(() -> String.format("Repository has %d nodes and %d edges in %d bytes",
+          documents.nodeCount(), documents.edgeCount(), documents.memoryBytes()));
+    }
 
-      // Build a small graph to represent the repository structure to index.
-      MutableGraph<String> documents = GraphBuilder
-          .directed()
-          .allowsSelfLoops(false)
-          .build();
+    /**
+     * Loads the graph from an edge list file.
+     *
+     * @param file edge list file
+     * @return the graph
+     * @throws StartupException if the file can't be loaded
+     */
+    private CompactGraph loadGraph(Path file) {
+      long start = System.nanoTime();
+      CompactGraph graph;
+      try {
+        graph = EdgeListLoader.load(file);
+      } catch (IOException | IllegalArgumentException e) {
+        throw new StartupException("Failed to load edge list " + file, e);
+      }
+      double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+      log.info(() -> String.format("Loaded %d edges from %s in %.2f s, %.0f edges per second",
+          graph.edgeCount(), file, seconds, graph.edgeCount() / seconds));
+      return graph;
+    }
+
+    /**
+     * Builds a small graph to represent the repository structure to index.
+     */
+    private static CompactGraph smallGraph() {
+      CompactGraph.Builder documents = new CompactGraph.Builder();
       documents.putEdge("root", "root.1");
       documents.putEdge("root.1", "root.1.1");
       documents.putEdge("root.1.1", "root.1.1.1");
@@ -135,8 +243,27 @@ public class GraphTraversalSample {
       documents.putEdge("root.2", "root.2.2");
       documents.putEdge("root.2.2", "root.2.2.1");
       documents.putEdge("root.2.2", "root.2.2.2");
+      return documents.build();
+    }
 
-      this.documents = ImmutableGraph.copyOf(documents);
+    /**
+     * Generates a tree with the same naming as the small graph, filled
+     * breadth first.
+     *
+     * @param nodeCount number of nodes
+     * @param fanout    number of children of each inner node
+     * @return the tree
+     */
+    private static CompactGraph generateTree(int nodeCount, int fanout) {
+      CompactGraph.Builder documents = new CompactGraph.Builder().addNode("root");
+      String[] names = new String[nodeCount];
+      names[0] = "root";
+      for (int node = 1; node < nodeCount; node++) {
+        String parent = names[(node - 1) / fanout];
+        names[node] = parent + "." + ((node - 1) % fanout + 1);
+        documents.putEdge(parent, names[node]);
+      }
+      return documents.build();
     }
 
     /**
@@ -161,20 +288,28 @@ public class GraphTraversalSample {
      */
     @Override
     public CheckpointCloseableIterable<ApiOperation> getIds(byte[] checkpoint) {
+      // Simulate edits made since the last traversal
+      for (int i = 0; i < changesPerTraversal; i++) {
+        editNode(random.nextInt(documents.nodeCount()));
+      }
       log.info("Pushing root documents to index");
 
       // Note that on subsequent traversals pushing the root node may not result
       // in the full graph traversal. Unmodified items are withheld from the
       // queue for up to 4 hours. This may delay detection of changes
       // to child nodes until the parent node becomes available.
-      // If the repository propagates child modification times upward, use
-      // metadata hash values to efficiently re-trigger the traversal.
+      // To avoid that, the metadata hash of each node covers its whole
+      // subtree, so a change anywhere below the root changes the root's hash
+      // and re-triggers the traversal down the changed path.
       // Alternatively, for repositories that enumerate incremental changes,
       // implement {@link #getChanges} to provide incremental updates.
       // [START cloud_search_content_sdk_push_root]
       PushItems.Builder allIds = new PushItems.Builder();
-      PushItem item = new PushItem();
-      allIds.addPushItem("root", item);
+      for (int root : roots) {
+        PushItem item = new PushItem()
+            .setMetadataHash(subtreeHash(root));
+        allIds.addPushItem(documents.nodeName(root), item);
+      }
       // [END cloud_search_content_sdk_push_root]
 
       // [START cloud_search_content_sdk_checkpoint_iterator]
@@ -194,6 +329,10 @@ public class GraphTraversalSample {
      * the Cloud Search queue. If the document has child nodes, this returns
      * both the current node to index as well as a list of document ids to
      * push to the queue. The end result is a breadth first traversal of the graph.
+     * <p>
+     * Children are pushed a page at a time. When a node has more children
+     * than fit in a page, a continuation marker is pushed along with them,
+     * and polling the marker pushes the next page.
      *
      * @param item the data repository document to retrieve
      * @return the document's state determines which type of
@@ -206,8 +345,20 @@ public class GraphTraversalSample {
 
       // [START cloud_search_content_sdk_get_doc]
       String resourceName = item.getName();
-      if (documentExists(resourceName)) {
-        return buildDocumentAndChildren(resourceName);
+      int node = documents.nodeId(resourceName);
+      if (node >= 0) {
+        String currentHash = subtreeHash(node);
+        if (canSkipIndexing(item, currentHash)) {
+          // Nothing changed in the whole subtree, ack the push
+          log.info(() -> String.format("Subtree %s not modified", resourceName));
+          PushItem pushItem = new PushItem().setType("NOT_MODIFIED");
+          return new PushItems.Builder().addPushItem(resourceName, pushItem).build();
+        }
+        return buildDocumentAndChildren(resourceName, node, currentHash);
+      }
+      List<ApiOperation> nextPage = nextChildPage(resourceName);
+      if (nextPage != null) {
+        return ApiOperations.batch(nextPage.iterator());
       }
       // Document doesn't exist, delete it
       log.info(() -> String.format("Deleting document %s", resourceName));
@@ -223,11 +374,18 @@ public class GraphTraversalSample {
      * the current document, the child nodes are also pushed into the queue.
      * This method will later be called for the child nodes as they're pulled
      * from the queue.
+     * <p>
+     * Children are pushed with their subtree hashes, so the queue only
+     * hands back those with changes somewhere below them. Only the first
+     * page of children is pushed here, so the size of the operation doesn't
+     * grow with the number of children.
      *
      * @param documentId unique local id for the document
+     * @param node       node ID of the document
+     * @param hash       subtree hash of the document
      * @return the fully formed document ready for indexing
      */
-    private ApiOperation buildDocumentAndChildren(String documentId) {
+    private ApiOperation buildDocumentAndChildren(String documentId, int node, String hash) {
       // [START cloud_search_content_sdk_domain_acl]
       // Make the document publicly readable within the domain
       Acl acl = new Acl.Builder()
@@ -251,12 +409,17 @@ public class GraphTraversalSample {
           .setAcl(acl)
           .setSourceRepositoryUrl(IndexingItemBuilder.FieldOrValue.withValue(viewUrl))
           .setVersion(version)
+          .setHash(hash)
           .build();
       // [END cloud_search_content_sdk_build_item]
 
       // [START cloud_search_content_sdk_build_repository_doc]
       // For this sample, content is just plain text
-      String content = String.format("Hello world from sample doc %s", documentId);
+      // Read after the hash, so the content is at least as new
+      int revision = revisions.get(node);
+      String content = revision == 0
+          ? String.format("Hello world from sample doc %s", documentId)
+          : String.format("Hello world from sample doc %s, revision %d", documentId, revision);
       ByteArrayContent byteContent = ByteArrayContent.fromString("text/plain", content);
 
       RepositoryDoc.Builder docBuilder = new RepositoryDoc.Builder()
@@ -266,18 +429,70 @@ public class GraphTraversalSample {
 
       // [START cloud_search_content_sdk_add_children]
       // Queue the child nodes to visit after indexing this document
-      Set<String> childIds = getChildItemNames(documentId);
-      for (String id : childIds) {
-        log.info(() -> String.format("Pushing child node %s", id));
-        PushItem pushItem = new PushItem();
-        docBuilder.addChildId(id, pushItem);
-      }
+      pushChildPage(documentId, node, 0, docBuilder::addChildId);
 
       RepositoryDoc doc = docBuilder.build();
       // [END cloud_search_content_sdk_add_children]
       return doc;
     }
 
+    /**
+     * Pushes a page of a node's children, followed by a continuation marker
+     * if there are more.
+     *
+     * @param documentId unique local id of the parent
+     * @param node       node ID of the parent
+     * @param offset     position of the first child to push among the
+     *                   parent's children
+     * @param push       receives the ID and push item of each child
+     */
+    void pushChildPage(String documentId, int node, int offset,
+        BiConsumer<String, PushItem> push) {
+      int start = documents.firstSuccessor(node) + offset;
+      int end = start + Math.min(childPageSize, documents.endSuccessor(node) - start);
+      log.info(() -> String.format("Pushing %d child nodes of %s from %d",
+          end - start, documentId, offset));
+      for (int i = start; i < end; i++) {
+        int child = documents.successor(i);
+        PushItem pushItem = new PushItem().setMetadataHash(subtreeHash(child));
+        push.accept(documents.nodeName(child), pushItem);
+      }
+      if (end < documents.endSuccessor(node)) {
+        int nextOffset = end - documents.firstSuccessor(node);
+        PushItem marker = new PushItem().setMetadataHash(subtreeHash(node));
+        push.accept(documentId + CHILD_PAGE_MARKER + nextOffset, marker);
+      }
+    }
+
+    /**
+     * Pushes the next page of children for a continuation marker, and
+     * deletes the marker, which is never indexed.
+     *
+     * @param markerId ID of the polled item
+     * @return the operations to apply, in order, or {@code null} if the ID
+     *     isn't a valid continuation marker
+     */
+    List<ApiOperation> nextChildPage(String markerId) {
+      int separator = markerId.lastIndexOf(CHILD_PAGE_MARKER);
+      if (separator < 0) {
+        return null;
+      }
+      String parentId = markerId.substring(0, separator);
+      int parent = documents.nodeId(parentId);
+      int offset;
+      try {
+        offset = Integer.parseInt(markerId.substring(separator + CHILD_PAGE_MARKER.length()));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      if (parent < 0 || offset <= 0 || offset >= documents.outDegree(parent)) {
+        return null;
+      }
+      PushItems.Builder page = new PushItems.Builder();
+      pushChildPage(parentId, parent, offset, page::addPushItem);
+      return Arrays.asList(page.build(), ApiOperations.deleteItem(markerId));
+    }
+
     // The following method is not used in this simple full traversal sample
     // connector, but could be implemented if the data repository supports
     // a way to detect changes.
@@ -321,23 +536,54 @@ public class GraphTraversalSample {
 
 
     /**
-     * Checks to see if the document exists in the graph.
+     * Checks to see if an item is already up to date
      *
-     * @param documentId Id of document to check
-     * @return true if exists, false otherwise
+     * @param previousItem Polled item
+     * @param currentHash  Current subtree hash of the item
+     * @return true if the item was indexed with the current hash
+     */
+    private boolean canSkipIndexing(Item previousItem, String currentHash) {
+      if (previousItem.getStatus() == null || previousItem.getMetadata() == null) {
+        return false;
+      }
+      String status = previousItem.getStatus().getCode();
+      String previousHash = previousItem.getMetadata().getHash();
+      return "ACCEPTED".equals(status)
+          && previousHash != null
+          && previousHash.equals(currentHash);
+    }
+
+    /**
+     * Get the subtree hash of a node, as a metadata hash.
+     */
+    private String subtreeHash(int node) {
+      return Long.toHexString(hashes.subtreeHash(node));
+    }
+
+    /**
+     * Hashes the content of a node, which is determined by its name and
+     * revision.
      */
-    private boolean documentExists(String documentId) {
-      return this.documents.nodes().contains(documentId);
+    private long contentHash(int node) {
+      return CONTENT_HASH.newHasher()
+          .putString(documents.nodeName(node), StandardCharsets.UTF_8)
+          .putInt(revisions.get(node))
+          .hash()
+          .asLong();
     }
 
     /**
-     * Returns the set of child nodes in the graph.
+     * Simulates an edit of a node's content.
      *
-     * @param documentId Id of document to retrieve children of
-     * @return Set of child document names
+     * @param node node ID
      */
-    private Set<String> getChildItemNames(String documentId) {
-      return this.documents.successors(documentId);
+    private void editNode(int node) {
+      // The revision is bumped before the hashes, so a reader seeing the
+      // new hash also sees the new content
+      int revision = revisions.incrementAndGet(node);
+      int updated = hashes.update(node, contentHash(node));
+      log.info(() -> String.format("Edited %s to revision %d, updating %d subtree hashes",
+          documents.nodeName(node), revision, updated));
     }
   }
 }
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Sorted set of names, each identified by its position, stored with front
+ * coding.
+ * <p>
+ * Names are kept as UTF-8 in one byte array, sorted by byte value (which
+ * is code point order). Within each block of 16 names, the first is
+ * stored in full and every other one as the length of the prefix it shares
+ * with the previous name plus the rest of its bytes. Hierarchical names
+ * such as paths share long prefixes, so they typically take a fraction of
+ * their plain size.
+ * <p>
+ * Looking up a name binary searches the first names of the blocks, then
+ * walks a single block comparing shared prefix lengths, without decoding
+ * names or allocating. Immutable and thread safe.
+ */
+final class NameDictionary {
+  private static final int BLOCK_SIZE = 16;
+
+  /**
+   * Per thread buffer for the UTF-8 form of looked up names
+   */
+  private static final ThreadLocal<byte[]> SCRATCH =
+      ThreadLocal.withInitial(() -> new byte[256]);
+
+  private final byte[] data;
+  private final int[] blocks;
+  private final int size;
+
+  private NameDictionary(byte[] data, int[] blocks, int size) {
+    this.data = data;
+    this.blocks = blocks;
+    this.size = size;
+  }
+
+  /**
+   * Builds a dictionary.
+   *
+   * @param names distinct names, sorted by {@link #compare(String, String)}
+   * @return the dictionary, where each name's ID is its index
+   */
+  static NameDictionary build(String[] names) {
+    Encoder encoder = new Encoder(names.length);
+    for (String name : names) {
+      byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+      encoder.add(bytes, 0, bytes.length);
+    }
+    return encoder.finish();
+  }
+
+  /**
+   * Builds a dictionary from UTF-8 names packed in a byte array.
+   *
+   * @param pool    bytes of all names, name {@code i} being
+   *                {@code pool[offsets[i]]} up to {@code pool[offsets[i + 1]]}
+   * @param offsets start of each name in the pool, followed by the end of
+   *                the last one
+   * @param order   distinct, well formed names in byte order, which is
+   *                code point order
+   * @return the dictionary, where the ID of name {@code order[k]} is
+   *     {@code k}
+   */
+  static NameDictionary build(byte[] pool, int[] offsets, int[] order) {
+    Encoder encoder = new Encoder(order.length);
+    for (int name : order) {
+      encoder.add(pool, offsets[name], offsets[name + 1] - offsets[name]);
+    }
+    return encoder.finish();
+  }
+
+  /**
+   * Get the number of names.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Get the size of the encoded names, in bytes.
+   */
+  long encodedBytes() {
+    return data.length + 4L * blocks.length;
+  }
+
+  /**
+   * Looks up the ID of a name.
+   *
+   * @param name name to look up
+   * @return ID of the name, or -1 if not present
+   */
+  int idOf(String name) {
+    byte[] query = SCRATCH.get();
+    int length = utf8Length(name);
+    if (length > query.length) {
+      query = new byte[Math.max(length, query.length * 2)];
+      SCRATCH.set(query);
+    }
+    encode(name, query);
+
+    // Last block whose first name isn't after the query. Every name
+    // between two bounds shares the smaller of their prefixes with the
+    // query, so comparisons can skip it.
+    int low = 0;
+    int high = blocks.length - 1;
+    int lowShared = 0;
+    int highShared = 0;
+    int block = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int position = blocks[middle];
+      int first = readVarint(position);
+      position += varintSize(first);
+      int skip = Math.min(Math.min(lowShared, highShared), first);
+      int shared = skip + sharedPrefix(data, position + skip, first - skip, query, skip, length);
+      if (shared == first && shared == length) {
+        return middle * BLOCK_SIZE;
+      } else if (shared == first
+          || (shared < length && (data[position + shared] & 0xFF) < (query[shared] & 0xFF))) {
+        block = middle;
+        low = middle + 1;
+        lowShared = shared;
+      } else {
+        high = middle - 1;
+        highShared = shared;
+      }
+    }
+    if (block < 0) {
+      return -1;
+    }
+
+    // Walk the block, tracking how much of the query the previous name
+    // matched. A name sharing less than that with its predecessor sorts
+    // after the query; one sharing more still sorts before it.
+    int position = blocks[block];
+    int nameLength = readVarint(position);
+    position += varintSize(nameLength);
+    int matched = sharedPrefix(data, position, nameLength, query, length);
+    position += nameLength;
+    int end = Math.min(size, (block + 1) * BLOCK_SIZE);
+    for (int id = block * BLOCK_SIZE + 1; id < end; id++) {
+      int shared = readVarint(position);
+      position += varintSize(shared);
+      int suffix = readVarint(position);
+      position += varintSize(suffix);
+      if (shared < matched) {
+        return -1;
+      }
+      if (shared == matched) {
+        int extra = sharedPrefix(data, position, suffix, query, matched, length);
+        matched += extra;
+        if (matched == length && extra == suffix) {
+          return id;
+        }
+        if (extra < suffix && (matched == length
+            || (data[position + extra] & 0xFF) > (query[matched] & 0xFF))) {
+          return -1;
+        }
+      }
+      position += suffix;
+    }
+    return -1;
+  }
+
+  /**
+   * Get the name with an ID.
+   *
+   * @param id ID of the name
+   * @return the name
+   */
+  String nameOf(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("No name with ID " + id);
+    }
+    int block = id / BLOCK_SIZE;
+    int position = blocks[block];
+    int length = readVarint(position);
+    position += varintSize(length);
+    byte[] name = Arrays.copyOfRange(data, position, position + length);
+    position += length;
+    for (int i = block * BLOCK_SIZE + 1; i <= id; i++) {
+      int shared = readVarint(position);
+      position += varintSize(shared);
+      int suffix = readVarint(position);
+      position += varintSize(suffix);
+      length = shared + suffix;
+      if (length > name.length) {
+        name = Arrays.copyOf(name, Math.max(length, name.length * 2));
+      }
+      System.arraycopy(data, position, name, shared, suffix);
+      position += suffix;
+    }
+    return new String(name, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Compares names in the dictionary's order, which is code point order
+   * rather than {@link String#compareTo}'s UTF-16 order.
+   */
+  static int compare(String a, String b) {
+    int length = Math.min(a.length(), b.length());
+    for (int i = 0; i < length; i++) {
+      char x = a.charAt(i);
+      char y = b.charAt(i);
+      if (x != y) {
+        return Integer.compare(codePointOrder(x), codePointOrder(y));
+      }
+    }
+    return Integer.compare(a.length(), b.length());
+  }
+
+  /**
+   * Checks that a name has no unpaired surrogates, which can't be encoded
+   * in UTF-8.
+   */
+  static boolean isWellFormed(String name) {
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isHighSurrogate(c) && i + 1 < name.length()
+          && Character.isLowSurrogate(name.charAt(i + 1))) {
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Moves surrogates above the rest of the BMP, so UTF-16 code units sort
+   * in code point order.
+   */
+  private static int codePointOrder(char c) {
+    if (c < 0xD800) {
+      return c;
+    }
+    return c >= 0xE000 ? c - 0x800 : c + 0x2000;
+  }
+
+  private static int sharedPrefix(byte[] a, int offset, int length, byte[] b, int bLength) {
+    return sharedPrefix(a, offset, length, b, 0, bLength);
+  }
+
+  /**
+   * Get the length of the common prefix of {@code a[offset, offset +
+   * length)} and {@code b[from, bLength)}.
+   */
+  private static int sharedPrefix(byte[] a, int offset, int length, byte[] b, int from,
+      int bLength) {
+    int limit = Math.min(length, bLength - from);
+    int i = 0;
+    while (i < limit && a[offset + i] == b[from + i]) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Get the length of a name in UTF-8, as {@link String#getBytes} would
+   * encode it.
+   */
+  private static int utf8Length(String name) {
+    int length = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < name.length()
+          && Character.isLowSurrogate(name.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        // Unpaired surrogates are replaced by a single '?'
+        length += Character.isSurrogate(c) ? 1 : 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Encodes a name as UTF-8 the same way as {@link String#getBytes}.
+   */
+  private static void encode(String name, byte[] out) {
+    int position = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c < 0x80) {
+        out[position++] = (byte) c;
+      } else if (c < 0x800) {
+        out[position++] = (byte) (0xC0 | (c >> 6));
+        out[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < name.length()
+          && Character.isLowSurrogate(name.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, name.charAt(++i));
+        out[position++] = (byte) (0xF0 | (codePoint >> 18));
+        out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        out[position++] = '?';
+      } else {
+        out[position++] = (byte) (0xE0 | (c >> 12));
+        out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        out[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private int readVarint(int position) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = data[position++];
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  private static int varintSize(int value) {
+    int size = 1;
+    while ((value >>>= 7) != 0) {
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Front codes names added in order.
+   */
+  private static final class Encoder {
+    private byte[] data = new byte[1024];
+    private int dataSize;
+    private final int[] blocks;
+    private int size;
+    private byte[] previous = new byte[0];
+    private int previousOffset;
+    private int previousLength;
+
+    Encoder(int size) {
+      blocks = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    }
+
+    void add(byte[] name, int offset, int length) {
+      if (size % BLOCK_SIZE == 0) {
+        blocks[size / BLOCK_SIZE] = dataSize;
+        writeVarint(length);
+        write(name, offset, length);
+      } else {
+        int shared = sharedPrefix(name, offset, length,
+            previous, previousOffset, previousOffset + previousLength);
+        writeVarint(shared);
+        writeVarint(length - shared);
+        write(name, offset + shared, length - shared);
+      }
+      previous = name;
+      previousOffset = offset;
+      previousLength = length;
+      size++;
+    }
+
+    NameDictionary finish() {
+      return new NameDictionary(Arrays.copyOf(data, dataSize), blocks, size);
+    }
+
+    private void writeVarint(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        data[dataSize++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      data[dataSize++] = (byte) value;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, data, dataSize, length);
+      dataSize += length;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (dataSize + (long) extra > data.length) {
+        long capacity = Math.max(dataSize + (long) extra, data.length * 2L);
+        if (capacity > Integer.MAX_VALUE - 8) {
+          if (dataSize + (long) extra > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Names take more than 2 GB");
+          }
+          capacity = Integer.MAX_VALUE - 8;
+        }
+        data = Arrays.copyOf(data, (int) capacity);
+      }
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Merkle hashes of the subtrees of a {@link CompactGraph}.
+ * <p>
+ * Each node's subtree hash combines the hash of its own content with the
+ * subtree hashes of its successors, so it changes whenever anything below
+ * the node does. Comparing the subtree hash a node was indexed with to its
+ * current one tells in constant time whether its whole subtree can be
+ * skipped.
+ * <p>
+ * Hashes are computed children first when created. When a node's content
+ * changes, only the node and its ancestors are recomputed, again children
+ * first. Updates come from a single thread; any number of threads can
+ * read hashes meanwhile. The graph must be acyclic.
+ */
+final class SubtreeHashes {
+  private final CompactGraph graph;
+  private final long[] contentHashes;
+  private final AtomicLongArray subtreeHashes;
+
+  /**
+   * Position of each node in an order where successors come first
+   */
+  private final int[] ranks;
+
+  /**
+   * Predecessors of node {@code n} are {@code predecessors[predecessorOffsets[n]]}
+   * up to {@code predecessors[predecessorOffsets[n + 1]]}
+   */
+  private final int[] predecessorOffsets;
+  private final int[] predecessors;
+
+  /**
+   * Computes the subtree hashes of a graph.
+   *
+   * @param graph       acyclic graph
+   * @param contentHash hash of each node's own content, by node ID
+   * @throws IllegalArgumentException if the graph has a cycle
+   */
+  SubtreeHashes(CompactGraph graph, IntToLongFunction contentHash) {
+    this.graph = graph;
+    int nodeCount = graph.nodeCount();
+    contentHashes = new long[nodeCount];
+    subtreeHashes = new AtomicLongArray(nodeCount);
+    ranks = new int[nodeCount];
+
+    // Invert the edges
+    predecessorOffsets = new int[nodeCount + 1];
+    for (int edge = 0; edge < graph.edgeCount(); edge++) {
+      predecessorOffsets[graph.successor(edge) + 1]++;
+    }
+    for (int node = 0; node < nodeCount; node++) {
+      predecessorOffsets[node + 1] += predecessorOffsets[node];
+    }
+    predecessors = new int[graph.edgeCount()];
+    int[] next = Arrays.copyOf(predecessorOffsets, nodeCount);
+    for (int node = 0; node < nodeCount; node++) {
+      for (int i = graph.firstSuccessor(node); i < graph.endSuccessor(node); i++) {
+        predecessors[next[graph.successor(i)]++] = node;
+      }
+    }
+
+    // Hash leaves first, then each node once all its successors are done.
+    // The remaining successor counts are kept in the ranks array, which is
+    // filled with the final ranks as nodes complete.
+    int[] ready = next;
+    int readyCount = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      ranks[node] = graph.outDegree(node);
+      if (ranks[node] == 0) {
+        ready[readyCount++] = node;
+      }
+    }
+    int done = 0;
+    while (done < readyCount) {
+      int node = ready[done];
+      contentHashes[node] = contentHash.applyAsLong(node);
+      subtreeHashes.set(node, combine(node));
+      for (int i = predecessorOffsets[node]; i < predecessorOffsets[node + 1]; i++) {
+        int predecessor = predecessors[i];
+        if (--ranks[predecessor] == 0) {
+          ready[readyCount++] = predecessor;
+        }
+      }
+      done++;
+    }
+    if (done < nodeCount) {
+      throw new IllegalArgumentException("Graph has a cycle");
+    }
+    for (int rank = 0; rank < nodeCount; rank++) {
+      ranks[ready[rank]] = rank;
+    }
+  }
+
+  /**
+   * Get the hash of a node's subtree.
+   *
+   * @param node node ID
+   * @return hash of the node's content and everything below it
+   */
+  long subtreeHash(int node) {
+    return subtreeHashes.get(node);
+  }
+
+  /**
+   * Changes the content hash of a node, updating the subtree hashes of
+   * the node and its ancestors. For a single updating thread only.
+   *
+   * @param node        node ID
+   * @param contentHash new hash of the node's own content
+   * @return number of subtree hashes recomputed
+   */
+  int update(int node, long contentHash) {
+    contentHashes[node] = contentHash;
+
+    // Collect the node and its ancestors, then recompute them in rank
+    // order so every node is done after its successors
+    Set<Integer> seen = new HashSet<>();
+    int[] affected = new int[16];
+    int count = 0;
+    affected[count++] = node;
+    seen.add(node);
+    for (int i = 0; i < count; i++) {
+      int current = affected[i];
+      for (int p = predecessorOffsets[current]; p < predecessorOffsets[current + 1]; p++) {
+        if (!seen.add(predecessors[p])) {
+          // Reached through more than one path
+          continue;
+        }
+        if (count == affected.length) {
+          affected = Arrays.copyOf(affected, count * 2);
+        }
+        affected[count++] = predecessors[p];
+      }
+    }
+    long[] ordered = new long[count];
+    for (int i = 0; i < count; i++) {
+      ordered[i] = ((long) ranks[affected[i]] << 32) | affected[i];
+    }
+    Arrays.sort(ordered);
+    for (long entry : ordered) {
+      int current = (int) entry;
+      subtreeHashes.set(current, combine(current));
+    }
+    return count;
+  }
+
+  private long combine(int node) {
+    long hash = mix(contentHashes[node]);
+    for (int i = graph.firstSuccessor(node); i < graph.endSuccessor(node); i++) {
+      hash = mix(hash * 0x9E3779B97F4A7C15L + subtreeHashes.get(graph.successor(i)));
+    }
+    return hash;
+  }
+
+  /**
+   * Scrambles the bits of a value (the SplitMix64 finalizer).
+   */
+  private static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+    value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+    return value ^ (value >>> 31);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.util.Random;
+
+/**
+ * Measures the memory per edge of a {@link CompactGraph} and the latency
+ * of its lookups.
+ * <p>
+ * The graph is a breadth-first tree named like the sample's generated
+ * tree. Lookups are timed for random nodes:
+ * <ul>
+ * <li>name to ID, then a walk over the node's successors</li>
+ * <li>out-degree and an edge check, by ID</li>
+ * </ul>
+ * Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.samples.CompactGraphBenchmark \
+ *     -Dexec.args="[nodes [fanout]]"
+ * </pre>
+ * The default is 10 million nodes with 10 children each. Building that
+ * many nodes through the builder takes several GB of heap, for example
+ * {@code MAVEN_OPTS=-Xmx8g}.
+ */
+public class CompactGraphBenchmark {
+  private static final int LOOKUPS = 1_000_000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    int fanout = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    long heapBefore = usedHeap();
+    long start = System.nanoTime();
+    CompactGraph graph = buildTree(nodes, fanout);
+    double buildSeconds = (System.nanoTime() - start) / 1e9;
+    long heap = usedHeap() - heapBefore;
+    System.out.printf("Built %d nodes and %d edges in %.1f s%n", graph.nodeCount(),
+        graph.edgeCount(), buildSeconds);
+    System.out.printf("%d bytes, %.1f bytes per edge including names, %.1f measured on the"
+            + " heap%n", graph.memoryBytes(), (double) graph.memoryBytes() / graph.edgeCount(),
+        (double) heap / graph.edgeCount());
+
+    Random random = new Random(1);
+    String[] names = new String[LOOKUPS];
+    int[] from = new int[LOOKUPS];
+    int[] to = new int[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      names[i] = graph.nodeName(random.nextInt(graph.nodeCount()));
+      from[i] = random.nextInt(graph.nodeCount());
+      to[i] = random.nextInt(graph.nodeCount());
+    }
+    // The first rounds warm up the JIT, the last one is reported
+    long checksum = 0;
+    double nameNanos = 0;
+    double idNanos = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      start = System.nanoTime();
+      for (String name : names) {
+        int node = graph.nodeId(name);
+        for (int i = graph.firstSuccessor(node); i < graph.endSuccessor(node); i++) {
+          checksum += graph.successor(i);
+        }
+      }
+      nameNanos = (double) (System.nanoTime() - start) / LOOKUPS;
+
+      start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+        checksum += graph.outDegree(from[i]);
+        checksum += graph.hasEdge(from[i], to[i]) ? 1 : 0;
+      }
+      idNanos = (double) (System.nanoTime() - start) / LOOKUPS;
+    }
+    System.out.printf("Name to ID and successor walk: %.0f ns%n", nameNanos);
+    System.out.printf("Out-degree and edge check by ID: %.0f ns%n", idNanos);
+    System.out.printf("(checksum %d)%n", checksum);
+  }
+
+  private static CompactGraph buildTree(int nodeCount, int fanout) {
+    CompactGraph.Builder builder = new CompactGraph.Builder().addNode("root");
+    String[] names = new String[nodeCount];
+    names[0] = "root";
+    for (int node = 1; node < nodeCount; node++) {
+      String parent = names[(node - 1) / fanout];
+      names[node] = parent + "." + ((node - 1) % fanout + 1);
+      builder.putEdge(parent, names[node]);
+    }
+    return builder.build();
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Measures how fast {@link EdgeListLoader} loads an edge list, in edges
+ * per second, against reading the same file line by line into a
+ * {@link CompactGraph.Builder}.
+ * <p>
+ * Without a file, a breadth-first tree named like the sample's generated
+ * tree is written to a temporary file first. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.samples.EdgeListLoaderBenchmark \
+ *     -Dexec.args="[edges [file]]"
+ * </pre>
+ * The default is 10 million edges. Give the JVM enough heap for the
+ * baseline, for example {@code MAVEN_OPTS=-Xmx8g}.
+ */
+public class EdgeListLoaderBenchmark {
+  private static final int FANOUT = 10;
+  private static final int RUNS = 3;
+
+  public static void main(String[] args) throws IOException {
+    int edges = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    Path file;
+    boolean temporary = args.length < 2;
+    if (temporary) {
+      file = Files.createTempFile("edges", ".tsv");
+      writeTree(file, edges);
+    } else {
+      file = Paths.get(args[1]);
+    }
+    try {
+      System.out.printf("File %s, %d MB, %d cores%n", file, Files.size(file) >> 20,
+          Runtime.getRuntime().availableProcessors());
+      // The first load warms up the JIT and the page cache
+      double[] loader = new double[RUNS];
+      CompactGraph graph = EdgeListLoader.load(file);
+      for (int run = 0; run < RUNS; run++) {
+        long start = System.nanoTime();
+        graph = EdgeListLoader.load(file);
+        loader[run] = (System.nanoTime() - start) / 1e9;
+      }
+      report("EdgeListLoader", graph, loader);
+
+      double[] baseline = new double[RUNS];
+      for (int run = 0; run < RUNS; run++) {
+        long start = System.nanoTime();
+        graph = readLines(file);
+        baseline[run] = (System.nanoTime() - start) / 1e9;
+      }
+      report("BufferedReader and Builder", graph, baseline);
+    } finally {
+      if (temporary) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Writes a tree with the given number of edges, filled breadth first.
+   */
+  private static void writeTree(Path file, int edges) throws IOException {
+    String[] names = new String[edges + 1];
+    names[0] = "root";
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (int node = 1; node <= edges; node++) {
+        String parent = names[(node - 1) / FANOUT];
+        names[node] = parent + "." + ((node - 1) % FANOUT + 1);
+        out.write(parent);
+        out.write('\t');
+        out.write(names[node]);
+        out.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Loads the file the straightforward way, for comparison.
+   */
+  private static CompactGraph readLines(Path file) throws IOException {
+    CompactGraph.Builder builder = new CompactGraph.Builder();
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] names = line.split("\t");
+        if (names.length == 1) {
+          builder.addNode(names[0]);
+        } else {
+          builder.putEdge(names[0], names[1]);
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  private static void report(String name, CompactGraph graph, double[] seconds) {
+    Arrays.sort(seconds);
+    double median = seconds[seconds.length / 2];
+    System.out.printf("%s: %d nodes, %d edges, median %.2f s (best %.2f s),"
+            + " %.2fM edges per second%n", name, graph.nodeCount(), graph.edgeCount(),
+        median, seconds[0], graph.edgeCount() / median / 1e6);
+  }
+}
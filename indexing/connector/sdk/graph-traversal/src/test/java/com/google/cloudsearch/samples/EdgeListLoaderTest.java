@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+@RunWith(JUnit4.class)
+public class EdgeListLoaderTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testLoadsEdgesAndNodes() throws IOException {
+    Path file = write("﻿# folders\n"
+        + "root\troot.1\r\n"
+        + "root\troot.2\n"
+        + "\n"
+        + "root.1\troot.1.1\n"
+        + "lonely\n"
+        + "root\troot.1");
+
+    CompactGraph graph = EdgeListLoader.load(file);
+
+    assertThat(graph.nodeCount()).isEqualTo(5);
+    assertThat(graph.edgeCount()).isEqualTo(3);
+    assertThat(successors(graph, "root")).containsExactly("root.1", "root.2").inOrder();
+    assertThat(successors(graph, "root.1")).containsExactly("root.1.1");
+    assertThat(graph.contains("lonely")).isTrue();
+    assertThat(graph.contains("# folders")).isFalse();
+    assertThat(graph.roots()).asList().containsExactly(
+        graph.nodeId("lonely"), graph.nodeId("root")).inOrder();
+  }
+
+  @Test
+  public void testMatchesBuilder() throws IOException {
+    String[] parts = {"a", "b", "é", "日本", "😀", "x y", "/", "0"};
+    Random random = new Random(1);
+    CompactGraph.Builder builder = new CompactGraph.Builder();
+    StringBuilder lines = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      String from = randomName(random, parts);
+      String to = randomName(random, parts);
+      if (!from.equals(to)) {
+        builder.putEdge(from, to);
+        lines.append(from).append('\t').append(to).append(i % 3 == 0 ? "\r\n" : "\n");
+      }
+    }
+    CompactGraph expected = builder.build();
+
+    // Small chunks, so names are spread over many of them
+    CompactGraph graph = EdgeListLoader.load(write(lines.toString()), 4096);
+
+    assertThat(graph.nodeCount()).isEqualTo(expected.nodeCount());
+    assertThat(graph.edgeCount()).isEqualTo(expected.edgeCount());
+    for (int node = 0; node < expected.nodeCount(); node++) {
+      String name = expected.nodeName(node);
+      assertThat(graph.nodeName(node)).isEqualTo(name);
+      assertThat(successors(graph, name)).isEqualTo(successors(expected, name));
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testNameRepeatedInManyChunks() throws IOException {
+    // Each chunk has its own copy of the folder name, and the copies must
+    // be merged whether the sort forks or not
+    StringBuilder lines = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      lines.append("folder\tfolder/child-").append(i).append('\n');
+    }
+
+    CompactGraph graph = EdgeListLoader.load(write(lines.toString()), 256);
+
+    assertThat(graph.nodeCount()).isEqualTo(20001);
+    assertThat(graph.outDegree(graph.nodeId("folder"))).isEqualTo(20000);
+    assertThat(graph.roots()).asList().containsExactly(graph.nodeId("folder"));
+  }
+
+  @Test(timeout = 60000)
+  public void testFewRepeatedNames() throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      lines.append("a\tb\n");
+    }
+
+    CompactGraph graph = EdgeListLoader.load(write(lines.toString()), 16);
+
+    assertThat(graph.nodeCount()).isEqualTo(2);
+    assertThat(graph.edgeCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    CompactGraph graph = EdgeListLoader.load(write(""));
+
+    assertThat(graph.nodeCount()).isEqualTo(0);
+    assertThat(graph.edgeCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRejectsMalformedLines() throws IOException {
+    assertMalformed("a\tb\tc\n", "more than two names");
+    assertMalformed("a\ta\n", "self loop");
+    assertMalformed("a\t\n", "empty name");
+    Path overlong = temporaryFolder.newFile().toPath();
+    Files.write(overlong, new byte[] {'x', '\n', (byte) 0xC0, (byte) 0x80, '\n'});
+    IllegalArgumentException e =
+        assertThrows(IllegalArgumentException.class, () -> EdgeListLoader.load(overlong));
+    assertThat(e.getMessage()).isEqualTo("Malformed edge list at byte 2: name isn't valid UTF-8");
+  }
+
+  private void assertMalformed(String content, String reason) throws IOException {
+    Path file = write("ok\tfine\n" + content);
+    IllegalArgumentException e =
+        assertThrows(IllegalArgumentException.class, () -> EdgeListLoader.load(file));
+    assertThat(e.getMessage()).isEqualTo("Malformed edge list at byte 8: " + reason);
+  }
+
+  private Path write(String content) throws IOException {
+    Path file = temporaryFolder.newFile().toPath();
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static String randomName(Random random, String[] parts) {
+    StringBuilder name = new StringBuilder();
+    for (int i = 1 + random.nextInt(4); i > 0; i--) {
+      name.append(parts[random.nextInt(parts.length)]);
+    }
+    return name.toString();
+  }
+
+  private static List<String> successors(CompactGraph graph, String name) {
+    int node = graph.nodeId(name);
+    List<String> successors = new ArrayList<>();
+    for (int i = graph.firstSuccessor(node); i < graph.endSuccessor(node); i++) {
+      successors.add(graph.nodeName(graph.successor(i)));
+    }
+    return successors;
+  }
+}
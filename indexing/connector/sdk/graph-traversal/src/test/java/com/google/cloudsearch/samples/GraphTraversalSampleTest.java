@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import com.google.api.services.cloudsearch.v1.model.PushItem;
+import com.google.cloudsearch.samples.GraphTraversalSample.SampleRepository;
+import com.google.enterprise.cloudsearch.sdk.config.Configuration;
+import com.google.enterprise.cloudsearch.sdk.config.Configuration.ResetConfigRule;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperation;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperations;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.PushItems;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class GraphTraversalSampleTest {
+  private static final int CHILDREN = 10;
+  private static final String MARKER = "root#children@";
+  // Node IDs follow the sorted names, so the root comes first
+  private static final int ROOT = 0;
+
+  @Rule public ResetConfigRule resetConfig = new ResetConfigRule();
+
+  @Test
+  public void testExactlyOnePage() throws Exception {
+    SampleRepository repository = newRepository(CHILDREN);
+    Map<String, PushItem> page = childPage(repository, 0);
+
+    assertThat(page).hasSize(CHILDREN);
+    assertThat(markers(page)).isEmpty();
+  }
+
+  @Test
+  public void testOneMoreThanPage() throws Exception {
+    SampleRepository repository = newRepository(CHILDREN - 1);
+    Map<String, PushItem> first = childPage(repository, 0);
+
+    assertThat(first).hasSize(CHILDREN);
+    assertThat(markers(first)).containsExactly(MARKER + (CHILDREN - 1));
+    Map<String, PushItem> second = childPage(repository, CHILDREN - 1);
+    assertThat(second).hasSize(1);
+    assertThat(markers(second)).isEmpty();
+    assertThat(first.keySet()).doesNotContain(second.keySet().iterator().next());
+  }
+
+  @Test
+  public void testMarkersCoverEveryChildOnce() throws Exception {
+    int pageSize = 3;
+    SampleRepository repository = newRepository(pageSize);
+    Set<String> children = new HashSet<>();
+    List<Integer> pageSizes = new ArrayList<>();
+    Map<String, PushItem> page = childPage(repository, 0);
+    while (true) {
+      List<String> markers = markers(page);
+      page.keySet().removeAll(markers);
+      children.addAll(page.keySet());
+      pageSizes.add(page.size());
+      if (markers.isEmpty()) {
+        break;
+      }
+      assertThat(markers).hasSize(1);
+      String marker = markers.get(0);
+      int offset = Integer.parseInt(marker.substring(MARKER.length()));
+      assertThat(offset).isEqualTo(children.size());
+      page = childPage(repository, offset);
+
+      // Polling the marker pushes the same page, and deletes the marker
+      PushItems.Builder expected = new PushItems.Builder();
+      page.forEach(expected::addPushItem);
+      assertThat(repository.nextChildPage(marker))
+          .containsExactly(expected.build(), ApiOperations.deleteItem(marker))
+          .inOrder();
+    }
+    assertThat(pageSizes).containsExactly(3, 3, 3, 1).inOrder();
+    assertThat(children).hasSize(CHILDREN);
+  }
+
+  @Test
+  public void testInvalidMarkers() throws Exception {
+    SampleRepository repository = newRepository(3);
+    String[] invalid = {
+        "root",
+        MARKER,
+        MARKER + "0",
+        MARKER + "-3",
+        MARKER + CHILDREN,
+        MARKER + (CHILDREN + 1),
+        MARKER + "x",
+        MARKER + "99999999999",
+        "root.1#children@1",
+        "missing#children@3",
+    };
+    for (String markerId : invalid) {
+      assertThat(repository.nextChildPage(markerId)).isNull();
+    }
+  }
+
+  private static SampleRepository newRepository(int childPageSize) throws Exception {
+    Properties config = new Properties();
+    // A root and its children
+    config.put("sample.graph.nodeCount", Integer.toString(CHILDREN + 1));
+    config.put("sample.graph.fanout", Integer.toString(CHILDREN));
+    config.put("sample.childPageSize", Integer.toString(childPageSize));
+    Configuration.initConfig(config);
+    SampleRepository repository = new SampleRepository();
+    repository.init(null);
+    return repository;
+  }
+
+  private static Map<String, PushItem> childPage(SampleRepository repository, int offset) {
+    Map<String, PushItem> page = new LinkedHashMap<>();
+    repository.pushChildPage("root", ROOT, offset, (id, item) -> {
+      assertThat(page.put(id, item)).isNull();
+    });
+    return page;
+  }
+
+  private static List<String> markers(Map<String, PushItem> page) {
+    List<String> markers = new ArrayList<>();
+    for (String id : page.keySet()) {
+      if (id.contains("#")) {
+        markers.add(id);
+      }
+    }
+    return markers;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+@RunWith(JUnit4.class)
+public class SubtreeHashesTest {
+  @Test
+  public void testUpdatesMatchRecomputing() {
+    Random random = new Random(1);
+    for (int round = 0; round < 20; round++) {
+      CompactGraph graph = randomDag(random, 1 + random.nextInt(200), random.nextInt(4));
+      long[] contents = new long[graph.nodeCount()];
+      for (int node = 0; node < contents.length; node++) {
+        contents[node] = random.nextLong();
+      }
+      SubtreeHashes hashes = new SubtreeHashes(graph, node -> contents[node]);
+
+      for (int i = 0; i < 50; i++) {
+        int node = random.nextInt(contents.length);
+        contents[node] = random.nextLong();
+        assertThat(hashes.update(node, contents[node])).isEqualTo(ancestorCount(graph, node) + 1);
+        SubtreeHashes expected = new SubtreeHashes(graph, n -> contents[n]);
+        for (int n = 0; n < contents.length; n++) {
+          assertThat(hashes.subtreeHash(n)).isEqualTo(expected.subtreeHash(n));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testChangeReachesAncestorsOnly() {
+    // a -> b -> d, a -> c -> d, e -> c
+    CompactGraph graph = new CompactGraph.Builder()
+        .putEdge("a", "b")
+        .putEdge("a", "c")
+        .putEdge("b", "d")
+        .putEdge("c", "d")
+        .putEdge("e", "c")
+        .build();
+    SubtreeHashes hashes = new SubtreeHashes(graph, node -> node);
+    long[] before = new long[graph.nodeCount()];
+    for (int node = 0; node < before.length; node++) {
+      before[node] = hashes.subtreeHash(node);
+    }
+
+    assertThat(hashes.update(graph.nodeId("b"), 43)).isEqualTo(2);
+    for (String name : new String[] {"c", "d", "e"}) {
+      assertThat(hashes.subtreeHash(graph.nodeId(name))).isEqualTo(before[graph.nodeId(name)]);
+    }
+    assertThat(hashes.subtreeHash(graph.nodeId("a"))).isNotEqualTo(before[graph.nodeId("a")]);
+
+    // Reached from a through two paths, but recomputed once
+    assertThat(hashes.update(graph.nodeId("d"), 42)).isEqualTo(5);
+    assertThat(hashes.subtreeHash(graph.nodeId("e")))
+        .isNotEqualTo(before[graph.nodeId("e")]);
+
+    // Back to the original contents, back to the original hashes
+    hashes.update(graph.nodeId("d"), graph.nodeId("d"));
+    hashes.update(graph.nodeId("b"), graph.nodeId("b"));
+    for (int node = 0; node < before.length; node++) {
+      assertThat(hashes.subtreeHash(node)).isEqualTo(before[node]);
+    }
+  }
+
+  @Test
+  public void testUpdatingLeafOfChainReturnsChainLength() {
+    CompactGraph graph = new CompactGraph.Builder()
+        .putEdge("a", "b")
+        .putEdge("b", "c")
+        .addNode("d")
+        .build();
+    SubtreeHashes hashes = new SubtreeHashes(graph, node -> 0);
+
+    assertThat(hashes.update(graph.nodeId("c"), 1)).isEqualTo(3);
+    assertThat(hashes.update(graph.nodeId("d"), 1)).isEqualTo(1);
+    assertThat(hashes.update(graph.nodeId("a"), 1)).isEqualTo(1);
+  }
+
+  @Test
+  public void testCycleRejected() {
+    CompactGraph graph = new CompactGraph.Builder()
+        .putEdge("a", "b")
+        .putEdge("b", "c")
+        .putEdge("c", "a")
+        .build();
+    assertThrows(IllegalArgumentException.class, () -> new SubtreeHashes(graph, node -> 0));
+  }
+
+  /**
+   * Builds a random acyclic graph, with edges only from lower to higher
+   * numbered nodes.
+   */
+  private static CompactGraph randomDag(Random random, int nodes, int averageDegree) {
+    CompactGraph.Builder builder = new CompactGraph.Builder();
+    for (int node = 0; node < nodes; node++) {
+      builder.addNode("n" + node);
+    }
+    for (int edge = 0; edge < nodes * averageDegree; edge++) {
+      int from = random.nextInt(nodes);
+      int to = random.nextInt(nodes);
+      if (from != to) {
+        builder.putEdge("n" + Math.min(from, to), "n" + Math.max(from, to));
+      }
+    }
+    return builder.build();
+  }
+
+  private static int ancestorCount(CompactGraph graph, int node) {
+    Set<Integer> ancestors = new HashSet<>();
+    Deque<Integer> pending = new ArrayDeque<>();
+    pending.add(node);
+    while (!pending.isEmpty()) {
+      int current = pending.remove();
+      for (int from = 0; from < graph.nodeCount(); from++) {
+        if (graph.hasEdge(from, current) && ancestors.add(from)) {
+          pending.add(from);
+        }
+      }
+    }
+    return ancestors.size();
+  }
+}
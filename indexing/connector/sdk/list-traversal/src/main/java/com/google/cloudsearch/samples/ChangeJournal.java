@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only journal of document changes, used to serve incremental
+ * updates between full traversals.
+ * <p>
+ * Entries take a fixed 16 bytes in a memory-mapped file and are numbered
+ * by an ever increasing sequence, which readers use as their checkpoint.
+ * Appended entries only become visible once committed: they are flushed
+ * first, then the header's end sequence is advanced, so a crash never
+ * exposes a half written entry. Compacting drops all entries by moving
+ * the start sequence up to the end; the file is then rewritten from the
+ * top, so it never grows beyond the largest backlog it has held.
+ */
+class ChangeJournal implements Closeable {
+  private static final long MAGIC = 0x4348414e47454a4cL;
+  private static final int HEADER_BYTES = 64;
+  private static final int ENTRY_BYTES = 16;
+  private static final int ENTRIES_PER_SEGMENT_BITS = 22;
+  private static final long ENTRIES_PER_SEGMENT = 1L << ENTRIES_PER_SEGMENT_BITS;
+
+  /**
+   * Kind of change to a document.
+   */
+  enum Change {
+    ADDED,
+    MODIFIED,
+    DELETED
+  }
+
+  /**
+   * A journal entry.
+   */
+  static final class Entry {
+    final long sequence;
+    final int documentId;
+    final Change change;
+    final long timestamp;
+
+    private Entry(long sequence, int documentId, Change change, long timestamp) {
+      this.sequence = sequence;
+      this.documentId = documentId;
+      this.change = change;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private final Path path;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private FileChannel channel;
+  private MappedByteBuffer header;
+  private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private long start;
+  private long end;
+  private long pending;
+
+  private ChangeJournal(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Opens a journal, creating it if it doesn't exist.
+   *
+   * @param path file holding the journal
+   * @return the journal
+   * @throws IOException if unable to open or create the file
+   */
+  static ChangeJournal open(Path path) throws IOException {
+    ChangeJournal journal = new ChangeJournal(path);
+    boolean exists = Files.exists(path);
+    journal.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    journal.header = journal.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+    if (!exists) {
+      journal.header.putLong(0, MAGIC);
+      journal.header.putLong(8, 1);
+      journal.header.force();
+    } else if (journal.header.getLong(0) != MAGIC) {
+      journal.channel.close();
+      throw new IOException(String.format("%s is not a change journal", path));
+    }
+    journal.start = journal.header.getLong(16);
+    journal.end = journal.header.getLong(24);
+    journal.pending = journal.end;
+    long entries = journal.end - journal.start;
+    journal.mapSegments((int) ((entries + ENTRIES_PER_SEGMENT - 1) / ENTRIES_PER_SEGMENT));
+    return journal;
+  }
+
+  /**
+   * Appends an entry, visible to readers once committed.
+   *
+   * @param documentId document changed
+   * @param change     kind of change
+   * @param timestamp  version timestamp of the document after the change,
+   *                   or before it for deletes
+   * @throws IOException if the journal can't grow
+   */
+  void append(int documentId, Change change, long timestamp) throws IOException {
+    lock.writeLock().lock();
+    try {
+      long index = pending - start;
+      int segment = (int) (index >>> ENTRIES_PER_SEGMENT_BITS);
+      if (segment >= segments.length) {
+        mapSegments(segment + 1);
+      }
+      int offset = offset(index);
+      segments[segment].putInt(offset, documentId);
+      segments[segment].putInt(offset + 4, change.ordinal());
+      segments[segment].putLong(offset + 8, timestamp);
+      pending++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Makes all appended entries visible, after writing them to disk.
+   */
+  void commit() {
+    lock.writeLock().lock();
+    try {
+      if (pending == end) {
+        return;
+      }
+      for (MappedByteBuffer segment : segments) {
+        segment.force();
+      }
+      end = pending;
+      header.putLong(24, end);
+      header.force();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Drops appended entries that weren't committed.
+   */
+  void discard() {
+    lock.writeLock().lock();
+    try {
+      pending = end;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Drops all committed entries. Sequences keep increasing, so readers
+   * behind the new start know they have missed entries.
+   */
+  void compact() {
+    lock.writeLock().lock();
+    try {
+      if (pending != end) {
+        throw new IllegalStateException("Can't compact with uncommitted entries");
+      }
+      start = end;
+      header.putLong(16, start);
+      header.force();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the sequence of the oldest entry still in the journal.
+   */
+  long start() {
+    lock.readLock().lock();
+    try {
+      return start;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Get the sequence the next committed entry will have.
+   */
+  long end() {
+    lock.readLock().lock();
+    try {
+      return end;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Reads committed entries.
+   *
+   * @param from       sequence of the first entry to read, raised to the
+   *                   start if already dropped
+   * @param maxEntries maximum number of entries to read
+   * @return the entries, empty once there are no more
+   */
+  List<Entry> read(long from, int maxEntries) {
+    lock.readLock().lock();
+    try {
+      long first = Math.max(from, start);
+      int count = (int) Math.max(0, Math.min(maxEntries, end - first));
+      List<Entry> entries = new ArrayList<>(count);
+      for (long sequence = first; sequence < first + count; sequence++) {
+        long index = sequence - start;
+        MappedByteBuffer segment = segments[(int) (index >>> ENTRIES_PER_SEGMENT_BITS)];
+        int offset = offset(index);
+        entries.add(new Entry(sequence, segment.getInt(offset),
+            Change.values()[segment.getInt(offset + 4)], segment.getLong(offset + 8)));
+      }
+      return entries;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Closes the journal, dropping uncommitted entries.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Maps segments up to a count. Mapping past the end of the file extends
+   * it.
+   */
+  private void mapSegments(int count) throws IOException {
+    int mapped = segments.length;
+    segments = Arrays.copyOf(segments, Math.max(count, mapped));
+    for (int i = mapped; i < count; i++) {
+      segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+          HEADER_BYTES + i * ENTRIES_PER_SEGMENT * ENTRY_BYTES, ENTRIES_PER_SEGMENT * ENTRY_BYTES);
+    }
+  }
+
+  private static int offset(long index) {
+    return (int) ((index & (ENTRIES_PER_SEGMENT - 1)) * ENTRY_BYTES);
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.util.Arrays;
+
+/**
+ * Map of positive int keys to long values, without boxing.
+ * <p>
+ * Keys and values are kept in two parallel arrays using open addressing
+ * with linear probing, so each entry costs 12 bytes plus the unused
+ * slots, instead of the 70 or so bytes of a boxed {@code HashMap} entry.
+ * The capacity isn't restricted to powers of two, which keeps the table
+ * close to its load factor at any size. Clearing the table keeps its
+ * arrays for reuse.
+ * <p>
+ * Key 0 marks empty slots and can't be stored. Not thread safe, but a
+ * table that is no longer modified can be read from any number of threads
+ * once safely published.
+ */
+final class IntLongTable {
+  private static final int EMPTY = 0;
+  private static final double LOAD_FACTOR = 0.75;
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  /**
+   * Receives the entries of a table.
+   */
+  interface Visitor {
+    void visit(int key, long value);
+  }
+
+  private int[] keys;
+  private long[] values;
+  private int size;
+  private int resizeAt;
+
+  /**
+   * Creates a table.
+   *
+   * @param expectedSize number of entries to size the table for
+   */
+  IntLongTable(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /**
+   * Get the number of entries.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Get the value of a key.
+   *
+   * @param key          key to look up
+   * @param defaultValue value to return if the key isn't present
+   * @return value of the key, or the default
+   */
+  long get(int key, long defaultValue) {
+    int slot = find(key);
+    return keys[slot] == EMPTY ? defaultValue : values[slot];
+  }
+
+  /**
+   * Checks if a key is present.
+   */
+  boolean containsKey(int key) {
+    return key != EMPTY && keys[find(key)] != EMPTY;
+  }
+
+  /**
+   * Sets the value of a key, adding it if not present.
+   *
+   * @param key   key, must be positive
+   * @param value value of the key
+   */
+  void put(int key, long value) {
+    if (key <= EMPTY) {
+      throw new IllegalArgumentException("Key must be positive: " + key);
+    }
+    int slot = find(key);
+    if (keys[slot] == EMPTY) {
+      if (size >= resizeAt) {
+        resize(capacityFor((int) Math.min(size * 2L, MAX_CAPACITY)));
+        slot = find(key);
+      }
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] = value;
+  }
+
+  /**
+   * Removes all entries, keeping the arrays if they fit the expected
+   * size.
+   *
+   * @param expectedSize number of entries the table will be refilled with
+   */
+  void clear(int expectedSize) {
+    int capacity = capacityFor(expectedSize);
+    if (capacity > keys.length || capacity < keys.length / 2) {
+      // Far off the current size, start over
+      allocate(capacity);
+    } else {
+      Arrays.fill(keys, EMPTY);
+    }
+    size = 0;
+  }
+
+  /**
+   * Visits all entries, in no particular order.
+   *
+   * @param visitor receives each entry
+   */
+  void forEach(Visitor visitor) {
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] != EMPTY) {
+        visitor.visit(keys[slot], values[slot]);
+      }
+    }
+  }
+
+  /**
+   * Finds the next entry at or after a position in the table. Positions
+   * stay valid as long as the table isn't modified, so they can be used
+   * to walk the table a piece at a time.
+   *
+   * @param position position to start looking at
+   * @return position of the next entry, or -1 if there are no more
+   */
+  int next(int position) {
+    for (int slot = Math.max(position, 0); slot < keys.length; slot++) {
+      if (keys[slot] != EMPTY) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Get the position just after a key, to resume a walk from.
+   *
+   * @param key key last visited
+   * @return position after the key's position
+   */
+  int positionAfter(int key) {
+    return find(key) + 1;
+  }
+
+  /**
+   * Get the key at a position returned by {@link #next(int)}.
+   */
+  int keyAt(int position) {
+    return keys[position];
+  }
+
+  /**
+   * Get the value at a position returned by {@link #next(int)}.
+   */
+  long valueAt(int position) {
+    return values[position];
+  }
+
+  /**
+   * Finds the slot holding a key, or the empty slot where it belongs.
+   */
+  private int find(int key) {
+    int slot = slotOf(key, keys.length);
+    while (keys[slot] != EMPTY && keys[slot] != key) {
+      slot = slot + 1 == keys.length ? 0 : slot + 1;
+    }
+    return slot;
+  }
+
+  private void resize(int capacity) {
+    int[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = null;
+    values = null;
+    keys = new int[capacity];
+    values = new long[capacity];
+    resizeAt = capacity == MAX_CAPACITY ? MAX_CAPACITY - 1 : (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int capacityFor(int expectedSize) {
+    long capacity = (long) Math.ceil(Math.max(expectedSize, 8) / LOAD_FACTOR) + 1;
+    return (int) Math.min(capacity, MAX_CAPACITY);
+  }
+
+  /**
+   * Maps a key to a slot. The key is scrambled, then scaled to the
+   * capacity with a multiply and shift rather than a modulo.
+   */
+  private static int slotOf(int key, int capacity) {
+    int hash = key * 0x9E3779B9;
+    hash ^= hash >>> 16;
+    return (int) (((hash & 0xFFFFFFFFL) * capacity) >>> 32);
+  }
+}
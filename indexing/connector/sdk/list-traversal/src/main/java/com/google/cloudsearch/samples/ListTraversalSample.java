@@ -20,17 +20,25 @@ package com.google.cloudsearch.samples;
 import com.google.api.client.http.ByteArrayContent;
 import com.google.api.services.cloudsearch.v1.model.Item;
 import com.google.api.services.cloudsearch.v1.model.PushItem;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterable;
 import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterableImpl;
+import com.google.enterprise.cloudsearch.sdk.StartupException;
 import com.google.enterprise.cloudsearch.sdk.config.Configuration;
 import com.google.enterprise.cloudsearch.sdk.indexing.*;
 import com.google.enterprise.cloudsearch.sdk.indexing.template.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Logger;
 // [END cloud_search_content_sdk_imports]
 
@@ -70,6 +78,36 @@ import java.util.logging.Logger;
  *
  * # Number of synthetic documents to create
  * sample.documentCount=10
+ *
+ * # Document IDs per push operation, and push operations per checkpoint
+ * sample.pushBatchSize=1000
+ * sample.pushBatchesPerCheckpoint=10
+ *
+ * # Optional model of how documents change between traversals. Fractions
+ * # of documents modified and deleted per traversal, the Zipf exponent
+ * # concentrating modifications on a hot set (0 for uniform), occasional
+ * # bursts deleting a range of IDs, growth of the document count, and the
+ * # mean and spread of log-normal content sizes (0 for a short text).
+ * # The same seed replays the same changes.
+ * sample.workload.seed=42
+ * sample.workload.changeRate=0.05
+ * sample.workload.deleteRate=0.01
+ * sample.workload.skew=1.1
+ * sample.workload.deleteBurstProbability=0.1
+ * sample.workload.deleteBurstFraction=0.05
+ * sample.workload.growthRate=0.01
+ * sample.workload.meanDocumentBytes=8192
+ * sample.workload.documentBytesSigma=1.5
+ *
+ * # Optional journal of changes, served by incremental traversals run
+ * # between full traversals, and the number of entries kept
+ * sample.changeJournal.path=changes.journal
+ * sample.changeJournal.maxEntries=16777216
+ * schedule.incrementalTraversalIntervalSecs=10
+ *
+ * # Optional file remembering the last indexed state of each document.
+ * # Documents known to be unchanged are not pushed to the queue at all.
+ * sample.stateStore.path=item-state.db
  * </pre>
  */
 public class ListTraversalSample {
@@ -103,6 +141,22 @@ public class ListTraversalSample {
      */
     Logger log = Logger.getLogger(SampleRepository.class.getName());
 
+    /**
+     * Checkpoint value marking a completed traversal. Document IDs start at
+     * 1, so it never names a document.
+     */
+    static final int TRAVERSAL_DONE = 0;
+
+    /**
+     * View URL of all documents
+     */
+    private static final String VIEW_URL = "https://www.google.com";
+
+    /**
+     * Digest of document metadata and content
+     */
+    private static final HashFunction DIGEST = Hashing.farmHashFingerprint64();
+
     /**
      * Number of synthetic documents to index.
      */
@@ -110,10 +164,14 @@ public class ListTraversalSample {
 
     /**
      * Tracks the state of synthetic documents between traversals. Maps the
-     * document ID to a timestamp which is mutated between traversals and
-     * used to dervive content hashes and document versions.
+     * document ID to a revision which is mutated between traversals and
+     * used to derive document content and versions, and to
+     * the cached digest of that content, used as the metadata hash. Each
+     * mutation
+     * publishes a new generation, which {@link #getDoc(Item)} threads read
+     * without locking while the traversal builds the next one.
      */
-    private Map<Integer, Long> documents = new HashMap<>();
+    private final SnapshotStore snapshots = new SnapshotStore();
 
     /**
      * High water mark for document IDs, used when generating additional
@@ -121,18 +179,100 @@ public class ListTraversalSample {
      */
     private int lastDocumentId = 0;
 
+    /**
+     * Number of mutations so far
+     */
+    private long traversal = 0;
+
+    /**
+     * Revision of documents written by mutation 0. Revisions are offset by
+     * the start time so they keep increasing, as versions must, when the
+     * connector restarts, while content only depends on the mutation.
+     */
+    private long revisionBase;
+
+    /**
+     * Last accepted state of each document, null if not enabled
+     */
+    private ItemStateStore itemStates;
+
+    /**
+     * Maximum number of document IDs in each push operation
+     */
+    private int pushBatchSize;
+
+    /**
+     * Number of push operations returned between checkpoints
+     */
+    private int batchesPerCheckpoint;
+
+    /**
+     * Model of how documents change between traversals
+     */
+    private Workload workload;
+
+    /**
+     * Journal of changes served to incremental traversals, null if not
+     * enabled
+     */
+    private ChangeJournal changes;
+
+    /**
+     * Number of journal entries kept before they are dropped at the start
+     * of a full traversal
+     */
+    private long maxJournalEntries;
+
     SampleRepository() {
     }
 
+    /**
+     * Creates a repository driven by a given workload instead of the
+     * configured one.
+     *
+     * @param workload model of how documents change between traversals
+     */
+    SampleRepository(Workload workload) {
+      this.workload = workload;
+    }
+
     /**
      * Performs any data repository initializations here.
      *
      * @param context the {@link RepositoryContext}, not used here
      */
     @Override
-    public void init(RepositoryContext context) {
+    public void init(RepositoryContext context) throws StartupException {
       log.info("Initializing repository");
+      revisionBase = System.currentTimeMillis();
       numberOfDocuments = Configuration.getInteger("sample.documentCount", 10).get();
+      pushBatchSize = Configuration.getInteger("sample.pushBatchSize", 1000).get();
+      batchesPerCheckpoint = Configuration.getInteger("sample.pushBatchesPerCheckpoint", 10).get();
+      if (pushBatchSize < 1 || batchesPerCheckpoint < 1) {
+        throw new StartupException(
+            "sample.pushBatchSize and sample.pushBatchesPerCheckpoint must be positive");
+      }
+      if (workload == null) {
+        workload = SkewedWorkload.fromConfiguration();
+      }
+      String stateStore = Configuration.getString("sample.stateStore.path", "").get();
+      if (!stateStore.trim().isEmpty()) {
+        try {
+          itemStates = ItemStateStore.open(Paths.get(stateStore.trim()));
+        } catch (IOException e) {
+          throw new StartupException("Unable to open item state store", e);
+        }
+      }
+      String changeJournal = Configuration.getString("sample.changeJournal.path", "").get();
+      maxJournalEntries =
+          Configuration.getInteger("sample.changeJournal.maxEntries", 1 << 24).get();
+      if (!changeJournal.trim().isEmpty()) {
+        try {
+          changes = ChangeJournal.open(Paths.get(changeJournal.trim()));
+        } catch (IOException e) {
+          throw new StartupException("Unable to open change journal", e);
+        }
+      }
     }
 
     /**
@@ -141,6 +281,22 @@ public class ListTraversalSample {
     @Override
     public void close() {
       log.info("Closing repository");
+      if (itemStates != null) {
+        try {
+          itemStates.close();
+        } catch (IOException e) {
+          log.warning(() -> String.format("Unable to close item state store: %s", e));
+        }
+        itemStates = null;
+      }
+      if (changes != null) {
+        try {
+          changes.close();
+        } catch (IOException e) {
+          log.warning(() -> String.format("Unable to close change journal: %s", e));
+        }
+        changes = null;
+      }
     }
 
 
@@ -163,35 +319,108 @@ public class ListTraversalSample {
      * comparison. The hash value is only set in the queue during an
      * update (see {@link #getDoc(Item)}).
      *
+     * <p>The IDs are pushed in batches of {@code sample.pushBatchSize},
+     * built lazily as the SDK consumes them, so memory use doesn't grow
+     * with the number of documents. Each call covers
+     * {@code sample.pushBatchesPerCheckpoint} batches and returns the last
+     * document ID it covers as the checkpoint, so an interrupted traversal
+     * resumes after that document instead of starting over.
+     *
      * @param checkpoint value defined and maintained by this connector
      * @return this is typically a {@link PushItems} instance
      */
     @Override
     public CheckpointCloseableIterable<ApiOperation> getIds(byte[] checkpoint) {
-      log.info("Pushing documents to index");
-      // prepare the data repository for the next simulated traversal
-      mutate();
-
-      // [START cloud_search_content_sdk_push_ids]
-      PushItems.Builder allIds = new PushItems.Builder();
-      for (Map.Entry<Integer, Long> entry : this.documents.entrySet()) {
-        String documentId = Integer.toString(entry.getKey());
-        String hash = this.calculateMetadataHash(entry.getKey());
-        PushItem item = new PushItem().setMetadataHash(hash);
-        log.info("Pushing " + documentId);
-        allIds.addPushItem(documentId, item);
+      int lastPushedId = checkpoint == null ? TRAVERSAL_DONE : Ints.fromByteArray(checkpoint);
+      int position = 0;
+      if (lastPushedId == TRAVERSAL_DONE || snapshots.current().size() == 0) {
+        // Start of a traversal, or the documents a checkpoint refers to are gone
+        log.info("Pushing documents to index");
+        // prepare the data repository for the next simulated traversal
+        mutate();
+      } else {
+        log.info(() -> String.format("Resuming push after document %d", lastPushedId));
+        position = snapshots.current().positionAfter(lastPushedId);
+      }
+      if (itemStates != null) {
+        // Make states recorded so far durable once per checkpoint, rather
+        // than once per batch
+        itemStates.flush();
+      }
+      // Only this thread publishes generations, so the tables stay put
+      IntLongTable documents = snapshots.current();
+      IntLongTable digests = snapshots.currentDigests();
+
+      // Find where this call's share of documents ends. Only the keys are
+      // scanned here, the push operations are built as they are consumed.
+      int end = position;
+      int lastId = TRAVERSAL_DONE;
+      int limit = pushBatchSize * batchesPerCheckpoint;
+      for (int count = 0, slot = documents.next(position); slot >= 0 && count < limit;
+          count++, slot = documents.next(slot + 1)) {
+        lastId = documents.keyAt(slot);
+        end = slot + 1;
       }
-      // [END cloud_search_content_sdk_push_ids]
+      boolean hasMore = lastId != TRAVERSAL_DONE && documents.next(end) >= 0;
+
+      PushBatches batches = new PushBatches(documents, digests, position, end);
+
       // [START cloud_search_content_sdk_checkpoint_iterator]
-      ApiOperation pushOperation = allIds.build();
       CheckpointCloseableIterable<ApiOperation> iterator =
-        new CheckpointCloseableIterableImpl.Builder<>(
-            Collections.singletonList(pushOperation))
+        new CheckpointCloseableIterableImpl.Builder<>(batches)
+        .setCheckpoint(Ints.toByteArray(hasMore ? lastId : TRAVERSAL_DONE))
+        .setHasMore(hasMore)
         .build();
       return iterator;
       // [END cloud_search_content_sdk_checkpoint_iterator]
     }
 
+    /**
+     * Builds the push operations for a range of the document table, one
+     * batch at a time as they are requested.
+     */
+    private class PushBatches extends AbstractIterator<ApiOperation> {
+      private final IntLongTable documents;
+      private final IntLongTable digests;
+      private final int end;
+      private int position;
+
+      PushBatches(IntLongTable documents, IntLongTable digests, int start, int end) {
+        this.documents = documents;
+        this.digests = digests;
+        this.position = start;
+        this.end = end;
+      }
+
+      @Override
+      protected ApiOperation computeNext() {
+        // [START cloud_search_content_sdk_push_ids]
+        PushItems.Builder batch = new PushItems.Builder();
+        int batchSize = 0;
+        while (batchSize < pushBatchSize) {
+          int slot = documents.next(position);
+          if (slot < 0 || slot >= end) {
+            position = end;
+            break;
+          }
+          position = slot + 1;
+          int key = documents.keyAt(slot);
+          String documentId = Integer.toString(key);
+          String hash = Long.toHexString(digests.get(key, 0));
+          if (itemStates != null && itemStates.matches(documentId, hash)) {
+            // Already indexed with this hash, no need to queue it
+            continue;
+          }
+          PushItem item = new PushItem().setMetadataHash(hash);
+          log.info("Pushing " + documentId);
+          batch.addPushItem(documentId, item);
+          batchSize++;
+        }
+        // [END cloud_search_content_sdk_push_ids]
+        return batchSize > 0 ? batch.build() : endOfData();
+      }
+    }
+
     /**
      * Gets a single data repository document.
      *
@@ -226,24 +455,31 @@ public class ListTraversalSample {
       String resourceName = item.getName();
       int documentId = Integer.parseInt(resourceName);
 
-      if (!documents.containsKey(documentId)) {
-        // Document no longer exists -- delete it
-        log.info(() -> String.format("Deleting document %s", item.getName()));
-        return ApiOperations.deleteItem(resourceName);
-      }
-      // [END cloud_search_content_sdk_deleted_item]
-      // [START cloud_search_content_sdk_unchanged_item]
-      String currentHash = this.calculateMetadataHash(documentId);
-      if (this.canSkipIndexing(item, currentHash)) {
-        // Document neither modified nor deleted, ack the push
-        log.info(() -> String.format("Document %s not modified", item.getName()));
-        PushItem pushItem = new PushItem().setType("NOT_MODIFIED");
-        return new PushItems.Builder().addPushItem(resourceName, pushItem).build();
+      // Read a single generation of the documents throughout
+      try (SnapshotStore.Snapshot documents = snapshots.open()) {
+        if (!documents.containsKey(documentId)) {
+          // Document no longer exists -- delete it
+          log.info(() -> String.format("Deleting document %s", item.getName()));
+          if (itemStates != null) {
+            itemStates.remove(resourceName);
+          }
+          return ApiOperations.deleteItem(resourceName);
+        }
+        // [END cloud_search_content_sdk_deleted_item]
+        // [START cloud_search_content_sdk_unchanged_item]
+        String currentHash = this.calculateMetadataHash(documents, documentId);
+        if (this.canSkipIndexing(item, currentHash)) {
+          // Document neither modified nor deleted, ack the push
+          log.info(() -> String.format("Document %s not modified", item.getName()));
+          recordState(item, currentHash);
+          PushItem pushItem = new PushItem().setType("NOT_MODIFIED");
+          return new PushItems.Builder().addPushItem(resourceName, pushItem).build();
+        }
+        // [END cloud_search_content_sdk_unchanged_item]
+        // New or modified document, index it.
+        log.info(() -> String.format("Updating document %s", item.getName()));
+        return buildDocument(documents, documentId);
       }
-      // [END cloud_search_content_sdk_unchanged_item]
-      // New or modified document, index it.
-      log.info(() -> String.format("Updating document %s", item.getName()));
-      return buildDocument(documentId);
     }
 
     /**
@@ -252,10 +488,11 @@ public class ListTraversalSample {
      * For this connector sample, the created document is domain public
      * searchable. The content is a simple text string.
      *
+     * @param documents  generation of the documents to build from
      * @param documentId unique local id for the document
      * @return the fully formed document ready for indexing
      */
-    private ApiOperation buildDocument(int documentId) {
+    private ApiOperation buildDocument(SnapshotStore.Snapshot documents, int documentId) {
       // [START cloud_search_content_sdk_domain_acl]
       // Make the document publicly readable within the domain
       Acl acl = new Acl.Builder()
@@ -265,13 +502,14 @@ public class ListTraversalSample {
 
       // [START cloud_search_content_sdk_build_item]
       // Url is required. Use google.com as a placeholder for this sample.
-      String viewUrl = "https://www.google.com";
+      String viewUrl = VIEW_URL;
 
-      // Version is required, set to current timestamp.
-      byte[] version = Longs.toByteArray(System.currentTimeMillis());
+      // Version is required, set to the revision.
+      long revision = documents.get(documentId, 0L);
+      byte[] version = Longs.toByteArray(revision);
 
       // Set metadata hash so queue can detect changes
-      String metadataHash = this.calculateMetadataHash(documentId);
+      String metadataHash = this.calculateMetadataHash(documents, documentId);
 
       // Using the SDK item builder class to create the document with
       // appropriate attributes. This can be expanded to include metadata
@@ -287,8 +525,8 @@ public class ListTraversalSample {
 
       // [START cloud_search_content_sdk_build_repository_doc]
       // For this sample, content is just plain text
-      String content = String.format("Hello world from sample doc %d", documentId);
-      ByteArrayContent byteContent = ByteArrayContent.fromString("text/plain", content);
+      ByteArrayContent byteContent =
+          new ByteArrayContent("text/plain", contentOf(documentId, revision));
 
       // Create the fully formed document
       RepositoryDoc doc = new RepositoryDoc.Builder()
@@ -296,22 +534,136 @@ public class ListTraversalSample {
           .setContent(byteContent, IndexingService.ContentFormat.TEXT)
           .build();
       // [END cloud_search_content_sdk_build_repository_doc]
+      if (itemStates != null) {
+        // Remember the indexed state once the update succeeds
+        return itemStates.recordOnSuccess(item.getName(), metadataHash,
+            Longs.fromByteArray(version), doc);
+      }
       return doc;
     }
 
-    // The following method is not used in this simple full traversal sample
-    // connector, but could be implemented if the data repository supports
-    // a way to detect changes.
-
     /**
-     * {@inheritDoc}
+     * Gets the documents changed since the last incremental traversal.
      *
-     * <p>This method is not required by the FullTraversalConnector and is
-     * unimplemented.
+     * <p>This method is called by the {@link ListingConnector} during
+     * <em>incremental traversals</em>, which can run much more often than
+     * full traversals. Changes are read from the change journal in order,
+     * starting after the checkpointed sequence. Modified documents are
+     * pushed to the queue, new documents are indexed right away and deleted
+     * documents are deleted. Entries superseded by a later change are
+     * skipped.
+     *
+     * <p>Without a checkpoint, only changes from then on are returned, as
+     * earlier ones are covered by full traversals. The same applies to
+     * entries dropped from the journal before they were read.
+     *
+     * @param checkpoint sequence of the next journal entry to read
+     * @return operations for the changed documents, or null if the change
+     *         journal isn't enabled
      */
     @Override
     public CheckpointCloseableIterable<ApiOperation> getChanges(byte[] checkpoint) {
-      return null;
+      if (changes == null) {
+        return null;
+      }
+      long from = checkpoint == null ? changes.end()
+          : Math.max(Longs.fromByteArray(checkpoint), changes.start());
+      long end = changes.end();
+      long to = Math.min(end, from + (long) pushBatchSize * batchesPerCheckpoint);
+      log.info(() -> String.format("Reading change journal entries %d to %d", from, to));
+      return new CheckpointCloseableIterableImpl.Builder<>(new ChangeBatches(from, to))
+          .setCheckpoint(Longs.toByteArray(to))
+          .setHasMore(to < end)
+          .build();
+    }
+
+    /**
+     * Builds the operations for a range of journal entries, reading the
+     * journal one batch at a time as they are requested.
+     */
+    private class ChangeBatches extends AbstractIterator<ApiOperation> {
+      private final long to;
+      private long position;
+      private Iterator<ChangeJournal.Entry> entries = Collections.emptyIterator();
+
+      ChangeBatches(long from, long to) {
+        this.position = from;
+        this.to = to;
+      }
+
+      @Override
+      protected ApiOperation computeNext() {
+        while (true) {
+          while (entries.hasNext()) {
+            ApiOperation operation = toOperation(entries.next());
+            if (operation != null) {
+              return operation;
+            }
+          }
+          if (position >= to) {
+            return endOfData();
+          }
+          List<ChangeJournal.Entry> batch =
+              changes.read(position, (int) Math.min(pushBatchSize, to - position));
+          if (batch.isEmpty()) {
+            // Dropped from the journal meanwhile
+            position = to;
+            continue;
+          }
+          position = batch.get(batch.size() - 1).sequence + 1;
+
+          // Modifications go to the queue in a single push
+          PushItems.Builder pushes = new PushItems.Builder();
+          int pushed = 0;
+          List<ChangeJournal.Entry> others = new ArrayList<>();
+          try (SnapshotStore.Snapshot documents = snapshots.open()) {
+            for (ChangeJournal.Entry entry : batch) {
+              if (entry.change != ChangeJournal.Change.MODIFIED) {
+                others.add(entry);
+                continue;
+              }
+              String documentId = Integer.toString(entry.documentId);
+              String hash = Long.toHexString(documents.digest(entry.documentId));
+              if (documents.get(entry.documentId, 0) != entry.timestamp
+                  || (itemStates != null && itemStates.matches(documentId, hash))) {
+                // Superseded, or already indexed with this hash
+                continue;
+              }
+              pushes.addPushItem(documentId,
+                  new PushItem().setType("MODIFIED").setMetadataHash(hash));
+              pushed++;
+            }
+          }
+          entries = others.iterator();
+          if (pushed > 0) {
+            return pushes.build();
+          }
+        }
+      }
+
+      /**
+       * Builds the operation for an added or deleted document.
+       *
+       * @return the operation, or null if the entry has been superseded
+       */
+      private ApiOperation toOperation(ChangeJournal.Entry entry) {
+        String documentId = Integer.toString(entry.documentId);
+        try (SnapshotStore.Snapshot documents = snapshots.open()) {
+          if (entry.change == ChangeJournal.Change.DELETED) {
+            if (documents.containsKey(entry.documentId)) {
+              return null;
+            }
+            if (itemStates != null) {
+              itemStates.remove(documentId);
+            }
+            return ApiOperations.deleteItem(documentId);
+          }
+          if (documents.get(entry.documentId, 0) != entry.timestamp) {
+            return null;
+          }
+          return buildDocument(documents, entry.documentId);
+        }
+      }
     }
 
     // The following methods are not used in the full traversal connector, but
@@ -342,16 +694,67 @@ public class ListTraversalSample {
 
 
     /**
-     * Returns a hash of the item's metadata. For the generated documents, a
-     * timestamp is used to generate a hash. In production implementation,
-     * a cryptographic hash of the actual content should be used.
+     * Generates the content of a document revision: a short text naming the
+     * revision, repeated to fill the size the workload gives the revision.
+     * Each modification changes the content, and with it the digest.
      *
+     * @param documentId document to generate
+     * @param revision   revision of the document
+     * @return the content
+     */
+    private byte[] contentOf(int documentId, long revision) {
+      long version = revision - revisionBase;
+      byte[] text = String.format("Hello world from sample doc %d, revision %d", documentId,
+          version).getBytes(StandardCharsets.US_ASCII);
+      int bytes = workload.documentBytes(documentId, version);
+      if (bytes <= text.length) {
+        return text;
+      }
+      byte[] content = new byte[bytes];
+      for (int i = 0; i < bytes; i += text.length + 1) {
+        System.arraycopy(text, 0, content, i, Math.min(text.length, bytes - i));
+        if (i + text.length < bytes) {
+          content[i + text.length] = '\n';
+        }
+      }
+      return content;
+    }
+
+    /**
+     * Computes the digest of a document revision's metadata and content.
+     * Unlike the revision, it only changes when something indexed about the
+     * document does, so touching a document doesn't cause it to be indexed
+     * again. Digests are computed once per revision, when the document is
+     * added or modified, and cached along with the revision.
+     *
+     * @param documentId document to digest
+     * @param revision   revision of the document
+     * @return the digest
+     */
+    private long digestOf(int documentId, long revision) {
+      // Hash the content in place, then fold in the metadata, rather than
+      // copying the content into a hasher
+      long content = DIGEST.hashBytes(contentOf(documentId, revision)).asLong();
+      return DIGEST.newHasher()
+          .putInt(documentId)
+          .putString(VIEW_URL, StandardCharsets.UTF_8)
+          .putLong(content)
+          .hash()
+          .asLong();
+    }
+
+    /**
+     * Returns a hash of the item's metadata. For the generated documents,
+     * this is the cached digest of the document's metadata and content. A
+     * fast non-cryptographic hash is enough, as it is only compared against
+     * earlier hashes of the same document.
+     *
+     * @param documents  generation of the documents to read
      * @param documentId document to get hash value of
      * @return Hash value of the document
      */
-    private String calculateMetadataHash(int documentId) {
-      long timestamp = this.documents.get(documentId);
-      return Long.toHexString(timestamp);
+    private String calculateMetadataHash(SnapshotStore.Snapshot documents, int documentId) {
+      return Long.toHexString(documents.digest(documentId));
     }
 
     // [START cloud_search_content_sdk_skip_indexing]
@@ -374,6 +777,26 @@ public class ListTraversalSample {
     }
     // [END cloud_search_content_sdk_skip_indexing]
 
+    /**
+     * Records the state of an item acknowledged as not modified, so
+     * future traversals don't need to push it.
+     *
+     * @param item        Polled item
+     * @param currentHash Metadata hash of the document
+     */
+    private void recordState(Item item, String currentHash) {
+      if (itemStates == null) {
+        return;
+      }
+      byte[] version = item.decodeVersion();
+      try {
+        itemStates.put(item.getName(), currentHash,
+            version != null && version.length == Longs.BYTES ? Longs.fromByteArray(version) : 0);
+      } catch (IOException e) {
+        log.warning(() -> String.format("Unable to record state of %s: %s", item.getName(), e));
+      }
+    }
+
     /**
      * Simulate changes to the repository by randomly mutate the documents. A
      * subset of documents will be either deleted or modified during traversals
@@ -382,33 +805,91 @@ public class ListTraversalSample {
     private void mutate() {
       log.info("Mutating repository.");
 
-      Random r = new Random();
-      Map<Integer, Long> newDocuments = new HashMap<>();
+      long revision = revisionBase + ++traversal;
+      IntLongTable documents = snapshots.current();
+      IntLongTable digests = snapshots.currentDigests();
+      if (changes != null && changes.end() - changes.start() > maxJournalEntries) {
+        // The full traversal about to run covers everything journaled so far
+        log.info("Compacting change journal");
+        changes.compact();
+      }
+      workload.startMutation(traversal, documents.size(), lastDocumentId);
+      if (documents.size() > 0) {
+        this.numberOfDocuments = workload.nextDocumentCount(this.numberOfDocuments);
+      }
+      IntLongTable newDocuments = snapshots.startGeneration(this.numberOfDocuments);
+      IntLongTable newDigests = snapshots.nextDigests();
 
-      for (int key : this.documents.keySet()) {
-        switch (r.nextInt(3)) {
-          case 0:
+      documents.forEach((key, previous) -> {
+        switch (workload.change(key)) {
+          case KEEP:
             // Leave document unchanged.
-            newDocuments.put(key, this.documents.get(key));
+            newDocuments.put(key, previous);
+            newDigests.put(key, digests.get(key, 0));
             break;
-          case 1:
+          case MODIFY:
             // Mark it as modified
-            newDocuments.put(key, System.currentTimeMillis());
+            newDocuments.put(key, revision);
+            newDigests.put(key, digestOf(key, revision));
             break;
           default:
             // Delete the document (omit from map)
         }
-      }
+      });
 
       // Create new documents
       int newDocumentCount = this.numberOfDocuments - newDocuments.size();
       for (int i = 0; i < newDocumentCount; ++i) {
         int id = ++lastDocumentId;
-        newDocuments.put(id, System.currentTimeMillis());
+        newDocuments.put(id, revision);
+        newDigests.put(id, digestOf(id, revision));
+      }
+
+      // Publish the new document set; readers still on the old one finish
+      // with it undisturbed
+      snapshots.publish();
+      if (changes != null) {
+        journalChanges(documents, digests, newDocuments, newDigests);
       }
+    }
 
-      // Swap out document set
-      this.documents = newDocuments;
+    /**
+     * Appends the differences between two generations of the documents to
+     * the change journal. Called once the new generation is published, so
+     * readers of the journal find the documents it refers to.
+     *
+     * Documents whose content digest didn't change are left out.
+     *
+     * @param previous        document revisions before the mutation
+     * @param previousDigests content digests before the mutation
+     * @param current         document revisions after the mutation
+     * @param currentDigests  content digests after the mutation
+     */
+    private void journalChanges(IntLongTable previous, IntLongTable previousDigests,
+        IntLongTable current, IntLongTable currentDigests) {
+      try {
+        for (int slot = previous.next(0); slot >= 0; slot = previous.next(slot + 1)) {
+          int documentId = previous.keyAt(slot);
+          long revision = current.get(documentId, 0);
+          if (revision == 0) {
+            changes.append(documentId, ChangeJournal.Change.DELETED, previous.valueAt(slot));
+          } else if (revision != previous.valueAt(slot)
+              && currentDigests.get(documentId, 0) != previousDigests.get(documentId, 0)) {
+            changes.append(documentId, ChangeJournal.Change.MODIFIED, revision);
+          }
+        }
+        for (int slot = current.next(0); slot >= 0; slot = current.next(slot + 1)) {
+          int documentId = current.keyAt(slot);
+          if (!previous.containsKey(documentId)) {
+            changes.append(documentId, ChangeJournal.Change.ADDED, current.valueAt(slot));
+          }
+        }
+        changes.commit();
+      } catch (IOException e) {
+        // Nothing is lost, the full traversal pushes all documents anyway
+        changes.discard();
+        log.warning(() -> String.format("Unable to journal changes: %s", e));
+      }
     }
   }
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import com.google.enterprise.cloudsearch.sdk.InvalidConfigurationException;
+import com.google.enterprise.cloudsearch.sdk.config.Configuration;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Configurable, seeded workload of skewed changes and bursty deletes.
+ * <p>
+ * Most documents stay stable while a hot set changes often: each
+ * document gets a popularity rank from its ID, and its chance of being
+ * modified follows a Zipf distribution over the ranks. On top of a
+ * steady delete rate, a traversal occasionally deletes a whole range of
+ * IDs at once. The repository can grow by a fixed rate per traversal,
+ * and document sizes follow a log-normal distribution.
+ * <p>
+ * Each choice is derived from the seed, the traversal number and the
+ * document ID, not from the order documents are visited in, so the same
+ * seed and configuration replay the same sequence of changes. With the
+ * defaults
+ * the workload matches the original sample: a third of the documents are
+ * kept, a third modified and a third deleted, uniformly.
+ */
+class SkewedWorkload implements Workload {
+  private static final Logger log = Logger.getLogger(SkewedWorkload.class.getName());
+
+  /**
+   * Largest generated document
+   */
+  private static final int MAX_DOCUMENT_BYTES = 10 * 1024 * 1024;
+
+  /**
+   * Number of ranks below which the Zipf normalization is summed exactly
+   */
+  private static final int EXACT_SUM_LIMIT = 10000;
+
+  private final long seed;
+  private final double changeRate;
+  private final double deleteRate;
+  private final double skew;
+  private final double burstProbability;
+  private final double burstFraction;
+  private final double growthRate;
+  private final int meanDocumentBytes;
+  private final double sizeSigma;
+
+  private long traversal;
+  private int documentCount;
+  private double modifyScale;
+  private int burstStart;
+  private int burstEnd;
+
+  /**
+   * Creates a workload.
+   *
+   * @param seed              seed of all random choices
+   * @param changeRate        fraction of documents modified per traversal
+   * @param deleteRate        fraction of documents deleted per traversal
+   * @param skew              Zipf exponent of the modifications, 0 for uniform
+   * @param burstProbability  chance of a traversal having a delete burst
+   * @param burstFraction     fraction of the ID range a burst deletes
+   * @param growthRate        fraction the document count grows per traversal
+   * @param meanDocumentBytes mean content size, 0 for the default short text
+   * @param sizeSigma         spread of the log-normal content sizes
+   */
+  SkewedWorkload(long seed, double changeRate, double deleteRate, double skew,
+      double burstProbability, double burstFraction, double growthRate,
+      int meanDocumentBytes, double sizeSigma) {
+    this.seed = seed;
+    this.changeRate = changeRate;
+    this.deleteRate = deleteRate;
+    this.skew = skew;
+    this.burstProbability = burstProbability;
+    this.burstFraction = burstFraction;
+    this.growthRate = growthRate;
+    this.meanDocumentBytes = meanDocumentBytes;
+    this.sizeSigma = sizeSigma;
+  }
+
+  /**
+   * Creates a workload from the {@code sample.workload.*} configuration.
+   *
+   * @return the configured workload
+   * @throws InvalidConfigurationException if a value is out of range
+   */
+  static SkewedWorkload fromConfiguration() throws InvalidConfigurationException {
+    String configuredSeed = Configuration.getString("sample.workload.seed", "").get().trim();
+    long seed;
+    if (configuredSeed.isEmpty()) {
+      long randomSeed = new Random().nextLong();
+      log.info(() -> String.format("Using workload seed %d", randomSeed));
+      seed = randomSeed;
+    } else {
+      try {
+        seed = Long.parseLong(configuredSeed);
+      } catch (NumberFormatException e) {
+        throw new InvalidConfigurationException(
+            "Invalid sample.workload.seed: " + configuredSeed, e);
+      }
+    }
+    double changeRate = getFraction("sample.workload.changeRate", 1.0 / 3);
+    double deleteRate = getFraction("sample.workload.deleteRate", 1.0 / 3);
+    if (changeRate + deleteRate > 1) {
+      throw new InvalidConfigurationException(
+          "sample.workload.changeRate and sample.workload.deleteRate add up to more than 1");
+    }
+    double skew = getDouble("sample.workload.skew", 0);
+    double burstProbability = getFraction("sample.workload.deleteBurstProbability", 0);
+    double burstFraction = getFraction("sample.workload.deleteBurstFraction", 0.1);
+    double growthRate = getDouble("sample.workload.growthRate", 0);
+    int meanDocumentBytes =
+        Configuration.getInteger("sample.workload.meanDocumentBytes", 0).get();
+    double sizeSigma = getDouble("sample.workload.documentBytesSigma", 1);
+    if (skew < 0 || growthRate < 0 || sizeSigma < 0 || meanDocumentBytes < 0) {
+      throw new InvalidConfigurationException("sample.workload.skew, growthRate, "
+          + "meanDocumentBytes and documentBytesSigma can't be negative");
+    }
+    return new SkewedWorkload(seed, changeRate, deleteRate, skew, burstProbability,
+        burstFraction, growthRate, meanDocumentBytes, sizeSigma);
+  }
+
+  @Override
+  public void startMutation(long traversal, int documentCount, int lastDocumentId) {
+    this.traversal = traversal;
+    this.documentCount = Math.max(documentCount, 1);
+    // Scale the Zipf weights so the expected number of modified documents
+    // among those not deleted matches the change rate
+    modifyScale = deleteRate >= 1 ? 0
+        : modifyScale(Math.min(1, changeRate / (1 - deleteRate)) * this.documentCount);
+    burstStart = 0;
+    burstEnd = 0;
+    Random bursts = new Random(mix(seed ^ mix(traversal)));
+    if (lastDocumentId > 0 && bursts.nextDouble() < burstProbability) {
+      int span = (int) Math.max(1, Math.round(burstFraction * lastDocumentId));
+      burstStart = 1 + bursts.nextInt(Math.max(1, lastDocumentId - span + 1));
+      burstEnd = burstStart + span;
+      log.info(() -> String.format("Deleting burst of documents %d to %d",
+          burstStart, burstEnd - 1));
+    }
+  }
+
+  @Override
+  public Change change(int documentId) {
+    if (documentId >= burstStart && documentId < burstEnd) {
+      return Change.DELETE;
+    }
+    // Two independent draws for the document in this traversal
+    long draw = mix(seed ^ mix(traversal ^ mix(documentId)));
+    if (uniform(draw) < deleteRate) {
+      return Change.DELETE;
+    }
+    double weight = skew == 0 ? 1 : Math.pow(rankOf(documentId), -skew);
+    return uniform(mix(draw)) < modifyScale * weight ? Change.MODIFY : Change.KEEP;
+  }
+
+  @Override
+  public int nextDocumentCount(int documentCount) {
+    long grown = Math.round(documentCount * (1 + growthRate));
+    return (int) Math.min(grown, Integer.MAX_VALUE - 8);
+  }
+
+  @Override
+  public int documentBytes(int documentId, long version) {
+    if (meanDocumentBytes == 0) {
+      return 0;
+    }
+    // Seeded by the document version so sizes only change with the document
+    Random sizes = new Random(mix(seed ^ mix(((long) documentId << 32) ^ version)));
+    double mu = Math.log(meanDocumentBytes) - sizeSigma * sizeSigma / 2;
+    double size = Math.exp(mu + sizeSigma * sizes.nextGaussian());
+    return (int) Math.max(1, Math.min(size, MAX_DOCUMENT_BYTES));
+  }
+
+  /**
+   * Get a document's popularity rank, 1 being the hottest. Ranks are
+   * spread over documents by a hash of the ID, so hot documents aren't
+   * clustered by age.
+   */
+  private long rankOf(int documentId) {
+    return 1 + Math.floorMod(mix(seed + documentId), (long) documentCount);
+  }
+
+  /**
+   * Finds the factor turning Zipf weights into modification chances that
+   * add up to an expected number of modified documents. Chances are capped
+   * at 1, so with enough skew the hottest documents change every time and
+   * the factor is raised to make up for it.
+   */
+  private double modifyScale(double expected) {
+    double total = zipfSum(documentCount);
+    double low = expected / total;
+    double high = Math.max(low, 1);
+    while (expectedModified(high, total) < expected && high < Double.MAX_VALUE / 2) {
+      high *= 2;
+    }
+    for (int i = 0; i < 64 && high - low > low * 1e-6; i++) {
+      double middle = (low + high) / 2;
+      if (expectedModified(middle, total) < expected) {
+        low = middle;
+      } else {
+        high = middle;
+      }
+    }
+    return high;
+  }
+
+  /**
+   * Expected number of modified documents for a scale factor: ranks whose
+   * scaled weight reaches 1 always change, the rest by their weight.
+   */
+  private double expectedModified(double scale, double total) {
+    long certain = skew == 0 ? (scale >= 1 ? documentCount : 0)
+        : (long) Math.min(documentCount, Math.floor(Math.pow(scale, 1 / skew)));
+    return certain + scale * (total - zipfSum(certain));
+  }
+
+  /**
+   * Sum of the Zipf weights of ranks 1 to n, approximated with the
+   * Euler-Maclaurin formula for large n.
+   */
+  private double zipfSum(long n) {
+    if (n <= 0) {
+      return 0;
+    }
+    if (skew == 0) {
+      return n;
+    }
+    if (n <= EXACT_SUM_LIMIT) {
+      double sum = 0;
+      for (int rank = 1; rank <= n; rank++) {
+        sum += Math.pow(rank, -skew);
+      }
+      return sum;
+    }
+    double integral = skew == 1 ? Math.log(n) : (Math.pow(n, 1 - skew) - 1) / (1 - skew);
+    return integral + (1 + Math.pow(n, -skew)) / 2 + skew * (1 - Math.pow(n, -skew - 1)) / 12;
+  }
+
+  private static double getFraction(String key, double defaultValue)
+      throws InvalidConfigurationException {
+    double value = getDouble(key, defaultValue);
+    if (value < 0 || value > 1) {
+      throw new InvalidConfigurationException(key + " must be between 0 and 1: " + value);
+    }
+    return value;
+  }
+
+  private static double getDouble(String key, double defaultValue)
+      throws InvalidConfigurationException {
+    String value = Configuration.getString(key, "").get().trim();
+    if (value.isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new InvalidConfigurationException("Invalid " + key + ": " + value, e);
+    }
+  }
+
+  /**
+   * Turns scrambled bits into a double uniformly distributed in [0, 1).
+   */
+  private static double uniform(long bits) {
+    return (bits >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Scrambles the bits of a value (the SplitMix64 finalizer).
+   */
+  private static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+    value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+    return value ^ (value >>> 31);
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generations of the document tables, read concurrently while the next
+ * generation is built. Each generation maps document IDs to their
+ * revision, and to the digest of that revision's content.
+ * <p>
+ * A single writer builds each generation in tables of its own and
+ * publishes it through a volatile field. Published tables are never
+ * modified again, so any number of readers can use one without locking.
+ * A reader pins the current generation for as long as it reads it; the
+ * writer only reuses a retired generation's arrays for a new one once no
+ * reader is left on it, and otherwise leaves it to the garbage collector.
+ * Pinning touches a striped counter, so readers don't contend with each
+ * other.
+ */
+final class SnapshotStore {
+  private volatile Generation current;
+
+  /**
+   * Previous generation, the candidate for reuse. Only used by the writer.
+   */
+  private Generation retired;
+
+  /**
+   * Tables of the generation being built. Only used by the writer.
+   */
+  private IntLongTable nextDocuments;
+  private IntLongTable nextDigests;
+
+  /**
+   * Creates a store whose first generation is empty.
+   */
+  SnapshotStore() {
+    current = new Generation(new IntLongTable(0), new IntLongTable(0), 0);
+  }
+
+  /**
+   * Pins the current generation for reading. The snapshot must be closed
+   * when done, and stays consistent until then.
+   *
+   * @return the current generation
+   */
+  Snapshot open() {
+    while (true) {
+      Generation generation = current;
+      generation.readers.increment();
+      if (!generation.reclaimed) {
+        return new Snapshot(generation);
+      }
+      // Raced with the writer reusing it, the current one is newer
+      generation.readers.decrement();
+    }
+  }
+
+  /**
+   * Get the document revisions of the current generation. For the writer
+   * only, which never modifies a published table.
+   */
+  IntLongTable current() {
+    return current.documents;
+  }
+
+  /**
+   * Get the content digests of the current generation. For the writer
+   * only.
+   */
+  IntLongTable currentDigests() {
+    return current.digests;
+  }
+
+  /**
+   * Get the number of the current generation.
+   */
+  long generation() {
+    return current.number;
+  }
+
+  /**
+   * Starts building the next generation. For the writer only.
+   *
+   * @param expectedSize number of documents the generation will hold
+   * @return an empty table of revisions to fill, along with the one from
+   *         {@link #nextDigests()}, before calling {@link #publish()}
+   */
+  IntLongTable startGeneration(int expectedSize) {
+    Generation previous = retired;
+    retired = null;
+    nextDocuments = null;
+    if (previous != null) {
+      // Flag first, then check: a reader that pins it after the check
+      // sees the flag and moves on to the current generation
+      previous.reclaimed = true;
+      if (previous.readers.sum() == 0) {
+        previous.documents.clear(expectedSize);
+        previous.digests.clear(expectedSize);
+        nextDocuments = previous.documents;
+        nextDigests = previous.digests;
+      }
+    }
+    if (nextDocuments == null) {
+      nextDocuments = new IntLongTable(expectedSize);
+      nextDigests = new IntLongTable(expectedSize);
+    }
+    return nextDocuments;
+  }
+
+  /**
+   * Get the empty table of content digests of the generation being built.
+   * For the writer only.
+   */
+  IntLongTable nextDigests() {
+    return nextDigests;
+  }
+
+  /**
+   * Makes the tables filled since {@link #startGeneration} the current
+   * generation. For the writer only.
+   */
+  void publish() {
+    Generation previous = current;
+    current = new Generation(nextDocuments, nextDigests, previous.number + 1);
+    retired = previous;
+    nextDocuments = null;
+    nextDigests = null;
+  }
+
+  /**
+   * A published generation.
+   */
+  private static final class Generation {
+    final IntLongTable documents;
+    final IntLongTable digests;
+    final long number;
+    final LongAdder readers = new LongAdder();
+    volatile boolean reclaimed;
+
+    Generation(IntLongTable documents, IntLongTable digests, long number) {
+      this.documents = documents;
+      this.digests = digests;
+      this.number = number;
+    }
+  }
+
+  /**
+   * Read access to one generation, open until closed.
+   */
+  static final class Snapshot implements AutoCloseable {
+    private final Generation generation;
+    private boolean closed;
+
+    private Snapshot(Generation generation) {
+      this.generation = generation;
+    }
+
+    /**
+     * Get the revision of a document.
+     *
+     * @param documentId   document to look up
+     * @param defaultValue value to return if the document doesn't exist
+     * @return revision of the document, or the default
+     */
+    long get(int documentId, long defaultValue) {
+      return generation.documents.get(documentId, defaultValue);
+    }
+
+    /**
+     * Get the digest of a document's metadata and content.
+     *
+     * @param documentId document to look up
+     * @return digest of the document, or 0 if it doesn't exist
+     */
+    long digest(int documentId) {
+      return generation.digests.get(documentId, 0);
+    }
+
+    /**
+     * Checks if a document exists in this generation.
+     */
+    boolean containsKey(int documentId) {
+      return generation.documents.containsKey(documentId);
+    }
+
+    /**
+     * Get the number of this generation.
+     */
+    long generation() {
+      return generation.number;
+    }
+
+    /**
+     * Unpins the generation.
+     */
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        generation.readers.decrement();
+      }
+    }
+  }
+}
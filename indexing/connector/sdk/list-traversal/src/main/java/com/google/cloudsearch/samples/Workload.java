@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+/**
+ * Model of how the sample repository's documents change between
+ * traversals.
+ * <p>
+ * Before each traversal the repository calls
+ * {@link #startMutation(long, int, int)}, then asks {@link #change(int)}
+ * for every existing document, then adds new documents until it holds
+ * {@link #nextDocumentCount(int)} of them. Documents are visited in no
+ * particular order, so decisions shouldn't depend on it.
+ */
+interface Workload {
+  /**
+   * What happens to a document in one mutation.
+   */
+  enum Change {
+    KEEP,
+    MODIFY,
+    DELETE
+  }
+
+  /**
+   * Prepares to mutate the repository.
+   *
+   * @param traversal      number of this mutation, counting from 1
+   * @param documentCount  number of documents in the repository
+   * @param lastDocumentId highest document ID handed out so far
+   */
+  void startMutation(long traversal, int documentCount, int lastDocumentId);
+
+  /**
+   * Decides what happens to an existing document in this mutation.
+   *
+   * @param documentId document ID
+   * @return change to apply
+   */
+  Change change(int documentId);
+
+  /**
+   * Get the number of documents the repository should hold after this
+   * mutation.
+   *
+   * @param documentCount number of documents configured or held before
+   * @return target number of documents
+   */
+  int nextDocumentCount(int documentCount);
+
+  /**
+   * Get the content size of a version of a document. The same document
+   * and version always get the same size.
+   *
+   * @param documentId document ID
+   * @param version    version of the document
+   * @return content size in bytes, 0 for the default short text
+   */
+  int documentBytes(int documentId, long version);
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import com.google.cloudsearch.samples.ChangeJournal.Change;
+import com.google.cloudsearch.samples.ChangeJournal.Entry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+@RunWith(JUnit4.class)
+public class ChangeJournalTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testReadAfterSequence() throws IOException {
+    try (ChangeJournal journal = ChangeJournal.open(journalPath())) {
+      for (int id = 1; id <= 10; id++) {
+        journal.append(id, Change.values()[id % 3], 100 + id);
+      }
+      journal.commit();
+
+      assertThat(journal.start()).isEqualTo(0L);
+      assertThat(journal.end()).isEqualTo(10L);
+      List<Entry> entries = journal.read(4, 3);
+      assertThat(entries).hasSize(3);
+      for (int i = 0; i < 3; i++) {
+        Entry entry = entries.get(i);
+        int id = 5 + i;
+        assertThat(entry.sequence).isEqualTo((long) 4 + i);
+        assertThat(entry.documentId).isEqualTo(id);
+        assertThat(entry.change).isEqualTo(Change.values()[id % 3]);
+        assertThat(entry.timestamp).isEqualTo((long) 100 + id);
+      }
+      assertThat(journal.read(8, 10)).hasSize(2);
+      assertThat(journal.read(10, 10)).isEmpty();
+    }
+  }
+
+  @Test
+  public void testUncommittedEntriesNotVisible() throws IOException {
+    try (ChangeJournal journal = ChangeJournal.open(journalPath())) {
+      journal.append(1, Change.ADDED, 1);
+      journal.commit();
+      journal.append(2, Change.ADDED, 1);
+      assertThat(journal.end()).isEqualTo(1L);
+      assertThat(journal.read(0, 10)).hasSize(1);
+
+      journal.discard();
+      journal.append(3, Change.ADDED, 1);
+      journal.commit();
+      List<Entry> entries = journal.read(0, 10);
+      assertThat(entries).hasSize(2);
+      assertThat(entries.get(1).sequence).isEqualTo(1L);
+      assertThat(entries.get(1).documentId).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void testCompactKeepsSequences() throws IOException {
+    try (ChangeJournal journal = ChangeJournal.open(journalPath())) {
+      for (int id = 1; id <= 5; id++) {
+        journal.append(id, Change.MODIFIED, id);
+      }
+      journal.commit();
+      journal.compact();
+      assertThat(journal.start()).isEqualTo(5L);
+      assertThat(journal.end()).isEqualTo(5L);
+      assertThat(journal.read(0, 10)).isEmpty();
+
+      journal.append(6, Change.DELETED, 6);
+      journal.commit();
+      // Readers behind the start are moved up to it
+      List<Entry> entries = journal.read(2, 10);
+      assertThat(entries).hasSize(1);
+      assertThat(entries.get(0).sequence).isEqualTo(5L);
+      assertThat(entries.get(0).documentId).isEqualTo(6);
+      assertThat(entries.get(0).change).isEqualTo(Change.DELETED);
+    }
+  }
+
+  @Test
+  public void testCompactWithUncommittedEntriesFails() throws IOException {
+    try (ChangeJournal journal = ChangeJournal.open(journalPath())) {
+      journal.append(1, Change.ADDED, 1);
+      assertThrows(IllegalStateException.class, journal::compact);
+    }
+  }
+
+  @Test
+  public void testReopenKeepsCommittedEntries() throws IOException {
+    Path path = journalPath();
+    try (ChangeJournal journal = ChangeJournal.open(path)) {
+      for (int id = 1; id <= 4; id++) {
+        journal.append(id, Change.ADDED, id);
+      }
+      journal.commit();
+      journal.compact();
+      journal.append(5, Change.MODIFIED, 50);
+      journal.commit();
+    }
+    try (ChangeJournal journal = ChangeJournal.open(path)) {
+      assertThat(journal.start()).isEqualTo(4L);
+      assertThat(journal.end()).isEqualTo(5L);
+      List<Entry> entries = journal.read(0, 10);
+      assertThat(entries).hasSize(1);
+      assertThat(entries.get(0).documentId).isEqualTo(5);
+      assertThat(entries.get(0).timestamp).isEqualTo(50L);
+    }
+  }
+
+  @Test
+  public void testReopenAfterPartiallyWrittenEntry() throws IOException {
+    Path path = journalPath();
+    try (ChangeJournal journal = ChangeJournal.open(path)) {
+      journal.append(1, Change.ADDED, 10);
+      journal.commit();
+      // Closed before this one is committed
+      journal.append(2, Change.ADDED, 20);
+    }
+    // Half of the next entry made it to disk before a crash
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {-1, -1, -1, -1, -1, -1, -1, -1}), 64 + 2 * 16);
+    }
+    try (ChangeJournal journal = ChangeJournal.open(path)) {
+      assertThat(journal.end()).isEqualTo(1L);
+      List<Entry> entries = journal.read(0, 10);
+      assertThat(entries).hasSize(1);
+      assertThat(entries.get(0).documentId).isEqualTo(1);
+
+      // New entries take the place of the lost ones
+      journal.append(3, Change.DELETED, 30);
+      journal.append(4, Change.ADDED, 40);
+      journal.commit();
+      entries = journal.read(1, 10);
+      assertThat(entries).hasSize(2);
+      assertThat(entries.get(0).documentId).isEqualTo(3);
+      assertThat(entries.get(1).documentId).isEqualTo(4);
+      assertThat(entries.get(1).change).isEqualTo(Change.ADDED);
+    }
+  }
+
+  @Test
+  public void testOpenOtherFileFails() throws IOException {
+    Path path = journalPath();
+    Files.write(path, new byte[128]);
+    assertThrows(IOException.class, () -> ChangeJournal.open(path));
+  }
+
+  private Path journalPath() {
+    return temporaryFolder.getRoot().toPath().resolve("changes.journal");
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the throughput of the content digest the sample computes for
+ * each added or modified document, in GB of content per second, with
+ * SHA-256 for comparison.
+ * <p>
+ * Content is generated like the sample's documents, a short text repeated
+ * to the requested size. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.samples.ContentDigestBenchmark \
+ *     -Dexec.args="3 1024 65536 1048576"
+ * </pre>
+ * The first argument is the seconds to measure each combination, the
+ * others are document sizes in bytes.
+ */
+public class ContentDigestBenchmark {
+  private static final long MIN_BYTES_PER_SIZE = 64L << 20;
+
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      args = new String[] {"3", "1024", "65536", "1048576"};
+    }
+    double seconds = Double.parseDouble(args[0]);
+    for (int i = 1; i < args.length; i++) {
+      byte[][] documents = documents(Integer.parseInt(args[i]));
+      run("farmHashFingerprint64", Hashing.farmHashFingerprint64(), documents, seconds);
+      run("sha256", Hashing.sha256(), documents, seconds);
+    }
+  }
+
+  private static void run(String name, HashFunction digest, byte[][] documents,
+      double seconds) {
+    // Warm up, then measure whole passes over the documents
+    hashAll(digest, documents);
+    long sink = 0;
+    long bytes = 0;
+    long start = System.nanoTime();
+    long deadline = start + (long) (seconds * 1e9);
+    do {
+      sink += hashAll(digest, documents);
+      bytes += (long) documents.length * documents[0].length;
+    } while (System.nanoTime() < deadline);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-22s %8d bytes: %6.2f GB/s, %10.0f documents per second (%x)%n",
+        name, documents[0].length, bytes / elapsed / 1e9,
+        bytes / documents[0].length / elapsed, sink & 0xf);
+  }
+
+  private static long hashAll(HashFunction digest, byte[][] documents) {
+    long sink = 0;
+    for (byte[] document : documents) {
+      sink += digest.hashBytes(document).asLong();
+    }
+    return sink;
+  }
+
+  /**
+   * Generates distinct documents of one size, enough of them that a pass
+   * reads well past the CPU caches.
+   */
+  private static byte[][] documents(int size) {
+    int count = (int) Math.max(1, Math.min(100_000, MIN_BYTES_PER_SIZE / size));
+    byte[][] documents = new byte[count][];
+    for (int id = 0; id < count; id++) {
+      byte[] text = String.format("Hello world from sample doc %d, revision %d", id, 1)
+          .getBytes(StandardCharsets.US_ASCII);
+      byte[] content = new byte[size];
+      for (int i = 0; i < size; i += text.length + 1) {
+        System.arraycopy(text, 0, content, i, Math.min(text.length, size - i));
+        if (i + text.length < size) {
+          content[i + text.length] = '\n';
+        }
+      }
+      documents[id] = content;
+    }
+    return documents;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the heap used by an {@link IntLongTable} holding the sample's
+ * documents, against a boxed {@code HashMap}, and the throughput of the
+ * double-buffered mutation the sample runs before each traversal.
+ * <p>
+ * Each mutation keeps a third of the documents, modifies a third and
+ * deletes a third, then adds new documents back up to the same count,
+ * like the default workload. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.samples.IntLongTableBenchmark \
+ *     -Dexec.args="10000000 100000000"
+ * </pre>
+ * Each argument is a document count to measure. The {@code HashMap} is
+ * only measured up to {@value #MAX_HASH_MAP_DOCUMENTS} documents; 100
+ * million documents need about 4 GB of heap for the two tables, for
+ * example {@code MAVEN_OPTS=-Xmx6g}.
+ */
+public class IntLongTableBenchmark {
+  private static final int MAX_HASH_MAP_DOCUMENTS = 20_000_000;
+  private static final int MUTATIONS = 5;
+
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      args = new String[] {"10000000"};
+    }
+    for (String arg : args) {
+      run(Integer.parseInt(arg));
+    }
+  }
+
+  private static void run(int documents) {
+    System.out.printf("%d documents%n", documents);
+    long before = usedHeap();
+    IntLongTable current = new IntLongTable(documents);
+    for (int id = 1; id <= documents; id++) {
+      current.put(id, 1);
+    }
+    long tableBytes = usedHeap() - before;
+    System.out.printf("  IntLongTable: %d MB, %.1f bytes per document%n", tableBytes >> 20,
+        (double) tableBytes / documents);
+
+    if (documents <= MAX_HASH_MAP_DOCUMENTS) {
+      before = usedHeap();
+      Map<Integer, Long> map = new HashMap<>();
+      for (int id = 1; id <= documents; id++) {
+        map.put(id, (long) id);
+      }
+      long mapBytes = usedHeap() - before;
+      System.out.printf("  HashMap: %d MB, %.1f bytes per document (%d entries)%n",
+          mapBytes >> 20, (double) mapBytes / documents, map.size());
+    }
+
+    // The first mutation allocates the second buffer, later ones reuse it
+    IntLongTable next = new IntLongTable(documents);
+    int lastId = documents;
+    for (int mutation = 1; mutation <= MUTATIONS; mutation++) {
+      long start = System.nanoTime();
+      next.clear(documents);
+      lastId = mutate(current, next, mutation + 1, lastId, documents);
+      IntLongTable swap = current;
+      current = next;
+      next = swap;
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("  Mutation %d: %.2f s, %.1fM documents per second%n", mutation,
+          seconds, documents / seconds / 1e6);
+    }
+  }
+
+  /**
+   * Fills the next table from the current one, then tops it up with new
+   * documents.
+   *
+   * @return the highest document ID handed out
+   */
+  private static int mutate(IntLongTable current, IntLongTable next, long revision,
+      int lastId, int documents) {
+    current.forEach((id, previous) -> {
+      // A cheap stand-in for the workload's per-document hash
+      switch ((int) (Integer.toUnsignedLong(id * 0x9E3779B9) % 3)) {
+        case 0:
+          next.put(id, previous);
+          break;
+        case 1:
+          next.put(id, revision);
+          break;
+        default:
+          // Deleted
+      }
+    });
+    while (next.size() < documents) {
+      next.put(++lastId, revision);
+    }
+    return lastId;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
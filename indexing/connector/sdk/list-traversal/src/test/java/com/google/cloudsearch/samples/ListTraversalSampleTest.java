@@ -0,0 +1,267 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import com.google.cloudsearch.samples.ListTraversalSample.SampleRepository;
+import com.google.common.primitives.Ints;
+import com.google.enterprise.cloudsearch.sdk.CheckpointCloseableIterable;
+import com.google.enterprise.cloudsearch.sdk.config.Configuration;
+import com.google.enterprise.cloudsearch.sdk.config.Configuration.ResetConfigRule;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperation;
+import com.google.enterprise.cloudsearch.sdk.indexing.template.ApiOperations;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class ListTraversalSampleTest {
+  private static final int DOCUMENTS = 10;
+  private static final int BATCHES_PER_CHECKPOINT = 3;
+
+  @Rule public ResetConfigRule resetConfig = new ResetConfigRule();
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testCheckpointsCoverAllDocuments() throws Exception {
+    setUpConfig(DOCUMENTS);
+    SampleRepository repository = newRepository();
+
+    List<ApiOperation> pushed = new ArrayList<>();
+    List<Integer> checkpoints = new ArrayList<>();
+    byte[] checkpoint = null;
+    boolean hasMore;
+    do {
+      CheckpointCloseableIterable<ApiOperation> ids = repository.getIds(checkpoint);
+      pushed.addAll(drain(ids.iterator(), Integer.MAX_VALUE));
+      checkpoint = ids.getCheckpoint();
+      hasMore = ids.hasMore();
+      checkpoints.add(Ints.fromByteArray(checkpoint));
+    } while (hasMore);
+
+    // One document per batch, so each call covers three documents, and the
+    // last call returns the fourth
+    assertThat(checkpoints).hasSize(4);
+    assertThat(checkpoints.subList(0, 3)).doesNotContain(SampleRepository.TRAVERSAL_DONE);
+    assertThat(checkpoints.get(3)).isEqualTo(SampleRepository.TRAVERSAL_DONE);
+    assertThat(pushed).hasSize(DOCUMENTS);
+    assertThat(new HashSet<>(pushed)).hasSize(DOCUMENTS);
+  }
+
+  @Test
+  public void testLastFullCallEndsTraversal() throws Exception {
+    setUpConfig(2 * BATCHES_PER_CHECKPOINT);
+    SampleRepository repository = newRepository();
+
+    CheckpointCloseableIterable<ApiOperation> first = repository.getIds(null);
+    assertThat(drain(first.iterator(), Integer.MAX_VALUE)).hasSize(BATCHES_PER_CHECKPOINT);
+    assertThat(first.hasMore()).isTrue();
+    CheckpointCloseableIterable<ApiOperation> second =
+        repository.getIds(first.getCheckpoint());
+    assertThat(drain(second.iterator(), Integer.MAX_VALUE)).hasSize(BATCHES_PER_CHECKPOINT);
+    // No empty call after the documents run out exactly at a checkpoint
+    assertThat(second.hasMore()).isFalse();
+    assertThat(Ints.fromByteArray(second.getCheckpoint()))
+        .isEqualTo(SampleRepository.TRAVERSAL_DONE);
+  }
+
+  @Test
+  public void testResumeAfterInterruptionCoversEveryDocumentOnce() throws Exception {
+    setUpConfig(DOCUMENTS);
+    List<ApiOperation> expected = new ArrayList<>();
+    SampleRepository uninterrupted = newRepository();
+    byte[] checkpoint = null;
+    CheckpointCloseableIterable<ApiOperation> ids;
+    do {
+      ids = uninterrupted.getIds(checkpoint);
+      expected.addAll(drain(ids.iterator(), Integer.MAX_VALUE));
+      checkpoint = ids.getCheckpoint();
+    } while (ids.hasMore());
+
+    for (int completedCalls = 0; completedCalls < 4; completedCalls++) {
+      for (int interruptedAfter = 0; interruptedAfter < BATCHES_PER_CHECKPOINT;
+          interruptedAfter++) {
+        SampleRepository repository = newRepository();
+        List<ApiOperation> pushed = new ArrayList<>();
+        checkpoint = null;
+        for (int call = 0; call < completedCalls; call++) {
+          ids = repository.getIds(checkpoint);
+          pushed.addAll(drain(ids.iterator(), Integer.MAX_VALUE));
+          checkpoint = ids.getCheckpoint();
+          if (!ids.hasMore()) {
+            checkpoint = null;
+            break;
+          }
+        }
+        if (completedCalls > 0 && checkpoint == null) {
+          // Traversal already complete
+          continue;
+        }
+        // The checkpoint is only saved once a call completes, so the
+        // batches pushed by an interrupted call are pushed again
+        drain(repository.getIds(checkpoint).iterator(), interruptedAfter);
+        do {
+          ids = repository.getIds(checkpoint);
+          pushed.addAll(drain(ids.iterator(), Integer.MAX_VALUE));
+          checkpoint = ids.getCheckpoint();
+        } while (ids.hasMore());
+
+        assertThat(pushed).containsExactlyElementsIn(expected).inOrder();
+      }
+    }
+  }
+
+  @Test
+  public void testResumeAfterRestartStartsNewTraversal() throws Exception {
+    setUpConfig(DOCUMENTS);
+    SampleRepository repository = newRepository();
+    CheckpointCloseableIterable<ApiOperation> first = repository.getIds(null);
+    List<ApiOperation> firstPushed = drain(first.iterator(), Integer.MAX_VALUE);
+
+    // A restarted connector holds no documents the checkpoint could refer to
+    SampleRepository restarted = newRepository();
+    CheckpointCloseableIterable<ApiOperation> resumed =
+        restarted.getIds(first.getCheckpoint());
+    List<ApiOperation> pushed = drain(resumed.iterator(), Integer.MAX_VALUE);
+    assertThat(pushed).containsExactlyElementsIn(firstPushed).inOrder();
+    assertThat(Ints.fromByteArray(resumed.getCheckpoint()))
+        .isEqualTo(Ints.fromByteArray(first.getCheckpoint()));
+  }
+
+  @Test
+  public void testChangesSkipSupersededEntries() throws Exception {
+    Properties config = new Properties();
+    config.put("sample.documentCount", "4");
+    config.put("sample.changeJournal.path",
+        temporaryFolder.getRoot().toPath().resolve("changes.journal").toString());
+    Configuration.initConfig(config);
+    ScriptedWorkload workload = new ScriptedWorkload();
+    SampleRepository repository = new SampleRepository(workload);
+    repository.init(null);
+    try {
+      // Documents 1 to 4
+      drain(repository.getIds(null).iterator(), Integer.MAX_VALUE);
+      byte[] checkpoint = repository.getChanges(null).getCheckpoint();
+
+      // Document 1 modified, 2 deleted, 5 added
+      workload.script(4, 1, Workload.Change.MODIFY, 2, Workload.Change.DELETE);
+      drain(repository.getIds(null).iterator(), Integer.MAX_VALUE);
+      // Documents 1 and 5 deleted, superseding their earlier changes
+      workload.script(2, 1, Workload.Change.DELETE, 5, Workload.Change.DELETE);
+      drain(repository.getIds(null).iterator(), Integer.MAX_VALUE);
+
+      CheckpointCloseableIterable<ApiOperation> changes = repository.getChanges(checkpoint);
+      assertThat(drain(changes.iterator(), Integer.MAX_VALUE)).containsExactly(
+          ApiOperations.deleteItem("1"),
+          ApiOperations.deleteItem("2"),
+          ApiOperations.deleteItem("5"));
+      assertThat(changes.hasMore()).isFalse();
+    } finally {
+      repository.close();
+    }
+  }
+
+  private static void setUpConfig(int documents) {
+    Properties config = new Properties();
+    config.put("sample.documentCount", Integer.toString(documents));
+    config.put("sample.pushBatchSize", "1");
+    config.put("sample.pushBatchesPerCheckpoint", Integer.toString(BATCHES_PER_CHECKPOINT));
+    Configuration.initConfig(config);
+  }
+
+  private static SampleRepository newRepository() throws Exception {
+    SampleRepository repository = new SampleRepository(new KeepAllWorkload());
+    repository.init(null);
+    return repository;
+  }
+
+  private static List<ApiOperation> drain(Iterator<ApiOperation> operations, int limit) {
+    List<ApiOperation> drained = new ArrayList<>();
+    while (drained.size() < limit && operations.hasNext()) {
+      drained.add(operations.next());
+    }
+    return drained;
+  }
+
+  /**
+   * Workload applying given changes to given documents in the next
+   * mutation, and keeping all other documents.
+   */
+  private static class ScriptedWorkload extends KeepAllWorkload {
+    private final Map<Integer, Change> changes = new HashMap<>();
+    private int documentCount;
+
+    /**
+     * Sets the changes of the next mutation.
+     *
+     * @param documentCount number of documents after the mutation
+     * @param changes       pairs of document ID and change
+     */
+    void script(int documentCount, Object... changes) {
+      this.documentCount = documentCount;
+      this.changes.clear();
+      for (int i = 0; i < changes.length; i += 2) {
+        this.changes.put((Integer) changes[i], (Change) changes[i + 1]);
+      }
+    }
+
+    @Override
+    public Change change(int documentId) {
+      return changes.getOrDefault(documentId, Change.KEEP);
+    }
+
+    @Override
+    public int nextDocumentCount(int documentCount) {
+      return this.documentCount;
+    }
+  }
+
+  /**
+   * Workload keeping every document and its default content.
+   */
+  private static class KeepAllWorkload implements Workload {
+    @Override
+    public void startMutation(long traversal, int documentCount, int lastDocumentId) {
+    }
+
+    @Override
+    public Change change(int documentId) {
+      return Change.KEEP;
+    }
+
+    @Override
+    public int nextDocumentCount(int documentCount) {
+      return documentCount;
+    }
+
+    @Override
+    public int documentBytes(int documentId, long version) {
+      return 0;
+    }
+  }
+}
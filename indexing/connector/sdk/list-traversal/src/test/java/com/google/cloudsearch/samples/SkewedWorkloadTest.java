@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public class SkewedWorkloadTest {
+  private static final int DOCUMENTS = 1000;
+
+  @Test
+  public void testChangesIndependentOfVisitOrder() {
+    Workload.Change[] forward = new Workload.Change[DOCUMENTS + 1];
+    Workload forwardWorkload = workload(42);
+    forwardWorkload.startMutation(3, DOCUMENTS, DOCUMENTS);
+    for (int id = 1; id <= DOCUMENTS; id++) {
+      forward[id] = forwardWorkload.change(id);
+    }
+    Workload backwardWorkload = workload(42);
+    backwardWorkload.startMutation(3, DOCUMENTS, DOCUMENTS);
+    for (int id = DOCUMENTS; id >= 1; id--) {
+      assertThat(backwardWorkload.change(id)).isEqualTo(forward[id]);
+    }
+  }
+
+  @Test
+  public void testChangesDifferBetweenTraversals() {
+    Workload workload = workload(42);
+    workload.startMutation(1, DOCUMENTS, DOCUMENTS);
+    int same = 0;
+    Workload.Change[] first = new Workload.Change[DOCUMENTS + 1];
+    for (int id = 1; id <= DOCUMENTS; id++) {
+      first[id] = workload.change(id);
+    }
+    workload.startMutation(2, DOCUMENTS, DOCUMENTS);
+    for (int id = 1; id <= DOCUMENTS; id++) {
+      if (workload.change(id) == first[id]) {
+        same++;
+      }
+    }
+    // A third of the documents in each category, so about a third agree
+    assertThat(same > DOCUMENTS / 5 && same < DOCUMENTS / 2).isTrue();
+  }
+
+  @Test
+  public void testDefaultRates() {
+    Workload workload = workload(7);
+    workload.startMutation(1, DOCUMENTS * 10, DOCUMENTS * 10);
+    int[] counts = new int[Workload.Change.values().length];
+    for (int id = 1; id <= DOCUMENTS * 10; id++) {
+      counts[workload.change(id).ordinal()]++;
+    }
+    for (int count : counts) {
+      assertThat(count > DOCUMENTS * 3 && count < DOCUMENTS * 4).isTrue();
+    }
+  }
+
+  @Test
+  public void testDocumentBytesReproducible() {
+    SkewedWorkload first = new SkewedWorkload(5, 0.5, 0.1, 1, 0, 0.1, 0, 4096, 1);
+    SkewedWorkload second = new SkewedWorkload(5, 0.5, 0.1, 1, 0, 0.1, 0, 4096, 1);
+    for (int id = 1; id <= 100; id++) {
+      assertThat(second.documentBytes(id, 3)).isEqualTo(first.documentBytes(id, 3));
+    }
+  }
+
+  private static Workload workload(long seed) {
+    return new SkewedWorkload(seed, 1.0 / 3, 1.0 / 3, 0, 0, 0.1, 0, 0, 1);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloudsearch.samples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the read throughput of a {@link SnapshotStore} with a number
+ * of reader threads, with and without a writer publishing generations at
+ * the same time.
+ * <p>
+ * Readers do what {@code getDoc} does: pin the current generation, read
+ * a random document's revision and digest, and unpin it. The writer
+ * stores the generation number as every document's revision and digest,
+ * so readers also check that each snapshot they read is consistent. Run
+ * with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloudsearch.samples.SnapshotStoreBenchmark \
+ *     -Dexec.args="[documents [seconds [threads...]]]"
+ * </pre>
+ * The defaults are 1 million documents, 5 seconds per run and 1, 2, 4
+ * and 8 reader threads.
+ */
+public class SnapshotStoreBenchmark {
+  public static void main(String[] args) throws InterruptedException {
+    int documents = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int[] threadCounts = {1, 2, 4, 8};
+    if (args.length > 2) {
+      threadCounts = new int[args.length - 2];
+      for (int i = 2; i < args.length; i++) {
+        threadCounts[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+    SnapshotStore store = new SnapshotStore();
+    publish(store, documents);
+    System.out.printf("%d documents, %d cores%n", documents,
+        Runtime.getRuntime().availableProcessors());
+    // Warm up the JIT
+    run(store, documents, 1, 1, true);
+    for (int threads : threadCounts) {
+      run(store, documents, threads, seconds, false);
+      run(store, documents, threads, seconds, true);
+    }
+  }
+
+  private static void run(SnapshotStore store, int documents, int threads, int seconds,
+      boolean writing) throws InterruptedException {
+    AtomicBoolean stop = new AtomicBoolean();
+    LongAdder reads = new LongAdder();
+    LongAdder inconsistent = new LongAdder();
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Thread reader = new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long count = 0;
+        while (!stop.get()) {
+          int id = 1 + random.nextInt(documents);
+          try (SnapshotStore.Snapshot snapshot = store.open()) {
+            long generation = snapshot.generation();
+            if (snapshot.get(id, 0) != generation || snapshot.digest(id) != generation) {
+              inconsistent.increment();
+            }
+          }
+          count++;
+        }
+        reads.add(count);
+      });
+      readers.add(reader);
+    }
+    long firstGeneration = store.generation();
+    Thread writer = new Thread(() -> {
+      while (!stop.get()) {
+        publish(store, documents);
+      }
+    });
+    long start = System.nanoTime();
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    if (writing) {
+      writer.start();
+    }
+    TimeUnit.SECONDS.sleep(seconds);
+    stop.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    if (writing) {
+      writer.join();
+    }
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%d readers, %s: %.1fM reads per second (%.1fM per reader),"
+            + " %d generations published, %d inconsistent reads%n", threads,
+        writing ? "writer running" : "no writer", reads.sum() / elapsed / 1e6,
+        reads.sum() / elapsed / 1e6 / threads, store.generation() - firstGeneration,
+        inconsistent.sum());
+  }
+
+  /**
+   * Publishes a generation whose revisions and digests are all its
+   * generation number.
+   */
+  private static void publish(SnapshotStore store, int documents) {
+    long generation = store.generation() + 1;
+    IntLongTable revisions = store.startGeneration(documents);
+    IntLongTable digests = store.nextDigests();
+    for (int id = 1; id <= documents; id++) {
+      revisions.put(id, generation);
+      digests.put(id, generation);
+    }
+    store.publish();
+  }
+}